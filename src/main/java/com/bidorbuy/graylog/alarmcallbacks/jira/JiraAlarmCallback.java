@@ -27,22 +27,52 @@
 
 package com.bidorbuy.graylog.alarmcallbacks.jira;
 
+import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.*;
-
+import java.util.concurrent.Callable;
+
+import com.bidorbuy.graylog.alarmcallbacks.jira.alert.AlertSnapshot;
+import com.bidorbuy.graylog.alarmcallbacks.jira.client.Deadline;
+import com.bidorbuy.graylog.alarmcallbacks.jira.client.JiraCall;
+import com.bidorbuy.graylog.alarmcallbacks.jira.client.JiraConnection;
+import com.bidorbuy.graylog.alarmcallbacks.jira.client.RetryPolicy;
+import com.bidorbuy.graylog.alarmcallbacks.jira.dedup.DuplicateLookupStrategies;
+import com.bidorbuy.graylog.alarmcallbacks.jira.dedup.FingerprintStore;
+import com.bidorbuy.graylog.alarmcallbacks.jira.dedup.SimHashIndex;
+import com.bidorbuy.graylog.alarmcallbacks.jira.dispatch.DispatchScheduler;
+import com.bidorbuy.graylog.alarmcallbacks.jira.dispatch.JiraTarget;
+import com.bidorbuy.graylog.alarmcallbacks.jira.dispatch.Outbox;
+import com.bidorbuy.graylog.alarmcallbacks.jira.dispatch.TargetDispatcher;
+import com.bidorbuy.graylog.alarmcallbacks.jira.fingerprint.FieldTupleFingerprintStrategy;
+import com.bidorbuy.graylog.alarmcallbacks.jira.fingerprint.FingerprintStrategies;
+import com.bidorbuy.graylog.alarmcallbacks.jira.mapping.FieldMapping;
+import com.bidorbuy.graylog.alarmcallbacks.jira.mapping.FieldMappings;
+import com.bidorbuy.graylog.alarmcallbacks.jira.mapping.FieldSchema;
+import com.bidorbuy.graylog.alarmcallbacks.jira.storm.StormMode;
+import com.bidorbuy.graylog.alarmcallbacks.jira.util.JiraMetrics;
 import com.bidorbuy.graylog.alarmcallbacks.jira.util.JiraUtil;
+import com.codahale.metrics.MetricRegistry;
+import com.openenglish.util.StringUtil;
+import net.rcarz.jiraclient.JiraException;
+import net.rcarz.jiraclient.RestClient;
+import org.apache.commons.lang3.StringUtils;
 import org.graylog2.plugin.alarms.AlertCondition;
 import org.graylog2.plugin.alarms.callbacks.*;
 import org.graylog2.plugin.configuration.*;
 import org.graylog2.plugin.configuration.fields.ConfigurationField;
+import org.graylog2.plugin.configuration.fields.DropdownField;
 import org.graylog2.plugin.configuration.fields.TextField;
 import org.graylog2.plugin.streams.Stream;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.inject.Inject;
+
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Maps;
 
 public class JiraAlarmCallback implements AlarmCallback {
@@ -53,6 +83,7 @@ public class JiraAlarmCallback implements AlarmCallback {
     public static final String JIRA_INSTANCE_URL = "jira_instance_url";
     public static final String JIRA_USERNAME = "jira_username";
     public static final String JIRA_PASSWORD = "jira_password";
+    public static final String JIRA_AUTH_MODE = "jira_auth_mode";
     public static final String JIRA_PROJECT_KEY = "jira_project_key";
     public static final String JIRA_TITLE_TEMPLATE = "jira_title_template";
     public static final String JIRA_ISSUE_TYPE = "jira_issue_type";
@@ -61,20 +92,64 @@ public class JiraAlarmCallback implements AlarmCallback {
     public static final String JIRA_COMPONENTS = "jira_components";
     public static final String JIRA_MESSAGE_TEMPLATE = "jira_message_template";
     public static final String JIRA_MD5_HASH_PATTERN = "jira_md5_hash_pattern";
+    public static final String JIRA_FINGERPRINT_STRATEGY = "jira_fingerprint_strategy";
+    public static final String JIRA_FINGERPRINT_FIELDS = "jira_fingerprint_fields";
     public static final String JIRA_MD5_FILTER_QUERY = "jira_md5_filter_query";
+    public static final String JIRA_DUPLICATE_LOOKUP = "jira_duplicate_lookup";
+    public static final String JIRA_LOOKUP_BATCH_WINDOW = "jira_lookup_batch_window";
+    public static final String JIRA_SIMILARITY_DISTANCE = "jira_similarity_distance";
+    public static final String JIRA_CORRELATION_WINDOW = "jira_correlation_window";
+    public static final String JIRA_FINGERPRINT_STORE = "jira_fingerprint_store";
+    public static final String JIRA_FINGERPRINT_STORE_TTL = "jira_fingerprint_store_ttl";
+    public static final String JIRA_WEBHOOK_SECRET = "jira_webhook_secret";
+    public static final String JIRA_ADDITIONAL_TARGETS = "jira_additional_targets";
+    public static final String JIRA_TARGET_TIMEOUT = "jira_target_timeout";
+    public static final String JIRA_RETRY_ATTEMPTS = "jira_retry_attempts";
+    public static final String JIRA_STORM_THRESHOLD = "jira_storm_threshold";
+    public static final String JIRA_STORM_WINDOW = "jira_storm_window";
+    public static final String JIRA_DEADLINE = "jira_deadline";
+    public static final String JIRA_DEADLINE_FALLBACK = "jira_deadline_fallback";
+    public static final String JIRA_STREAM_WEIGHT = "jira_stream_weight";
+    public static final String JIRA_STREAM_IN_FLIGHT = "jira_stream_in_flight";
     public static final String JIRA_GRAYLOG_MESSAGE_FIELD_MAPPING = "jira_graylog_message_field_mapping";
 
     public static final String JIRA_MD5_CUSTOM_FIELD = "jira_md5_custom_field";
 
+    public static final String JIRA_DESCRIPTION_MAX_BYTES = "jira_description_max_bytes";
+    public static final String JIRA_PLACEHOLDER_MAX_BYTES = "jira_placeholder_max_bytes";
+    public static final String JIRA_TRUNCATE_HEAD_LINES = "jira_truncate_head_lines";
+    public static final String JIRA_TRUNCATE_TAIL_LINES = "jira_truncate_tail_lines";
+
     public static final String GRAYLOG_URL = "graylog_url";
     public static final String GRAYLOG_HISTOGRAM_TIME_SPAN = "graylog_histogram_time_span";
     public static final String MESSAGE_REGEX = "message_regex";
+    public static final String MESSAGE_REGEX_TIMEOUT = "message_regex_timeout";
+    public static final String MESSAGE_REGEX_MAX_INPUT_LENGTH = "message_regex_max_input_length";
 
     // Validation rules for config check
-    private static final List<String> SENSITIVE_CONFIGURATION_KEYS = ImmutableList.of(JIRA_PASSWORD);
+    private static final List<String> SENSITIVE_CONFIGURATION_KEYS = ImmutableList.of(JIRA_PASSWORD, JIRA_WEBHOOK_SECRET);
 
     private static final String[] CONFIGURATION_KEYS_MANDATORY = new String[]{JIRA_INSTANCE_URL, JIRA_USERNAME, JIRA_PASSWORD, JIRA_PROJECT_KEY, JIRA_ISSUE_TYPE};
     private static final String[] CONFIGURATION_KEYS_URL_VALIDATION = new String[]{JIRA_INSTANCE_URL, GRAYLOG_URL};
+    private static final String[] CONFIGURATION_KEYS_NUMBER_VALIDATION = new String[]{JIRA_DESCRIPTION_MAX_BYTES, JIRA_PLACEHOLDER_MAX_BYTES, JIRA_TRUNCATE_HEAD_LINES, JIRA_TRUNCATE_TAIL_LINES,
+            MESSAGE_REGEX_TIMEOUT, MESSAGE_REGEX_MAX_INPUT_LENGTH, JIRA_LOOKUP_BATCH_WINDOW, JIRA_SIMILARITY_DISTANCE,
+            JIRA_FINGERPRINT_STORE_TTL, JIRA_TARGET_TIMEOUT, JIRA_RETRY_ATTEMPTS,
+            JIRA_STORM_THRESHOLD, JIRA_STORM_WINDOW, JIRA_DEADLINE, JIRA_STREAM_WEIGHT, JIRA_STREAM_IN_FLIGHT,
+            JIRA_CORRELATION_WINDOW};
+
+    private static final Map<String, String> AUTH_MODES = ImmutableMap.of(
+            JiraConnection.AUTH_MODE_SESSION, "Session (username/password)",
+            JiraConnection.AUTH_MODE_TOKEN, "Personal access token (password field)",
+            JiraConnection.AUTH_MODE_BASIC, "Basic authentication on every request");
+
+    public static final String DEADLINE_FALLBACK_OUTBOX = "outbox";
+    public static final String DEADLINE_FALLBACK_LOG = "log";
+    public static final String DEADLINE_FALLBACK_DROP = "drop";
+
+    private static final Map<String, String> DEADLINE_FALLBACKS = ImmutableMap.of(
+            DEADLINE_FALLBACK_OUTBOX, "Retry in the background",
+            DEADLINE_FALLBACK_LOG, "Log the alert and fail",
+            DEADLINE_FALLBACK_DROP, "Drop the alert");
 
     // The message regex template used to extract content for an exception MD5
     public static final String EXAMPLE_JIRA_MESSAGE_REGEX = "([a-zA-Z_.]+(?!.*Exception): .+)";
@@ -92,9 +167,29 @@ public class JiraAlarmCallback implements AlarmCallback {
             "*Source:*\\n[LAST_MESSAGE.source]\\n\\n" +
             "*Message:*\\n[LAST_MESSAGE.message]\\n\\n";
 
+    // The size limits for the JIRA description - JIRA rejects text fields larger than 32767 characters
+    public static final int DEFAULT_JIRA_DESCRIPTION_MAX_BYTES = 32000;
+    public static final int DEFAULT_JIRA_PLACEHOLDER_MAX_BYTES = 16000;
+    public static final int DEFAULT_JIRA_TRUNCATE_HEAD_LINES = 40;
+    public static final int DEFAULT_JIRA_TRUNCATE_TAIL_LINES = 10;
+    public static final int DEFAULT_JIRA_LOOKUP_BATCH_WINDOW = 10;
+    public static final int DEFAULT_JIRA_FINGERPRINT_STORE_TTL = 60;
+    public static final int DEFAULT_JIRA_DEADLINE = 30;
+    public static final int DEFAULT_JIRA_STREAM_WEIGHT = 1;
+    public static final int DEFAULT_JIRA_STREAM_IN_FLIGHT = 4;
+    public static final int DEFAULT_JIRA_CORRELATION_WINDOW = 300;
+
     // The plugin configuration
     private Configuration configuration;
 
+    public JiraAlarmCallback() {
+    }
+
+    @Inject
+    public JiraAlarmCallback(final MetricRegistry metricRegistry) {
+        JiraMetrics.bind(metricRegistry);
+    }
+
     /**
      * This is called once at the very beginning of the lifecycle of this plugin. It is common practice to
      * store the Configuration as a private member for later access.
@@ -110,6 +205,31 @@ public class JiraAlarmCallback implements AlarmCallback {
         LOG.debug("Finishing initialize(...)");
     }
 
+    /**
+     * The configured JIRA project followed by the additional targets
+     */
+    private static List<JiraTarget> getTargets(Configuration configuration) {
+        JiraTarget primary = new JiraTarget(configuration.getString(JIRA_INSTANCE_URL), configuration.getString(JIRA_PROJECT_KEY),
+                configuration.getString(JIRA_MD5_CUSTOM_FIELD));
+
+        List<JiraTarget> targets = new ArrayList<>();
+        targets.add(primary);
+        targets.addAll(JiraTarget.parse(configuration.getString(JIRA_ADDITIONAL_TARGETS), primary));
+
+        return targets;
+    }
+
+    /**
+     * The fingerprint strategies found on the class path for the dropdown, by name
+     */
+    private static Map<String, String> getFingerprintStrategies() {
+        Map<String, String> strategies = new LinkedHashMap<>();
+        for (String name : FingerprintStrategies.names()) {
+            strategies.put(name, name);
+        }
+        return strategies;
+    }
+
     /**
      * Plugins can request configurations. The UI in the Graylog web interface is generated from this information and
      * the filled out configuration values are passed back to the plugin in initialize(Configuration configuration).
@@ -133,9 +253,14 @@ public class JiraAlarmCallback implements AlarmCallback {
                 ConfigurationField.Optional.NOT_OPTIONAL));
 
         configurationRequest.addField(new TextField(
-                JIRA_PASSWORD, "JIRA password", "", "Password to login to JIRA.",
+                JIRA_PASSWORD, "JIRA password", "", "Password (or personal access token) to login to JIRA.",
                 ConfigurationField.Optional.NOT_OPTIONAL, TextField.Attribute.IS_PASSWORD));
 
+        configurationRequest.addField(new DropdownField(
+                JIRA_AUTH_MODE, "JIRA authentication", JiraConnection.AUTH_MODE_SESSION, AUTH_MODES,
+                "How to authenticate with JIRA. A session is created once and renewed when it expires, basic authentication logs in on every request.",
+                ConfigurationField.Optional.OPTIONAL));
+
         configurationRequest.addField(new TextField(
                 JIRA_PROJECT_KEY, "JIRA project Key", "", "Project under which the issue will be created.",
                 ConfigurationField.Optional.NOT_OPTIONAL));
@@ -152,6 +277,22 @@ public class JiraAlarmCallback implements AlarmCallback {
                 JIRA_TITLE_TEMPLATE, "JIRA issue title template", DEFAULT_JIRA_TITLE_TEMPLATE, "Title template for JIRA tasks.",
                 ConfigurationField.Optional.NOT_OPTIONAL));
 
+        configurationRequest.addField(new TextField(
+                JIRA_DESCRIPTION_MAX_BYTES, "JIRA description size limit", String.valueOf(DEFAULT_JIRA_DESCRIPTION_MAX_BYTES), "Maximum size (in bytes) of the JIRA description. Leave empty for no limit.",
+                ConfigurationField.Optional.OPTIONAL));
+
+        configurationRequest.addField(new TextField(
+                JIRA_PLACEHOLDER_MAX_BYTES, "JIRA placeholder size limit", String.valueOf(DEFAULT_JIRA_PLACEHOLDER_MAX_BYTES), "Maximum size (in bytes) of a single placeholder value in the JIRA description.",
+                ConfigurationField.Optional.OPTIONAL));
+
+        configurationRequest.addField(new TextField(
+                JIRA_TRUNCATE_HEAD_LINES, "Truncated placeholder head lines", String.valueOf(DEFAULT_JIRA_TRUNCATE_HEAD_LINES), "Number of leading lines kept when a placeholder value is truncated.",
+                ConfigurationField.Optional.OPTIONAL));
+
+        configurationRequest.addField(new TextField(
+                JIRA_TRUNCATE_TAIL_LINES, "Truncated placeholder tail lines", String.valueOf(DEFAULT_JIRA_TRUNCATE_TAIL_LINES), "Number of trailing lines kept when a placeholder value is truncated.",
+                ConfigurationField.Optional.OPTIONAL));
+
         configurationRequest.addField(new TextField(
                 GRAYLOG_URL, "Graylog URL", null, "URL to your Graylog web interface. Used to build links in alarm notification.",
                 ConfigurationField.Optional.NOT_OPTIONAL));
@@ -164,6 +305,35 @@ public class JiraAlarmCallback implements AlarmCallback {
                 JIRA_PRIORITY, "JIRA Issue Priority", "Low", "Priority of the issue.",
                 ConfigurationField.Optional.OPTIONAL));
 
+        configurationRequest.addField(new TextField(
+                JIRA_ADDITIONAL_TARGETS, "JIRA additional targets", "", "Optional comma-separated list of further projects the alert is filed in, each with its own duplicate check. Either a project key or <url>|<project>[|<md5 custom field>] for another JIRA instance using the same credentials.",
+                ConfigurationField.Optional.OPTIONAL));
+
+        configurationRequest.addField(new TextField(
+                JIRA_TARGET_TIMEOUT, "JIRA target timeout", String.valueOf(TargetDispatcher.DEFAULT_TARGET_TIMEOUT_SECONDS), "Seconds to wait for each target when an alert is filed in several projects.",
+                ConfigurationField.Optional.OPTIONAL));
+
+        configurationRequest.addField(new TextField(
+                JIRA_RETRY_ATTEMPTS, "JIRA retry attempts", String.valueOf(RetryPolicy.DEFAULT_MAX_ATTEMPTS), "Attempts for each JIRA request failing with a connection error, timeout, HTTP 429 or 5xx. A failed create is only repeated if the issue can not be found.",
+                ConfigurationField.Optional.OPTIONAL));
+
+        configurationRequest.addField(new TextField(
+                JIRA_DEADLINE, "JIRA deadline", String.valueOf(DEFAULT_JIRA_DEADLINE), "Seconds an alert may take to reach JIRA, including retries. Each JIRA request only waits for what is left. Leave empty for no deadline.",
+                ConfigurationField.Optional.OPTIONAL));
+
+        configurationRequest.addField(new DropdownField(
+                JIRA_DEADLINE_FALLBACK, "JIRA deadline fallback", DEADLINE_FALLBACK_OUTBOX, DEADLINE_FALLBACKS,
+                "What happens to an alert which missed the deadline: retried in the background (outbox), logged with its title and MD5 (log) or dropped.",
+                ConfigurationField.Optional.OPTIONAL));
+
+        configurationRequest.addField(new TextField(
+                JIRA_STREAM_WEIGHT, "JIRA stream weight", String.valueOf(DEFAULT_JIRA_STREAM_WEIGHT), "Share of the JIRA connections this stream gets relative to other streams with the same JIRA priority while alerts have to wait. A stream with weight 2 is served twice as often as one with weight 1.",
+                ConfigurationField.Optional.OPTIONAL));
+
+        configurationRequest.addField(new TextField(
+                JIRA_STREAM_IN_FLIGHT, "JIRA stream in-flight limit", String.valueOf(DEFAULT_JIRA_STREAM_IN_FLIGHT), "Alerts of this stream which may be sent to a JIRA instance at the same time, further alerts wait. Leave empty for no limit.",
+                ConfigurationField.Optional.OPTIONAL));
+
         configurationRequest.addField(new TextField(
                 JIRA_LABELS, "JIRA Labels", "", "List of comma-separated labels to add to this issue - i.e. graylog",
                 ConfigurationField.Optional.OPTIONAL));
@@ -176,14 +346,67 @@ public class JiraAlarmCallback implements AlarmCallback {
                 MESSAGE_REGEX, "Message regex", "", "Message regex to extract message content. Example: " + EXAMPLE_JIRA_MESSAGE_REGEX,
                 ConfigurationField.Optional.OPTIONAL));
 
+        configurationRequest.addField(new TextField(
+                MESSAGE_REGEX_TIMEOUT, "Message regex timeout", String.valueOf(StringUtil.DEFAULT_REGEX_TIMEOUT_MILLIS), "Time budget (in milliseconds) for evaluating the message regex. The default title/MD5 is used if the regex takes longer.",
+                ConfigurationField.Optional.OPTIONAL));
+
+        configurationRequest.addField(new TextField(
+                MESSAGE_REGEX_MAX_INPUT_LENGTH, "Message regex input limit", String.valueOf(StringUtil.DEFAULT_REGEX_MAX_INPUT_LENGTH), "Only the first n characters of a message are evaluated by the message regex.",
+                ConfigurationField.Optional.OPTIONAL));
+
         configurationRequest.addField(new TextField(
                 JIRA_MD5_HASH_PATTERN, "JIRA MD5 pattern", "", "Pattern to construct MD5. Example: " + EXAMPLE_JIRA_MD5_TEMPLATE,
                 ConfigurationField.Optional.OPTIONAL));
 
+        configurationRequest.addField(new DropdownField(
+                JIRA_FINGERPRINT_STRATEGY, "JIRA fingerprint strategy", FingerprintStrategies.DEFAULT_STRATEGY, getFingerprintStrategies(),
+                "How the MD5 of an alert is built: pattern (the MD5 pattern or message regex), fields (the values of the fingerprint fields) or stacktrace (the exception classes and top frames of a Java stack trace, without line numbers).",
+                ConfigurationField.Optional.OPTIONAL));
+
+        configurationRequest.addField(new TextField(
+                JIRA_FINGERPRINT_FIELDS, "JIRA fingerprint fields", "", "Comma-separated list of message fields the fields fingerprint strategy builds the MD5 from - i.e. source,facility,error_code",
+                ConfigurationField.Optional.OPTIONAL));
+
         configurationRequest.addField(new TextField(
                 JIRA_MD5_CUSTOM_FIELD, "JIRA MD5 custom field", "", "Custom field name for the MD5 hash, this will be in the format of customfield_####. If not set, we will try and find it.",
                 ConfigurationField.Optional.OPTIONAL));
 
+        configurationRequest.addField(new TextField(
+                JIRA_DUPLICATE_LOOKUP, "JIRA duplicate lookup", DuplicateLookupStrategies.DEFAULT_LOOKUP, "Comma-separated list of strategies to find duplicate issues, tried in order: customfield (exact match on the MD5 custom field), label, property (indexed issue property), description (slow full-text scan).",
+                ConfigurationField.Optional.OPTIONAL));
+
+        configurationRequest.addField(new TextField(
+                JIRA_LOOKUP_BATCH_WINDOW, "JIRA duplicate lookup batch window", String.valueOf(DEFAULT_JIRA_LOOKUP_BATCH_WINDOW), "Milliseconds to wait for other alerts so their duplicate lookups are sent as one JIRA search. 0 disables batching.",
+                ConfigurationField.Optional.OPTIONAL));
+
+        configurationRequest.addField(new TextField(
+                JIRA_SIMILARITY_DISTANCE, "JIRA similarity distance", "", "Optional. Alerts whose MD5 text differs from a recent issue in at most this many of 64 SimHash bits (0-" + SimHashIndex.MAX_DISTANCE + ", 5 or 6 tolerate a changed word) are treated as duplicates of that issue.",
+                ConfigurationField.Optional.OPTIONAL));
+
+        configurationRequest.addField(new TextField(
+                JIRA_CORRELATION_WINDOW, "JIRA correlation window", String.valueOf(DEFAULT_JIRA_CORRELATION_WINDOW), "Optional. Seconds during which alerts of all streams with the same MD5 are filed to the issue of the first one without searching JIRA again. Further streams are listed on the issue in a comment. Leave empty to search for every alert.",
+                ConfigurationField.Optional.OPTIONAL));
+
+        configurationRequest.addField(new TextField(
+                JIRA_FINGERPRINT_STORE, "JIRA fingerprint store", "", "Optional. File which remembers the issue of each MD5 across restarts, so recent duplicates are found without searching JIRA. Example: /var/lib/graylog-server/jira-fingerprints.db",
+                ConfigurationField.Optional.OPTIONAL));
+
+        configurationRequest.addField(new TextField(
+                JIRA_FINGERPRINT_STORE_TTL, "JIRA fingerprint store TTL", String.valueOf(DEFAULT_JIRA_FINGERPRINT_STORE_TTL), "Minutes since JIRA last confirmed the issue of an MD5 after which JIRA is searched again, i.e. to notice closed issues.",
+                ConfigurationField.Optional.OPTIONAL));
+
+        configurationRequest.addField(new TextField(
+                JIRA_WEBHOOK_SECRET, "JIRA webhook secret", "", "Optional. Secret of the JIRA webhook which reports resolved, reopened, moved and deleted issues to Graylog, so the fingerprint store TTL can be long. Register /plugins/com.bidorbuy.graylog.alarmcallbacks.jira/webhook?secret=<secret> in JIRA.",
+                ConfigurationField.Optional.OPTIONAL, TextField.Attribute.IS_PASSWORD));
+
+        configurationRequest.addField(new TextField(
+                JIRA_STORM_THRESHOLD, "JIRA storm threshold", "", "Optional. Once this many new MD5s (alerts without an issue) occur in a project within the storm window, further new alerts are collected in one rolling storm digest issue until the rate drops below half.",
+                ConfigurationField.Optional.OPTIONAL));
+
+        configurationRequest.addField(new TextField(
+                JIRA_STORM_WINDOW, "JIRA storm window", String.valueOf(StormMode.DEFAULT_WINDOW_SECONDS), "Seconds over which new MD5s are counted for the storm threshold.",
+                ConfigurationField.Optional.OPTIONAL));
+
         configurationRequest.addField(new TextField(
                 JIRA_MD5_FILTER_QUERY, "JIRA duplicate filter query", "", "Additional filter query to check for duplicates. Example: " + EXAMPLE_JIRA_MD5_FILTER_QUERY_TEMPLATE,
                 ConfigurationField.Optional.OPTIONAL));
@@ -206,29 +429,144 @@ public class JiraAlarmCallback implements AlarmCallback {
     public void call(final Stream stream, final AlertCondition.CheckResult result) throws AlarmCallbackException {
         LOG.debug("Starting call(...)");
 
-        JiraIssueClient jiraIssueClient = new JiraIssueClient(
-                configuration.getString(JIRA_INSTANCE_URL),
-                configuration.getString(JIRA_USERNAME),
-                configuration.getString(JIRA_PASSWORD),
+        // the budget of the whole alert, each JIRA request only waits for what is left of it
+        final long deadlineMillis = JiraUtil.getIntSetting(configuration, JIRA_DEADLINE, 0) * 1000L;
+        Deadline deadline = Deadline.after(deadlineMillis);
+
+        // keep only what the templates need, the matching messages are not referenced beyond this point
+        AlertSnapshot snapshot = AlertSnapshot.of(configuration, stream, result);
+        String digestInput = JiraUtil.buildJIRAMessageDigestInput(configuration, snapshot);
+
+        // render and fingerprint once for all targets
+        final String title = JiraUtil.buildJIRATitle(configuration, snapshot);
+        final String description = JiraUtil.buildJIRADescription(configuration, snapshot);
+        final FieldMapping fieldMapping = FieldMapping.parse(configuration.getString(JIRA_GRAYLOG_MESSAGE_FIELD_MAPPING));
+        final Map<String, String> mapping = JiraUtil.buildJIRAGraylogMapping(configuration, snapshot);
+        final String messageDigest = JiraUtil.buildJIRAMessageDigest(digestInput);
+        final Long similarityHash = JiraUtil.buildJIRASimilarityHash(configuration, digestInput);
+
+        Map<JiraTarget, Callable<Void>> tasks = new LinkedHashMap<>();
+        Map<JiraTarget, Callable<Void>> deadlineTasks = new LinkedHashMap<>();
+
+        for (JiraTarget target : getTargets(configuration)) {
+            final JiraIssueClient jiraIssueClient = new JiraIssueClient(
+                    target.getJiraServerURL(),
+                    configuration.getString(JIRA_USERNAME),
+                    configuration.getString(JIRA_PASSWORD),
+                    configuration.getString(JIRA_AUTH_MODE),
+
+                    stream.getId(),
+                    stream.getTitle(),
+
+                    target.getProjectKey(),
+                    configuration.getString(JIRA_LABELS),
+                    configuration.getString(JIRA_ISSUE_TYPE),
+                    configuration.getString(JIRA_COMPONENTS),
+                    configuration.getString(JIRA_PRIORITY),
+                    configuration.getString(JIRA_MD5_FILTER_QUERY),
+                    target.getMd5CustomFieldName(),
+                    configuration.getString(JIRA_DUPLICATE_LOOKUP),
+                    JiraUtil.getIntSetting(configuration, JIRA_LOOKUP_BATCH_WINDOW, 0),
+                    JiraUtil.getIntSetting(configuration, JIRA_CORRELATION_WINDOW, 0),
+
+                    title,
+                    description,
+                    fieldMapping,
+                    mapping,
+                    messageDigest,
+                    similarityHash,
+                    JiraUtil.getIntSetting(configuration, JIRA_SIMILARITY_DISTANCE, -1),
+                    configuration.getString(JIRA_FINGERPRINT_STORE),
+                    JiraUtil.getIntSetting(configuration, JIRA_FINGERPRINT_STORE_TTL, DEFAULT_JIRA_FINGERPRINT_STORE_TTL),
+                    JiraUtil.getIntSetting(configuration, JIRA_RETRY_ATTEMPTS, RetryPolicy.DEFAULT_MAX_ATTEMPTS),
+                    JiraUtil.getIntSetting(configuration, JIRA_STORM_THRESHOLD, 0),
+                    JiraUtil.getIntSetting(configuration, JIRA_STORM_WINDOW, StormMode.DEFAULT_WINDOW_SECONDS));
+
+            // alerts of a noisy stream queue up behind those of other streams and higher priorities
+            final DispatchScheduler scheduler = DispatchScheduler.forServer(target.getJiraServerURL());
+            final int priorityClass = DispatchScheduler.priorityClass(configuration.getString(JIRA_PRIORITY));
+            final int weight = JiraUtil.getIntSetting(configuration, JIRA_STREAM_WEIGHT, DEFAULT_JIRA_STREAM_WEIGHT);
+            final int streamInFlight = JiraUtil.getIntSetting(configuration, JIRA_STREAM_IN_FLIGHT, 0);
+
+            Callable<Void> task = new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    jiraIssueClient.trigger(scheduler, priorityClass, weight, streamInFlight);
+                    return null;
+                }
+            };
+
+            tasks.put(target, task);
+            deadlineTasks.put(target, Deadline.bind(deadline, task));
+        }
 
-                configuration.getString(JIRA_PROJECT_KEY),
-                configuration.getString(JIRA_LABELS),
-                configuration.getString(JIRA_ISSUE_TYPE),
-                configuration.getString(JIRA_COMPONENTS),
-                configuration.getString(JIRA_PRIORITY),
-                configuration.getString(JIRA_MD5_FILTER_QUERY),
-                configuration.getString(JIRA_MD5_CUSTOM_FIELD),
+        long timeoutMillis = JiraUtil.getIntSetting(configuration, JIRA_TARGET_TIMEOUT, TargetDispatcher.DEFAULT_TARGET_TIMEOUT_SECONDS) * 1000L;
+        if (!deadline.isNone()) {
+            timeoutMillis = Math.min(timeoutMillis, Math.max(1, deadline.remainingMillis()));
+        }
 
-                JiraUtil.buildJIRATitle(configuration, stream, result),
-                JiraUtil.buildJIRADescription(configuration, stream, result),
-                JiraUtil.buildJIRAGraylogMapping(configuration, result),
-                JiraUtil.buildJIRAMessageDigest(configuration, result));
+        Map<JiraTarget, TargetDispatcher.Result> results = TargetDispatcher.getInstance().dispatch(deadlineTasks, timeoutMillis);
 
-        jiraIssueClient.trigger();
+        // every target which missed the deadline goes to the fallback, the alert only fails if no target got it
+        boolean delivered = false;
+        Throwable failure = null;
+        for (Map.Entry<JiraTarget, TargetDispatcher.Result> targetResult : results.entrySet()) {
+            TargetDispatcher.Outcome outcome = targetResult.getValue().getOutcome();
+            Throwable targetFailure = targetResult.getValue().getFailure();
+
+            boolean targetDelivered = outcome == TargetDispatcher.Outcome.SUCCESS;
+
+            if (!targetDelivered && !deadline.isNone()
+                    && (outcome == TargetDispatcher.Outcome.TIMEOUT || Deadline.isExceeded(targetFailure) || deadline.isExpired())) {
+                targetDelivered = handleDeadlineExceeded(targetResult.getKey(), tasks.get(targetResult.getKey()), deadlineMillis, title, messageDigest, description);
+            }
+
+            delivered |= targetDelivered;
+            if (!targetDelivered && failure == null) {
+                failure = targetFailure;
+            }
+        }
+
+        if (delivered) {
+            failure = null;
+        }
+
+        if (failure instanceof AlarmCallbackException) {
+            throw (AlarmCallbackException) failure;
+        } else if (failure != null) {
+            throw new AlarmCallbackException("Failed dispatching alert to JIRA: " + failure.getMessage(), failure);
+        }
 
         LOG.debug("Finishing call(...)");
     }
 
+    /**
+     * Hand an alert which missed its deadline to the configured fallback
+     *
+     * @return whether the fallback took the alert, otherwise the alert fails
+     */
+    private boolean handleDeadlineExceeded(JiraTarget target, Callable<Void> task, long deadlineMillis, String title, String messageDigest, String description) {
+        String fallback = JiraUtil.isSetAndNotNullText(configuration, JIRA_DEADLINE_FALLBACK) ? configuration.getString(JIRA_DEADLINE_FALLBACK) : DEADLINE_FALLBACK_LOG;
+        String alert = "alert '" + title + "' (MD5=" + messageDigest + ")";
+
+        JiraMetrics.counter("deadline", "exceeded").inc();
+
+        if (DEADLINE_FALLBACK_OUTBOX.equals(fallback)) {
+            if (Outbox.getInstance().add(target, task, deadlineMillis, alert)) {
+                LOG.info("warn-Deadline exceeded for JIRA target " + target + ", " + alert + " queued in the outbox");
+                return true;
+            }
+            LOG.info("error-The JIRA outbox is full");
+        } else if (DEADLINE_FALLBACK_DROP.equals(fallback)) {
+            JiraMetrics.counter("deadline", "dropped").inc();
+            LOG.info("warn-Deadline exceeded for JIRA target " + target + ", dropping " + alert);
+            return true;
+        }
+
+        LOG.info("error-Deadline exceeded for JIRA target " + target + ", " + alert + " was not filed. Description:\n" + description);
+        return false;
+    }
+
     /**
      * Return attributes that might be interesting to be shown under the alarm callback in the Graylog web interface.
      * It is common practice to at least return the used configuration here.
@@ -259,6 +597,11 @@ public class JiraAlarmCallback implements AlarmCallback {
 
         // Check if we have all mandatory keys
         for (String key : CONFIGURATION_KEYS_MANDATORY) {
+            // a personal access token does not need a username
+            if (JIRA_USERNAME.equals(key) && JiraConnection.AUTH_MODE_TOKEN.equals(configuration.getString(JIRA_AUTH_MODE))) {
+                continue;
+            }
+
             if (!JiraUtil.isSetAndNotNullText(configuration, key)) {
                 throw new ConfigurationException(key + " is mandatory and must not be empty.");
             }
@@ -278,9 +621,97 @@ public class JiraAlarmCallback implements AlarmCallback {
             }
         }
 
+        // a mistyped path must not point at an unrelated file, the store would refuse it at runtime
+        if (JiraUtil.isSetAndNotNullText(configuration, JIRA_FINGERPRINT_STORE)) {
+            try {
+                FingerprintStore.check(configuration.getString(JIRA_FINGERPRINT_STORE));
+            } catch (IOException e) {
+                throw new ConfigurationException(JIRA_FINGERPRINT_STORE + ": " + e.getMessage(), e);
+            }
+        }
+
+        // Check if the duplicate lookup strategies exist
+        try {
+            DuplicateLookupStrategies.parse(configuration.getString(JIRA_DUPLICATE_LOOKUP), configuration.getString(JIRA_MD5_CUSTOM_FIELD));
+        } catch (IllegalArgumentException e) {
+            throw new ConfigurationException(JIRA_DUPLICATE_LOOKUP + ": " + e.getMessage(), e);
+        }
+
+        try {
+            for (JiraTarget target : getTargets(configuration)) {
+                URI targetURI = new URI(target.getJiraServerURL());
+                if (!"http".equals(targetURI.getScheme()) && !"https".equals(targetURI.getScheme())) {
+                    throw new ConfigurationException(JIRA_ADDITIONAL_TARGETS + ": " + target + " must use a valid HTTP or HTTPS URL.");
+                }
+            }
+        } catch (IllegalArgumentException | URISyntaxException e) {
+            throw new ConfigurationException(JIRA_ADDITIONAL_TARGETS + ": " + e.getMessage(), e);
+        }
+
+        if (JiraUtil.isSetAndNotNullText(configuration, JIRA_GRAYLOG_MESSAGE_FIELD_MAPPING)) {
+            checkFieldMapping();
+        }
+
+        if (JiraUtil.isSetAndNotNullText(configuration, JIRA_FINGERPRINT_STRATEGY)) {
+            try {
+                FingerprintStrategies.get(configuration.getString(JIRA_FINGERPRINT_STRATEGY).trim());
+            } catch (IllegalArgumentException e) {
+                throw new ConfigurationException(JIRA_FINGERPRINT_STRATEGY + ": " + e.getMessage(), e);
+            }
+        }
+
+        if (FieldTupleFingerprintStrategy.NAME.equals(FingerprintStrategies.forConfiguration(configuration).getName())
+                && !JiraUtil.isSetAndNotNullText(configuration, JIRA_FINGERPRINT_FIELDS)) {
+            throw new ConfigurationException(JIRA_FINGERPRINT_FIELDS + " is mandatory for the " + FieldTupleFingerprintStrategy.NAME + " fingerprint strategy.");
+        }
+
+        // Check if the numeric settings are valid
+        for (String key : CONFIGURATION_KEYS_NUMBER_VALIDATION) {
+            if (JiraUtil.isSetAndNotNullText(configuration, key) && JiraUtil.getIntSetting(configuration, key, -1) < 0) {
+                throw new ConfigurationException(key + " must be a non-negative number.");
+            }
+        }
+
+        if (JiraUtil.getIntSetting(configuration, JIRA_SIMILARITY_DISTANCE, -1) > SimHashIndex.MAX_DISTANCE) {
+            throw new ConfigurationException(JIRA_SIMILARITY_DISTANCE + " must be between 0 and " + SimHashIndex.MAX_DISTANCE + ".");
+        }
+
         LOG.debug("Finishing checkConfiguration()");
     }
 
+    /**
+     * Compile the field mapping against the create screen of every target, so fields which do not exist or can not
+     * take a Graylog value are reported now instead of failing each create. If JIRA can not be reached, only the
+     * syntax is checked.
+     */
+    private void checkFieldMapping() throws ConfigurationException {
+        final FieldMapping mapping = FieldMapping.parse(configuration.getString(JIRA_GRAYLOG_MESSAGE_FIELD_MAPPING));
+
+        if (!mapping.getErrors().isEmpty()) {
+            throw new ConfigurationException(JIRA_GRAYLOG_MESSAGE_FIELD_MAPPING + ": " + StringUtils.join(mapping.getErrors(), "; "));
+        }
+
+        for (final JiraTarget target : getTargets(configuration)) {
+            try {
+                JiraConnection connection = JiraConnection.get(target.getJiraServerURL(), configuration.getString(JIRA_AUTH_MODE),
+                        configuration.getString(JIRA_USERNAME), configuration.getString(JIRA_PASSWORD));
+
+                Map<String, FieldSchema> schema = connection.execute(new JiraCall<Map<String, FieldSchema>>() {
+                    @Override
+                    public Map<String, FieldSchema> call(RestClient restClient) throws JiraException {
+                        return FieldMappings.schema(restClient, target.getJiraServerURL(), target.getProjectKey(), configuration.getString(JIRA_ISSUE_TYPE));
+                    }
+                });
+
+                mapping.compile(schema);
+            } catch (IllegalArgumentException e) {
+                throw new ConfigurationException(JIRA_GRAYLOG_MESSAGE_FIELD_MAPPING + " for " + target + ": " + e.getMessage(), e);
+            } catch (JiraException e) {
+                LOG.info("warn-Can not check the field mapping against JIRA target " + target + ": " + e.getMessage());
+            }
+        }
+    }
+
     /**
      * Return a human readable name of this plugin.
      *
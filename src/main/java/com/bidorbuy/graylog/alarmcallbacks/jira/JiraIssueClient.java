@@ -1,5 +1,26 @@
 package com.bidorbuy.graylog.alarmcallbacks.jira;
 
+import com.bidorbuy.graylog.alarmcallbacks.jira.client.Deadline;
+import com.bidorbuy.graylog.alarmcallbacks.jira.client.JiraCall;
+import com.bidorbuy.graylog.alarmcallbacks.jira.client.JiraConnection;
+import com.bidorbuy.graylog.alarmcallbacks.jira.client.RetryPolicy;
+import com.bidorbuy.graylog.alarmcallbacks.jira.dedup.CorrelationTable;
+import com.bidorbuy.graylog.alarmcallbacks.jira.dedup.DuplicateLookupBatcher;
+import com.bidorbuy.graylog.alarmcallbacks.jira.dedup.DuplicateLookupStrategies;
+import com.bidorbuy.graylog.alarmcallbacks.jira.dedup.DuplicateLookupStrategy;
+import com.bidorbuy.graylog.alarmcallbacks.jira.dedup.FingerprintStore;
+import com.bidorbuy.graylog.alarmcallbacks.jira.dedup.SimHashIndex;
+import com.bidorbuy.graylog.alarmcallbacks.jira.dispatch.DispatchScheduler;
+import com.bidorbuy.graylog.alarmcallbacks.jira.dispatch.DispatchTrace;
+import com.bidorbuy.graylog.alarmcallbacks.jira.dispatch.TraceRingBuffer;
+import com.bidorbuy.graylog.alarmcallbacks.jira.mapping.FieldMapping;
+import com.bidorbuy.graylog.alarmcallbacks.jira.mapping.FieldMappings;
+import com.bidorbuy.graylog.alarmcallbacks.jira.mapping.FieldSchema;
+import com.bidorbuy.graylog.alarmcallbacks.jira.storm.StormDetector;
+import com.bidorbuy.graylog.alarmcallbacks.jira.storm.StormDigest;
+import com.bidorbuy.graylog.alarmcallbacks.jira.storm.StormMode;
+import com.bidorbuy.graylog.alarmcallbacks.jira.util.JiraMetrics;
+import com.codahale.metrics.Timer;
 import net.rcarz.jiraclient.*;
 import net.rcarz.jiraclient.Issue.FluentCreate;
 import net.sf.json.JSONObject;
@@ -8,11 +29,13 @@ import org.graylog2.plugin.alarms.callbacks.AlarmCallbackException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Iterator;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
 
 
 class JiraIssueClient {
@@ -25,6 +48,10 @@ class JiraIssueClient {
     private final String jiraServerURL;
     private final String jiraUserName;
     private final String jiraPassword;
+    private final String jiraAuthMode;
+
+    private final String streamId;
+    private final String streamTitle;
 
     private final String jiraProjectKey;
     private final String jiraLabels;
@@ -33,16 +60,31 @@ class JiraIssueClient {
     private final String jiraPriority;
     private final String jiraDuplicateIssueFilterQuery;
     private final String jiraMD5CustomFieldName;
+    private final List<DuplicateLookupStrategy> lookupStrategies;
+    private final int jiraLookupBatchWindow;
+    private final int jiraCorrelationWindow;
 
     private final String jiraTitle;
     private final String jiraDescription;
+    private final FieldMapping jiraFieldMapping;
     private final Map<String, String> jiraGraylogMapping;
     private final String jiraMessageDigest;
+    private final Long jiraSimilarityHash;
+    private final int jiraSimilarityDistance;
+    private final String jiraFingerprintStore;
+    private final int jiraFingerprintStoreTtl;
+    private final RetryPolicy retryPolicy;
+    private final int jiraStormThreshold;
+    private final int jiraStormWindow;
 
     JiraIssueClient(
             final String jiraServerURL,
             final String jiraUserName,
             final String jiraPassword,
+            final String jiraAuthMode,
+
+            final String streamId,
+            final String streamTitle,
 
             final String jiraProjectKey,
             final String jiraLabels,
@@ -51,15 +93,30 @@ class JiraIssueClient {
             final String jiraPriority,
             final String jiraDuplicateIssueFilterQuery,
             final String jiraMD5CustomFieldName,
+            final String jiraDuplicateLookup,
+            final int jiraLookupBatchWindow,
+            final int jiraCorrelationWindow,
 
             final String jiraTitle,
             final String jiraDescription,
+            final FieldMapping jiraFieldMapping,
             final Map<String, String> jiraGraylogMapping,
-            final String jiraMessageDigest) {
+            final String jiraMessageDigest,
+            final Long jiraSimilarityHash,
+            final int jiraSimilarityDistance,
+            final String jiraFingerprintStore,
+            final int jiraFingerprintStoreTtl,
+            final int jiraRetryAttempts,
+            final int jiraStormThreshold,
+            final int jiraStormWindow) {
 
         this.jiraServerURL = jiraServerURL;
         this.jiraUserName = jiraUserName;
         this.jiraPassword = jiraPassword;
+        this.jiraAuthMode = jiraAuthMode;
+
+        this.streamId = streamId;
+        this.streamTitle = streamTitle;
 
         this.jiraProjectKey = jiraProjectKey;
         this.jiraLabels = jiraLabels;
@@ -68,170 +125,639 @@ class JiraIssueClient {
         this.jiraPriority = jiraPriority;
         this.jiraDuplicateIssueFilterQuery = jiraDuplicateIssueFilterQuery;
         this.jiraMD5CustomFieldName = jiraMD5CustomFieldName;
+        this.lookupStrategies = DuplicateLookupStrategies.parse(jiraDuplicateLookup, jiraMD5CustomFieldName);
+        this.jiraLookupBatchWindow = jiraLookupBatchWindow;
+        this.jiraCorrelationWindow = jiraCorrelationWindow;
 
         this.jiraTitle = jiraTitle;
         this.jiraDescription = jiraDescription;
+        this.jiraFieldMapping = jiraFieldMapping;
         this.jiraGraylogMapping = jiraGraylogMapping;
         this.jiraMessageDigest = jiraMessageDigest;
+        this.jiraSimilarityHash = jiraSimilarityHash;
+        this.jiraSimilarityDistance = jiraSimilarityDistance;
+        this.jiraFingerprintStore = jiraFingerprintStore;
+        this.jiraFingerprintStoreTtl = jiraFingerprintStoreTtl;
+        this.retryPolicy = RetryPolicy.attempts(jiraRetryAttempts);
+        this.jiraStormThreshold = jiraStormThreshold;
+        this.jiraStormWindow = jiraStormWindow;
     }
 
-    void trigger() throws AlarmCallbackException {
+    /**
+     * File the alert. The alert joins the correlation of its fingerprint before it waits for a JIRA slot of the
+     * scheduler, so a follower waiting for its leader does not hold a slot the leader or other streams need.
+     */
+    void trigger(DispatchScheduler scheduler, int priorityClass, int weight, int streamInFlight) throws Exception {
         LOG.info("Starting trigger()");
 
-        try {
-            BasicCredentials basicCredentials = new BasicCredentials(jiraUserName, jiraPassword);
+        final DispatchTrace trace = new DispatchTrace(jiraProjectKey + "@" + jiraServerURL, jiraMessageDigest);
 
-            JiraClient jiraClient = new JiraClient(jiraServerURL, basicCredentials);
+        CorrelationTable.Ticket correlation = null;
+        String issueKey = null;
 
-            if (!isDuplicateJIRAIssue(jiraClient)) {
-                createJIRAIssue(jiraClient);
+        try {
+            // the local indexes are kept per JIRA instance, project and duplicate filter
+            final String scope = jiraServerURL + "|" + jiraProjectKey + "|" + jiraDuplicateIssueFilterQuery;
+
+            // alerts of other streams with the same fingerprint share the search and the issue of the first one
+            if (jiraCorrelationWindow > 0 && StringUtils.isNotBlank(jiraMessageDigest)) {
+                try {
+                    correlation = CorrelationTable.getInstance().join(scope, jiraMessageDigest, streamId, jiraCorrelationWindow * 1000L);
+                } catch (JiraException ex) {
+                    throw new AlarmCallbackException("Failed waiting for the correlated alert", ex);
+                }
+
+                trace.stage("correlation");
             }
+
+            final CorrelationTable.Ticket ticket = correlation;
+
+            issueKey = scheduler.schedule(streamId, priorityClass, weight, streamInFlight, new Callable<String>() {
+                @Override
+                public String call() throws Exception {
+                    return fileIssue(trace, scope, ticket);
+                }
+            }).call();
         } catch (Throwable ex) {
             LOG.info("error-Error in trigger function" + ex.getMessage() + (ex.getCause() != null ? ", Cause=" + ex.getCause().getMessage() : ""), ex);
+            trace.fail(ex);
             throw ex;
+        } finally {
+            if (correlation != null) {
+                correlation.complete(issueKey);
+            }
+            TraceRingBuffer.getInstance().add(trace);
         }
 
         LOG.info("Finishing trigger()");
     }
 
     /**
-     * Checks if a JIRA issue is duplicated.
+     * Find or create the issue of the alert while holding a JIRA slot
+     *
+     * @param correlation the correlation the alert joined, null if alerts are not correlated
+     * @return the issue of the alert, null if it was collected in the storm digest
      */
-    private boolean isDuplicateJIRAIssue(JiraClient jiraClient) throws AlarmCallbackException {
-        LOG.info("Starting isDuplicateJIRAIssue()");
+    private String fileIssue(DispatchTrace trace, String scope, CorrelationTable.Ticket correlation) throws AlarmCallbackException {
+        String issueKey = null;
+        // whether JIRA itself returned or created the issue for this alert
+        boolean verified = false;
 
-        boolean isDuplicate = false;
+        JiraConnection jiraConnection = JiraConnection.get(jiraServerURL, jiraAuthMode, jiraUserName, jiraPassword);
 
-        if (StringUtils.isBlank(jiraMessageDigest)) {
-            return false;
+        FingerprintStore fingerprintStore = openFingerprintStore();
+        SimHashIndex similarityIndex = null;
+
+        if (correlation != null && correlation.getIssueKey() != null) {
+            issueKey = correlation.getIssueKey();
+            LOG.info("Already exists. Issue " + issueKey + " was filed for MD5=" + jiraMessageDigest + " by stream " + correlation.getLeaderStream());
+            JiraMetrics.counter("correlation", "hits").inc();
+            trace.decide(DispatchTrace.DECISION_CORRELATED, issueKey);
+
+            if (CorrelationTable.getInstance().markListed(issueKey, streamId)) {
+                addStreamComment(jiraConnection, issueKey);
+            }
         }
 
-        try {
-            // Search for duplicate issues
-            String jql = "project = " + jiraProjectKey
-                    + (jiraDuplicateIssueFilterQuery != null && !jiraDuplicateIssueFilterQuery.isEmpty() ? " " + jiraDuplicateIssueFilterQuery + " " : "")
-                    + " AND (" + GRAYLOG_MD5 + " ~ \"" + jiraMessageDigest + "\" OR" + " description ~ \"" + jiraMessageDigest + "\")";
+        if (issueKey == null && fingerprintStore != null && StringUtils.isNotBlank(jiraMessageDigest)) {
+            FingerprintStore.Entry entry = fingerprintStore.get(scope, jiraMessageDigest, jiraFingerprintStoreTtl * 60000L);
 
-            LOG.info("jql: " + jql);
+            if (entry != null && entry.isOpen()) {
+                issueKey = entry.getIssueKey();
+                LOG.info("Already exists. Issue " + issueKey + " is recorded for MD5=" + jiraMessageDigest + " in the fingerprint store");
+                JiraMetrics.counter("fingerprintStore", "hits").inc();
+                trace.decide(DispatchTrace.DECISION_FINGERPRINT_STORE, issueKey);
+            }
+
+            trace.stage("fingerprintStore");
+        }
 
-            Issue.SearchResult srJiraIssues = jiraClient.searchIssues(jql, "id,key,summary", 1);
+        if (issueKey == null && jiraSimilarityHash != null && jiraSimilarityDistance >= 0) {
+            similarityIndex = SimHashIndex.forScope(scope, jiraSimilarityDistance);
 
-            if (srJiraIssues != null && srJiraIssues.issues != null && !srJiraIssues.issues.isEmpty()) {
-                isDuplicate = true;
+            SimHashIndex.Match match = similarityIndex.find(jiraSimilarityHash);
+            if (match != null) {
+                issueKey = match.getIssueKey();
+                LOG.info("Already exists. Issue " + issueKey + " has a similar message (distance " + match.getDistance() + ")");
+                JiraMetrics.counter("similarity", "hits").inc();
+                trace.decide(DispatchTrace.DECISION_SIMILAR, issueKey);
+            }
+
+            trace.stage("similarity");
+        }
 
-                LOG.info("isDuplicate: " + isDuplicate);
+        // during an alert storm new fingerprints are collected in a digest issue instead of an issue each
+        boolean stormAlert = issueKey == null && collectStormAlert(jiraConnection, scope, false);
 
-                LOG.info("Already exists. There " + (srJiraIssues.issues.size() > 1 ? "are " + srJiraIssues.issues.size() + " issues" : "is one issue") + " with MD5=" + jiraMessageDigest +
-                        (StringUtils.isNotBlank(jiraDuplicateIssueFilterQuery) ? " and filter-query='" + jiraDuplicateIssueFilterQuery + "'" : ""));
+        if (issueKey == null && !stormAlert) {
+            issueKey = findDuplicateJIRAIssue(jiraConnection, false);
+            trace.stage("lookup");
+
+            if (issueKey != null) {
+                trace.decide(DispatchTrace.DECISION_DUPLICATE, issueKey);
+                verified = true;
             } else {
-                LOG.info("Doesn't exist yet. No open JIRA issues with MD5=" + jiraMessageDigest +
-                        (StringUtils.isNotBlank(jiraDuplicateIssueFilterQuery) ? " and filter-query='" + jiraDuplicateIssueFilterQuery + "'" : ""));
+                stormAlert = collectStormAlert(jiraConnection, scope, true);
+            }
+
+            if (issueKey == null && !stormAlert) {
+                issueKey = createJIRAIssue(jiraConnection);
+                trace.decide(DispatchTrace.DECISION_CREATED, issueKey);
+                trace.stage("create");
+                verified = true;
+            }
+
+            if (similarityIndex != null && issueKey != null) {
+                similarityIndex.put(jiraSimilarityHash, issueKey);
             }
-        } catch (Throwable ex) {
-            LOG.info("error-Error searching for JIRA issue=" + ex.getMessage() + (ex.getCause() != null ? ", Cause=" + ex.getCause().getMessage() : ""), ex);
-//            throw new AlarmCallbackException("Failed searching for duplicate issue", ex);
         }
 
-        LOG.info("Finishing isDuplicateJIRAIssue()");
+        if (stormAlert) {
+            StormDigest stormDigest = StormMode.activeDigest(scope);
+            trace.decide(DispatchTrace.DECISION_STORM, stormDigest != null ? stormDigest.getIssueKey() : null);
+            trace.stage("storm");
+        }
+
+        if (fingerprintStore != null && issueKey != null && StringUtils.isNotBlank(jiraMessageDigest)) {
+            // only an issue JIRA just returned or created restarts the TTL, other hits merely count as seen
+            if (verified) {
+                try {
+                    fingerprintStore.put(jiraServerURL, scope, jiraMessageDigest, issueKey, FingerprintStore.STATUS_OPEN);
+                } catch (IOException ex) {
+                    LOG.info("warn-Can not update fingerprint store " + jiraFingerprintStore + ": " + ex.getMessage());
+                }
+            } else {
+                fingerprintStore.touch(scope, jiraMessageDigest);
+            }
+            trace.stage("record");
+        }
 
-        return isDuplicate;
+        return issueKey;
     }
 
     /**
-     * Create a JIRA issue
+     * Add the alert to the storm digest if it is part of a storm
+     *
+     * @param newFingerprint whether JIRA has no issue for the fingerprint, otherwise only fingerprints already in the
+     *                       digest are collected
+     * @return whether the alert has been collected
      */
-    @SuppressWarnings("serial")
-    private void createJIRAIssue(JiraClient jiraClient) throws AlarmCallbackException {
-        LOG.info("Starting createJIRAIssue()");
+    private boolean collectStormAlert(JiraConnection jiraConnection, String scope, boolean newFingerprint) {
+        if (jiraStormThreshold <= 0 || StringUtils.isBlank(jiraMessageDigest)) {
+            return false;
+        }
 
-        try {
-            List<String> labels = (StringUtils.isNotBlank(jiraLabels) ? Arrays.asList(StringUtils.split(jiraLabels, ',')) : null);
-            List<String> components = (StringUtils.isNotBlank(jiraComponents) ? Arrays.asList(StringUtils.split(jiraComponents, ',')) : null);
+        long now = System.currentTimeMillis();
+        StormDigest stormDigest = StormMode.activeDigest(scope);
+
+        if (stormDigest == null || !stormDigest.contains(jiraMessageDigest)) {
+            if (!newFingerprint) {
+                return false;
+            }
+
+            StormDetector stormDetector = StormMode.detector(scope, jiraStormThreshold, jiraStormWindow);
+            if (!stormDetector.recordNewFingerprint(now)) {
+                return false;
+            }
+
+            stormDigest = StormMode.digest(scope, jiraProjectKey, stormDetector, now);
+        }
 
-            // We create the base issue and then chain all the required fields
-            FluentCreate issueCreator = jiraClient.createIssue(jiraProjectKey, jiraIssueType);
+        stormDigest.add(jiraMessageDigest, jiraTitle, now, createStormPublisher(jiraConnection));
+        JiraMetrics.counter("storm", "alerts").inc();
 
-            // add JIRA priority
-            issueCreator.field(Field.PRIORITY, jiraPriority);
+        LOG.info("Alert storm: MD5=" + jiraMessageDigest + " added to the storm digest " + (stormDigest.getIssueKey() != null ? stormDigest.getIssueKey() : "(not filed yet)"));
 
-            // add assignee - unsure
-            //issueCreator.field(Field.ASSIGNEE, null);
+        return true;
+    }
 
-            // add summary / title
-            issueCreator.field(Field.SUMMARY, jiraTitle);
+    /**
+     * Files the storm digest with the project, issue type, priority, labels and components of this callback
+     */
+    private StormDigest.Publisher createStormPublisher(final JiraConnection jiraConnection) {
+        return new StormDigest.Publisher() {
+            @Override
+            public String create(final String summary, final String description) throws JiraException {
+                return jiraConnection.execute(new JiraCall<String>() {
+                    @Override
+                    public String call(RestClient restClient) throws JiraException {
+                        List<String> labels = new ArrayList<>(StringUtils.isNotBlank(jiraLabels) ? Arrays.asList(StringUtils.split(jiraLabels, ',')) : Collections.<String>emptyList());
+                        labels.add(StormDigest.STORM_LABEL);
+
+                        FluentCreate issueCreator = Issue.create(restClient, jiraProjectKey, jiraIssueType)
+                                .field(Field.PRIORITY, jiraPriority)
+                                .field(Field.SUMMARY, summary)
+                                .field(Field.DESCRIPTION, description)
+                                .field(Field.LABELS, labels);
+
+                        if (StringUtils.isNotBlank(jiraComponents)) {
+                            issueCreator.field(Field.COMPONENTS, Arrays.asList(StringUtils.split(jiraComponents, ',')));
+                        }
 
-            // add labels
-            if (labels != null && !labels.isEmpty()) {
-                issueCreator.field(Field.LABELS, labels);
+                        return issueCreator.execute().getKey();
+                    }
+                });
             }
 
-            // add components
-            if (components != null && !components.isEmpty()) {
-                issueCreator.field(Field.COMPONENTS, components);
+            @Override
+            public void update(final String issueKey, final String summary, final String description) throws JiraException {
+                jiraConnection.execute(new JiraCall<Void>() {
+                    @Override
+                    public Void call(RestClient restClient) throws JiraException {
+                        JSONObject fields = new JSONObject();
+                        fields.put(Field.SUMMARY, summary);
+                        fields.put(Field.DESCRIPTION, description);
+
+                        JSONObject update = new JSONObject();
+                        update.put("fields", fields);
+
+                        try {
+                            restClient.put("rest/api/2/issue/" + issueKey, update);
+                        } catch (Exception ex) {
+                            throw new JiraException("Failed to update storm digest issue " + issueKey, ex);
+                        }
+
+                        return null;
+                    }
+                }, retryPolicy, "update storm digest");
             }
+        };
+    }
 
-            String strJIRADescription = jiraDescription;
+    /**
+     * List a further stream which alerted on the issue in a comment
+     */
+    private void addStreamComment(JiraConnection jiraConnection, final String issueKey) {
+        try {
+            jiraConnection.execute(new JiraCall<Void>() {
+                @Override
+                public Void call(RestClient restClient) throws JiraException {
+                    JSONObject comment = new JSONObject();
+                    comment.put("body", "Also alerted by Graylog stream *" + streamTitle + "* (" + streamId + ").");
+
+                    try {
+                        restClient.post("rest/api/2/issue/" + issueKey + "/comment", comment);
+                    } catch (Exception ex) {
+                        throw new JiraException("Failed to comment on issue " + issueKey, ex);
+                    }
 
-            // add the MD5 digest
-            if (StringUtils.isNotBlank(jiraMessageDigest)) {
-                String md5Field = jiraMD5CustomFieldName;
-
-                LOG.info("md5Field #1: " + md5Field);
-                // if we do not have a configured custom-field, we will try and find it from meta-data
-                // this requires that the JIRA user has edit-permissions
-                if (StringUtils.isBlank(md5Field)) {
-                    md5Field = getJIRACustomMD5Field(jiraClient);
-                    LOG.info("md5Field #2: " + md5Field);
+                    return null;
                 }
+            }, retryPolicy, "comment issue");
+        } catch (JiraException ex) {
+            LOG.info("warn-Can not list stream " + streamTitle + " on issue " + issueKey + ": " + ex.getMessage());
+        }
+    }
+
+    private FingerprintStore openFingerprintStore() {
+        if (StringUtils.isBlank(jiraFingerprintStore)) {
+            return null;
+        }
 
-                if (StringUtils.isNotBlank(md5Field)) {
-                    issueCreator.field(md5Field, jiraMessageDigest);
+        try {
+            return FingerprintStore.open(jiraFingerprintStore, jiraFingerprintStoreTtl * 60000L);
+        } catch (IOException ex) {
+            LOG.info("warn-Can not open fingerprint store " + jiraFingerprintStore + ": " + ex.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Checks if a JIRA issue is duplicated. The configured lookup strategies are tried in order.
+     *
+     * @param strict fail if a strategy could not search or no strategy tagging on create searched, and no issue was found
+     * @return the key of the duplicate issue or null
+     */
+    private String findDuplicateJIRAIssue(final JiraConnection jiraConnection, boolean strict) throws AlarmCallbackException {
+        LOG.info("Starting findDuplicateJIRAIssue()");
+
+        String duplicateIssueKey = null;
+        Throwable lookupFailure = null;
+        boolean searchedCreateTag = false;
+
+        if (StringUtils.isBlank(jiraMessageDigest)) {
+            return null;
+        }
+
+        for (final DuplicateLookupStrategy strategy : lookupStrategies) {
+            String clause = strategy.buildClause(Collections.singleton(jiraMessageDigest));
+
+            if (clause == null) {
+                LOG.info("warn-Skipping duplicate lookup strategy '" + strategy.getName() + "', it is not configured");
+                continue;
+            }
+
+            Timer.Context timer = JiraMetrics.timer("lookup", strategy.getName()).time();
+
+            try {
+                // Search for duplicate issues
+                final String baseJql = "project = " + jiraProjectKey
+                        + (jiraDuplicateIssueFilterQuery != null && !jiraDuplicateIssueFilterQuery.isEmpty() ? " " + jiraDuplicateIssueFilterQuery + " " : "");
+
+                if (jiraLookupBatchWindow > 0) {
+                    duplicateIssueKey = DuplicateLookupBatcher.getInstance().lookup(jiraConnection, baseJql, strategy, jiraMessageDigest,
+                            jiraLookupBatchWindow, DuplicateLookupBatcher.DEFAULT_MAX_BATCH_SIZE, retryPolicy);
                 } else {
-                    // If there is no MD5 field defined, we inline the MD5-digest into the JIRA description
-                    strJIRADescription = "\n\n" + GRAYLOG_MD5 + "=" + jiraMessageDigest + "\n\n";
-                    LOG.info("warn-It is more efficient to configure '" + JiraAlarmCallback.JIRA_MD5_CUSTOM_FIELD + "' for MD5-hashing instead of embedding the hash in the JIRA description!");
+                    final String jql = baseJql + " AND (" + clause + ")";
+
+                    LOG.info("jql (" + strategy.getName() + "): " + jql);
+
+                    Issue.SearchResult srJiraIssues = jiraConnection.execute(new JiraCall<Issue.SearchResult>() {
+                        @Override
+                        public Issue.SearchResult call(RestClient restClient) throws JiraException {
+                            return Issue.search(restClient, jql, strategy.getSearchFields(), 1);
+                        }
+                    }, retryPolicy, "search issue");
+
+                    if (srJiraIssues != null && srJiraIssues.issues != null && !srJiraIssues.issues.isEmpty()) {
+                        duplicateIssueKey = srJiraIssues.issues.get(0).getKey();
+                    }
+                }
+
+                searchedCreateTag |= strategy.isTaggedOnCreate();
+
+                if (duplicateIssueKey != null) {
+                    LOG.info("Already exists. There is an issue with MD5=" + jiraMessageDigest +
+                            (StringUtils.isNotBlank(jiraDuplicateIssueFilterQuery) ? " and filter-query='" + jiraDuplicateIssueFilterQuery + "'" : "") +
+                            ", found " + duplicateIssueKey + " via " + strategy.getName());
+
+                    JiraMetrics.counter("lookup", strategy.getName(), "hits").inc();
+                    break;
+                }
+            } catch (Throwable ex) {
+                lookupFailure = ex;
+                LOG.info("error-Error searching for JIRA issue via " + strategy.getName() + "=" + ex.getMessage() + (ex.getCause() != null ? ", Cause=" + ex.getCause().getMessage() : ""), ex);
+
+                // out of time: neither the next strategy nor a create can run, the deadline fallback takes the alert
+                if (Deadline.isExceeded(ex) || Deadline.current().isExpired()) {
+                    throw new AlarmCallbackException("Deadline exceeded searching for duplicate issue", ex);
                 }
+            } finally {
+                timer.stop();
             }
+        }
 
-            // add description - we add this last, as the description could have been modified due to the MD5 inlining above
-            issueCreator.field(Field.DESCRIPTION, strJIRADescription);
-
-            // append auto-mapped fields
-            if (jiraGraylogMapping != null && !jiraGraylogMapping.isEmpty()) {
-                for (final Map.Entry<String, String> arg : jiraGraylogMapping.entrySet()) {
-                    if (StringUtils.isNotBlank(arg.getKey()) && StringUtils.isNotBlank(arg.getValue())) {
-                        String jiraFieldName = arg.getKey();
-                        Object jiraFiedValue = arg.getValue();
-                        if (jiraFieldName.endsWith("#i")) {
-                            jiraFieldName = jiraFieldName.substring(0, jiraFieldName.length() - 2);
-                            jiraFiedValue = new ArrayList<String>() {{
-                                add(arg.getValue());
-                            }};
-                        }
+        if (duplicateIssueKey == null && strict && lookupFailure != null) {
+            throw new AlarmCallbackException("Failed searching for duplicate issue", lookupFailure);
+        }
 
-                        LOG.info("JIRA/Graylog automap - JIRA-key=" + jiraFieldName + ", value=" + jiraFiedValue.toString());
-                        issueCreator.field(jiraFieldName, jiraFiedValue);
+        if (duplicateIssueKey == null && strict && !searchedCreateTag) {
+            throw new AlarmCallbackException("No lookup strategy which tags the issue on create searched for it");
+        }
+
+        if (duplicateIssueKey == null) {
+            LOG.info("Doesn't exist yet. No open JIRA issues with MD5=" + jiraMessageDigest +
+                    (StringUtils.isNotBlank(jiraDuplicateIssueFilterQuery) ? " and filter-query='" + jiraDuplicateIssueFilterQuery + "'" : ""));
+        }
+
+        LOG.info("Finishing findDuplicateJIRAIssue()");
+
+        return duplicateIssueKey;
+    }
+
+    /**
+     * Create a JIRA issue
+     *
+     * @return the key of the new issue
+     * @throws AlarmCallbackException if the issue was not created
+     */
+    @SuppressWarnings("serial")
+    private String createJIRAIssue(final JiraConnection jiraConnection) throws AlarmCallbackException {
+        LOG.info("Starting createJIRAIssue()");
+
+        String issueKey = null;
+
+        try {
+            final FieldMapping.MappedFields mappedFields = mapFields(jiraConnection);
+
+            JiraCall<Issue> create = new JiraCall<Issue>() {
+                @Override
+                public Issue call(RestClient restClient) throws JiraException {
+                    return buildJIRAIssue(jiraConnection, restClient, mappedFields).execute();
+                }
+            };
+
+            Issue createdIssue = null;
+
+            for (int attempt = 1; createdIssue == null; attempt++) {
+                try {
+                    createdIssue = jiraConnection.execute(create);
+                } catch (JiraException ex) {
+                    RetryPolicy.Failure failure = RetryPolicy.classify(ex);
+
+                    if (!retryPolicy.shouldRetry(attempt, ex)) {
+                        throw ex;
+                    }
+
+                    // only a tag sent with the create finds the issue of a create which may have reached JIRA
+                    if (failure == RetryPolicy.Failure.MAYBE_SENT && !canFindLostCreate()) {
+                        throw new JiraException("Can not verify whether the failed create succeeded, no lookup strategy tags the issue on create", ex);
+                    }
+
+                    retryPolicy.backoff(attempt, "create issue", ex);
+
+                    if (failure == RetryPolicy.Failure.MAYBE_SENT) {
+                        // the failed create may have been processed, only repeat it if the issue can not be found
+                        String existingIssueKey = recheckDuplicateJIRAIssue(jiraConnection, attempt);
+                        if (existingIssueKey != null) {
+                            LOG.info("Issue " + existingIssueKey + " was created by the failed attempt");
+                            return existingIssueKey;
+                        }
                     }
                 }
             }
 
-            // finally create the issue
-            Issue newIssue = issueCreator.execute();
+            final Issue newIssue = createdIssue;
 
             LOG.info("Created new issue " + newIssue.getKey() + " for project " + jiraProjectKey);
+            issueKey = newIssue.getKey();
+
+            // the JIRA client can not create select list values, they are set on the new issue
+            if (!mappedFields.getUpdateFields().isEmpty()) {
+                setMappedFields(jiraConnection, issueKey, mappedFields.getUpdateFields());
+            }
+
+            // some strategies can only tag the issue once it exists
+            if (StringUtils.isNotBlank(jiraMessageDigest)) {
+                for (final DuplicateLookupStrategy strategy : lookupStrategies) {
+                    try {
+                        jiraConnection.execute(new JiraCall<Void>() {
+                            @Override
+                            public Void call(RestClient restClient) throws JiraException {
+                                strategy.afterCreate(restClient, newIssue, jiraMessageDigest);
+                                return null;
+                            }
+                        });
+                    } catch (JiraException ex) {
+                        LOG.info("error-Error tagging JIRA issue " + newIssue.getKey() + " for " + strategy.getName() + "=" + ex.getMessage() + (ex.getCause() != null ? ", Cause=" + ex.getCause().getMessage() : ""), ex);
+                    }
+                }
+            }
         } catch (Throwable ex) {
             LOG.info("error-Error creating JIRA issue=" + ex.getMessage() + (ex.getCause() != null ? ", Cause=" + ex.getCause().getMessage() : ""), ex);
-//            throw new AlarmCallbackException("Failed creating new issue", ex);
+            // the alert must fail, otherwise it counts as filed
+            if (Deadline.isExceeded(ex) || Deadline.current().isExpired()) {
+                throw new AlarmCallbackException("Deadline exceeded creating new issue", ex);
+            }
+            throw new AlarmCallbackException("Failed creating new issue", ex);
         }
 
         LOG.info("Finishing createJIRAIssue()");
+
+        return issueKey;
+    }
+
+    /**
+     * Whether a lookup strategy can search for the tag a lost create has already written
+     */
+    private boolean canFindLostCreate() {
+        if (StringUtils.isBlank(jiraMessageDigest)) {
+            return false;
+        }
+
+        for (DuplicateLookupStrategy strategy : lookupStrategies) {
+            if (strategy.isTaggedOnCreate() && strategy.buildClause(Collections.singleton(jiraMessageDigest)) != null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Search for the fingerprint again before a create is repeated, waiting and searching again if the search fails
+     *
+     * @return the key of the issue or null if there definitely is none
+     */
+    private String recheckDuplicateJIRAIssue(JiraConnection jiraConnection, int attempt) throws JiraException {
+        for (int recheck = attempt; ; recheck++) {
+            try {
+                return findDuplicateJIRAIssue(jiraConnection, true);
+            } catch (AlarmCallbackException ex) {
+                // never create a second issue because JIRA could not tell whether the first one exists
+                if (recheck + 1 >= retryPolicy.getMaxAttempts()) {
+                    throw new JiraException("Can not verify whether the failed create succeeded", ex);
+                }
+                retryPolicy.backoff(recheck + 1, "recheck issue", ex);
+            }
+        }
+    }
+
+    /**
+     * Convert the mapped Graylog values to the types of their JIRA fields
+     */
+    private FieldMapping.MappedFields mapFields(JiraConnection jiraConnection) throws JiraException {
+        if (jiraGraylogMapping == null || jiraGraylogMapping.isEmpty()) {
+            return jiraFieldMapping.convert(Collections.<String, String>emptyMap());
+        }
+
+        FieldMapping compiled = jiraConnection.execute(new JiraCall<FieldMapping>() {
+            @Override
+            public FieldMapping call(RestClient restClient) throws JiraException {
+                return FieldMappings.compiled(restClient, jiraServerURL, jiraProjectKey, jiraIssueType, jiraFieldMapping);
+            }
+        }, retryPolicy, "create metadata");
+
+        return compiled.convert(jiraGraylogMapping);
+    }
+
+    private void setMappedFields(JiraConnection jiraConnection, final String issueKey, final Map<String, Object> fields) {
+        try {
+            jiraConnection.execute(new JiraCall<Void>() {
+                @Override
+                public Void call(RestClient restClient) throws JiraException {
+                    JSONObject update = new JSONObject();
+                    update.put("fields", JSONObject.fromObject(fields));
+
+                    try {
+                        restClient.put("rest/api/2/issue/" + issueKey, update);
+                    } catch (Exception ex) {
+                        throw new JiraException("Failed to set the mapped fields " + fields.keySet() + " of issue " + issueKey, ex);
+                    }
+
+                    return null;
+                }
+            }, retryPolicy, "update mapped fields");
+        } catch (JiraException ex) {
+            JiraMetrics.counter("mapping", "errors").inc();
+            LOG.info("error-Error setting the mapped fields of JIRA issue " + issueKey + "=" + ex.getMessage() + (ex.getCause() != null ? ", Cause=" + ex.getCause().getMessage() : ""), ex);
+        }
+    }
+
+    /**
+     * Prepare the JIRA issue with all fields
+     */
+    private FluentCreate buildJIRAIssue(JiraConnection jiraConnection, RestClient restClient, FieldMapping.MappedFields mappedFields) throws JiraException {
+        List<String> labels = new ArrayList<>(StringUtils.isNotBlank(jiraLabels) ? Arrays.asList(StringUtils.split(jiraLabels, ',')) : Collections.<String>emptyList());
+        List<String> components = (StringUtils.isNotBlank(jiraComponents) ? Arrays.asList(StringUtils.split(jiraComponents, ',')) : null);
+
+        // We create the base issue and then chain all the required fields
+        FluentCreate issueCreator = Issue.create(restClient, jiraProjectKey, jiraIssueType);
+
+        // add JIRA priority
+        issueCreator.field(Field.PRIORITY, jiraPriority);
+
+        // add assignee - unsure
+        //issueCreator.field(Field.ASSIGNEE, null);
+
+        // add summary / title
+        issueCreator.field(Field.SUMMARY, jiraTitle);
+
+        // tag the issue for the duplicate lookup
+        if (StringUtils.isNotBlank(jiraMessageDigest)) {
+            for (DuplicateLookupStrategy strategy : lookupStrategies) {
+                strategy.tagIssue(issueCreator, labels, jiraMessageDigest);
+            }
+        }
+
+        // add labels
+        if (!labels.isEmpty()) {
+            issueCreator.field(Field.LABELS, labels);
+        }
+
+        // add components
+        if (components != null && !components.isEmpty()) {
+            issueCreator.field(Field.COMPONENTS, components);
+        }
+
+        String strJIRADescription = jiraDescription;
+
+        // add the MD5 digest
+        if (StringUtils.isNotBlank(jiraMessageDigest)) {
+            String md5Field = jiraMD5CustomFieldName;
+
+            LOG.info("md5Field #1: " + md5Field);
+            // if we do not have a configured custom-field, we will try and find it from meta-data
+            // this requires that the JIRA user has edit-permissions
+            if (StringUtils.isBlank(md5Field)) {
+                md5Field = getJIRACustomMD5Field(jiraConnection);
+                LOG.info("md5Field #2: " + md5Field);
+            }
+
+            if (StringUtils.isNotBlank(md5Field)) {
+                issueCreator.field(md5Field, jiraMessageDigest);
+            } else {
+                // If there is no MD5 field defined, we inline the MD5-digest into the JIRA description
+                strJIRADescription = "\n\n" + GRAYLOG_MD5 + "=" + jiraMessageDigest + "\n\n";
+                LOG.info("warn-It is more efficient to configure '" + JiraAlarmCallback.JIRA_MD5_CUSTOM_FIELD + "' for MD5-hashing instead of embedding the hash in the JIRA description!");
+            }
+        }
+
+        // add description - we add this last, as the description could have been modified due to the MD5 inlining above
+        issueCreator.field(Field.DESCRIPTION, strJIRADescription);
+
+        // append auto-mapped fields, converted to the JIRA field types
+        for (Map.Entry<String, Object> field : mappedFields.getCreateFields().entrySet()) {
+            LOG.info("JIRA/Graylog automap - JIRA-key=" + field.getKey() + ", value=" + field.getValue());
+            issueCreator.field(field.getKey(), field.getValue());
+        }
+
+        return issueCreator;
     }
 
     /**
      * Return the name of the md5 custom field
      */
-    @SuppressWarnings("unchecked")
-    private String getJIRACustomMD5Field(JiraClient jiraClient) throws AlarmCallbackException {
+    private String getJIRACustomMD5Field(JiraConnection jiraConnection) {
         LOG.info("Starting getJIRACustomMD5Field()");
 
         String strJIRACustomMD5Field = null;
@@ -239,17 +765,17 @@ class JiraIssueClient {
         LOG.info("warn-It is more efficient to configure '" + JiraAlarmCallback.JIRA_MD5_CUSTOM_FIELD + "' for MD5-hashing.");
 
         try {
-            JSONObject customfields = Issue.getCreateMetadata(jiraClient.getRestClient(), jiraProjectKey, jiraIssueType);
-
-            for (Iterator<String> iterator = customfields.keySet().iterator(); iterator.hasNext(); ) {
-                String key = iterator.next();
+            Map<String, FieldSchema> customfields = jiraConnection.execute(new JiraCall<Map<String, FieldSchema>>() {
+                @Override
+                public Map<String, FieldSchema> call(RestClient restClient) throws JiraException {
+                    return FieldMappings.schema(restClient, jiraServerURL, jiraProjectKey, jiraIssueType);
+                }
+            }, retryPolicy, "create metadata");
 
-                if (key.startsWith("customfield_")) {
-                    JSONObject metaFields = customfields.getJSONObject(key);
-                    if (metaFields.has("name") && JiraIssueClient.GRAYLOG_MD5.equalsIgnoreCase(metaFields.getString("name"))) {
-                        strJIRACustomMD5Field = key;
-                        break;
-                    }
+            for (FieldSchema field : customfields.values()) {
+                if (field.getId().startsWith("customfield_") && JiraIssueClient.GRAYLOG_MD5.equalsIgnoreCase(field.getName())) {
+                    strJIRACustomMD5Field = field.getId();
+                    break;
                 }
             }
         } catch (JiraException ex) {
@@ -0,0 +1,323 @@
+package com.bidorbuy.graylog.alarmcallbacks.jira.alert;
+
+import com.bidorbuy.graylog.alarmcallbacks.jira.JiraAlarmCallback;
+import com.bidorbuy.graylog.alarmcallbacks.jira.fingerprint.FingerprintStrategies;
+import com.bidorbuy.graylog.alarmcallbacks.jira.mapping.FieldMapping;
+import com.bidorbuy.graylog.alarmcallbacks.jira.stats.MessageStatistics;
+import com.bidorbuy.graylog.alarmcallbacks.jira.util.JiraUtil;
+import com.bidorbuy.graylog.alarmcallbacks.jira.util.StreamFragmentCache;
+import org.graylog2.plugin.MessageSummary;
+import org.graylog2.plugin.Tools;
+import org.graylog2.plugin.alarms.AlertCondition;
+import org.graylog2.plugin.configuration.Configuration;
+import org.graylog2.plugin.streams.Stream;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * An immutable copy of everything the callback needs from an alert, taken when the callback is triggered.
+ * <p>
+ * Instead of the {@link AlertCondition.CheckResult} with all matching messages and all their fields, only the last
+ * message's fields referenced by the templates, the fingerprint strategy and the field mapping are kept. Values are capped at
+ * {@link #MAX_VALUE_LENGTH} characters, field names are interned and equal values are shared, so a snapshot can be queued or retried without
+ * pinning the messages in memory. {@link #getEstimatedBytes()} allows bounding queues by size.
+ */
+public final class AlertSnapshot {
+
+    // values beyond this length are cut, this is twice the default message regex input limit
+    public static final int MAX_VALUE_LENGTH = 128 * 1024;
+
+    private static final Pattern LAST_MESSAGE_PLACEHOLDER = Pattern.compile("\\[LAST_MESSAGE\\.([^\\[\\]]+)\\]");
+
+    // rough JVM sizes: object header plus references, a String with its char array
+    private static final int OBJECT_OVERHEAD = 16;
+    private static final int STRING_OVERHEAD = 40;
+    private static final int MAP_ENTRY_OVERHEAD = 32;
+
+    private final String streamId;
+    private final String streamTitle;
+    private final String streamURL;
+    private final String streamRules;
+    private final String resultDescription;
+    private final String triggeredAt;
+    private final String triggeredCondition;
+    private final String callbackDate;
+
+    private final int messageCount;
+    private final String message;
+    private final String source;
+    private final Map<String, String> fields;
+    private final Map<String, String> mappedFields;
+    private final Map<String, String> statistics;
+
+    private final long estimatedBytes;
+
+    private AlertSnapshot(Builder builder) {
+        this.streamId = builder.streamId;
+        this.streamTitle = builder.streamTitle;
+        this.streamURL = builder.streamURL;
+        this.streamRules = builder.streamRules;
+        this.resultDescription = builder.resultDescription;
+        this.triggeredAt = builder.triggeredAt;
+        this.triggeredCondition = builder.triggeredCondition;
+        this.callbackDate = builder.callbackDate;
+        this.messageCount = builder.messageCount;
+        this.message = builder.message;
+        this.source = builder.source;
+        this.fields = Collections.unmodifiableMap(builder.fields);
+        this.mappedFields = Collections.unmodifiableMap(builder.mappedFields);
+        this.statistics = Collections.unmodifiableMap(builder.statistics);
+        this.estimatedBytes = estimateBytes();
+    }
+
+    /**
+     * Take a snapshot of the alert, keeping only what the configuration references
+     */
+    public static AlertSnapshot of(final Configuration configuration, final Stream stream, final AlertCondition.CheckResult result) {
+        Builder builder = new Builder();
+
+        // the stream URL, rules and condition only change when the stream is edited
+        StreamFragmentCache.Fragments fragments = StreamFragmentCache.getInstance().get(configuration, stream, result.getTriggeredCondition());
+
+        builder.streamId = builder.share(stream.getId());
+        builder.streamTitle = builder.share(stream.getTitle());
+        builder.streamURL = builder.share(fragments.getStreamURL());
+        builder.streamRules = builder.share(fragments.getStreamRules());
+        builder.triggeredCondition = builder.share(fragments.getTriggeredCondition());
+        builder.resultDescription = builder.share(result.getResultDescription());
+        builder.triggeredAt = result.getTriggeredAt() != null ? result.getTriggeredAt().toString() : null;
+        builder.callbackDate = Tools.iso8601().toString();
+
+        List<MessageSummary> messages = result.getMatchingMessages();
+        builder.messageCount = messages.size();
+
+        String description = JiraUtil.getDescriptionTemplate(configuration);
+
+        if (!messages.isEmpty()) {
+            // get fields from last message only
+            MessageSummary lastMessage = messages.get(0);
+
+            builder.message = builder.share(lastMessage.getMessage());
+            builder.source = builder.share(lastMessage.getSource());
+
+            Set<String> referenced = new LinkedHashSet<>();
+            collectPlaceholders(configuration.getString(JiraAlarmCallback.JIRA_TITLE_TEMPLATE), referenced);
+            collectPlaceholders(description, referenced);
+            referenced.addAll(FingerprintStrategies.forConfiguration(configuration).getReferencedFields(configuration));
+
+            Map<String, Object> lastMessageFields = lastMessage.getFields();
+            for (String name : referenced) {
+                Object value = lastMessageFields.get(name);
+                if (value != null) {
+                    builder.fields.put(builder.share(name.intern()), builder.share(value.toString()));
+                }
+            }
+
+            for (String name : getMappedFieldNames(configuration)) {
+                if (lastMessage.hasField(name) && lastMessage.getField(name) != null) {
+                    builder.mappedFields.put(builder.share(name.intern()), builder.share(lastMessage.getField(name).toString()));
+                }
+            }
+        }
+
+        // aggregate the statistics over all matching messages in a single pass
+        if (MessageStatistics.isReferenced(description)) {
+            for (Map.Entry<String, String> placeholder : MessageStatistics.forTemplate(description).addAll(messages).toPlaceholders().entrySet()) {
+                builder.statistics.put(placeholder.getKey(), builder.share(placeholder.getValue()));
+            }
+        }
+
+        return new AlertSnapshot(builder);
+    }
+
+    /**
+     * The fields referenced as {@code [LAST_MESSAGE.<field>]} by a template
+     */
+    public static Set<String> referencedFields(String template) {
+        Set<String> names = new LinkedHashSet<>();
+        collectPlaceholders(template, names);
+        return names;
+    }
+
+    private static void collectPlaceholders(String template, Set<String> names) {
+        if (template == null) {
+            return;
+        }
+
+        Matcher matcher = LAST_MESSAGE_PLACEHOLDER.matcher(template);
+        while (matcher.find()) {
+            names.add(matcher.group(1));
+        }
+    }
+
+    private static Set<String> getMappedFieldNames(Configuration configuration) {
+        return FieldMapping.parse(configuration.getString(JiraAlarmCallback.JIRA_GRAYLOG_MESSAGE_FIELD_MAPPING)).getGraylogFields();
+    }
+
+    public String getStreamId() {
+        return streamId;
+    }
+
+    public String getStreamTitle() {
+        return streamTitle;
+    }
+
+    public String getStreamURL() {
+        return streamURL;
+    }
+
+    public String getStreamRules() {
+        return streamRules;
+    }
+
+    public String getResultDescription() {
+        return resultDescription;
+    }
+
+    public String getTriggeredAt() {
+        return triggeredAt;
+    }
+
+    public String getTriggeredCondition() {
+        return triggeredCondition;
+    }
+
+    public String getCallbackDate() {
+        return callbackDate;
+    }
+
+    public int getMessageCount() {
+        return messageCount;
+    }
+
+    public boolean hasMessage() {
+        return messageCount > 0;
+    }
+
+    /**
+     * The message of the last matching message, null if there is none
+     */
+    public String getMessage() {
+        return message;
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    /**
+     * The fields of the last message referenced as {@code [LAST_MESSAGE.<field>]}
+     */
+    public Map<String, String> getFields() {
+        return fields;
+    }
+
+    /**
+     * The fields of the last message used by the JIRA/Graylog field mapping
+     */
+    public Map<String, String> getMappedFields() {
+        return mappedFields;
+    }
+
+    /**
+     * The {@code STATS.*} placeholders referenced by the description
+     */
+    public Map<String, String> getStatistics() {
+        return statistics;
+    }
+
+    /**
+     * An estimate of the heap retained by this snapshot, shared strings are only counted once
+     */
+    public long getEstimatedBytes() {
+        return estimatedBytes;
+    }
+
+    private long estimateBytes() {
+        Map<String, Boolean> seen = new IdentityHashMap<>();
+
+        long bytes = OBJECT_OVERHEAD + 16 * 8;
+        bytes += sizeOf(seen, streamId, streamTitle, streamURL, streamRules, resultDescription, triggeredAt, triggeredCondition, callbackDate, message, source);
+
+        bytes += sizeOf(seen, fields) + sizeOf(seen, mappedFields) + sizeOf(seen, statistics);
+
+        return bytes;
+    }
+
+    private static long sizeOf(Map<String, Boolean> seen, Map<String, String> map) {
+        long bytes = OBJECT_OVERHEAD;
+
+        for (Map.Entry<String, String> entry : map.entrySet()) {
+            bytes += MAP_ENTRY_OVERHEAD + sizeOf(seen, entry.getKey(), entry.getValue());
+        }
+
+        return bytes;
+    }
+
+    private static long sizeOf(Map<String, Boolean> seen, String... values) {
+        long bytes = 0;
+
+        for (String value : values) {
+            if (value != null && seen.put(value, Boolean.TRUE) == null) {
+                bytes += STRING_OVERHEAD + 2L * value.length();
+            }
+        }
+
+        return bytes;
+    }
+
+    @Override
+    public String toString() {
+        return "AlertSnapshot{stream=" + streamId + ", messages=" + messageCount + ", fields=" + fields.keySet()
+                + ", estimatedBytes=" + estimatedBytes + "}";
+    }
+
+    private static class Builder {
+        private final Map<String, String> shared = new HashMap<>();
+
+        private final Map<String, String> fields = new HashMap<>();
+        private final Map<String, String> mappedFields = new HashMap<>();
+        private final Map<String, String> statistics = new HashMap<>();
+
+        private String streamId;
+        private String streamTitle;
+        private String streamURL;
+        private String streamRules;
+        private String resultDescription;
+        private String triggeredAt;
+        private String triggeredCondition;
+        private String callbackDate;
+        private int messageCount;
+        private String message;
+        private String source;
+
+        /**
+         * Cap the value and return the instance already held by this snapshot if there is an equal one
+         */
+        String share(String value) {
+            if (value == null) {
+                return null;
+            }
+
+            if (value.length() > MAX_VALUE_LENGTH) {
+                value = value.substring(0, MAX_VALUE_LENGTH);
+            }
+
+            String existing = shared.get(value);
+            if (existing != null) {
+                return existing;
+            }
+
+            shared.put(value, value);
+            return value;
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package com.bidorbuy.graylog.alarmcallbacks.jira.client;
+
+import java.util.concurrent.Callable;
+
+/**
+ * The time budget of one alert. The deadline of the alert being dispatched is bound to the dispatching thread, so
+ * every stage down to the single HTTP request can see how much time is left without passing it along.
+ */
+public final class Deadline {
+
+    /**
+     * No deadline: requests only use the default timeouts
+     */
+    public static final Deadline NONE = new Deadline(Long.MAX_VALUE);
+
+    private static final ThreadLocal<Deadline> CURRENT = new ThreadLocal<>();
+
+    private final long expiresAtMillis;
+
+    private Deadline(long expiresAtMillis) {
+        this.expiresAtMillis = expiresAtMillis;
+    }
+
+    /**
+     * @param budgetMillis the budget, 0 or less for no deadline
+     */
+    public static Deadline after(long budgetMillis) {
+        return budgetMillis > 0 ? new Deadline(System.currentTimeMillis() + budgetMillis) : NONE;
+    }
+
+    /**
+     * The deadline bound to this thread
+     */
+    public static Deadline current() {
+        Deadline deadline = CURRENT.get();
+        return deadline != null ? deadline : NONE;
+    }
+
+    /**
+     * Run the task with the deadline bound to the thread running it
+     */
+    public static <T> Callable<T> bind(final Deadline deadline, final Callable<T> task) {
+        return new Callable<T>() {
+            @Override
+            public T call() throws Exception {
+                Deadline previous = CURRENT.get();
+                CURRENT.set(deadline);
+                try {
+                    return task.call();
+                } finally {
+                    if (previous != null) {
+                        CURRENT.set(previous);
+                    } else {
+                        CURRENT.remove();
+                    }
+                }
+            }
+        };
+    }
+
+    /**
+     * Whether the failure, or one of its causes, is an exceeded deadline
+     */
+    public static boolean isExceeded(Throwable ex) {
+        for (Throwable cause = ex; cause != null; cause = cause.getCause()) {
+            if (cause instanceof DeadlineExceededException) {
+                return true;
+            }
+            if (cause.getCause() == cause) {
+                break;
+            }
+        }
+        return false;
+    }
+
+    public boolean isNone() {
+        return this == NONE;
+    }
+
+    public long remainingMillis() {
+        return isNone() ? Long.MAX_VALUE : expiresAtMillis - System.currentTimeMillis();
+    }
+
+    public boolean isExpired() {
+        return remainingMillis() <= 0;
+    }
+
+    /**
+     * @throws DeadlineExceededException if no time is left for the stage
+     */
+    public void check(String stage) throws DeadlineExceededException {
+        if (isExpired()) {
+            throw new DeadlineExceededException(stage);
+        }
+    }
+
+    /**
+     * The timeout for a single wait: the default, but never beyond the deadline (and at least 1ms, as 0 means infinite
+     * to most APIs)
+     */
+    public int timeoutMillis(int defaultMillis) {
+        long remaining = remainingMillis();
+        if (defaultMillis > 0 && defaultMillis <= remaining) {
+            return defaultMillis;
+        }
+        return (int) Math.max(1, Math.min(Integer.MAX_VALUE, remaining));
+    }
+}
@@ -0,0 +1,13 @@
+package com.bidorbuy.graylog.alarmcallbacks.jira.client;
+
+import net.rcarz.jiraclient.JiraException;
+
+/**
+ * The alert ran out of its time budget before the stage could start
+ */
+public class DeadlineExceededException extends JiraException {
+
+    public DeadlineExceededException(String stage) {
+        super("Deadline exceeded before " + stage);
+    }
+}
@@ -0,0 +1,11 @@
+package com.bidorbuy.graylog.alarmcallbacks.jira.client;
+
+import net.rcarz.jiraclient.JiraException;
+import net.rcarz.jiraclient.RestClient;
+
+/**
+ * A unit of work against the JIRA REST API, executed via {@link JiraConnection#execute(JiraCall)}
+ */
+public interface JiraCall<T> {
+    T call(RestClient restClient) throws JiraException;
+}
@@ -0,0 +1,294 @@
+package com.bidorbuy.graylog.alarmcallbacks.jira.client;
+
+import net.rcarz.jiraclient.BasicCredentials;
+import net.rcarz.jiraclient.ICredentials;
+import net.rcarz.jiraclient.JiraException;
+import net.rcarz.jiraclient.RestClient;
+import net.rcarz.jiraclient.RestException;
+import org.apache.commons.codec.binary.Hex;
+import org.apache.http.HttpException;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.protocol.HttpContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A connection to a JIRA instance which is shared by all alarm callbacks using the same server and credentials.
+ * <p>
+ * The connection pools its HTTP connections and keeps the authentication state (i.e. the JIRA session) across alerts.
+ * Connections are never closed while a request runs on them: a connection unused for {@link #IDLE_EXPIRY_MILLIS}
+ * is dropped once its last request finished, a caller still holding it is handed the current connection for the
+ * same credentials.
+ */
+public class JiraConnection {
+
+    private static final Logger LOG = LoggerFactory.getLogger(JiraConnection.class);
+
+    public static final String AUTH_MODE_BASIC = "basic";
+    public static final String AUTH_MODE_SESSION = "session";
+    public static final String AUTH_MODE_TOKEN = "token";
+
+    private static final int MAX_CONNECTIONS_PER_INSTANCE = 20;
+
+    static final int CONNECT_TIMEOUT_MILLIS = 10000;
+    static final int SOCKET_TIMEOUT_MILLIS = 60000;
+    static final int CONNECTION_REQUEST_TIMEOUT_MILLIS = 30000;
+    static final long IDLE_EXPIRY_MILLIS = 10 * 60000L;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final ConcurrentMap<String, JiraConnection> CONNECTIONS = new ConcurrentHashMap<>();
+
+    private final String jiraServerURL;
+    private final String authMode;
+    private final String username;
+    private final String secret;
+    private final CloseableHttpClient httpClient;
+    private final ICredentials credentials;
+    private final RestClient restClient;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicBoolean released = new AtomicBoolean();
+    private volatile long lastUsedMillis = System.currentTimeMillis();
+    private volatile boolean expired;
+
+    JiraConnection(String jiraServerURL, String authMode, String username, String secret) {
+        this.jiraServerURL = jiraServerURL;
+        this.authMode = authMode;
+        this.username = username;
+        this.secret = secret;
+
+        PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setMaxTotal(MAX_CONNECTIONS_PER_INSTANCE);
+        connectionManager.setDefaultMaxPerRoute(MAX_CONNECTIONS_PER_INSTANCE);
+
+        RequestConfig requestConfig = RequestConfig.custom()
+                .setConnectTimeout(CONNECT_TIMEOUT_MILLIS)
+                .setSocketTimeout(SOCKET_TIMEOUT_MILLIS)
+                .setConnectionRequestTimeout(CONNECTION_REQUEST_TIMEOUT_MILLIS)
+                .build();
+
+        // cookies are handled by the session credentials, so a stale session cookie is never sent by accident
+        this.httpClient = HttpClientBuilder.create()
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(requestConfig)
+                .addInterceptorLast(new DeadlineInterceptor())
+                .disableCookieManagement()
+                .build();
+
+        if (AUTH_MODE_SESSION.equals(authMode)) {
+            this.credentials = new SessionCredentials(httpClient, jiraServerURL, username, secret);
+        } else if (AUTH_MODE_TOKEN.equals(authMode)) {
+            this.credentials = new TokenCredentials(username, secret);
+        } else {
+            this.credentials = new BasicCredentials(username, secret);
+        }
+
+        this.restClient = new RestClient(httpClient, credentials, URI.create(jiraServerURL));
+    }
+
+    /**
+     * Return the shared connection for the server and credentials, each distinct secret gets a connection of its own
+     */
+    public static JiraConnection get(String jiraServerURL, String authMode, String username, String secret) {
+        String mode = authMode == null || authMode.isEmpty() || "null".equals(authMode) ? AUTH_MODE_BASIC : authMode;
+        // the secret is part of the key, callbacks with other credentials (i.e. tokens without a user) never share
+        String key = Arrays.asList(jiraServerURL, mode, username, hash(secret)).toString();
+
+        long now = System.currentTimeMillis();
+        expireIdle(now);
+
+        JiraConnection connection = CONNECTIONS.get(key);
+
+        if (connection == null) {
+            synchronized (CONNECTIONS) {
+                connection = CONNECTIONS.get(key);
+                if (connection == null) {
+                    LOG.info("Creating JIRA connection to " + jiraServerURL + " for user " + username + " using " + mode + " authentication");
+                    connection = new JiraConnection(jiraServerURL, mode, username, secret);
+                    CONNECTIONS.put(key, connection);
+                }
+            }
+        }
+
+        connection.lastUsedMillis = now;
+        return connection;
+    }
+
+    /**
+     * Drop the connections unused since the idle expiry, i.e. those of changed credentials. The HTTP connections of
+     * a dropped connection are released once its last running request finished.
+     */
+    static void expireIdle(long nowMillis) {
+        for (Map.Entry<String, JiraConnection> entry : CONNECTIONS.entrySet()) {
+            JiraConnection connection = entry.getValue();
+
+            if (nowMillis - connection.lastUsedMillis > IDLE_EXPIRY_MILLIS && CONNECTIONS.remove(entry.getKey(), connection)) {
+                LOG.info("Closing idle JIRA connection to " + connection.jiraServerURL + " for user " + connection.username);
+                connection.expired = true;
+                if (connection.inFlight.get() == 0) {
+                    connection.release();
+                }
+            }
+        }
+    }
+
+    public static int size() {
+        return CONNECTIONS.size();
+    }
+
+    public String getJiraServerURL() {
+        return jiraServerURL;
+    }
+
+    public String getAuthMode() {
+        return authMode;
+    }
+
+    public RestClient getRestClient() {
+        return restClient;
+    }
+
+    /**
+     * Release the pooled HTTP connections, only called once no request runs on them
+     */
+    private void release() {
+        if (!released.compareAndSet(false, true)) {
+            return;
+        }
+
+        try {
+            httpClient.close();
+        } catch (IOException ex) {
+            LOG.info("warn-Failed closing the JIRA connection to " + jiraServerURL + ": " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Execute the call, an expired session is renewed and the call repeated once
+     */
+    public <T> T execute(JiraCall<T> call) throws JiraException {
+        Deadline.current().check("JIRA request");
+
+        inFlight.incrementAndGet();
+        try {
+            if (expired) {
+                // held beyond its expiry, i.e. by the storm digest: the current connection takes the call
+                return get(jiraServerURL, authMode, username, secret).execute(call);
+            }
+
+            lastUsedMillis = System.currentTimeMillis();
+            return executeOnce(call);
+        } finally {
+            if (inFlight.decrementAndGet() == 0 && expired) {
+                release();
+            }
+        }
+    }
+
+    private <T> T executeOnce(JiraCall<T> call) throws JiraException {
+
+        String sessionCookie = credentials instanceof SessionCredentials ? ((SessionCredentials) credentials).getSessionCookie() : null;
+
+        try {
+            return call.call(restClient);
+        } catch (JiraException ex) {
+            if (credentials instanceof SessionCredentials && getHttpStatusCode(ex) == 401) {
+                LOG.info("JIRA session expired, creating a new session");
+                ((SessionCredentials) credentials).invalidate(sessionCookie);
+                Deadline.current().check("JIRA request");
+                return call.call(restClient);
+            }
+            throw ex;
+        }
+    }
+
+    /**
+     * Execute an idempotent call, i.e. a search, repeating it on transient failures
+     */
+    public <T> T execute(JiraCall<T> call, RetryPolicy retryPolicy, String operation) throws JiraException {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return execute(call);
+            } catch (JiraException ex) {
+                if (!retryPolicy.shouldRetry(attempt, ex)) {
+                    throw ex;
+                }
+                retryPolicy.backoff(attempt, operation, ex);
+            }
+        }
+    }
+
+    /**
+     * Shortens the timeouts of each request to what is left of the deadline of the alert being dispatched. The
+     * timeouts are applied after the request interceptors ran, so the request configuration in the context wins.
+     */
+    static class DeadlineInterceptor implements HttpRequestInterceptor {
+        @Override
+        public void process(HttpRequest request, HttpContext context) throws HttpException, IOException {
+            Deadline deadline = Deadline.current();
+            if (deadline.isNone()) {
+                return;
+            }
+
+            if (deadline.isExpired()) {
+                throw new InterruptedIOException("Deadline exceeded before " + request.getRequestLine());
+            }
+
+            HttpClientContext clientContext = HttpClientContext.adapt(context);
+            RequestConfig config = clientContext.getRequestConfig();
+
+            clientContext.setRequestConfig(RequestConfig.copy(config)
+                    .setConnectTimeout(deadline.timeoutMillis(config.getConnectTimeout()))
+                    .setSocketTimeout(deadline.timeoutMillis(config.getSocketTimeout()))
+                    .setConnectionRequestTimeout(deadline.timeoutMillis(config.getConnectionRequestTimeout()))
+                    .build());
+        }
+    }
+
+    private static String hash(String secret) {
+        if (secret == null) {
+            return null;
+        }
+
+        try {
+            return Hex.encodeHexString(MessageDigest.getInstance("SHA-256").digest(secret.getBytes(UTF_8)));
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException("SHA-256 is not available", ex);
+        }
+    }
+
+    /**
+     * The HTTP status of the failed request, or 0 if the exception was not caused by a HTTP error
+     */
+    public static int getHttpStatusCode(Throwable ex) {
+        for (Throwable cause = ex; cause != null; cause = cause.getCause()) {
+            if (cause instanceof RestException) {
+                return ((RestException) cause).getHttpStatusCode();
+            }
+            if (cause.getCause() == cause) {
+                break;
+            }
+        }
+        return 0;
+    }
+}
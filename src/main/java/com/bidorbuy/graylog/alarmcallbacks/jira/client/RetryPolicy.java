@@ -0,0 +1,131 @@
+package com.bidorbuy.graylog.alarmcallbacks.jira.client;
+
+import com.bidorbuy.graylog.alarmcallbacks.jira.util.JiraMetrics;
+import net.rcarz.jiraclient.JiraException;
+import org.apache.http.NoHttpResponseException;
+import org.apache.http.conn.ConnectTimeoutException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.util.Random;
+
+/**
+ * Decides which JIRA failures are retried and how long to wait in between: capped exponential backoff with jitter.
+ * <p>
+ * Failures are classified by whether the request may have reached JIRA, because repeating a create which did reach
+ * JIRA would file a second issue.
+ */
+public class RetryPolicy {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RetryPolicy.class);
+
+    public static final int DEFAULT_MAX_ATTEMPTS = 3;
+    public static final long DEFAULT_BASE_DELAY_MILLIS = 500;
+    public static final long DEFAULT_MAX_DELAY_MILLIS = 10000;
+
+    private static final Random RANDOM = new Random();
+
+    public enum Failure {
+        /**
+         * The request was rejected (i.e. HTTP 4xx), repeating it will not help
+         */
+        PERMANENT,
+        /**
+         * The request did not reach JIRA or was turned away (connect failure, HTTP 429)
+         */
+        NOT_SENT,
+        /**
+         * The request may have been processed (read timeout, HTTP 5xx, connection dropped)
+         */
+        MAYBE_SENT
+    }
+
+    private final int maxAttempts;
+    private final long baseDelayMillis;
+    private final long maxDelayMillis;
+
+    public RetryPolicy(int maxAttempts, long baseDelayMillis, long maxDelayMillis) {
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.baseDelayMillis = baseDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+    }
+
+    public static RetryPolicy attempts(int maxAttempts) {
+        return new RetryPolicy(maxAttempts, DEFAULT_BASE_DELAY_MILLIS, DEFAULT_MAX_DELAY_MILLIS);
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    public static Failure classify(Throwable ex) {
+        int status = JiraConnection.getHttpStatusCode(ex);
+
+        if (status == 429) {
+            return Failure.NOT_SENT;
+        } else if (status >= 500) {
+            return Failure.MAYBE_SENT;
+        } else if (status > 0) {
+            return Failure.PERMANENT;
+        }
+
+        for (Throwable cause = ex; cause != null; cause = cause.getCause()) {
+            if (cause instanceof ConnectException || cause instanceof ConnectTimeoutException) {
+                return Failure.NOT_SENT;
+            }
+            if (cause instanceof SocketTimeoutException || cause instanceof NoHttpResponseException) {
+                return Failure.MAYBE_SENT;
+            }
+            if (cause.getCause() == cause) {
+                break;
+            }
+        }
+
+        return Failure.PERMANENT;
+    }
+
+    /**
+     * Whether the failed attempt (counting from 1) should be repeated
+     */
+    public boolean shouldRetry(int attempt, Throwable ex) {
+        return attempt < maxAttempts && classify(ex) != Failure.PERMANENT;
+    }
+
+    /**
+     * The delay before the next attempt: half of the exponential delay plus a random share of the other half, so
+     * concurrent alerts do not retry in lock-step
+     */
+    public long delayMillis(int attempt) {
+        long exponential = Math.min(maxDelayMillis, baseDelayMillis << Math.min(attempt - 1, 20));
+        long half = exponential / 2;
+
+        return half + (half > 0 ? (long) (RANDOM.nextDouble() * half) : 0);
+    }
+
+    /**
+     * Log the failure and wait before the next attempt
+     *
+     * @throws DeadlineExceededException if the next attempt would start after the deadline of the alert
+     */
+    public void backoff(int attempt, String operation, Throwable ex) throws JiraException {
+        long delay = delayMillis(attempt);
+
+        // no point in waiting for an attempt which would start after the deadline
+        if (delay >= Deadline.current().remainingMillis()) {
+            throw new DeadlineExceededException("retrying " + operation);
+        }
+
+        LOG.info("warn-" + operation + " failed (attempt " + attempt + " of " + maxAttempts + ", " + classify(ex).name().toLowerCase()
+                + "), retrying in " + delay + "ms: " + ex.getMessage());
+        JiraMetrics.counter("retries", operation.replace(' ', '_')).inc();
+
+        try {
+            Thread.sleep(delay);
+        } catch (InterruptedException interrupted) {
+            Thread.currentThread().interrupt();
+            throw new JiraException("Interrupted while waiting to retry " + operation, interrupted);
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package com.bidorbuy.graylog.alarmcallbacks.jira.client;
+
+import net.rcarz.jiraclient.ICredentials;
+import net.sf.json.JSONObject;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.util.EntityUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+
+/**
+ * Authenticates with a JIRA session cookie obtained from {@code /rest/auth/1/session}.
+ * <p>
+ * The session is created on first use and shared by all requests of the connection, so a burst of alerts costs a
+ * single login (and a single LDAP/Crowd bind on the JIRA side) instead of one per request.
+ */
+public class SessionCredentials implements ICredentials {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SessionCredentials.class);
+
+    static final String SESSION_PATH = "rest/auth/1/session";
+
+    private final HttpClient httpClient;
+    private final String sessionURL;
+    private final String username;
+    private final String password;
+
+    private volatile String sessionCookie;
+
+    public SessionCredentials(HttpClient httpClient, String jiraServerURL, String username, String password) {
+        this.httpClient = httpClient;
+        this.sessionURL = (jiraServerURL.endsWith("/") ? jiraServerURL : jiraServerURL + "/") + SESSION_PATH;
+        this.username = username;
+        this.password = password;
+    }
+
+    @Override
+    public void authenticate(HttpRequest req) {
+        String cookie = sessionCookie;
+
+        if (cookie == null) {
+            cookie = login();
+        }
+
+        req.addHeader("Cookie", cookie);
+    }
+
+    @Override
+    public String getLogonName() {
+        return username;
+    }
+
+    /**
+     * Drop the current session, the next request creates a new one
+     */
+    public void invalidate(String rejectedCookie) {
+        synchronized (this) {
+            if (rejectedCookie == null || rejectedCookie.equals(sessionCookie)) {
+                sessionCookie = null;
+            }
+        }
+    }
+
+    public String getSessionCookie() {
+        return sessionCookie;
+    }
+
+    private synchronized String login() {
+        // another thread might have logged in while we were waiting
+        if (sessionCookie != null) {
+            return sessionCookie;
+        }
+
+        LOG.info("Creating JIRA session for user " + username);
+
+        JSONObject credentials = new JSONObject();
+        credentials.put("username", username);
+        credentials.put("password", password);
+
+        HttpPost post = new HttpPost(sessionURL);
+        post.setEntity(new StringEntity(credentials.toString(), ContentType.APPLICATION_JSON));
+
+        try {
+            HttpResponse response = httpClient.execute(post);
+            String body = response.getEntity() != null ? EntityUtils.toString(response.getEntity(), "UTF-8") : "";
+
+            if (response.getStatusLine().getStatusCode() != 200) {
+                throw new IllegalStateException("JIRA session login failed with HTTP " + response.getStatusLine().getStatusCode());
+            }
+
+            JSONObject session = JSONObject.fromObject(body).getJSONObject("session");
+            sessionCookie = session.getString("name") + "=" + session.getString("value");
+
+            return sessionCookie;
+        } catch (IOException ex) {
+            throw new IllegalStateException("JIRA session login failed: " + ex.getMessage(), ex);
+        } finally {
+            post.releaseConnection();
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package com.bidorbuy.graylog.alarmcallbacks.jira.client;
+
+import net.rcarz.jiraclient.ICredentials;
+import org.apache.http.HttpRequest;
+
+/**
+ * Authenticates with a JIRA personal access token
+ */
+public class TokenCredentials implements ICredentials {
+
+    private final String logonName;
+    private final String token;
+
+    public TokenCredentials(String logonName, String token) {
+        this.logonName = logonName;
+        this.token = token;
+    }
+
+    @Override
+    public void authenticate(HttpRequest req) {
+        req.addHeader("Authorization", "Bearer " + token);
+    }
+
+    @Override
+    public String getLogonName() {
+        return logonName;
+    }
+}
@@ -0,0 +1,267 @@
+package com.bidorbuy.graylog.alarmcallbacks.jira.dedup;
+
+import com.bidorbuy.graylog.alarmcallbacks.jira.client.Deadline;
+import com.bidorbuy.graylog.alarmcallbacks.jira.util.JiraMetrics;
+import net.rcarz.jiraclient.JiraException;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Correlates the alerts of all streams of this node which share a fingerprint, so a failure seen by many streams is
+ * filed as one issue with a single duplicate search.
+ * <p>
+ * The first alert of a fingerprint leads the correlation: it searches and creates the issue as usual, while alerts of
+ * the same fingerprint arriving in the meantime wait for its result. Until the window after the first alert has passed,
+ * further alerts take the issue from the table without asking JIRA. If the leader files no issue (it failed or the
+ * alert went to a storm digest), the correlation is dropped and the first waiting alert to rejoin leads a new one, the
+ * others keep waiting for it.
+ */
+public class CorrelationTable {
+
+    static final int MAX_ENTRIES = 10000;
+
+    private static final int FOLLOWER_TIMEOUT_MILLIS = 60000;
+
+    private static final CorrelationTable INSTANCE = new CorrelationTable(MAX_ENTRIES);
+
+    private final Map<String, Correlation> correlations;
+    private final Set<String> listedStreams;
+
+    CorrelationTable(final int maxEntries) {
+        this.correlations = new LinkedHashMap<String, Correlation>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Correlation> eldest) {
+                // a correlation whose leader is still working is never dropped, its followers rely on it
+                return size() > maxEntries && !eldest.getValue().isPending();
+            }
+        };
+
+        this.listedStreams = Collections.newSetFromMap(new LinkedHashMap<String, Boolean>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                return size() > maxEntries;
+            }
+        });
+    }
+
+    public static CorrelationTable getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Attach the alert of a stream to the correlation of its fingerprint. Waits for the leader if it has not filed
+     * the issue yet, and takes over if the leader completes without an issue.
+     *
+     * @param scope        the JIRA instance, project and duplicate filter
+     * @param windowMillis how long after its first alert a new correlation takes further alerts
+     * @return the ticket, the caller must {@link Ticket#complete(String) complete} it
+     */
+    public Ticket join(String scope, String fingerprint, String stream, long windowMillis) throws JiraException {
+        String key = scope + "|" + fingerprint;
+        boolean joined = false;
+
+        while (true) {
+            long now = System.currentTimeMillis();
+
+            Correlation correlation;
+
+            synchronized (this) {
+                correlation = correlations.get(key);
+
+                if (correlation == null || correlation.isExpired(now)) {
+                    if (joined) {
+                        JiraMetrics.counter("correlation", "promoted").inc();
+                    }
+                    correlation = new Correlation(key, stream, now, windowMillis);
+                    correlations.put(key, correlation);
+                    return new Ticket(correlation, true, null);
+                }
+
+                correlation.streams.add(stream);
+            }
+
+            if (!joined) {
+                JiraMetrics.counter("correlation", "joined").inc();
+                joined = true;
+            }
+
+            String issueKey = correlation.awaitIssueKey();
+
+            // a leader which timed out on this follower is still working, the follower proceeds on its own
+            if (issueKey != null || correlation.isPending()) {
+                return new Ticket(correlation, false, issueKey);
+            }
+
+            // the leader filed no issue and dropped the correlation, one follower leads the next and the others wait
+        }
+    }
+
+    /**
+     * Remember that the stream is listed on the issue
+     *
+     * @return false if it has been listed before
+     */
+    public synchronized boolean markListed(String issueKey, String stream) {
+        return listedStreams.add(issueKey + "|" + stream);
+    }
+
+    /**
+     * Drop the correlations which point to the issue, i.e. because it was resolved or deleted
+     *
+     * @return the number of correlations removed
+     */
+    public synchronized int removeIssue(String issueKey) {
+        int count = 0;
+
+        Iterator<Correlation> iterator = correlations.values().iterator();
+        while (iterator.hasNext()) {
+            if (issueKey.equals(iterator.next().getIssueKey())) {
+                iterator.remove();
+                count++;
+            }
+        }
+
+        return count;
+    }
+
+    public synchronized int size() {
+        return correlations.size();
+    }
+
+    public synchronized void clear() {
+        correlations.clear();
+    }
+
+    private synchronized void abandon(Correlation correlation) {
+        if (correlations.get(correlation.key) == correlation) {
+            correlations.remove(correlation.key);
+        }
+    }
+
+    /**
+     * An alert's part in a correlation
+     */
+    public class Ticket {
+        private final Correlation correlation;
+        private final boolean leader;
+        private final String issueKey;
+
+        private Ticket(Correlation correlation, boolean leader, String issueKey) {
+            this.correlation = correlation;
+            this.leader = leader;
+            this.issueKey = issueKey;
+        }
+
+        /**
+         * Whether this alert searches and files the issue for the correlation
+         */
+        public boolean isLeader() {
+            return leader;
+        }
+
+        /**
+         * The issue filed by the leader, null for the leader itself or if the leader filed none
+         */
+        public String getIssueKey() {
+            return issueKey;
+        }
+
+        /**
+         * The stream of the leader
+         */
+        public String getLeaderStream() {
+            return correlation.leaderStream;
+        }
+
+        /**
+         * The streams which alerted on the fingerprint, the leader first
+         */
+        public Set<String> getStreams() {
+            synchronized (CorrelationTable.this) {
+                return new LinkedHashSet<>(correlation.streams);
+            }
+        }
+
+        /**
+         * Hand the issue of the leader to the followers, null drops the correlation. Does nothing for followers.
+         */
+        public void complete(String issueKey) {
+            if (!leader) {
+                return;
+            }
+
+            if (issueKey != null) {
+                markListed(issueKey, correlation.leaderStream);
+            } else {
+                abandon(correlation);
+            }
+
+            correlation.complete(issueKey);
+        }
+    }
+
+    private static class Correlation {
+        private final String key;
+        private final String leaderStream;
+        private final long firstSeen;
+        private final long windowMillis;
+        private final Set<String> streams = new LinkedHashSet<>();
+        private final CountDownLatch done = new CountDownLatch(1);
+
+        private volatile String issueKey;
+
+        private Correlation(String key, String leaderStream, long firstSeen, long windowMillis) {
+            this.key = key;
+            this.leaderStream = leaderStream;
+            this.firstSeen = firstSeen;
+            this.windowMillis = windowMillis;
+            this.streams.add(leaderStream);
+        }
+
+        boolean isPending() {
+            return done.getCount() > 0;
+        }
+
+        /**
+         * The window has passed, a pending correlation does not expire
+         */
+        boolean isExpired(long now) {
+            return !isPending() && now - firstSeen > windowMillis;
+        }
+
+        String getIssueKey() {
+            return issueKey;
+        }
+
+        void complete(String issueKey) {
+            this.issueKey = issueKey;
+            done.countDown();
+        }
+
+        /**
+         * The issue of the leader, null if it filed none or did not finish in time
+         */
+        String awaitIssueKey() throws JiraException {
+            try {
+                Deadline deadline = Deadline.current();
+                if (!done.await(deadline.timeoutMillis(FOLLOWER_TIMEOUT_MILLIS), TimeUnit.MILLISECONDS)) {
+                    deadline.check("correlated alert");
+                    JiraMetrics.counter("correlation", "timeouts").inc();
+                    return null;
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new JiraException("Interrupted while waiting for the correlated alert", ex);
+            }
+
+            return issueKey;
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package com.bidorbuy.graylog.alarmcallbacks.jira.dedup;
+
+import net.rcarz.jiraclient.Issue;
+import net.rcarz.jiraclient.RestClient;
+import org.apache.commons.lang3.StringUtils;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Exact-match lookup on the MD5 custom field, i.e. {@code cf[10100] in ("...")}.
+ * <p>
+ * The custom field must use an exact-text searcher, a free-text field only supports the slow {@code ~} operator.
+ */
+public class CustomFieldLookupStrategy implements DuplicateLookupStrategy {
+
+    private static final String CUSTOM_FIELD_PREFIX = "customfield_";
+
+    private final String md5CustomField;
+
+    public CustomFieldLookupStrategy(String md5CustomField) {
+        this.md5CustomField = md5CustomField;
+    }
+
+    @Override
+    public String getName() {
+        return DuplicateLookupStrategies.CUSTOM_FIELD;
+    }
+
+    @Override
+    public String buildClause(Collection<String> fingerprints) {
+        if (StringUtils.isBlank(md5CustomField) || !md5CustomField.startsWith(CUSTOM_FIELD_PREFIX)) {
+            return null;
+        }
+
+        return "cf[" + md5CustomField.substring(CUSTOM_FIELD_PREFIX.length()) + "] in (" + DuplicateLookupStrategies.quote(fingerprints, "") + ")";
+    }
+
+    @Override
+    public String getSearchFields() {
+        return "id,key,summary," + md5CustomField;
+    }
+
+    @Override
+    public Set<String> matches(RestClient restClient, Issue issue, Collection<String> fingerprints) {
+        Object value = issue.getField(md5CustomField);
+        return value != null && fingerprints.contains(value.toString()) ? Collections.singleton(value.toString()) : Collections.<String>emptySet();
+    }
+
+    @Override
+    public void tagIssue(Issue.FluentCreate issueCreator, List<String> labels, String fingerprint) {
+        // the MD5 custom field is always populated when the issue is created
+    }
+
+    @Override
+    public boolean isTaggedOnCreate() {
+        return true;
+    }
+
+    @Override
+    public void afterCreate(RestClient restClient, Issue issue, String fingerprint) {
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return obj instanceof CustomFieldLookupStrategy && Objects.equals(md5CustomField, ((CustomFieldLookupStrategy) obj).md5CustomField);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(CustomFieldLookupStrategy.class, md5CustomField);
+    }
+}
@@ -0,0 +1,87 @@
+package com.bidorbuy.graylog.alarmcallbacks.jira.dedup;
+
+import net.rcarz.jiraclient.Issue;
+import net.rcarz.jiraclient.RestClient;
+import org.apache.commons.lang3.StringUtils;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * The legacy full-text lookup, {@code graylog_md5 ~ "..." OR description ~ "..."}. This scans the descriptions of
+ * every issue in the project and is one of the slowest JQL queries, it should only be used as a fallback for issues
+ * which have the MD5 inlined in their description.
+ */
+public class DescriptionLookupStrategy implements DuplicateLookupStrategy {
+
+    static final String GRAYLOG_MD5 = "graylog_md5";
+
+    private final String md5CustomField;
+
+    public DescriptionLookupStrategy(String md5CustomField) {
+        this.md5CustomField = md5CustomField;
+    }
+
+    @Override
+    public String getName() {
+        return DuplicateLookupStrategies.DESCRIPTION;
+    }
+
+    @Override
+    public String buildClause(Collection<String> fingerprints) {
+        StringBuilder sb = new StringBuilder();
+        for (String fingerprint : fingerprints) {
+            if (sb.length() > 0) {
+                sb.append(" OR ");
+            }
+            sb.append(GRAYLOG_MD5 + " ~ \"").append(fingerprint).append("\" OR description ~ \"").append(fingerprint).append("\"");
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public String getSearchFields() {
+        return "id,key,summary,description" + (StringUtils.isNotBlank(md5CustomField) ? "," + md5CustomField : "");
+    }
+
+    @Override
+    public Set<String> matches(RestClient restClient, Issue issue, Collection<String> fingerprints) {
+        Object value = StringUtils.isNotBlank(md5CustomField) ? issue.getField(md5CustomField) : null;
+
+        Set<String> matched = new HashSet<>();
+        for (String fingerprint : fingerprints) {
+            if ((value != null && value.toString().contains(fingerprint))
+                    || (issue.getDescription() != null && issue.getDescription().contains(fingerprint))) {
+                matched.add(fingerprint);
+            }
+        }
+        return matched;
+    }
+
+    @Override
+    public void tagIssue(Issue.FluentCreate issueCreator, List<String> labels, String fingerprint) {
+        // the MD5 is written to the custom field or inlined into the description when the issue is created
+    }
+
+    @Override
+    public boolean isTaggedOnCreate() {
+        return true;
+    }
+
+    @Override
+    public void afterCreate(RestClient restClient, Issue issue, String fingerprint) {
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return obj instanceof DescriptionLookupStrategy && Objects.equals(md5CustomField, ((DescriptionLookupStrategy) obj).md5CustomField);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(DescriptionLookupStrategy.class, md5CustomField);
+    }
+}
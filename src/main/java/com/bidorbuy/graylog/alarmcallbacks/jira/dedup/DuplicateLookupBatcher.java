@@ -0,0 +1,277 @@
+package com.bidorbuy.graylog.alarmcallbacks.jira.dedup;
+
+import com.bidorbuy.graylog.alarmcallbacks.jira.client.Deadline;
+import com.bidorbuy.graylog.alarmcallbacks.jira.client.JiraCall;
+import com.bidorbuy.graylog.alarmcallbacks.jira.client.JiraConnection;
+import com.bidorbuy.graylog.alarmcallbacks.jira.client.RetryPolicy;
+import com.bidorbuy.graylog.alarmcallbacks.jira.util.JiraMetrics;
+import net.rcarz.jiraclient.Issue;
+import net.rcarz.jiraclient.JiraException;
+import net.rcarz.jiraclient.RestClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Gathers duplicate lookups for the same JIRA connection, project, filter query and strategy which arrive within a
+ * few milliseconds and resolves them with a single {@code ... in (...)} search.
+ * <p>
+ * The first alert of a batch is its leader: it waits for the batch window (or until the batch is full), runs the
+ * search and hands the result to every alert waiting on the batch. Only lookups with the same credentials and an equal
+ * strategy configuration (i.e. the same MD5 custom field) share a batch, so the leader's search is valid for all. The
+ * search runs under the leader's deadline: if that runs out, followers with time left search on their own.
+ */
+public class DuplicateLookupBatcher {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DuplicateLookupBatcher.class);
+
+    public static final int DEFAULT_MAX_BATCH_SIZE = 50;
+
+    // JIRA rejects search URLs beyond a few KB, keep the JQL clause well below that
+    static final int MAX_CLAUSE_LENGTH = 4000;
+
+    // the maximum number of issues fetched per batch, fingerprints without a result in a truncated search are
+    // looked up individually
+    private static final int MAX_RESULTS = 500;
+
+    private static final int FOLLOWER_TIMEOUT_MILLIS = 60000;
+
+    private static final DuplicateLookupBatcher INSTANCE = new DuplicateLookupBatcher();
+
+    private final Map<List<Object>, Batch> openBatches = new HashMap<>();
+
+    public static DuplicateLookupBatcher getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Find the issue carrying the fingerprint, together with other lookups for the same query
+     *
+     * @param baseJql the project and filter part of the query
+     * @return the key of the duplicate issue or null
+     */
+    public String lookup(JiraConnection jiraConnection, String baseJql, DuplicateLookupStrategy strategy, String fingerprint,
+                         long windowMillis, int maxBatchSize, RetryPolicy retryPolicy) throws JiraException {
+        // connections are shared per server and credentials, equal instances mean equal permissions
+        List<Object> key = Arrays.<Object>asList(jiraConnection, baseJql, strategy);
+
+        Batch batch;
+        boolean leader = false;
+
+        synchronized (openBatches) {
+            batch = openBatches.get(key);
+
+            if (batch == null || !batch.add(fingerprint, maxBatchSize)) {
+                if (batch != null) {
+                    // the batch can not take more fingerprints, so there is no point in waiting for the window
+                    batch.notifyFull();
+                }
+
+                batch = new Batch(strategy);
+                batch.add(fingerprint, maxBatchSize);
+                openBatches.put(key, batch);
+                leader = true;
+            }
+
+            if (batch.isFull(maxBatchSize)) {
+                openBatches.remove(key);
+                batch.notifyFull();
+            }
+        }
+
+        if (leader) {
+            batch.awaitFull(windowMillis);
+
+            synchronized (openBatches) {
+                if (openBatches.get(key) == batch) {
+                    openBatches.remove(key);
+                }
+                batch.close();
+            }
+
+            batch.execute(jiraConnection, baseJql, retryPolicy);
+        } else {
+            batch.awaitResult();
+        }
+
+        return batch.getResult(jiraConnection, baseJql, fingerprint, retryPolicy, leader);
+    }
+
+    private static class Batch {
+        private final DuplicateLookupStrategy strategy;
+        private final Set<String> fingerprints = new LinkedHashSet<>();
+        private final CountDownLatch done = new CountDownLatch(1);
+        private final Map<String, String> issueKeys = new HashMap<>();
+
+        private boolean closed;
+        private boolean full;
+        private boolean complete;
+        private JiraException failure;
+        private boolean failedByDeadline;
+
+        Batch(DuplicateLookupStrategy strategy) {
+            this.strategy = strategy;
+        }
+
+        /**
+         * Add the fingerprint unless the batch has been closed or the query would get too long
+         */
+        synchronized boolean add(String fingerprint, int maxBatchSize) {
+            if (closed || fingerprints.contains(fingerprint)) {
+                return !closed;
+            }
+
+            if (fingerprints.size() >= maxBatchSize) {
+                return false;
+            }
+
+            Set<String> candidate = new LinkedHashSet<>(fingerprints);
+            candidate.add(fingerprint);
+            String clause = strategy.buildClause(candidate);
+
+            if (!fingerprints.isEmpty() && clause != null && clause.length() > MAX_CLAUSE_LENGTH) {
+                return false;
+            }
+
+            fingerprints.add(fingerprint);
+            return true;
+        }
+
+        synchronized boolean isFull(int maxBatchSize) {
+            return fingerprints.size() >= maxBatchSize;
+        }
+
+        synchronized void notifyFull() {
+            full = true;
+            notifyAll();
+        }
+
+        synchronized void close() {
+            closed = true;
+        }
+
+        synchronized void awaitFull(long windowMillis) {
+            long deadline = System.currentTimeMillis() + windowMillis;
+            long remaining = windowMillis;
+
+            try {
+                while (!closed && !full && remaining > 0) {
+                    wait(remaining);
+                    remaining = deadline - System.currentTimeMillis();
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        void awaitResult() throws JiraException {
+            try {
+                Deadline deadline = Deadline.current();
+                if (!done.await(deadline.timeoutMillis(FOLLOWER_TIMEOUT_MILLIS), TimeUnit.MILLISECONDS)) {
+                    deadline.check("batched duplicate lookup");
+                    throw new JiraException("Timed out waiting for the batched duplicate lookup");
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new JiraException("Interrupted while waiting for the batched duplicate lookup", ex);
+            }
+        }
+
+        void execute(JiraConnection jiraConnection, String baseJql, RetryPolicy retryPolicy) {
+            final List<String> batchFingerprints;
+            synchronized (this) {
+                batchFingerprints = new ArrayList<>(fingerprints);
+            }
+
+            try {
+                final String jql = baseJql + " AND (" + strategy.buildClause(batchFingerprints) + ")";
+
+                LOG.info("jql (" + strategy.getName() + ", batch of " + batchFingerprints.size() + "): " + jql);
+
+                JiraMetrics.histogram("lookup", strategy.getName(), "batchSize").update(batchFingerprints.size());
+
+                Map<String, String> found = jiraConnection.execute(new JiraCall<Map<String, String>>() {
+                    @Override
+                    public Map<String, String> call(RestClient restClient) throws JiraException {
+                        Map<String, String> result = new HashMap<>();
+
+                        Issue.SearchResult srJiraIssues = Issue.search(restClient, jql, strategy.getSearchFields(), MAX_RESULTS);
+
+                        if (srJiraIssues != null && srJiraIssues.issues != null) {
+                            Set<String> missing = new LinkedHashSet<>(batchFingerprints);
+
+                            for (Issue issue : srJiraIssues.issues) {
+                                if (missing.isEmpty()) {
+                                    break;
+                                }
+
+                                // the first (most relevant) issue of a fingerprint wins
+                                for (String fingerprint : strategy.matches(restClient, issue, missing)) {
+                                    result.put(fingerprint, issue.getKey());
+                                }
+                                missing.removeAll(result.keySet());
+                            }
+                        }
+
+                        synchronized (Batch.this) {
+                            complete = srJiraIssues == null || srJiraIssues.issues == null || srJiraIssues.total <= srJiraIssues.issues.size();
+                        }
+
+                        return result;
+                    }
+                }, retryPolicy, "search issue");
+
+                synchronized (this) {
+                    issueKeys.putAll(found);
+                }
+            } catch (JiraException ex) {
+                synchronized (this) {
+                    failure = ex;
+                    failedByDeadline = Deadline.isExceeded(ex) || Deadline.current().isExpired();
+                }
+            } finally {
+                done.countDown();
+            }
+        }
+
+        /**
+         * @param leader whether the caller ran the batch search, only the leader gets a failure caused by its deadline
+         */
+        String getResult(JiraConnection jiraConnection, String baseJql, final String fingerprint, RetryPolicy retryPolicy, boolean leader) throws JiraException {
+            synchronized (this) {
+                if (failure != null && (leader || !failedByDeadline)) {
+                    throw failure;
+                }
+
+                if (failure == null && (issueKeys.containsKey(fingerprint) || complete)) {
+                    return issueKeys.get(fingerprint);
+                }
+            }
+
+            // the batch search was truncated before this fingerprint was found, or the leader ran out of time, so we
+            // have to ask again
+            Deadline.current().check("batched duplicate lookup");
+
+            final String jql = baseJql + " AND (" + strategy.buildClause(Collections.singleton(fingerprint)) + ")";
+
+            Issue.SearchResult srJiraIssues = jiraConnection.execute(new JiraCall<Issue.SearchResult>() {
+                @Override
+                public Issue.SearchResult call(RestClient restClient) throws JiraException {
+                    return Issue.search(restClient, jql, strategy.getSearchFields(), 1);
+                }
+            }, retryPolicy, "search issue");
+
+            return srJiraIssues != null && srJiraIssues.issues != null && !srJiraIssues.issues.isEmpty() ? srJiraIssues.issues.get(0).getKey() : null;
+        }
+    }
+}
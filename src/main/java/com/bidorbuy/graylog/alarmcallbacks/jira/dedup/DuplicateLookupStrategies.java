@@ -0,0 +1,69 @@
+package com.bidorbuy.graylog.alarmcallbacks.jira.dedup;
+
+import org.apache.commons.lang3.StringUtils;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Creates the configured duplicate lookup strategies
+ */
+public final class DuplicateLookupStrategies {
+
+    public static final String CUSTOM_FIELD = "customfield";
+    public static final String LABEL = "label";
+    public static final String PROPERTY = "property";
+    public static final String DESCRIPTION = "description";
+
+    // callbacks created before the strategies existed keep the description scan
+    public static final String LEGACY_LOOKUP = DESCRIPTION;
+    public static final String DEFAULT_LOOKUP = CUSTOM_FIELD + "," + LABEL;
+
+    private DuplicateLookupStrategies() {
+    }
+
+    /**
+     * Parse a comma-separated list of strategy names, the strategies are tried in the given order
+     *
+     * @param md5CustomField the custom field holding the MD5 (i.e. customfield_10100), may be blank
+     */
+    public static List<DuplicateLookupStrategy> parse(String names, String md5CustomField) {
+        List<DuplicateLookupStrategy> strategies = new ArrayList<>();
+
+        for (String name : StringUtils.split(StringUtils.isBlank(names) || "null".equals(names) ? LEGACY_LOOKUP : names, ',')) {
+            strategies.add(create(name.trim(), md5CustomField));
+        }
+
+        return strategies;
+    }
+
+    private static DuplicateLookupStrategy create(String name, String md5CustomField) {
+        switch (name) {
+            case CUSTOM_FIELD:
+                return new CustomFieldLookupStrategy(md5CustomField);
+            case LABEL:
+                return new LabelLookupStrategy();
+            case PROPERTY:
+                return new EntityPropertyLookupStrategy();
+            case DESCRIPTION:
+                return new DescriptionLookupStrategy(md5CustomField);
+            default:
+                throw new IllegalArgumentException("Unknown duplicate lookup strategy '" + name + "'");
+        }
+    }
+
+    /**
+     * Render the fingerprints as quoted, comma-separated JQL values
+     */
+    static String quote(Collection<String> values, String prefix) {
+        StringBuilder sb = new StringBuilder();
+        for (String value : values) {
+            if (sb.length() > 0) {
+                sb.append(", ");
+            }
+            sb.append('"').append(prefix).append(value.replace("\\", "\\\\").replace("\"", "\\\"")).append('"');
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,55 @@
+package com.bidorbuy.graylog.alarmcallbacks.jira.dedup;
+
+import net.rcarz.jiraclient.Issue;
+import net.rcarz.jiraclient.JiraException;
+import net.rcarz.jiraclient.RestClient;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A way of finding the JIRA issue which already carries an alert fingerprint (the MD5 digest).
+ * <p>
+ * A strategy tags new issues with the fingerprint and builds the JQL clause which finds them again. Strategies are
+ * equal if they build the same clauses and match the same way, batched lookups are only shared between equal strategies.
+ */
+public interface DuplicateLookupStrategy {
+
+    /**
+     * The name used in the {@code jira_duplicate_lookup} setting and in the metrics
+     */
+    String getName();
+
+    /**
+     * The JQL clause matching issues with any of the fingerprints, or null if the strategy can not be used
+     */
+    String buildClause(Collection<String> fingerprints);
+
+    /**
+     * The issue fields needed by {@link #matches(RestClient, Issue, Collection)}
+     */
+    String getSearchFields();
+
+    /**
+     * The fingerprints a found issue carries, out of those searched for
+     */
+    Set<String> matches(RestClient restClient, Issue issue, Collection<String> fingerprints) throws JiraException;
+
+    /**
+     * Tag the issue which is about to be created
+     *
+     * @param labels the labels of the new issue, strategies may add their own
+     */
+    void tagIssue(Issue.FluentCreate issueCreator, List<String> labels, String fingerprint);
+
+    /**
+     * Whether the create request itself carries the tag, only then a search finds an issue whose create response was lost
+     */
+    boolean isTaggedOnCreate();
+
+    /**
+     * Tag the issue after it has been created, for tags which can not be set on creation
+     */
+    void afterCreate(RestClient restClient, Issue issue, String fingerprint) throws JiraException;
+}
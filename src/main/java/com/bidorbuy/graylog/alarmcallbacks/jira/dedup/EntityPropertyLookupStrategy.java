@@ -0,0 +1,91 @@
+package com.bidorbuy.graylog.alarmcallbacks.jira.dedup;
+
+import net.rcarz.jiraclient.Issue;
+import net.rcarz.jiraclient.JiraException;
+import net.rcarz.jiraclient.RestClient;
+import net.sf.json.JSON;
+import net.sf.json.JSONObject;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Stores the fingerprint as issue entity property {@code graylog.md5} and queries the property index, i.e.
+ * {@code issue.property[graylog].md5 in ("...")}. The property has to be indexed in JIRA (via an add-on descriptor
+ * declaring an {@code jiraEntityProperties} index for {@code graylog.md5}).
+ */
+public class EntityPropertyLookupStrategy implements DuplicateLookupStrategy {
+
+    static final String PROPERTY_KEY = "graylog";
+    static final String PROPERTY_FIELD = "md5";
+
+    @Override
+    public String getName() {
+        return DuplicateLookupStrategies.PROPERTY;
+    }
+
+    @Override
+    public String buildClause(Collection<String> fingerprints) {
+        return "issue.property[" + PROPERTY_KEY + "]." + PROPERTY_FIELD + " in (" + DuplicateLookupStrategies.quote(fingerprints, "") + ")";
+    }
+
+    @Override
+    public String getSearchFields() {
+        return "id,key,summary";
+    }
+
+    @Override
+    public Set<String> matches(RestClient restClient, Issue issue, Collection<String> fingerprints) throws JiraException {
+        // the search does not return entity properties, so each found issue costs one request for all fingerprints
+        try {
+            JSON json = restClient.get(propertyPath(issue.getKey()));
+            if (json instanceof JSONObject) {
+                JSONObject value = ((JSONObject) json).optJSONObject("value");
+                if (value != null && fingerprints.contains(value.optString(PROPERTY_FIELD))) {
+                    return Collections.singleton(value.optString(PROPERTY_FIELD));
+                }
+            }
+            return Collections.emptySet();
+        } catch (Exception ex) {
+            throw new JiraException("Failed to read property " + PROPERTY_KEY + " of issue " + issue.getKey(), ex);
+        }
+    }
+
+    @Override
+    public void tagIssue(Issue.FluentCreate issueCreator, List<String> labels, String fingerprint) {
+        // entity properties can only be set once the issue exists
+    }
+
+    @Override
+    public boolean isTaggedOnCreate() {
+        return false;
+    }
+
+    @Override
+    public void afterCreate(RestClient restClient, Issue issue, String fingerprint) throws JiraException {
+        JSONObject property = new JSONObject();
+        property.put(PROPERTY_FIELD, fingerprint);
+
+        try {
+            restClient.put(propertyPath(issue.getKey()), property);
+        } catch (Exception ex) {
+            throw new JiraException("Failed to set property " + PROPERTY_KEY + " of issue " + issue.getKey(), ex);
+        }
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return obj instanceof EntityPropertyLookupStrategy;
+    }
+
+    @Override
+    public int hashCode() {
+        return EntityPropertyLookupStrategy.class.hashCode();
+    }
+
+    private static String propertyPath(String issueKey) {
+        return "rest/api/2/issue/" + issueKey + "/properties/" + PROPERTY_KEY;
+    }
+}
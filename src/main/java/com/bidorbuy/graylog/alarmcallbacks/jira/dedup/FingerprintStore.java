@@ -0,0 +1,619 @@
+package com.bidorbuy.graylog.alarmcallbacks.jira.dedup;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A local fingerprint to issue index which survives restarts, so duplicates can be found without a JIRA search.
+ * <p>
+ * The file is a memory-mapped open-addressing hash table with linear probing and fixed-size records. Opening it only
+ * maps the file and reads the header, updates are written in place. When the table gets too full it is rebuilt into a
+ * new file without the stale and removed records, which then replaces the old one.
+ * <p>
+ * Record layout ({@value #RECORD_SIZE} bytes): state, 16 byte MD5 of scope and fingerprint, issue key length,
+ * {@value #MAX_ISSUE_KEY_LENGTH} bytes issue key, status, last-seen millis, verified-at seconds, hash of the JIRA
+ * instance. Files of version 1 had no instance hash, they are rebuilt on opening and their records belong to no instance.
+ * <p>
+ * A record is trusted until its issue was last confirmed by a JIRA search or create longer than the maximum age ago.
+ * Alerts answered from the store only refresh last-seen, so a frequent alert still checks JIRA once per maximum age.
+ */
+public class FingerprintStore {
+
+    private static final Logger LOG = LoggerFactory.getLogger(FingerprintStore.class);
+
+    public static final byte STATUS_OPEN = 1;
+    public static final byte STATUS_RESOLVED = 2;
+
+    public static final int DEFAULT_CAPACITY = 16384;
+
+    static final int RECORD_SIZE = 68;
+    static final int MAX_ISSUE_KEY_LENGTH = 32;
+
+    private static final int MAGIC = 0x474A4658;
+    private static final int VERSION = 2;
+    private static final int VERSION_WITHOUT_SERVER = 1;
+    private static final int RECORD_SIZE_WITHOUT_SERVER = 64;
+    private static final int HEADER_SIZE = 64;
+
+    private static final int STATE = 0;
+    private static final int KEY = 1;
+    private static final int ISSUE_KEY_LENGTH = 17;
+    private static final int ISSUE_KEY = 18;
+    private static final int STATUS = 50;
+    private static final int LAST_SEEN = 51;
+    // seconds fit into the remaining bytes of the record, files written before have 0 and are verified again
+    private static final int VERIFIED_AT = 59;
+    private static final int SERVER = 63;
+
+    // the instance hash of records from files without one, they are never reopened by a webhook
+    private static final int UNKNOWN_SERVER = 0;
+
+    private static final byte EMPTY = 0;
+    private static final byte USED = 1;
+    private static final byte REMOVED = 2;
+
+    private static final double MAX_LOAD = 0.7;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final ConcurrentMap<String, FingerprintStore> STORES = new ConcurrentHashMap<>();
+
+    private final File file;
+    private long maxAgeMillis;
+
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+    private int capacity;
+    private int size;
+    private int removed;
+    private int recordSize;
+
+    FingerprintStore(File file, long maxAgeMillis) throws IOException {
+        this.file = file;
+        this.maxAgeMillis = maxAgeMillis;
+
+        if (file.length() > 0) {
+            // only our own files are ever moved away, a mistyped path must not replace an unrelated file
+            if (!hasMagic(file)) {
+                throw new IOException(file + " exists and is not a fingerprint store");
+            }
+
+            try {
+                map(file);
+                if (recordSize != RECORD_SIZE) {
+                    LOG.info("Upgrading fingerprint store " + file + " to version " + VERSION);
+                    compact();
+                }
+                return;
+            } catch (IOException ex) {
+                File corrupt = new File(file.getPath() + ".corrupt");
+                LOG.info("warn-Fingerprint store " + file + " is unreadable (" + ex.getMessage() + "), moving it to " + corrupt);
+                close();
+                if (!file.renameTo(corrupt)) {
+                    throw new IOException("Can not move unreadable fingerprint store " + file, ex);
+                }
+            }
+        }
+
+        create(file, DEFAULT_CAPACITY);
+        map(file);
+    }
+
+    /**
+     * Check that the path can hold a fingerprint store: it does not exist yet, is empty or is a fingerprint store
+     */
+    public static void check(String path) throws IOException {
+        File file = new File(path).getAbsoluteFile();
+
+        if (file.isDirectory()) {
+            throw new IOException(file + " is a directory");
+        }
+
+        if (file.length() > 0 && !hasMagic(file)) {
+            throw new IOException(file + " exists and is not a fingerprint store");
+        }
+    }
+
+    /**
+     * The shared store for the file
+     *
+     * @param maxAgeMillis records not seen for longer are ignored and dropped on compaction
+     */
+    public static FingerprintStore open(String path, long maxAgeMillis) throws IOException {
+        File file = new File(path).getAbsoluteFile();
+
+        synchronized (STORES) {
+            FingerprintStore store = STORES.get(file.getPath());
+            if (store == null) {
+                store = new FingerprintStore(file, maxAgeMillis);
+                STORES.put(file.getPath(), store);
+            }
+
+            store.extendMaxAge(maxAgeMillis);
+            return store;
+        }
+    }
+
+    /**
+     * All stores opened so far, by file
+     */
+    public static Map<String, FingerprintStore> stores() {
+        synchronized (STORES) {
+            return new TreeMap<>(STORES);
+        }
+    }
+
+    /**
+     * Find the issue recorded for the fingerprint within the scope (the JIRA instance, project and filter)
+     *
+     * @return the record or null if there is none or it is stale
+     */
+    public synchronized Entry get(String scope, String fingerprint, long maxAgeMillis) {
+        byte[] key = key(scope, fingerprint);
+        int slot = find(key);
+
+        if (slot < 0) {
+            return null;
+        }
+
+        int offset = offset(slot);
+        long verifiedAt = verifiedAtMillis(offset);
+
+        if (System.currentTimeMillis() - verifiedAt > maxAgeMillis) {
+            return null;
+        }
+
+        byte[] issueKey = new byte[buffer.get(offset + ISSUE_KEY_LENGTH)];
+        for (int i = 0; i < issueKey.length; i++) {
+            issueKey[i] = buffer.get(offset + ISSUE_KEY + i);
+        }
+
+        return new Entry(new String(issueKey, UTF_8), buffer.get(offset + STATUS), buffer.getLong(offset + LAST_SEEN), verifiedAt);
+    }
+
+    /**
+     * Refresh the last-seen time of the fingerprint's record without extending how long it is trusted
+     *
+     * @return false if there is no record
+     */
+    public synchronized boolean touch(String scope, String fingerprint) {
+        int slot = find(key(scope, fingerprint));
+
+        if (slot < 0) {
+            return false;
+        }
+
+        buffer.putLong(offset(slot) + LAST_SEEN, System.currentTimeMillis());
+        return true;
+    }
+
+    /**
+     * Record the issue for the fingerprint as just confirmed by JIRA, refreshing its last-seen and verified-at time
+     *
+     * @param jiraServerURL the JIRA instance of the issue, webhooks only update the records of their instance
+     */
+    public synchronized void put(String jiraServerURL, String scope, String fingerprint, String issueKey, byte status) throws IOException {
+        byte[] issueKeyBytes = issueKey.getBytes(UTF_8);
+        if (issueKeyBytes.length > MAX_ISSUE_KEY_LENGTH) {
+            LOG.info("warn-Issue key " + issueKey + " is too long for the fingerprint store");
+            return;
+        }
+
+        byte[] key = key(scope, fingerprint);
+        int slot = find(key);
+
+        if (slot < 0) {
+            if (size + removed + 1 > capacity * MAX_LOAD) {
+                compact();
+            }
+
+            slot = insertionSlot(key);
+            if (buffer.get(offset(slot) + STATE) == REMOVED) {
+                removed--;
+            }
+            size++;
+
+            int offset = offset(slot);
+            buffer.put(offset + STATE, USED);
+            for (int i = 0; i < key.length; i++) {
+                buffer.put(offset + KEY + i, key[i]);
+            }
+            writeHeader();
+        }
+
+        int offset = offset(slot);
+        buffer.put(offset + ISSUE_KEY_LENGTH, (byte) issueKeyBytes.length);
+        for (int i = 0; i < issueKeyBytes.length; i++) {
+            buffer.put(offset + ISSUE_KEY + i, issueKeyBytes[i]);
+        }
+        buffer.put(offset + STATUS, status);
+        buffer.putInt(offset + SERVER, serverHash(jiraServerURL));
+
+        long now = System.currentTimeMillis();
+        buffer.putLong(offset + LAST_SEEN, now);
+        buffer.putInt(offset + VERIFIED_AT, (int) (now / 1000));
+    }
+
+    public synchronized boolean remove(String scope, String fingerprint) {
+        int slot = find(key(scope, fingerprint));
+
+        if (slot < 0) {
+            return false;
+        }
+
+        buffer.put(offset(slot) + STATE, REMOVED);
+        size--;
+        removed++;
+        writeHeader();
+
+        return true;
+    }
+
+    /**
+     * Drop every record of the issue on the JIRA instance, in all scopes. Scans the whole table, which is meant for
+     * rare events such as an issue being deleted in JIRA.
+     *
+     * @param jiraServerURL the instance of the issue, records of other instances are kept. Null for all instances,
+     *                      records without an instance are always dropped.
+     * @return the number of records removed
+     */
+    public synchronized int removeIssue(String jiraServerURL, String issueKey) {
+        byte[] issueKeyBytes = issueKey.getBytes(UTF_8);
+        int server = jiraServerURL != null ? serverHash(jiraServerURL) : UNKNOWN_SERVER;
+        int count = 0;
+
+        for (int slot = 0; slot < capacity; slot++) {
+            int offset = offset(slot);
+            if (buffer.get(offset + STATE) == USED && issueKeyEquals(offset, issueKeyBytes) && serverMatches(offset, server, true)) {
+                buffer.put(offset + STATE, REMOVED);
+                size--;
+                removed++;
+                count++;
+            }
+        }
+
+        if (count > 0) {
+            writeHeader();
+        }
+
+        return count;
+    }
+
+    /**
+     * Change the status of every record of the issue on the JIRA instance, in all scopes, without refreshing their
+     * last-seen or verified-at time.
+     * <p>
+     * Resolving is always safe, the next alert merely searches JIRA again: it applies to records without an instance,
+     * and to all instances if none is given. Reopening trusts the issue again, so it only applies to the records of the
+     * given instance.
+     *
+     * @return the number of records changed
+     */
+    public synchronized int setIssueStatus(String jiraServerURL, String issueKey, byte status) {
+        byte[] issueKeyBytes = issueKey.getBytes(UTF_8);
+        boolean reopen = status == STATUS_OPEN;
+        int server = jiraServerURL != null ? serverHash(jiraServerURL) : UNKNOWN_SERVER;
+        int count = 0;
+
+        if (reopen && server == UNKNOWN_SERVER) {
+            return 0;
+        }
+
+        for (int slot = 0; slot < capacity; slot++) {
+            int offset = offset(slot);
+            if (buffer.get(offset + STATE) == USED && issueKeyEquals(offset, issueKeyBytes) && serverMatches(offset, server, !reopen)
+                    && buffer.get(offset + STATUS) != status) {
+                buffer.put(offset + STATUS, status);
+                count++;
+            }
+        }
+
+        return count;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public synchronized int capacity() {
+        return capacity;
+    }
+
+    /**
+     * Rebuild the table without stale (not verified within the maximum age) and removed records, growing it if the
+     * live records need more room
+     */
+    public synchronized void compact() throws IOException {
+        long now = System.currentTimeMillis();
+        int oldRecordSize = recordSize;
+
+        int live = 0;
+        for (int slot = 0; slot < capacity; slot++) {
+            int offset = HEADER_SIZE + slot * oldRecordSize;
+            if (buffer.get(offset + STATE) == USED && now - verifiedAtMillis(offset) <= maxAgeMillis) {
+                live++;
+            }
+        }
+
+        int newCapacity = DEFAULT_CAPACITY;
+        while (live + 1 > newCapacity * MAX_LOAD / 2) {
+            newCapacity *= 2;
+        }
+
+        File tmp = new File(file.getPath() + ".tmp");
+        create(tmp, newCapacity);
+
+        FileChannel oldChannel = channel;
+        MappedByteBuffer oldBuffer = buffer;
+        int oldCapacity = capacity;
+
+        map(tmp);
+
+        for (int slot = 0; slot < oldCapacity; slot++) {
+            int oldOffset = HEADER_SIZE + slot * oldRecordSize;
+            if (oldBuffer.get(oldOffset + STATE) != USED || now - (oldBuffer.getInt(oldOffset + VERIFIED_AT) & 0xFFFFFFFFL) * 1000 > maxAgeMillis) {
+                continue;
+            }
+
+            byte[] key = new byte[16];
+            for (int i = 0; i < key.length; i++) {
+                key[i] = oldBuffer.get(oldOffset + KEY + i);
+            }
+
+            // a record without an instance hash is copied as is, the new file has zeros, i.e. no instance, behind it
+            int offset = offset(insertionSlot(key));
+            for (int i = 0; i < oldRecordSize; i++) {
+                buffer.put(offset + i, oldBuffer.get(oldOffset + i));
+            }
+            size++;
+        }
+
+        writeHeader();
+        buffer.force();
+        oldChannel.close();
+
+        if (!tmp.renameTo(file)) {
+            throw new IOException("Can not replace fingerprint store " + file);
+        }
+
+        LOG.info("Compacted fingerprint store " + file + " to " + size + " records (capacity " + capacity + ")");
+    }
+
+    public synchronized void close() throws IOException {
+        STORES.remove(file.getPath(), this);
+
+        if (buffer != null) {
+            buffer.force();
+        }
+
+        if (channel != null) {
+            channel.close();
+        }
+    }
+
+    private void extendMaxAge(long maxAgeMillis) {
+        synchronized (this) {
+            this.maxAgeMillis = Math.max(this.maxAgeMillis, maxAgeMillis);
+        }
+    }
+
+    private long verifiedAtMillis(int offset) {
+        return (buffer.getInt(offset + VERIFIED_AT) & 0xFFFFFFFFL) * 1000;
+    }
+
+    /**
+     * Whether the record belongs to the instance
+     *
+     * @param orUnknown whether records without an instance match, and all records if the instance is unknown
+     */
+    private boolean serverMatches(int offset, int server, boolean orUnknown) {
+        int recordServer = buffer.getInt(offset + SERVER);
+        if (orUnknown && (server == UNKNOWN_SERVER || recordServer == UNKNOWN_SERVER)) {
+            return true;
+        }
+        return recordServer == server;
+    }
+
+    private int find(byte[] key) {
+        int slot = startSlot(key);
+
+        for (int probes = 0; probes < capacity; probes++) {
+            int offset = offset(slot);
+            byte state = buffer.get(offset + STATE);
+
+            if (state == EMPTY) {
+                return -1;
+            }
+
+            if (state == USED && keyEquals(offset, key)) {
+                return slot;
+            }
+
+            slot = (slot + 1) % capacity;
+        }
+
+        return -1;
+    }
+
+    private int insertionSlot(byte[] key) {
+        int slot = startSlot(key);
+
+        while (buffer.get(offset(slot) + STATE) == USED) {
+            slot = (slot + 1) % capacity;
+        }
+
+        return slot;
+    }
+
+    private int startSlot(byte[] key) {
+        long hash = ByteBuffer.wrap(key).getLong();
+        return (int) ((hash & Long.MAX_VALUE) % capacity);
+    }
+
+    private boolean keyEquals(int offset, byte[] key) {
+        for (int i = 0; i < key.length; i++) {
+            if (buffer.get(offset + KEY + i) != key[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean issueKeyEquals(int offset, byte[] issueKey) {
+        if (buffer.get(offset + ISSUE_KEY_LENGTH) != issueKey.length) {
+            return false;
+        }
+        for (int i = 0; i < issueKey.length; i++) {
+            if (buffer.get(offset + ISSUE_KEY + i) != issueKey[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int offset(int slot) {
+        return HEADER_SIZE + slot * RECORD_SIZE;
+    }
+
+    private static byte[] key(String scope, String fingerprint) {
+        try {
+            MessageDigest md5 = MessageDigest.getInstance("MD5");
+            md5.update(String.valueOf(scope).getBytes(UTF_8));
+            md5.update((byte) 0);
+            md5.update(fingerprint.getBytes(UTF_8));
+            return md5.digest();
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * A hash of the JIRA instance, ignoring case and a trailing slash. Never {@link #UNKNOWN_SERVER} for a known instance.
+     */
+    static int serverHash(String jiraServerURL) {
+        if (jiraServerURL == null || jiraServerURL.trim().isEmpty()) {
+            return UNKNOWN_SERVER;
+        }
+
+        String normalized = jiraServerURL.trim().toLowerCase(Locale.ENGLISH);
+        while (normalized.endsWith("/")) {
+            normalized = normalized.substring(0, normalized.length() - 1);
+        }
+
+        try {
+            int hash = ByteBuffer.wrap(MessageDigest.getInstance("MD5").digest(normalized.getBytes(UTF_8))).getInt();
+            return hash != UNKNOWN_SERVER ? hash : 1;
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private static boolean hasMagic(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            return raf.length() >= 4 && raf.readInt() == MAGIC;
+        }
+    }
+
+    private static void create(File target, int capacity) throws IOException {
+        File parent = target.getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Can not create directory " + parent);
+        }
+
+        try (RandomAccessFile raf = new RandomAccessFile(target, "rw")) {
+            raf.setLength(0);
+            raf.setLength(HEADER_SIZE + (long) capacity * RECORD_SIZE);
+            raf.writeInt(MAGIC);
+            raf.writeInt(VERSION);
+            raf.writeInt(capacity);
+            raf.writeInt(0);
+            raf.writeInt(0);
+        }
+    }
+
+    private void map(File source) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(source, "rw");
+        channel = raf.getChannel();
+
+        try {
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+
+            if (channel.size() < HEADER_SIZE || buffer.getInt(0) != MAGIC
+                    || (buffer.getInt(4) != VERSION && buffer.getInt(4) != VERSION_WITHOUT_SERVER)) {
+                throw new IOException("Not a fingerprint store");
+            }
+
+            recordSize = buffer.getInt(4) == VERSION ? RECORD_SIZE : RECORD_SIZE_WITHOUT_SERVER;
+            capacity = buffer.getInt(8);
+            size = buffer.getInt(12);
+            removed = buffer.getInt(16);
+
+            if (capacity <= 0 || channel.size() != HEADER_SIZE + (long) capacity * recordSize) {
+                throw new IOException("Fingerprint store has an invalid size");
+            }
+        } catch (IOException ex) {
+            channel.close();
+            channel = null;
+            buffer = null;
+            throw ex;
+        }
+    }
+
+    private void writeHeader() {
+        buffer.putInt(8, capacity);
+        buffer.putInt(12, size);
+        buffer.putInt(16, removed);
+    }
+
+    public static class Entry {
+        private final String issueKey;
+        private final byte status;
+        private final long lastSeen;
+        private final long verifiedAt;
+
+        Entry(String issueKey, byte status, long lastSeen, long verifiedAt) {
+            this.issueKey = issueKey;
+            this.status = status;
+            this.lastSeen = lastSeen;
+            this.verifiedAt = verifiedAt;
+        }
+
+        public String getIssueKey() {
+            return issueKey;
+        }
+
+        public byte getStatus() {
+            return status;
+        }
+
+        public boolean isOpen() {
+            return status == STATUS_OPEN;
+        }
+
+        public long getLastSeen() {
+            return lastSeen;
+        }
+
+        /**
+         * When JIRA last confirmed the issue, in millis with a resolution of a second
+         */
+        public long getVerifiedAt() {
+            return verifiedAt;
+        }
+    }
+}
@@ -0,0 +1,232 @@
+package com.bidorbuy.graylog.alarmcallbacks.jira.dedup;
+
+import com.bidorbuy.graylog.alarmcallbacks.jira.util.JiraMetrics;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Applies JIRA issue webhooks to the local duplicate indexes, so they follow issues resolved, reopened, moved or
+ * deleted in JIRA without waiting for the fingerprint store TTL.
+ * <p>
+ * A resolved issue is marked resolved in the fingerprint stores (a later alert searches JIRA again) and dropped from
+ * the similarity indexes and the correlation table, a reopened issue is marked open again. A deleted or moved issue is
+ * dropped. Only the entries of the JIRA instance the issue belongs to (taken from its REST URL) are updated, an issue
+ * key used by two instances is kept for the other one.
+ * <p>
+ * Webhooks are only accepted with one of the secrets configured in the callbacks, see
+ * {@link com.bidorbuy.graylog.alarmcallbacks.jira.plugin.WebhookConfigurationPeriodical}.
+ */
+public final class IssueEvents {
+
+    private static final Logger LOG = LoggerFactory.getLogger(IssueEvents.class);
+
+    public static final String ISSUE_UPDATED = "jira:issue_updated";
+    public static final String ISSUE_DELETED = "jira:issue_deleted";
+
+    public static final String ACTION_DELETED = "deleted";
+    public static final String ACTION_MOVED = "moved";
+    public static final String ACTION_RESOLVED = "resolved";
+    public static final String ACTION_OPEN = "open";
+    public static final String ACTION_IGNORED = "ignored";
+
+    private static final String REST_PATH = "/rest/api/";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static volatile Set<String> secrets = Collections.emptySet();
+
+    private IssueEvents() {
+    }
+
+    /**
+     * Replace the accepted secrets by those of the current callback configurations, so a changed or removed secret
+     * is no longer accepted
+     */
+    public static void setSecrets(Collection<String> configured) {
+        Set<String> accepted = new HashSet<>();
+        for (String secret : configured) {
+            if (StringUtils.isNotBlank(secret)) {
+                accepted.add(secret);
+            }
+        }
+        secrets = Collections.unmodifiableSet(accepted);
+    }
+
+    /**
+     * Whether a callback configured a webhook secret
+     */
+    public static boolean isEnabled() {
+        return !secrets.isEmpty();
+    }
+
+    public static boolean isAuthorized(String secret) {
+        if (secret == null) {
+            return false;
+        }
+
+        boolean authorized = false;
+        for (String known : secrets) {
+            // compare all of them in constant time, so the response time tells nothing about the secrets
+            authorized |= MessageDigest.isEqual(known.getBytes(UTF_8), secret.getBytes(UTF_8));
+        }
+        return authorized;
+    }
+
+    /**
+     * Apply a webhook as sent by JIRA (the parsed JSON, objects are maps and arrays are lists)
+     */
+    public static Result handle(Map<?, ?> event) {
+        String webhookEvent = text(event.get("webhookEvent"));
+        Map<?, ?> issue = map(event.get("issue"));
+        String issueKey = text(issue.get("key"));
+        String jiraServerURL = serverURL(text(issue.get("self")));
+
+        if (StringUtils.isBlank(issueKey)) {
+            return count(new Result(ACTION_IGNORED, null, 0, 0));
+        }
+
+        Result result;
+
+        if (ISSUE_DELETED.equals(webhookEvent)) {
+            result = new Result(ACTION_DELETED, issueKey, removeFromStores(jiraServerURL, issueKey), SimHashIndex.removeIssueAll(jiraServerURL, issueKey));
+        } else if (ISSUE_UPDATED.equals(webhookEvent)) {
+            String movedFrom = movedFrom(map(event.get("changelog")));
+
+            if (movedFrom != null) {
+                result = new Result(ACTION_MOVED, movedFrom, removeFromStores(jiraServerURL, movedFrom), SimHashIndex.removeIssueAll(jiraServerURL, movedFrom));
+            } else if (isResolved(map(issue.get("fields")))) {
+                CorrelationTable.getInstance().removeIssue(issueKey);
+                result = new Result(ACTION_RESOLVED, issueKey, setStatusInStores(jiraServerURL, issueKey, FingerprintStore.STATUS_RESOLVED),
+                        SimHashIndex.removeIssueAll(jiraServerURL, issueKey));
+            } else {
+                result = new Result(ACTION_OPEN, issueKey, setStatusInStores(jiraServerURL, issueKey, FingerprintStore.STATUS_OPEN), 0);
+            }
+        } else {
+            result = new Result(ACTION_IGNORED, issueKey, 0, 0);
+        }
+
+        if (result.getFingerprints() > 0 || result.getSimilar() > 0) {
+            LOG.info("JIRA webhook " + webhookEvent + ": issue " + result.getIssueKey() + " " + result.getAction() + ", updated "
+                    + result.getFingerprints() + " fingerprint store records and " + result.getSimilar() + " similarity entries");
+        }
+
+        return count(result);
+    }
+
+    private static int removeFromStores(String jiraServerURL, String issueKey) {
+        CorrelationTable.getInstance().removeIssue(issueKey);
+
+        int count = 0;
+        for (FingerprintStore store : FingerprintStore.stores().values()) {
+            count += store.removeIssue(jiraServerURL, issueKey);
+        }
+        return count;
+    }
+
+    private static int setStatusInStores(String jiraServerURL, String issueKey, byte status) {
+        int count = 0;
+        for (FingerprintStore store : FingerprintStore.stores().values()) {
+            count += store.setIssueStatus(jiraServerURL, issueKey, status);
+        }
+        return count;
+    }
+
+    /**
+     * A resolution is set or the status is in the done category
+     */
+    private static boolean isResolved(Map<?, ?> fields) {
+        if (!map(fields.get("resolution")).isEmpty()) {
+            return true;
+        }
+
+        Map<?, ?> statusCategory = map(map(fields.get("status")).get("statusCategory"));
+        return "done".equals(text(statusCategory.get("key")));
+    }
+
+    /**
+     * The previous key of an issue moved to another project, null if it was not moved
+     */
+    private static String movedFrom(Map<?, ?> changelog) {
+        for (Object item : list(changelog.get("items"))) {
+            Map<?, ?> change = map(item);
+            if ("Key".equalsIgnoreCase(text(change.get("field"))) && StringUtils.isNotBlank(text(change.get("fromString")))) {
+                return text(change.get("fromString"));
+            }
+        }
+        return null;
+    }
+
+    /**
+     * The JIRA instance from the REST URL of the issue
+     */
+    private static String serverURL(String self) {
+        if (self == null || !self.contains(REST_PATH)) {
+            return null;
+        }
+        return self.substring(0, self.indexOf(REST_PATH));
+    }
+
+    private static Result count(Result result) {
+        JiraMetrics.counter("webhook", result.getAction()).inc();
+        return result;
+    }
+
+    private static String text(Object value) {
+        // parsed JSON nulls are not Java nulls, but print as "null"
+        return value != null && !"null".equals(value.toString()) ? value.toString() : null;
+    }
+
+    private static Map<?, ?> map(Object value) {
+        return value instanceof Map ? (Map<?, ?>) value : Collections.emptyMap();
+    }
+
+    private static List<?> list(Object value) {
+        return value instanceof List ? (List<?>) value : Collections.emptyList();
+    }
+
+    public static class Result {
+        private final String action;
+        private final String issueKey;
+        private final int fingerprints;
+        private final int similar;
+
+        Result(String action, String issueKey, int fingerprints, int similar) {
+            this.action = action;
+            this.issueKey = issueKey;
+            this.fingerprints = fingerprints;
+            this.similar = similar;
+        }
+
+        public String getAction() {
+            return action;
+        }
+
+        public String getIssueKey() {
+            return issueKey;
+        }
+
+        /**
+         * The fingerprint store records changed
+         */
+        public int getFingerprints() {
+            return fingerprints;
+        }
+
+        /**
+         * The similarity index entries dropped
+         */
+        public int getSimilar() {
+            return similar;
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.bidorbuy.graylog.alarmcallbacks.jira.dedup;
+
+import net.rcarz.jiraclient.Issue;
+import net.rcarz.jiraclient.RestClient;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Tags issues with a {@code graylog_md5_<md5>} label. Labels are indexed for exact matches by every JIRA instance, so
+ * this needs no JIRA configuration at all.
+ */
+public class LabelLookupStrategy implements DuplicateLookupStrategy {
+
+    public static final String LABEL_PREFIX = "graylog_md5_";
+
+    @Override
+    public String getName() {
+        return DuplicateLookupStrategies.LABEL;
+    }
+
+    @Override
+    public String buildClause(Collection<String> fingerprints) {
+        return "labels in (" + DuplicateLookupStrategies.quote(fingerprints, LABEL_PREFIX) + ")";
+    }
+
+    @Override
+    public String getSearchFields() {
+        return "id,key,summary,labels";
+    }
+
+    @Override
+    public Set<String> matches(RestClient restClient, Issue issue, Collection<String> fingerprints) {
+        Set<String> matched = new HashSet<>();
+        if (issue.getLabels() != null) {
+            for (String fingerprint : fingerprints) {
+                if (issue.getLabels().contains(LABEL_PREFIX + fingerprint)) {
+                    matched.add(fingerprint);
+                }
+            }
+        }
+        return matched;
+    }
+
+    @Override
+    public void tagIssue(Issue.FluentCreate issueCreator, List<String> labels, String fingerprint) {
+        labels.add(LABEL_PREFIX + fingerprint);
+    }
+
+    @Override
+    public boolean isTaggedOnCreate() {
+        return true;
+    }
+
+    @Override
+    public void afterCreate(RestClient restClient, Issue issue, String fingerprint) {
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return obj instanceof LabelLookupStrategy;
+    }
+
+    @Override
+    public int hashCode() {
+        return LabelLookupStrategy.class.hashCode();
+    }
+}
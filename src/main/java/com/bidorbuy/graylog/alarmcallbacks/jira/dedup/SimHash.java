@@ -0,0 +1,70 @@
+package com.bidorbuy.graylog.alarmcallbacks.jira.dedup;
+
+import com.bidorbuy.graylog.alarmcallbacks.jira.stats.Hashing;
+
+/**
+ * 64-bit SimHash of a log message. Similar messages get fingerprints with a small Hamming distance.
+ * <p>
+ * The message is normalized first: it is lower-cased and split into alphanumeric tokens, tokens containing digits
+ * (numbers, ids, timestamps, hex values) are replaced by {@code #}. The features are the tokens and token pairs, so
+ * a changed word affects a handful of features only.
+ */
+public final class SimHash {
+
+    public static final int BITS = 64;
+
+    private static final String NUMBER_TOKEN = "#";
+
+    private SimHash() {
+    }
+
+    public static long hash(CharSequence message) {
+        int[] weights = new int[BITS];
+
+        StringBuilder token = new StringBuilder();
+        boolean hasDigit = false;
+        String previous = null;
+
+        for (int i = 0; i <= message.length(); i++) {
+            char c = i < message.length() ? message.charAt(i) : ' ';
+
+            if (Character.isLetterOrDigit(c)) {
+                token.append(Character.toLowerCase(c));
+                hasDigit |= Character.isDigit(c);
+                continue;
+            }
+
+            if (token.length() > 0) {
+                String current = hasDigit ? NUMBER_TOKEN : token.toString();
+
+                addFeature(weights, Hashing.hash64(current));
+                if (previous != null) {
+                    addFeature(weights, Hashing.hash64(previous + ' ' + current));
+                }
+
+                previous = current;
+                token.setLength(0);
+                hasDigit = false;
+            }
+        }
+
+        long simHash = 0;
+        for (int bit = 0; bit < BITS; bit++) {
+            if (weights[bit] > 0) {
+                simHash |= 1L << bit;
+            }
+        }
+
+        return simHash;
+    }
+
+    public static int distance(long a, long b) {
+        return Long.bitCount(a ^ b);
+    }
+
+    private static void addFeature(int[] weights, long featureHash) {
+        for (int bit = 0; bit < BITS; bit++) {
+            weights[bit] += ((featureHash >>> bit) & 1) != 0 ? 1 : -1;
+        }
+    }
+}
@@ -0,0 +1,250 @@
+package com.bidorbuy.graylog.alarmcallbacks.jira.dedup;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * An in-memory locality-sensitive index of the SimHash fingerprints of recent issues.
+ * <p>
+ * The 64 bits are split into {@code maxDistance + 1} bands. Two fingerprints within {@code maxDistance} bits differ in
+ * at most {@code maxDistance} bands, so they share at least one band exactly and a lookup only has to compare the
+ * fingerprints in the matching band buckets. The least recently used fingerprints are evicted beyond the capacity and
+ * fingerprints older than the maximum age are ignored, as their issues may have been closed.
+ */
+public class SimHashIndex {
+
+    public static final int MAX_DISTANCE = 7;
+    public static final int DEFAULT_CAPACITY = 50000;
+    public static final long DEFAULT_MAX_AGE_MILLIS = 24 * 60 * 60 * 1000L;
+
+    private static final ConcurrentMap<String, SimHashIndex> INDEXES = new ConcurrentHashMap<>();
+
+    private final int maxDistance;
+    private final int capacity;
+    private final long maxAgeMillis;
+    private final int bands;
+    private final int bandBits;
+
+    private final LinkedHashMap<Long, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final List<Map<Long, Set<Long>>> buckets = new ArrayList<>();
+
+    public SimHashIndex(int maxDistance, int capacity, long maxAgeMillis) {
+        if (maxDistance < 0 || maxDistance > MAX_DISTANCE) {
+            throw new IllegalArgumentException("The similarity distance must be between 0 and " + MAX_DISTANCE);
+        }
+
+        this.maxDistance = maxDistance;
+        this.capacity = capacity;
+        this.maxAgeMillis = maxAgeMillis;
+        this.bands = maxDistance + 1;
+        this.bandBits = (SimHash.BITS + bands - 1) / bands;
+
+        for (int i = 0; i < bands; i++) {
+            buckets.add(new HashMap<Long, Set<Long>>());
+        }
+    }
+
+    /**
+     * The shared index for a JIRA project and duplicate filter
+     */
+    public static SimHashIndex forScope(String scope, int maxDistance) {
+        String key = scope + "|" + maxDistance;
+
+        SimHashIndex index = INDEXES.get(key);
+        if (index == null) {
+            SimHashIndex created = new SimHashIndex(maxDistance, DEFAULT_CAPACITY, DEFAULT_MAX_AGE_MILLIS);
+            index = INDEXES.putIfAbsent(key, created);
+            if (index == null) {
+                index = created;
+            }
+        }
+
+        return index;
+    }
+
+    /**
+     * The number of fingerprints per shared index
+     */
+    public static Map<String, Integer> sizes() {
+        Map<String, Integer> sizes = new TreeMap<>();
+        for (Map.Entry<String, SimHashIndex> index : INDEXES.entrySet()) {
+            sizes.put(index.getKey(), index.getValue().size());
+        }
+        return sizes;
+    }
+
+    /**
+     * Drop all shared indexes, they are rebuilt from the issues found or created from now on
+     */
+    public static void clearAll() {
+        for (SimHashIndex index : INDEXES.values()) {
+            index.clear();
+        }
+    }
+
+    /**
+     * Drop the fingerprints of the issue from the shared indexes of a JIRA instance
+     *
+     * @param jiraServerURL the instance, null for all
+     * @return the number of fingerprints removed
+     */
+    public static int removeIssueAll(String jiraServerURL, String issueKey) {
+        int count = 0;
+        for (Map.Entry<String, SimHashIndex> index : INDEXES.entrySet()) {
+            String indexServerURL = index.getKey().substring(0, Math.max(0, index.getKey().indexOf('|')));
+            if (jiraServerURL == null || stripSlash(indexServerURL).equalsIgnoreCase(stripSlash(jiraServerURL))) {
+                count += index.getValue().removeIssue(issueKey);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Find the issue of the closest fingerprint within the maximum distance
+     *
+     * @return the closest match or null
+     */
+    public synchronized Match find(long simHash) {
+        long now = System.currentTimeMillis();
+        Entry best = null;
+        int bestDistance = Integer.MAX_VALUE;
+
+        for (int band = 0; band < bands; band++) {
+            Set<Long> candidates = buckets.get(band).get(bandValue(simHash, band));
+            if (candidates == null) {
+                continue;
+            }
+
+            // a fingerprint sharing several bands is compared more than once, which is cheaper than tracking them
+            for (Long candidate : candidates) {
+                int distance = SimHash.distance(simHash, candidate);
+                if (distance <= maxDistance && distance < bestDistance) {
+                    Entry entry = entries.get(candidate);
+                    if (entry != null && now - entry.createdAt <= maxAgeMillis) {
+                        best = entry;
+                        bestDistance = distance;
+                    }
+                }
+            }
+        }
+
+        return best != null ? new Match(best.issueKey, bestDistance) : null;
+    }
+
+    public synchronized void put(long simHash, String issueKey) {
+        Entry previous = entries.remove(simHash);
+        if (previous == null) {
+            for (int band = 0; band < bands; band++) {
+                long value = bandValue(simHash, band);
+                Set<Long> bucket = buckets.get(band).get(value);
+                if (bucket == null) {
+                    bucket = new HashSet<>();
+                    buckets.get(band).put(value, bucket);
+                }
+                bucket.add(simHash);
+            }
+        }
+
+        entries.put(simHash, new Entry(issueKey, System.currentTimeMillis()));
+
+        Iterator<Map.Entry<Long, Entry>> eldest = entries.entrySet().iterator();
+        while (entries.size() > capacity && eldest.hasNext()) {
+            long evicted = eldest.next().getKey();
+            eldest.remove();
+            removeFromBuckets(evicted);
+        }
+    }
+
+    /**
+     * Drop the fingerprints of the issue, i.e. because it was resolved or deleted
+     *
+     * @return the number of fingerprints removed
+     */
+    public synchronized int removeIssue(String issueKey) {
+        int count = 0;
+
+        Iterator<Map.Entry<Long, Entry>> iterator = entries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Long, Entry> entry = iterator.next();
+            if (entry.getValue().issueKey.equals(issueKey)) {
+                iterator.remove();
+                removeFromBuckets(entry.getKey());
+                count++;
+            }
+        }
+
+        return count;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        for (Map<Long, Set<Long>> bucket : buckets) {
+            bucket.clear();
+        }
+    }
+
+    private static String stripSlash(String url) {
+        return url.endsWith("/") ? url.substring(0, url.length() - 1) : url;
+    }
+
+    private void removeFromBuckets(long simHash) {
+        for (int band = 0; band < bands; band++) {
+            long value = bandValue(simHash, band);
+            Set<Long> bucket = buckets.get(band).get(value);
+            if (bucket != null) {
+                bucket.remove(simHash);
+                if (bucket.isEmpty()) {
+                    buckets.get(band).remove(value);
+                }
+            }
+        }
+    }
+
+    private long bandValue(long simHash, int band) {
+        int shift = band * bandBits;
+        int width = Math.min(bandBits, SimHash.BITS - shift);
+        long mask = width >= 64 ? -1L : (1L << width) - 1;
+        return (simHash >>> shift) & mask;
+    }
+
+    private static class Entry {
+        private final String issueKey;
+        private final long createdAt;
+
+        Entry(String issueKey, long createdAt) {
+            this.issueKey = issueKey;
+            this.createdAt = createdAt;
+        }
+    }
+
+    public static class Match {
+        private final String issueKey;
+        private final int distance;
+
+        Match(String issueKey, int distance) {
+            this.issueKey = issueKey;
+            this.distance = distance;
+        }
+
+        public String getIssueKey() {
+            return issueKey;
+        }
+
+        public int getDistance() {
+            return distance;
+        }
+    }
+}
@@ -0,0 +1,325 @@
+package com.bidorbuy.graylog.alarmcallbacks.jira.dispatch;
+
+import com.bidorbuy.graylog.alarmcallbacks.jira.client.Deadline;
+import com.bidorbuy.graylog.alarmcallbacks.jira.client.DeadlineExceededException;
+import com.bidorbuy.graylog.alarmcallbacks.jira.util.JiraMetrics;
+import com.codahale.metrics.Timer;
+import net.rcarz.jiraclient.JiraException;
+
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Decides which alert may talk to a JIRA instance next, so a noisy stream can not delay the alerts of all others.
+ * <p>
+ * At most {@link #DEFAULT_CAPACITY} alerts are dispatched to an instance at a time. Waiting alerts are served by the
+ * JIRA priority of their callback first (strict priority, Critical before Low), within a priority the streams share
+ * the slots by weighted fair queuing (self-clocked: each alert is tagged with its stream's virtual finish time, the
+ * smallest tag goes first). A stream may hold at most its in-flight cap of the slots.
+ */
+public class DispatchScheduler {
+
+    public static final int DEFAULT_CAPACITY = 16;
+
+    // callbacks without a deadline wait at most as long as a target may take
+    static final long MAX_WAIT_MILLIS = TargetDispatcher.DEFAULT_TARGET_TIMEOUT_SECONDS * 1000L;
+
+    static final int PRIORITY_CLASSES = 5;
+    private static final int DEFAULT_PRIORITY_CLASS = 2;
+
+    private static final ConcurrentMap<String, DispatchScheduler> SCHEDULERS = new ConcurrentHashMap<>();
+
+    private final int capacity;
+    private final Timer waits = JiraMetrics.timer("scheduler", "wait");
+
+    private final Map<String, StreamState> streams = new HashMap<>();
+    private final TreeSet<Waiter>[] waiting;
+
+    private int inFlight;
+    private int waiters;
+    private double virtualTime;
+    private long sequence;
+
+    @SuppressWarnings("unchecked")
+    DispatchScheduler(int capacity) {
+        this.capacity = capacity;
+        this.waiting = new TreeSet[PRIORITY_CLASSES];
+
+        for (int i = 0; i < PRIORITY_CLASSES; i++) {
+            waiting[i] = new TreeSet<>(new Comparator<Waiter>() {
+                @Override
+                public int compare(Waiter a, Waiter b) {
+                    int byTag = Double.compare(a.finishTag, b.finishTag);
+                    return byTag != 0 ? byTag : Long.compare(a.sequence, b.sequence);
+                }
+            });
+        }
+    }
+
+    /**
+     * The scheduler of a JIRA instance
+     */
+    public static DispatchScheduler forServer(String jiraServerURL) {
+        DispatchScheduler scheduler = SCHEDULERS.get(jiraServerURL);
+        if (scheduler == null) {
+            DispatchScheduler created = new DispatchScheduler(DEFAULT_CAPACITY);
+            scheduler = SCHEDULERS.putIfAbsent(jiraServerURL, created);
+            if (scheduler == null) {
+                scheduler = created;
+            }
+        }
+        return scheduler;
+    }
+
+    public static Map<String, DispatchScheduler> schedulers() {
+        return new TreeMap<>(SCHEDULERS);
+    }
+
+    /**
+     * The JIRA priority as strict-priority class, 0 is served first. Unknown priorities rank like Medium.
+     */
+    public static int priorityClass(String jiraPriority) {
+        if (jiraPriority == null) {
+            return DEFAULT_PRIORITY_CLASS;
+        }
+
+        switch (jiraPriority.trim().toLowerCase()) {
+            case "highest":
+            case "blocker":
+            case "critical":
+                return 0;
+            case "high":
+            case "major":
+                return 1;
+            case "low":
+            case "minor":
+                return 3;
+            case "lowest":
+            case "trivial":
+                return 4;
+            default:
+                return DEFAULT_PRIORITY_CLASS;
+        }
+    }
+
+    /**
+     * The task, run once the scheduler grants it a slot. It waits no longer than the deadline bound to the calling
+     * thread.
+     *
+     * @param weight         the share of the stream relative to the other streams, at least 1
+     * @param streamInFlight the slots the stream may hold at a time, 0 for no cap
+     */
+    public <T> Callable<T> schedule(final String stream, final int priorityClass, final int weight, final int streamInFlight,
+                                    final Callable<T> task) {
+        return new Callable<T>() {
+            @Override
+            public T call() throws Exception {
+                Deadline deadline = Deadline.current();
+                long timeoutMillis = deadline.isNone() ? MAX_WAIT_MILLIS : deadline.remainingMillis();
+
+                acquire(stream, priorityClass, weight, streamInFlight, timeoutMillis);
+                try {
+                    return task.call();
+                } finally {
+                    release(stream);
+                }
+            }
+        };
+    }
+
+    void acquire(String stream, int priorityClass, int weight, int streamInFlight, long timeoutMillis)
+            throws JiraException, InterruptedException {
+        Timer.Context context = waits.time();
+
+        try {
+            synchronized (this) {
+                StreamState state = stream(stream);
+                state.weight = Math.max(1, weight);
+                state.cap = streamInFlight > 0 ? streamInFlight : capacity;
+
+                double finishTag = Math.max(virtualTime, state.lastFinish) + 1.0 / state.weight;
+                state.lastFinish = finishTag;
+
+                // the uncontended case skips the queue
+                if (waiters == 0 && inFlight < capacity && state.inFlight < state.cap) {
+                    virtualTime = finishTag;
+                    grant(state);
+                    return;
+                }
+
+                TreeSet<Waiter> queue = waiting[Math.max(0, Math.min(PRIORITY_CLASSES - 1, priorityClass))];
+                Waiter waiter = new Waiter(state, finishTag, sequence++);
+                queue.add(waiter);
+                waiters++;
+
+                long until = System.currentTimeMillis() + timeoutMillis;
+
+                try {
+                    while (!waiter.granted) {
+                        long remaining = until - System.currentTimeMillis();
+                        if (remaining <= 0) {
+                            break;
+                        }
+                        wait(remaining);
+                    }
+                } catch (InterruptedException ex) {
+                    if (waiter.granted) {
+                        release(stream);
+                    }
+                    throw ex;
+                } finally {
+                    if (!waiter.granted) {
+                        queue.remove(waiter);
+                        waiters--;
+                        forget(state);
+                    }
+                }
+
+                if (!waiter.granted) {
+                    JiraMetrics.counter("scheduler", "timeouts").inc();
+                    if (!Deadline.current().isNone()) {
+                        throw new DeadlineExceededException("a JIRA dispatch slot for stream " + stream + " was free");
+                    }
+                    throw new JiraException("Timed out after " + timeoutMillis + "ms waiting for a JIRA dispatch slot for stream " + stream);
+                }
+            }
+        } finally {
+            context.stop();
+        }
+    }
+
+    synchronized void release(String stream) {
+        StreamState state = streams.get(stream);
+        inFlight--;
+        if (state != null) {
+            state.inFlight--;
+            forget(state);
+        }
+
+        dispatch();
+    }
+
+    /**
+     * Hand the free slots to the waiters: the highest priority class first, within it the smallest finish tag whose
+     * stream is below its cap
+     */
+    private void dispatch() {
+        boolean granted = false;
+
+        for (int priority = 0; priority < PRIORITY_CLASSES && inFlight < capacity; priority++) {
+            Waiter next;
+            do {
+                next = null;
+                for (Waiter waiter : waiting[priority]) {
+                    if (waiter.state.inFlight < waiter.state.cap) {
+                        next = waiter;
+                        break;
+                    }
+                }
+
+                if (next != null) {
+                    waiting[priority].remove(next);
+                    waiters--;
+                    virtualTime = Math.max(virtualTime, next.finishTag);
+                    next.granted = true;
+                    grant(next.state);
+                    granted = true;
+                }
+            } while (next != null && inFlight < capacity);
+        }
+
+        if (granted) {
+            notifyAll();
+        }
+    }
+
+    private void grant(StreamState state) {
+        inFlight++;
+        state.inFlight++;
+    }
+
+    private StreamState stream(String stream) {
+        StreamState state = streams.get(stream);
+        if (state == null) {
+            state = new StreamState(stream);
+            streams.put(stream, state);
+        }
+        return state;
+    }
+
+    /**
+     * Drop an idle stream once its virtual finish time lies behind, it has no credit or debt left to remember
+     */
+    private void forget(StreamState state) {
+        if (state.inFlight == 0 && state.lastFinish <= virtualTime && !isWaiting(state)) {
+            streams.remove(state.name);
+        }
+    }
+
+    private boolean isWaiting(StreamState state) {
+        for (TreeSet<Waiter> queue : waiting) {
+            for (Waiter waiter : queue) {
+                if (waiter.state == state) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    public synchronized int getWaiting() {
+        return waiters;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * The slots held per stream
+     */
+    public synchronized Map<String, Integer> getInFlightByStream() {
+        Map<String, Integer> result = new TreeMap<>();
+        for (StreamState state : streams.values()) {
+            if (state.inFlight > 0) {
+                result.put(state.name, state.inFlight);
+            }
+        }
+        return result;
+    }
+
+    private static class StreamState {
+        private final String name;
+        private int inFlight;
+        private int weight = 1;
+        private int cap;
+        private double lastFinish;
+
+        private StreamState(String name) {
+            this.name = name;
+        }
+    }
+
+    private static class Waiter {
+        private final StreamState state;
+        private final double finishTag;
+        private final long sequence;
+        private boolean granted;
+
+        private Waiter(StreamState state, double finishTag, long sequence) {
+            this.state = state;
+            this.finishTag = finishTag;
+            this.sequence = sequence;
+        }
+    }
+}
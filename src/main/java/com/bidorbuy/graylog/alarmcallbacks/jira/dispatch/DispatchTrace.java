@@ -0,0 +1,87 @@
+package com.bidorbuy.graylog.alarmcallbacks.jira.dispatch;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * What happened to one alert for one JIRA target: the decision taken, the issue and the time spent per stage
+ * <p>
+ * A trace is filled by the dispatching thread only and published to the {@link TraceRingBuffer} when it is complete.
+ */
+public class DispatchTrace {
+
+    public static final String DECISION_CORRELATED = "correlated";
+    public static final String DECISION_FINGERPRINT_STORE = "fingerprint-store";
+    public static final String DECISION_SIMILAR = "similar";
+    public static final String DECISION_DUPLICATE = "duplicate";
+    public static final String DECISION_CREATED = "created";
+    public static final String DECISION_STORM = "storm";
+    public static final String DECISION_FAILED = "failed";
+
+    private final long timestamp = System.currentTimeMillis();
+    private final String target;
+    private final String fingerprint;
+    private final Map<String, Long> stages = new LinkedHashMap<>();
+
+    private long stageStart = System.nanoTime();
+    private String decision;
+    private String issueKey;
+    private String error;
+
+    public DispatchTrace(String target, String fingerprint) {
+        this.target = target;
+        this.fingerprint = fingerprint;
+    }
+
+    /**
+     * Record the time since the previous stage ended
+     */
+    public void stage(String name) {
+        long now = System.nanoTime();
+        Long previous = stages.get(name);
+        stages.put(name, (previous != null ? previous : 0L) + (now - stageStart) / 1000000L);
+        stageStart = now;
+    }
+
+    public void decide(String decision, String issueKey) {
+        this.decision = decision;
+        this.issueKey = issueKey;
+    }
+
+    public void fail(Throwable ex) {
+        this.decision = DECISION_FAILED;
+        this.error = ex.getClass().getSimpleName() + (ex.getMessage() != null ? ": " + ex.getMessage() : "");
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public String getTarget() {
+        return target;
+    }
+
+    public String getFingerprint() {
+        return fingerprint;
+    }
+
+    public String getDecision() {
+        return decision;
+    }
+
+    public String getIssueKey() {
+        return issueKey;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    /**
+     * Milliseconds per stage, in the order the stages ran
+     */
+    public Map<String, Long> getStages() {
+        return Collections.unmodifiableMap(stages);
+    }
+}
@@ -0,0 +1,73 @@
+package com.bidorbuy.graylog.alarmcallbacks.jira.dispatch;
+
+import org.apache.commons.lang3.StringUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A JIRA instance and project an alert is filed in
+ */
+public final class JiraTarget {
+
+    private final String jiraServerURL;
+    private final String projectKey;
+    private final String md5CustomFieldName;
+
+    public JiraTarget(String jiraServerURL, String projectKey, String md5CustomFieldName) {
+        this.jiraServerURL = jiraServerURL;
+        this.projectKey = projectKey;
+        this.md5CustomFieldName = md5CustomFieldName;
+    }
+
+    /**
+     * Parse a comma-separated list of additional targets. Each target is either a project key on the primary JIRA
+     * instance, or {@code <url>|<project>[|<md5 custom field>]} for another instance.
+     *
+     * @throws IllegalArgumentException if a target is malformed
+     */
+    public static List<JiraTarget> parse(String targets, JiraTarget primary) {
+        List<JiraTarget> result = new ArrayList<>();
+
+        if (StringUtils.isBlank(targets)) {
+            return result;
+        }
+
+        for (String target : StringUtils.split(targets, ',')) {
+            String[] parts = StringUtils.splitPreserveAllTokens(target.trim(), '|');
+
+            if (parts.length == 1 && StringUtils.isNotBlank(parts[0])) {
+                result.add(new JiraTarget(primary.getJiraServerURL(), parts[0].trim(), primary.getMd5CustomFieldName()));
+            } else if ((parts.length == 2 || parts.length == 3) && StringUtils.isNotBlank(parts[0]) && StringUtils.isNotBlank(parts[1])) {
+                String url = parts[0].trim();
+                String customField = parts.length == 3 && StringUtils.isNotBlank(parts[2]) ? parts[2].trim()
+                        : (url.equals(primary.getJiraServerURL()) ? primary.getMd5CustomFieldName() : null);
+                result.add(new JiraTarget(url, parts[1].trim(), customField));
+            } else {
+                throw new IllegalArgumentException("Invalid JIRA target '" + target.trim() + "', expected <project> or <url>|<project>[|<md5 custom field>]");
+            }
+        }
+
+        return result;
+    }
+
+    public String getJiraServerURL() {
+        return jiraServerURL;
+    }
+
+    public String getProjectKey() {
+        return projectKey;
+    }
+
+    /**
+     * The MD5 custom field on this instance, null to look it up
+     */
+    public String getMd5CustomFieldName() {
+        return md5CustomFieldName;
+    }
+
+    @Override
+    public String toString() {
+        return projectKey + "@" + jiraServerURL;
+    }
+}
@@ -0,0 +1,209 @@
+package com.bidorbuy.graylog.alarmcallbacks.jira.dispatch;
+
+import com.bidorbuy.graylog.alarmcallbacks.jira.client.Deadline;
+import com.bidorbuy.graylog.alarmcallbacks.jira.util.JiraMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Alerts which ran out of their deadline, dispatched again in the background so the Graylog alert thread is not
+ * blocked by a slow JIRA.
+ * <p>
+ * The outbox lives in memory only and is bounded, an alert which does not fit or fails too often is logged and
+ * dropped. A repeated dispatch starts with the duplicate lookup, so an issue created by the timed out attempt is found.
+ */
+public class Outbox {
+
+    private static final Logger LOG = LoggerFactory.getLogger(Outbox.class);
+
+    public static final int DEFAULT_CAPACITY = 1000;
+
+    static final int MAX_ATTEMPTS = 5;
+    static final int RETRY_INTERVAL_SECONDS = 30;
+    static final long RETRY_DELAY_MILLIS = 60000;
+
+    private static final Outbox INSTANCE = new Outbox(DEFAULT_CAPACITY);
+
+    private final int capacity;
+    private final ConcurrentLinkedQueue<Entry> entries = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger size = new AtomicInteger();
+
+    private final AtomicBoolean drainQueued = new AtomicBoolean();
+    private final Object retrierLock = new Object();
+    private volatile ScheduledExecutorService retrier;
+
+    Outbox(int capacity) {
+        this.capacity = capacity;
+    }
+
+    public static Outbox getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Queue the dispatch of an alert to a target
+     *
+     * @param budgetMillis the deadline of each further attempt
+     * @param alert        describes the alert in the log if it is dropped
+     * @return false if the outbox is full
+     */
+    public boolean add(JiraTarget target, Callable<Void> task, long budgetMillis, String alert) {
+        if (size.incrementAndGet() > capacity) {
+            size.decrementAndGet();
+            JiraMetrics.counter("outbox", "rejected").inc();
+            return false;
+        }
+
+        entries.add(new Entry(target, task, budgetMillis, alert, System.currentTimeMillis() + RETRY_DELAY_MILLIS));
+        JiraMetrics.counter("outbox", "queued").inc();
+
+        startRetrier();
+        return true;
+    }
+
+    public int size() {
+        return size.get();
+    }
+
+    /**
+     * Dispatch all queued alerts now on the retrier thread, instead of waiting until they are due. Returns right away,
+     * the alerts are sent after a retry which is already running. Drains requested before it starts are run once.
+     *
+     * @return the number of alerts queued
+     */
+    public int drain() {
+        if (!drainQueued.compareAndSet(false, true)) {
+            return size();
+        }
+
+        startRetrier().execute(new Runnable() {
+            @Override
+            public void run() {
+                drainQueued.set(false);
+                try {
+                    retry(true);
+                } catch (RuntimeException ex) {
+                    LOG.info("error-Draining the JIRA outbox failed: " + ex.getMessage(), ex);
+                }
+            }
+        });
+
+        return size();
+    }
+
+    /**
+     * Dispatch the alerts which are due
+     *
+     * @return the number of alerts delivered
+     */
+    synchronized int retry(boolean all) {
+        long now = System.currentTimeMillis();
+        List<Entry> due = new ArrayList<>();
+
+        for (int pending = entries.size(); pending > 0; pending--) {
+            Entry entry = entries.poll();
+            if (entry == null) {
+                break;
+            }
+            if (all || entry.nextAttemptAt <= now) {
+                due.add(entry);
+            } else {
+                entries.add(entry);
+            }
+        }
+
+        int delivered = 0;
+
+        for (Entry entry : due) {
+            entry.attempts++;
+
+            try {
+                Deadline.bind(Deadline.after(entry.budgetMillis), entry.task).call();
+
+                size.decrementAndGet();
+                delivered++;
+                JiraMetrics.counter("outbox", "delivered").inc();
+                LOG.info("Delivered " + entry.alert + " to JIRA target " + entry.target + " from the outbox");
+            } catch (Exception ex) {
+                if (entry.attempts >= MAX_ATTEMPTS) {
+                    size.decrementAndGet();
+                    JiraMetrics.counter("outbox", "dropped").inc();
+                    LOG.info("error-Dropping " + entry.alert + " for JIRA target " + entry.target + " after " + entry.attempts
+                            + " attempts from the outbox: " + ex.getMessage());
+                } else {
+                    entry.nextAttemptAt = System.currentTimeMillis() + RETRY_DELAY_MILLIS * entry.attempts;
+                    entries.add(entry);
+                    LOG.info("warn-Outbox attempt " + entry.attempts + " for " + entry.alert + " to JIRA target " + entry.target
+                            + " failed: " + ex.getMessage());
+                }
+            }
+        }
+
+        return delivered;
+    }
+
+    /**
+     * The retrier thread, started with the first alert or drain. Not guarded by the outbox monitor, which is held
+     * while alerts are retried.
+     */
+    private ScheduledExecutorService startRetrier() {
+        synchronized (retrierLock) {
+            if (retrier == null) {
+                retrier = newRetrier();
+            }
+            return retrier;
+        }
+    }
+
+    private ScheduledExecutorService newRetrier() {
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "jira-outbox");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        executor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    retry(false);
+                } catch (RuntimeException ex) {
+                    LOG.info("error-Retrying the JIRA outbox failed: " + ex.getMessage(), ex);
+                }
+            }
+        }, RETRY_INTERVAL_SECONDS, RETRY_INTERVAL_SECONDS, TimeUnit.SECONDS);
+
+        return executor;
+    }
+
+    private static class Entry {
+        private final JiraTarget target;
+        private final Callable<Void> task;
+        private final long budgetMillis;
+        private final String alert;
+        private long nextAttemptAt;
+        private int attempts;
+
+        private Entry(JiraTarget target, Callable<Void> task, long budgetMillis, String alert, long nextAttemptAt) {
+            this.target = target;
+            this.task = task;
+            this.budgetMillis = budgetMillis;
+            this.alert = alert;
+            this.nextAttemptAt = nextAttemptAt;
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package com.bidorbuy.graylog.alarmcallbacks.jira.dispatch;
+
+import com.bidorbuy.graylog.alarmcallbacks.jira.util.JiraMetrics;
+import com.codahale.metrics.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the dispatch of one alert to several JIRA targets concurrently, each with its own timeout and outcome.
+ * <p>
+ * A single target is dispatched on the calling thread, so callbacks without additional targets behave as before.
+ */
+public class TargetDispatcher {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TargetDispatcher.class);
+
+    public static final int DEFAULT_TARGET_TIMEOUT_SECONDS = 60;
+
+    private static final int THREADS = 16;
+
+    private static final TargetDispatcher INSTANCE = new TargetDispatcher();
+
+    private final ThreadPoolExecutor executor;
+    private final ConcurrentMap<String, Timer> latencies = new ConcurrentHashMap<>();
+
+    public enum Outcome {
+        SUCCESS, FAILED, TIMEOUT
+    }
+
+    TargetDispatcher() {
+        final AtomicInteger threadNumber = new AtomicInteger();
+
+        this.executor = (ThreadPoolExecutor) Executors.newFixedThreadPool(THREADS, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "jira-dispatch-" + threadNumber.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    public static TargetDispatcher getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Dispatch to all targets and wait for them, but no longer than the timeout per target
+     *
+     * @return the outcome per target, the failure is available via {@link Result#getFailure()}
+     */
+    public Map<JiraTarget, Result> dispatch(Map<JiraTarget, Callable<Void>> tasks, long timeoutMillis) {
+        Map<JiraTarget, Result> results = new LinkedHashMap<>();
+
+        if (tasks.size() == 1) {
+            Map.Entry<JiraTarget, Callable<Void>> task = tasks.entrySet().iterator().next();
+            results.put(task.getKey(), runInline(task.getKey(), task.getValue()));
+            return results;
+        }
+
+        Map<JiraTarget, Future<Void>> futures = new LinkedHashMap<>();
+        for (Map.Entry<JiraTarget, Callable<Void>> task : tasks.entrySet()) {
+            futures.put(task.getKey(), executor.submit(timed(task.getKey(), task.getValue())));
+        }
+
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+
+        for (Map.Entry<JiraTarget, Future<Void>> future : futures.entrySet()) {
+            Result result;
+
+            try {
+                future.getValue().get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+                result = new Result(Outcome.SUCCESS, null);
+            } catch (TimeoutException ex) {
+                future.getValue().cancel(true);
+                result = new Result(Outcome.TIMEOUT, ex);
+            } catch (ExecutionException ex) {
+                result = new Result(Outcome.FAILED, ex.getCause());
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                future.getValue().cancel(true);
+                result = new Result(Outcome.FAILED, ex);
+            }
+
+            record(future.getKey(), result);
+            results.put(future.getKey(), result);
+        }
+
+        return results;
+    }
+
+    private Result runInline(JiraTarget target, Callable<Void> task) {
+        Result result;
+
+        try {
+            timed(target, task).call();
+            result = new Result(Outcome.SUCCESS, null);
+        } catch (Exception ex) {
+            result = new Result(Outcome.FAILED, ex);
+        }
+
+        record(target, result);
+        return result;
+    }
+
+    /**
+     * The dispatch latency per target, including retries and the duplicate lookup
+     */
+    public Map<String, Timer> getLatencies() {
+        return new TreeMap<>(latencies);
+    }
+
+    /**
+     * The number of dispatches waiting for a thread
+     */
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    public int getActiveCount() {
+        return executor.getActiveCount();
+    }
+
+    private <T> Callable<T> timed(JiraTarget target, final Callable<T> task) {
+        String name = target.toString();
+
+        Timer timer = latencies.get(name);
+        if (timer == null) {
+            timer = JiraMetrics.timer("target", name);
+            latencies.putIfAbsent(name, timer);
+        }
+
+        final Timer latency = timer;
+
+        return new Callable<T>() {
+            @Override
+            public T call() throws Exception {
+                Timer.Context context = latency.time();
+                try {
+                    return task.call();
+                } finally {
+                    context.stop();
+                }
+            }
+        };
+    }
+
+    private static void record(JiraTarget target, Result result) {
+        JiraMetrics.counter("dispatch", result.getOutcome().name().toLowerCase()).inc();
+
+        if (result.getOutcome() != Outcome.SUCCESS) {
+            Throwable failure = result.getFailure();
+            LOG.info("error-Dispatch to JIRA target " + target + " " + result.getOutcome().name().toLowerCase()
+                    + (failure != null && failure.getMessage() != null ? ": " + failure.getMessage() : ""));
+        }
+    }
+
+    public static class Result {
+        private final Outcome outcome;
+        private final Throwable failure;
+
+        Result(Outcome outcome, Throwable failure) {
+            this.outcome = outcome;
+            this.failure = failure;
+        }
+
+        public Outcome getOutcome() {
+            return outcome;
+        }
+
+        public Throwable getFailure() {
+            return failure;
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package com.bidorbuy.graylog.alarmcallbacks.jira.dispatch;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A fixed-size buffer of the most recent dispatch traces. Writers claim a slot with a single atomic increment and
+ * never block each other or the readers; a reader may miss a trace which is overwritten while it reads.
+ */
+public class TraceRingBuffer {
+
+    public static final int DEFAULT_CAPACITY = 256;
+
+    private static final TraceRingBuffer INSTANCE = new TraceRingBuffer(DEFAULT_CAPACITY);
+
+    private final AtomicReferenceArray<DispatchTrace> traces;
+    private final AtomicLong sequence = new AtomicLong();
+
+    public TraceRingBuffer(int capacity) {
+        this.traces = new AtomicReferenceArray<>(capacity);
+    }
+
+    public static TraceRingBuffer getInstance() {
+        return INSTANCE;
+    }
+
+    public void add(DispatchTrace trace) {
+        long slot = sequence.getAndIncrement();
+        traces.set((int) (slot % traces.length()), trace);
+    }
+
+    /**
+     * The most recent traces, newest first
+     */
+    public List<DispatchTrace> latest(int limit) {
+        long end = sequence.get();
+        int count = (int) Math.min(Math.min(limit, traces.length()), end);
+        List<DispatchTrace> result = new ArrayList<>(count);
+
+        for (long slot = end - 1; slot >= end - count; slot--) {
+            DispatchTrace trace = traces.get((int) (slot % traces.length()));
+            if (trace != null) {
+                result.add(trace);
+            }
+        }
+
+        return result;
+    }
+
+    public long getTotal() {
+        return sequence.get();
+    }
+
+    public int getCapacity() {
+        return traces.length();
+    }
+}
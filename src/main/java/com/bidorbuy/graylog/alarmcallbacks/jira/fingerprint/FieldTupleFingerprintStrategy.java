@@ -0,0 +1,69 @@
+package com.bidorbuy.graylog.alarmcallbacks.jira.fingerprint;
+
+import com.bidorbuy.graylog.alarmcallbacks.jira.JiraAlarmCallback;
+import com.bidorbuy.graylog.alarmcallbacks.jira.alert.AlertSnapshot;
+import com.bidorbuy.graylog.alarmcallbacks.jira.util.JiraUtil;
+import org.apache.commons.lang3.StringUtils;
+import org.graylog2.plugin.configuration.Configuration;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Fingerprints the values of the configured message fields, i.e. {@code source,facility,error_code}: alerts with the
+ * same values are the same problem, whatever their message says
+ */
+public class FieldTupleFingerprintStrategy implements FingerprintStrategy {
+
+    public static final String NAME = "fields";
+
+    private static final String MESSAGE = "message";
+    private static final String SOURCE = "source";
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public Set<String> getReferencedFields(Configuration configuration) {
+        Set<String> fields = new LinkedHashSet<>();
+
+        if (JiraUtil.isSetAndNotNullText(configuration, JiraAlarmCallback.JIRA_FINGERPRINT_FIELDS)) {
+            for (String field : StringUtils.split(configuration.getString(JiraAlarmCallback.JIRA_FINGERPRINT_FIELDS), ',')) {
+                if (StringUtils.isNotBlank(field)) {
+                    fields.add(field.trim());
+                }
+            }
+        }
+
+        return fields;
+    }
+
+    @Override
+    public String buildInput(Configuration configuration, AlertSnapshot snapshot) {
+        if (!snapshot.hasMessage()) {
+            return "";
+        }
+
+        StringBuilder input = new StringBuilder();
+        boolean anyValue = false;
+
+        for (String field : getReferencedFields(configuration)) {
+            String value;
+            if (MESSAGE.equals(field)) {
+                value = snapshot.getMessage();
+            } else if (SOURCE.equals(field)) {
+                value = snapshot.getSource();
+            } else {
+                value = snapshot.getFields().get(field);
+            }
+
+            anyValue |= value != null;
+            input.append(field).append('=').append(StringUtils.defaultString(value)).append('\n');
+        }
+
+        // none of the fields is set, there is nothing to tell alerts apart
+        return anyValue ? input.toString() : "";
+    }
+}
@@ -0,0 +1,91 @@
+package com.bidorbuy.graylog.alarmcallbacks.jira.fingerprint;
+
+import com.bidorbuy.graylog.alarmcallbacks.jira.JiraAlarmCallback;
+import com.bidorbuy.graylog.alarmcallbacks.jira.util.JiraUtil;
+import org.graylog2.plugin.configuration.Configuration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+import java.util.Set;
+
+/**
+ * The fingerprint strategies found on the plugin class path
+ */
+public final class FingerprintStrategies {
+
+    private static final Logger LOG = LoggerFactory.getLogger(FingerprintStrategies.class);
+
+    // callbacks created before the strategies existed use the MD5 pattern
+    public static final String DEFAULT_STRATEGY = PatternFingerprintStrategy.NAME;
+
+    private static volatile Map<String, FingerprintStrategy> strategies;
+
+    private FingerprintStrategies() {
+    }
+
+    /**
+     * The strategies by name, the built-in pattern strategy first
+     */
+    public static Map<String, FingerprintStrategy> all() {
+        Map<String, FingerprintStrategy> loaded = strategies;
+
+        if (loaded == null) {
+            loaded = new LinkedHashMap<>();
+            loaded.put(DEFAULT_STRATEGY, new PatternFingerprintStrategy());
+
+            try {
+                for (FingerprintStrategy strategy : ServiceLoader.load(FingerprintStrategy.class, FingerprintStrategy.class.getClassLoader())) {
+                    if (!loaded.containsKey(strategy.getName())) {
+                        loaded.put(strategy.getName(), strategy);
+                    }
+                }
+            } catch (ServiceConfigurationError ex) {
+                LOG.info("error-Can not load the fingerprint strategies: " + ex.getMessage());
+            }
+
+            loaded = Collections.unmodifiableMap(loaded);
+            strategies = loaded;
+        }
+
+        return loaded;
+    }
+
+    public static Set<String> names() {
+        return all().keySet();
+    }
+
+    /**
+     * @throws IllegalArgumentException if there is no strategy with the name
+     */
+    public static FingerprintStrategy get(String name) {
+        FingerprintStrategy strategy = all().get(name);
+        if (strategy == null) {
+            throw new IllegalArgumentException("Unknown fingerprint strategy '" + name + "', available are " + names());
+        }
+        return strategy;
+    }
+
+    /**
+     * The strategy selected by the callback, the pattern strategy if none or an unknown one is selected
+     */
+    public static FingerprintStrategy forConfiguration(Configuration configuration) {
+        if (!JiraUtil.isSetAndNotNullText(configuration, JiraAlarmCallback.JIRA_FINGERPRINT_STRATEGY)) {
+            return all().get(DEFAULT_STRATEGY);
+        }
+
+        String name = configuration.getString(JiraAlarmCallback.JIRA_FINGERPRINT_STRATEGY).trim();
+        FingerprintStrategy strategy = all().get(name);
+
+        if (strategy == null) {
+            LOG.info("warn-Unknown fingerprint strategy '" + name + "', using '" + DEFAULT_STRATEGY + "'");
+            return all().get(DEFAULT_STRATEGY);
+        }
+
+        return strategy;
+    }
+}
@@ -0,0 +1,32 @@
+package com.bidorbuy.graylog.alarmcallbacks.jira.fingerprint;
+
+import com.bidorbuy.graylog.alarmcallbacks.jira.alert.AlertSnapshot;
+import org.graylog2.plugin.configuration.Configuration;
+
+import java.util.Set;
+
+/**
+ * Decides which alerts are the same problem: builds the text the MD5 (and the SimHash) of an alert is calculated from.
+ * <p>
+ * Strategies are discovered with {@link java.util.ServiceLoader}, further strategies can be added by listing them in
+ * {@code META-INF/services/com.bidorbuy.graylog.alarmcallbacks.jira.fingerprint.FingerprintStrategy}. They must have a
+ * public no-argument constructor and be thread-safe, one instance serves all callbacks.
+ */
+public interface FingerprintStrategy {
+
+    /**
+     * The name used in the {@code jira_fingerprint_strategy} setting
+     */
+    String getName();
+
+    /**
+     * The fields of the last message the strategy reads from {@link AlertSnapshot#getFields()}, the snapshot does
+     * not keep any other fields for it. The message and its source are always available.
+     */
+    Set<String> getReferencedFields(Configuration configuration);
+
+    /**
+     * The text to fingerprint, empty if the alert has nothing to fingerprint
+     */
+    String buildInput(Configuration configuration, AlertSnapshot snapshot);
+}
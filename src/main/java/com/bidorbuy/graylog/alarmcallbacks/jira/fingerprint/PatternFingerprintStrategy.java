@@ -0,0 +1,32 @@
+package com.bidorbuy.graylog.alarmcallbacks.jira.fingerprint;
+
+import com.bidorbuy.graylog.alarmcallbacks.jira.JiraAlarmCallback;
+import com.bidorbuy.graylog.alarmcallbacks.jira.alert.AlertSnapshot;
+import com.bidorbuy.graylog.alarmcallbacks.jira.util.JiraUtil;
+import org.graylog2.plugin.configuration.Configuration;
+
+import java.util.Set;
+
+/**
+ * The original fingerprint: the MD5 pattern with its placeholders, or the part of the message matched by the message
+ * regex if there is no pattern
+ */
+public class PatternFingerprintStrategy implements FingerprintStrategy {
+
+    public static final String NAME = "pattern";
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public Set<String> getReferencedFields(Configuration configuration) {
+        return AlertSnapshot.referencedFields(configuration.getString(JiraAlarmCallback.JIRA_MD5_HASH_PATTERN));
+    }
+
+    @Override
+    public String buildInput(Configuration configuration, AlertSnapshot snapshot) {
+        return JiraUtil.buildJIRAPatternDigestInput(configuration, snapshot);
+    }
+}
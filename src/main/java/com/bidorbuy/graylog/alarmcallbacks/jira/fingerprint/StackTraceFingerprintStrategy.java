@@ -0,0 +1,84 @@
+package com.bidorbuy.graylog.alarmcallbacks.jira.fingerprint;
+
+import com.bidorbuy.graylog.alarmcallbacks.jira.alert.AlertSnapshot;
+import org.graylog2.plugin.configuration.Configuration;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Fingerprints the Java stack trace in the message: the exception classes and the top frames without their line
+ * numbers. Exception messages (ids, timestamps) and line numbers (changed by every release) do not split one problem
+ * into several issues. Messages without a stack trace fall back to the MD5 pattern.
+ */
+public class StackTraceFingerprintStrategy implements FingerprintStrategy {
+
+    public static final String NAME = "stacktrace";
+
+    static final int MAX_FRAMES = 10;
+
+    private static final Pattern EXCEPTION = Pattern.compile("^(?:Caused by: |Exception in thread \"[^\"]*\" )?([\\w$]+(?:\\.[\\w$]+)+(?:Exception|Error|Throwable)\\b)");
+    private static final Pattern FRAME = Pattern.compile("^\\s*at\\s+([\\w$.<>/]+)\\(");
+    private static final Pattern EMBEDDED_EXCEPTION = Pattern.compile("\\s([\\w$]+(?:\\.[\\w$]+)+(?:Exception|Error))(?::|$)");
+
+    private final PatternFingerprintStrategy fallback = new PatternFingerprintStrategy();
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public Set<String> getReferencedFields(Configuration configuration) {
+        return fallback.getReferencedFields(configuration);
+    }
+
+    @Override
+    public String buildInput(Configuration configuration, AlertSnapshot snapshot) {
+        String input = snapshot.hasMessage() ? normalize(snapshot.getMessage()) : "";
+        return !input.isEmpty() ? input : fallback.buildInput(configuration, snapshot);
+    }
+
+    /**
+     * The exception classes (including the causes) and the first frames of the stack trace, empty if the message
+     * has no stack trace
+     */
+    static String normalize(String message) {
+        StringBuilder input = new StringBuilder();
+        int frames = 0;
+        boolean causes = false;
+
+        for (String line : message.split("\r?\n")) {
+            String trimmed = line.trim();
+
+            Matcher frame = FRAME.matcher(line);
+            if (frame.find()) {
+                // only the frames of the outermost exception are kept, the causes add their class names
+                if (!causes && frames < MAX_FRAMES) {
+                    input.append("at ").append(frame.group(1)).append('\n');
+                    frames++;
+                }
+                continue;
+            }
+
+            Matcher exception = EXCEPTION.matcher(trimmed);
+            if (exception.find()) {
+                causes |= trimmed.startsWith("Caused by: ");
+                input.append(exception.group(1)).append('\n');
+                continue;
+            }
+
+            // log prefixes such as "H/M 07/03/16 15:37:23 host-1 OrderIO java.sql.SQLException: ..."
+            if (frames == 0 && !causes) {
+                Matcher embedded = EMBEDDED_EXCEPTION.matcher(trimmed);
+                if (embedded.find()) {
+                    input.append(embedded.group(1)).append('\n');
+                }
+            }
+        }
+
+        return frames > 0 ? input.toString() : "";
+    }
+}
@@ -0,0 +1,195 @@
+package com.bidorbuy.graylog.alarmcallbacks.jira.mapping;
+
+import org.apache.commons.lang3.StringUtils;
+import org.joda.time.DateTime;
+import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.DateTimeFormatter;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Turns the text of a Graylog field into the value JIRA expects for a field type. The values of text, number, date,
+ * user and list fields are passed to the issue create, select lists are not supported by the JIRA client and are set
+ * right after the issue was created.
+ */
+public enum FieldConverter {
+
+    TEXT(false) {
+        @Override
+        Object convert(String value) {
+            return value;
+        }
+    },
+    NUMBER(false) {
+        @Override
+        Object convert(String value) {
+            String number = value.trim();
+            try {
+                if (number.matches("[-+]?\\d{1,18}")) {
+                    return Long.valueOf(number);
+                }
+                return Double.valueOf(number);
+            } catch (NumberFormatException ex) {
+                throw new IllegalArgumentException("'" + value + "' is not a number");
+            }
+        }
+    },
+    DATE(false) {
+        @Override
+        Object convert(String value) {
+            return parseTime(value).toDate();
+        }
+    },
+    DATETIME(false) {
+        @Override
+        Object convert(String value) {
+            return new Timestamp(parseTime(value).getMillis());
+        }
+    },
+    // users, priorities and the names in user, group, component and version lists are passed by name
+    NAME(false) {
+        @Override
+        Object convert(String value) {
+            return value.trim();
+        }
+    },
+    NAME_LIST(false) {
+        @Override
+        Object convert(String value) {
+            return split(value);
+        }
+    },
+    // the legacy "#i" suffix: the whole value as the only element
+    SINGLE_ELEMENT_LIST(false) {
+        @Override
+        Object convert(String value) {
+            return Collections.singletonList(value);
+        }
+    },
+    OPTION(true) {
+        @Override
+        Object convert(String value) {
+            return option(value.trim());
+        }
+    },
+    OPTION_LIST(true) {
+        @Override
+        Object convert(String value) {
+            List<Object> options = new ArrayList<>();
+            for (String option : split(value)) {
+                options.add(option(option));
+            }
+            return options;
+        }
+    };
+
+    // Graylog's own timestamp format, anything else must be ISO 8601 or milliseconds since the epoch
+    private static final DateTimeFormatter GRAYLOG_TIMESTAMP = DateTimeFormat.forPattern("yyyy-MM-dd HH:mm:ss.SSS").withZoneUTC();
+
+    private final boolean afterCreate;
+
+    FieldConverter(boolean afterCreate) {
+        this.afterCreate = afterCreate;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the value does not fit the field
+     */
+    abstract Object convert(String value);
+
+    /**
+     * Whether the value is set by updating the created issue
+     */
+    public boolean isAfterCreate() {
+        return afterCreate;
+    }
+
+    /**
+     * The converter for a field of the create screen
+     *
+     * @param singleElement whether the field was mapped with the legacy {@code #i} suffix
+     * @throws IllegalArgumentException if the field type can not be mapped
+     */
+    static FieldConverter forSchema(FieldSchema schema, boolean singleElement) {
+        String type = StringUtils.defaultString(schema.getType());
+
+        if (singleElement) {
+            if (!"array".equals(type) || !"string".equals(schema.getItems())) {
+                throw new IllegalArgumentException("the #i suffix needs a list of text values, but " + schema + " is not");
+            }
+            return SINGLE_ELEMENT_LIST;
+        }
+
+        switch (type) {
+            case "string":
+            case "any":
+                return TEXT;
+            case "number":
+                return NUMBER;
+            case "date":
+                return DATE;
+            case "datetime":
+                return DATETIME;
+            case "user":
+            case "priority":
+                return NAME;
+            case "option":
+                return OPTION;
+            case "array":
+                String items = StringUtils.defaultString(schema.getItems());
+                switch (items) {
+                    case "string":
+                    case "user":
+                    case "group":
+                    case "component":
+                    case "version":
+                        return NAME_LIST;
+                    case "option":
+                        return OPTION_LIST;
+                    default:
+                        throw new IllegalArgumentException(schema + " is a list of " + items + ", which can not be mapped");
+                }
+            default:
+                throw new IllegalArgumentException(schema + " is of type " + type + ", which can not be mapped");
+        }
+    }
+
+    private static DateTime parseTime(String value) {
+        String time = value.trim();
+
+        if (time.matches("\\d{10,}")) {
+            return new DateTime(Long.parseLong(time));
+        }
+
+        try {
+            return GRAYLOG_TIMESTAMP.parseDateTime(time);
+        } catch (IllegalArgumentException ex) {
+            try {
+                return DateTime.parse(time);
+            } catch (IllegalArgumentException notIso) {
+                throw new IllegalArgumentException("'" + value + "' is not a date");
+            }
+        }
+    }
+
+    private static List<String> split(String value) {
+        List<String> names = new ArrayList<>();
+        for (String name : StringUtils.split(value, ',')) {
+            if (StringUtils.isNotBlank(name)) {
+                names.add(name.trim());
+            }
+        }
+        return names;
+    }
+
+    private static Map<String, Object> option(String value) {
+        Map<String, Object> option = new LinkedHashMap<>();
+        option.put("value", value);
+        return option;
+    }
+}
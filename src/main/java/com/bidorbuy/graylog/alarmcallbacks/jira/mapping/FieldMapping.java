@@ -0,0 +1,225 @@
+package com.bidorbuy.graylog.alarmcallbacks.jira.mapping;
+
+import com.bidorbuy.graylog.alarmcallbacks.jira.util.JiraMetrics;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The Graylog to JIRA field mapping ({@code graylogField=jiraField,...}), parsed once per setting.
+ * <p>
+ * A parsed mapping passes the values on as text, like the plugin always did ({@code #i} wraps the value in a list).
+ * {@link #compile(Map)} resolves the JIRA fields against the create screen schema, so each value is converted to the
+ * field's type and fields which can not take a Graylog value are reported before any issue is created.
+ */
+public class FieldMapping {
+
+    private static final Logger LOG = LoggerFactory.getLogger(FieldMapping.class);
+
+    public static final String SINGLE_ELEMENT_SUFFIX = "#i";
+
+    // one entry per distinct setting, this is only a safety net
+    private static final int MAX_PARSED = 1000;
+
+    private static final ConcurrentMap<String, FieldMapping> PARSED = new ConcurrentHashMap<>();
+
+    private static final FieldMapping EMPTY = new FieldMapping(Collections.<Entry>emptyList(), Collections.<String>emptyList(), false);
+
+    private final List<Entry> entries;
+    private final List<String> errors;
+    private final boolean compiled;
+
+    private FieldMapping(List<Entry> entries, List<String> errors, boolean compiled) {
+        this.entries = entries;
+        this.errors = errors;
+        this.compiled = compiled;
+    }
+
+    /**
+     * The mapping of the setting, malformed pairs are skipped and reported by {@link #getErrors()}
+     */
+    public static FieldMapping parse(String mapping) {
+        if (StringUtils.isBlank(mapping)) {
+            return EMPTY;
+        }
+
+        FieldMapping parsed = PARSED.get(mapping);
+
+        if (parsed == null) {
+            List<Entry> entries = new ArrayList<>();
+            List<String> errors = new ArrayList<>();
+
+            for (String mappingString : StringUtils.split(mapping, ',')) {
+                String[] pair = StringUtils.split(mappingString, '=');
+
+                if (pair.length != 2 || StringUtils.isBlank(pair[0]) || StringUtils.isBlank(pair[1])) {
+                    errors.add("'" + mappingString.trim() + "' is not of the form graylogField=jiraField");
+                    continue;
+                }
+
+                String jiraField = pair[1];
+                boolean singleElement = jiraField.endsWith(SINGLE_ELEMENT_SUFFIX);
+                String jiraFieldId = singleElement ? jiraField.substring(0, jiraField.length() - SINGLE_ELEMENT_SUFFIX.length()) : jiraField;
+
+                entries.add(new Entry(pair[0], jiraField, jiraFieldId, singleElement,
+                        singleElement ? FieldConverter.SINGLE_ELEMENT_LIST : FieldConverter.TEXT));
+            }
+
+            parsed = new FieldMapping(Collections.unmodifiableList(entries), Collections.unmodifiableList(errors), false);
+
+            if (PARSED.size() >= MAX_PARSED) {
+                PARSED.clear();
+            }
+            PARSED.put(mapping, parsed);
+        }
+
+        return parsed;
+    }
+
+    /**
+     * The mapping with each JIRA field, given by id or name, resolved to its converter
+     *
+     * @param schemas the create screen of the project and issue type by field id
+     * @throws IllegalArgumentException listing every field which is not on the create screen or can not be mapped
+     */
+    public FieldMapping compile(Map<String, FieldSchema> schemas) {
+        List<Entry> resolved = new ArrayList<>();
+        List<String> problems = new ArrayList<>(errors);
+
+        for (Entry entry : entries) {
+            FieldSchema schema = schemas.get(entry.jiraFieldId);
+
+            if (schema == null) {
+                for (FieldSchema candidate : schemas.values()) {
+                    if (entry.jiraFieldId.equalsIgnoreCase(candidate.getName())) {
+                        schema = candidate;
+                        break;
+                    }
+                }
+            }
+
+            if (schema == null) {
+                problems.add("JIRA field " + entry.jiraFieldId + " is not on the create screen");
+                continue;
+            }
+
+            try {
+                resolved.add(new Entry(entry.graylogField, entry.jiraField, schema.getId(), entry.singleElement,
+                        FieldConverter.forSchema(schema, entry.singleElement)));
+            } catch (IllegalArgumentException ex) {
+                problems.add(entry.graylogField + "=" + entry.jiraField + ": " + ex.getMessage());
+            }
+        }
+
+        if (!problems.isEmpty()) {
+            throw new IllegalArgumentException(StringUtils.join(problems, "; "));
+        }
+
+        return new FieldMapping(Collections.unmodifiableList(resolved), Collections.<String>emptyList(), true);
+    }
+
+    /**
+     * The JIRA values of the Graylog field values, keyed by the JIRA field as configured
+     */
+    public Map<String, String> map(Map<String, String> graylogValues) {
+        Map<String, String> mapped = new LinkedHashMap<>();
+        for (Entry entry : entries) {
+            if (graylogValues.containsKey(entry.graylogField)) {
+                mapped.put(entry.jiraField, graylogValues.get(entry.graylogField));
+            }
+        }
+        return mapped;
+    }
+
+    /**
+     * Convert the values built by {@link #map(Map)} for the JIRA client. A value which does not fit its field is
+     * logged and left out, so the issue is still created.
+     */
+    public MappedFields convert(Map<String, String> mapped) {
+        Map<String, Object> createFields = new LinkedHashMap<>();
+        Map<String, Object> updateFields = new LinkedHashMap<>();
+
+        for (Entry entry : entries) {
+            String value = mapped.get(entry.jiraField);
+            if (StringUtils.isBlank(value)) {
+                continue;
+            }
+
+            try {
+                (entry.converter.isAfterCreate() ? updateFields : createFields).put(entry.jiraFieldId, entry.converter.convert(value));
+            } catch (IllegalArgumentException ex) {
+                JiraMetrics.counter("mapping", "errors").inc();
+                LOG.info("warn-Skipping JIRA field " + entry.jiraField + " mapped from " + entry.graylogField + ": " + ex.getMessage());
+            }
+        }
+
+        return new MappedFields(createFields, updateFields);
+    }
+
+    public Set<String> getGraylogFields() {
+        Set<String> names = new LinkedHashSet<>();
+        for (Entry entry : entries) {
+            names.add(entry.graylogField);
+        }
+        return names;
+    }
+
+    public List<String> getErrors() {
+        return errors;
+    }
+
+    public boolean isCompiled() {
+        return compiled;
+    }
+
+    public boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+    /**
+     * The converted values: those passed to the issue create and those set on the created issue
+     */
+    public static class MappedFields {
+        private final Map<String, Object> createFields;
+        private final Map<String, Object> updateFields;
+
+        MappedFields(Map<String, Object> createFields, Map<String, Object> updateFields) {
+            this.createFields = createFields;
+            this.updateFields = updateFields;
+        }
+
+        public Map<String, Object> getCreateFields() {
+            return createFields;
+        }
+
+        public Map<String, Object> getUpdateFields() {
+            return updateFields;
+        }
+    }
+
+    private static class Entry {
+        private final String graylogField;
+        private final String jiraField;
+        private final String jiraFieldId;
+        private final boolean singleElement;
+        private final FieldConverter converter;
+
+        private Entry(String graylogField, String jiraField, String jiraFieldId, boolean singleElement, FieldConverter converter) {
+            this.graylogField = graylogField;
+            this.jiraField = jiraField;
+            this.jiraFieldId = jiraFieldId;
+            this.singleElement = singleElement;
+            this.converter = converter;
+        }
+    }
+}
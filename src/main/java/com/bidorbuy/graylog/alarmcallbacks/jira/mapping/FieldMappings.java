@@ -0,0 +1,89 @@
+package com.bidorbuy.graylog.alarmcallbacks.jira.mapping;
+
+import net.rcarz.jiraclient.Issue;
+import net.rcarz.jiraclient.JiraException;
+import net.rcarz.jiraclient.RestClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Caches the create screen schema per JIRA instance, project and issue type, and the field mappings compiled against
+ * it. The schema is fetched again after {@link #SCHEMA_TTL_MILLIS}, so field changes in JIRA are picked up.
+ */
+public final class FieldMappings {
+
+    private static final Logger LOG = LoggerFactory.getLogger(FieldMappings.class);
+
+    static final long SCHEMA_TTL_MILLIS = 10 * 60 * 1000L;
+
+    private static final ConcurrentMap<String, Schema> SCHEMAS = new ConcurrentHashMap<>();
+
+    private FieldMappings() {
+    }
+
+    /**
+     * The create screen of the project and issue type by field id
+     */
+    public static Map<String, FieldSchema> schema(RestClient restClient, String jiraServerURL, String projectKey, String issueType)
+            throws JiraException {
+        return load(restClient, jiraServerURL, projectKey, issueType).fields;
+    }
+
+    /**
+     * The mapping compiled against the create screen. If it does not compile, the error is logged once per schema
+     * and the values are passed on as text.
+     */
+    public static FieldMapping compiled(RestClient restClient, String jiraServerURL, String projectKey, String issueType,
+                                        FieldMapping mapping) throws JiraException {
+        if (mapping.isEmpty()) {
+            return mapping;
+        }
+
+        Schema schema = load(restClient, jiraServerURL, projectKey, issueType);
+        FieldMapping compiled = schema.compiled.get(mapping);
+
+        if (compiled == null) {
+            try {
+                compiled = mapping.compile(schema.fields);
+            } catch (IllegalArgumentException ex) {
+                LOG.info("error-The JIRA field mapping does not fit project " + projectKey + " (" + issueType + "), passing the values as text: "
+                        + ex.getMessage());
+                compiled = mapping;
+            }
+            schema.compiled.putIfAbsent(mapping, compiled);
+        }
+
+        return compiled;
+    }
+
+    public static void invalidateAll() {
+        SCHEMAS.clear();
+    }
+
+    private static Schema load(RestClient restClient, String jiraServerURL, String projectKey, String issueType) throws JiraException {
+        String key = jiraServerURL + "|" + projectKey + "|" + issueType;
+
+        Schema schema = SCHEMAS.get(key);
+
+        if (schema == null || schema.loadedAt + SCHEMA_TTL_MILLIS < System.currentTimeMillis()) {
+            schema = new Schema(FieldSchema.fromCreateMetadata(Issue.getCreateMetadata(restClient, projectKey, issueType)));
+            SCHEMAS.put(key, schema);
+        }
+
+        return schema;
+    }
+
+    private static class Schema {
+        private final Map<String, FieldSchema> fields;
+        private final long loadedAt = System.currentTimeMillis();
+        private final ConcurrentMap<FieldMapping, FieldMapping> compiled = new ConcurrentHashMap<>();
+
+        private Schema(Map<String, FieldSchema> fields) {
+            this.fields = fields;
+        }
+    }
+}
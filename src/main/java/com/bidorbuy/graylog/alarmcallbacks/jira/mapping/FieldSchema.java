@@ -0,0 +1,75 @@
+package com.bidorbuy.graylog.alarmcallbacks.jira.mapping;
+
+import net.sf.json.JSONObject;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The schema of a field on the JIRA create screen, as reported by the create metadata
+ */
+public class FieldSchema {
+
+    private final String id;
+    private final String name;
+    private final String type;
+    private final String items;
+    private final String custom;
+
+    public FieldSchema(String id, String name, String type, String items, String custom) {
+        this.id = id;
+        this.name = name;
+        this.type = type;
+        this.items = items;
+        this.custom = custom;
+    }
+
+    /**
+     * The schemas by field id from the fields of {@code Issue.getCreateMetadata(...)}
+     */
+    @SuppressWarnings("unchecked")
+    public static Map<String, FieldSchema> fromCreateMetadata(JSONObject createMetadata) {
+        Map<String, FieldSchema> schemas = new LinkedHashMap<>();
+
+        for (Iterator<String> iterator = createMetadata.keySet().iterator(); iterator.hasNext(); ) {
+            String id = iterator.next();
+            Object field = createMetadata.get(id);
+
+            if (field instanceof JSONObject) {
+                JSONObject schema = ((JSONObject) field).optJSONObject("schema");
+                schemas.put(id, new FieldSchema(id, ((JSONObject) field).optString("name", id),
+                        schema != null ? schema.optString("type", null) : null,
+                        schema != null ? schema.optString("items", null) : null,
+                        schema != null ? schema.optString("custom", null) : null));
+            }
+        }
+
+        return schemas;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public String getItems() {
+        return items;
+    }
+
+    public String getCustom() {
+        return custom;
+    }
+
+    @Override
+    public String toString() {
+        return id + " (" + name + ", " + type + (items != null ? " of " + items : "") + ")";
+    }
+}
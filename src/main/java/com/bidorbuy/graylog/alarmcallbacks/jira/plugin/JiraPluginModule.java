@@ -51,5 +51,8 @@ public class JiraPluginModule extends PluginModule {
     @Override
     protected void configure() {
         addAlarmCallback(JiraAlarmCallback.class);
+        addRestResource(PipelineResource.class);
+        addRestResource(WebhookResource.class);
+        addPeriodical(WebhookConfigurationPeriodical.class);
     }
 }
@@ -0,0 +1,224 @@
+package com.bidorbuy.graylog.alarmcallbacks.jira.plugin;
+
+import com.bidorbuy.graylog.alarmcallbacks.jira.client.JiraConnection;
+import com.bidorbuy.graylog.alarmcallbacks.jira.dedup.CorrelationTable;
+import com.bidorbuy.graylog.alarmcallbacks.jira.dedup.FingerprintStore;
+import com.bidorbuy.graylog.alarmcallbacks.jira.dedup.SimHashIndex;
+import com.bidorbuy.graylog.alarmcallbacks.jira.dispatch.DispatchScheduler;
+import com.bidorbuy.graylog.alarmcallbacks.jira.dispatch.DispatchTrace;
+import com.bidorbuy.graylog.alarmcallbacks.jira.dispatch.Outbox;
+import com.bidorbuy.graylog.alarmcallbacks.jira.dispatch.TargetDispatcher;
+import com.bidorbuy.graylog.alarmcallbacks.jira.dispatch.TraceRingBuffer;
+import com.bidorbuy.graylog.alarmcallbacks.jira.mapping.FieldMappings;
+import com.bidorbuy.graylog.alarmcallbacks.jira.storm.StormDigest;
+import com.bidorbuy.graylog.alarmcallbacks.jira.storm.StormMode;
+import com.bidorbuy.graylog.alarmcallbacks.jira.util.JiraMetrics;
+import com.bidorbuy.graylog.alarmcallbacks.jira.util.StreamFragmentCache;
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.Timer;
+import org.apache.shiro.authz.annotation.RequiresAuthentication;
+import org.apache.shiro.authz.annotation.RequiresPermissions;
+import org.graylog2.plugin.rest.PluginRestResource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.ws.rs.DefaultValue;
+import javax.ws.rs.GET;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.MediaType;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Exposes the live state of the alert pipeline and the most recent dispatches, mounted below
+ * {@code /plugins/com.bidorbuy.graylog.alarmcallbacks.jira/pipeline}.
+ * <p>
+ * Reading requires an authenticated user, the admin actions require the admin permission.
+ */
+@Path("/pipeline")
+@Produces(MediaType.APPLICATION_JSON)
+@RequiresAuthentication
+public class PipelineResource implements PluginRestResource {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PipelineResource.class);
+
+    static final int DEFAULT_TRACE_LIMIT = 50;
+
+    @GET
+    public Map<String, Object> state() {
+        Map<String, Object> state = new LinkedHashMap<>();
+        state.put("queue", queue());
+        state.put("caches", caches());
+        state.put("targets", targets());
+        state.put("dispatch", JiraMetrics.counters("dispatch"));
+        state.put("retries", JiraMetrics.counters("retries"));
+        return state;
+    }
+
+    @GET
+    @Path("/trace")
+    public Map<String, Object> trace(@QueryParam("limit") @DefaultValue("50") int limit) {
+        TraceRingBuffer buffer = TraceRingBuffer.getInstance();
+
+        List<Map<String, Object>> dispatches = new ArrayList<>();
+        for (DispatchTrace trace : buffer.latest(limit > 0 ? limit : DEFAULT_TRACE_LIMIT)) {
+            Map<String, Object> dispatch = new LinkedHashMap<>();
+            dispatch.put("timestamp", trace.getTimestamp());
+            dispatch.put("target", trace.getTarget());
+            dispatch.put("fingerprint", trace.getFingerprint());
+            dispatch.put("decision", trace.getDecision());
+            dispatch.put("issueKey", trace.getIssueKey());
+            dispatch.put("error", trace.getError());
+            dispatch.put("stagesMillis", trace.getStages());
+            dispatches.add(dispatch);
+        }
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("total", buffer.getTotal());
+        result.put("capacity", buffer.getCapacity());
+        result.put("dispatches", dispatches);
+        return result;
+    }
+
+    /**
+     * Drop the stream fragments, the similarity indexes, the correlations and the JIRA create screens. The fingerprint
+     * stores are kept, they are not caches.
+     */
+    @POST
+    @Path("/caches/flush")
+    @RequiresPermissions("*")
+    public Map<String, Object> flushCaches() {
+        StreamFragmentCache.getInstance().invalidateAll();
+        SimHashIndex.clearAll();
+        CorrelationTable.getInstance().clear();
+        FieldMappings.invalidateAll();
+
+        LOG.info("Flushed the stream fragment cache, the similarity indexes, the correlation table and the create screen schemas");
+
+        return caches();
+    }
+
+    /**
+     * Publish all pending storm digests now and start dispatching the alerts in the outbox in the background, instead
+     * of waiting for them
+     */
+    @POST
+    @Path("/queue/drain")
+    @RequiresPermissions("*")
+    public Map<String, Object> drainQueue() {
+        int draining = Outbox.getInstance().drain();
+        StormMode.flushAll();
+
+        LOG.info("Draining the outbox (" + draining + " alerts) and drained the storm digests");
+
+        Map<String, Object> queue = queue();
+        queue.put("draining", draining);
+        return queue;
+    }
+
+    private static Map<String, Object> queue() {
+        TargetDispatcher dispatcher = TargetDispatcher.getInstance();
+
+        List<Map<String, Object>> digests = new ArrayList<>();
+        for (StormDigest digest : StormMode.digests()) {
+            Map<String, Object> entry = new LinkedHashMap<>();
+            entry.put("scope", digest.getScope());
+            entry.put("issueKey", digest.getIssueKey());
+            entry.put("startedAt", digest.getStartedAt());
+            entry.put("alerts", digest.getAlerts());
+            entry.put("fingerprints", digest.getFingerprints());
+            entry.put("ended", digest.isEnded());
+            digests.add(entry);
+        }
+
+        Map<String, Object> schedulers = new LinkedHashMap<>();
+        for (Map.Entry<String, DispatchScheduler> scheduler : DispatchScheduler.schedulers().entrySet()) {
+            Map<String, Object> entry = new LinkedHashMap<>();
+            entry.put("inFlight", scheduler.getValue().getInFlight());
+            entry.put("capacity", scheduler.getValue().getCapacity());
+            entry.put("waiting", scheduler.getValue().getWaiting());
+            entry.put("inFlightByStream", scheduler.getValue().getInFlightByStream());
+            schedulers.put(scheduler.getKey(), entry);
+        }
+
+        Map<String, Object> queue = new LinkedHashMap<>();
+        queue.put("schedulers", schedulers);
+        queue.put("dispatchQueued", dispatcher.getQueueDepth());
+        queue.put("dispatchActive", dispatcher.getActiveCount());
+        queue.put("outbox", Outbox.getInstance().size());
+        queue.put("stormDigests", digests);
+        return queue;
+    }
+
+    private static Map<String, Object> caches() {
+        long hits = JiraMetrics.counter(StreamFragmentCache.CACHE_HITS).getCount();
+        long misses = JiraMetrics.counter(StreamFragmentCache.CACHE_MISSES).getCount();
+
+        Map<String, Object> fragments = new LinkedHashMap<>();
+        fragments.put("size", StreamFragmentCache.getInstance().size());
+        fragments.put("hits", hits);
+        fragments.put("misses", misses);
+        fragments.put("hitRatio", ratio(hits, hits + misses));
+
+        Map<String, Object> similarity = new LinkedHashMap<>();
+        similarity.put("sizes", SimHashIndex.sizes());
+        similarity.put("hits", JiraMetrics.counter("similarity", "hits").getCount());
+
+        Map<String, Object> correlation = new LinkedHashMap<>();
+        correlation.put("size", CorrelationTable.getInstance().size());
+        correlation.put("hits", JiraMetrics.counter("correlation", "hits").getCount());
+        correlation.put("timeouts", JiraMetrics.counter("correlation", "timeouts").getCount());
+
+        Map<String, Object> stores = new LinkedHashMap<>();
+        for (Map.Entry<String, FingerprintStore> store : FingerprintStore.stores().entrySet()) {
+            Map<String, Object> entry = new LinkedHashMap<>();
+            entry.put("size", store.getValue().size());
+            entry.put("capacity", store.getValue().capacity());
+            stores.put(store.getKey(), entry);
+        }
+
+        Map<String, Object> fingerprintStore = new LinkedHashMap<>();
+        fingerprintStore.put("files", stores);
+        fingerprintStore.put("hits", JiraMetrics.counter("fingerprintStore", "hits").getCount());
+
+        Map<String, Object> caches = new LinkedHashMap<>();
+        caches.put("streamFragments", fragments);
+        caches.put("similarity", similarity);
+        caches.put("correlation", correlation);
+        caches.put("fingerprintStore", fingerprintStore);
+        caches.put("connections", JiraConnection.size());
+        return caches;
+    }
+
+    private static Map<String, Object> targets() {
+        Map<String, Object> targets = new LinkedHashMap<>();
+
+        for (Map.Entry<String, Timer> latency : TargetDispatcher.getInstance().getLatencies().entrySet()) {
+            Snapshot snapshot = latency.getValue().getSnapshot();
+
+            Map<String, Object> target = new LinkedHashMap<>();
+            target.put("count", latency.getValue().getCount());
+            target.put("p50Millis", millis(snapshot.getMedian()));
+            target.put("p95Millis", millis(snapshot.get95thPercentile()));
+            target.put("p99Millis", millis(snapshot.get99thPercentile()));
+            target.put("maxMillis", millis(snapshot.getMax()));
+            targets.put(latency.getKey(), target);
+        }
+
+        return targets;
+    }
+
+    private static double ratio(long part, long total) {
+        return total > 0 ? (double) part / total : 0.0;
+    }
+
+    private static long millis(double nanos) {
+        return TimeUnit.NANOSECONDS.toMillis((long) nanos);
+    }
+}
@@ -0,0 +1,137 @@
+package com.bidorbuy.graylog.alarmcallbacks.jira.plugin;
+
+import com.bidorbuy.graylog.alarmcallbacks.jira.JiraAlarmCallback;
+import com.bidorbuy.graylog.alarmcallbacks.jira.dedup.FingerprintStore;
+import com.bidorbuy.graylog.alarmcallbacks.jira.dedup.IssueEvents;
+import com.bidorbuy.graylog.alarmcallbacks.jira.util.JiraUtil;
+import org.graylog2.alarmcallbacks.AlarmCallbackConfiguration;
+import org.graylog2.alarmcallbacks.AlarmCallbackConfigurationService;
+import org.graylog2.plugin.configuration.Configuration;
+import org.graylog2.plugin.periodical.Periodical;
+import org.graylog2.plugin.streams.Stream;
+import org.graylog2.streams.StreamService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Reads the webhook secrets and fingerprint stores of all JIRA callbacks from their saved configurations, when the
+ * node starts and then every minute.
+ * <p>
+ * Callbacks are only started when their stream alerts, so without this the webhook would reject JIRA after a restart
+ * and the changes of issues in stores not opened yet would be lost. The secrets are replaced on each run, a changed or
+ * removed secret is rejected from the next run on.
+ */
+public class WebhookConfigurationPeriodical extends Periodical {
+
+    private static final Logger LOG = LoggerFactory.getLogger(WebhookConfigurationPeriodical.class);
+
+    static final int PERIOD_SECONDS = 60;
+
+    private final StreamService streamService;
+    private final AlarmCallbackConfigurationService alarmCallbackConfigurationService;
+
+    @Inject
+    public WebhookConfigurationPeriodical(StreamService streamService, AlarmCallbackConfigurationService alarmCallbackConfigurationService) {
+        this.streamService = streamService;
+        this.alarmCallbackConfigurationService = alarmCallbackConfigurationService;
+    }
+
+    @Override
+    public void doRun() {
+        List<Map<String, Object>> configurations = new ArrayList<>();
+
+        try {
+            for (Stream stream : streamService.loadAll()) {
+                for (AlarmCallbackConfiguration callback : alarmCallbackConfigurationService.getForStream(stream)) {
+                    if (JiraAlarmCallback.class.getCanonicalName().equals(callback.getType())) {
+                        configurations.add(callback.getConfiguration());
+                    }
+                }
+            }
+        } catch (RuntimeException ex) {
+            // keep the secrets of the last run rather than rejecting all webhooks
+            LOG.info("warn-Can not read the JIRA callback configurations: " + ex.getMessage(), ex);
+            return;
+        }
+
+        apply(configurations);
+    }
+
+    /**
+     * Accept the webhook secrets of the configurations and open their fingerprint stores
+     */
+    static void apply(Collection<Map<String, Object>> configurations) {
+        Set<String> secrets = new HashSet<>();
+
+        for (Map<String, Object> source : configurations) {
+            Configuration configuration = new Configuration(source);
+
+            if (JiraUtil.isSetAndNotNullText(configuration, JiraAlarmCallback.JIRA_WEBHOOK_SECRET)) {
+                secrets.add(configuration.getString(JiraAlarmCallback.JIRA_WEBHOOK_SECRET));
+            }
+
+            if (JiraUtil.isSetAndNotNullText(configuration, JiraAlarmCallback.JIRA_FINGERPRINT_STORE)) {
+                String path = configuration.getString(JiraAlarmCallback.JIRA_FINGERPRINT_STORE);
+                int ttl = JiraUtil.getIntSetting(configuration, JiraAlarmCallback.JIRA_FINGERPRINT_STORE_TTL, JiraAlarmCallback.DEFAULT_JIRA_FINGERPRINT_STORE_TTL);
+
+                try {
+                    FingerprintStore.open(path, ttl * 60000L);
+                } catch (IOException ex) {
+                    LOG.info("warn-Can not open fingerprint store " + path + ": " + ex.getMessage());
+                }
+            }
+        }
+
+        IssueEvents.setSecrets(secrets);
+    }
+
+    @Override
+    public boolean runsForever() {
+        return false;
+    }
+
+    @Override
+    public boolean stopOnGracefulShutdown() {
+        return true;
+    }
+
+    @Override
+    public boolean masterOnly() {
+        // the stores and indexes are kept per node
+        return false;
+    }
+
+    @Override
+    public boolean startOnThisNode() {
+        return true;
+    }
+
+    @Override
+    public boolean isDaemon() {
+        return true;
+    }
+
+    @Override
+    public int getInitialDelaySeconds() {
+        return 0;
+    }
+
+    @Override
+    public int getPeriodSeconds() {
+        return PERIOD_SECONDS;
+    }
+
+    @Override
+    protected Logger getLogger() {
+        return LOG;
+    }
+}
@@ -0,0 +1,49 @@
+package com.bidorbuy.graylog.alarmcallbacks.jira.plugin;
+
+import com.bidorbuy.graylog.alarmcallbacks.jira.dedup.IssueEvents;
+import org.graylog2.plugin.rest.PluginRestResource;
+
+import javax.ws.rs.BadRequestException;
+import javax.ws.rs.Consumes;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Receives the JIRA issue webhooks, mounted at
+ * {@code /plugins/com.bidorbuy.graylog.alarmcallbacks.jira/webhook?secret=...}.
+ * <p>
+ * JIRA can not log in to Graylog, so instead of a Graylog user the request must carry a webhook secret configured in
+ * one of the callbacks. Without any configured secret the endpoint rejects all requests.
+ */
+@Path("/webhook")
+@Consumes(MediaType.APPLICATION_JSON)
+@Produces(MediaType.APPLICATION_JSON)
+public class WebhookResource implements PluginRestResource {
+
+    @POST
+    public Map<String, Object> receive(@QueryParam("secret") String secret, Map<String, Object> event) {
+        if (!IssueEvents.isAuthorized(secret)) {
+            throw new WebApplicationException("Unknown webhook secret", Response.Status.FORBIDDEN);
+        }
+
+        if (event == null) {
+            throw new BadRequestException("Missing webhook event");
+        }
+
+        IssueEvents.Result result = IssueEvents.handle(event);
+
+        Map<String, Object> response = new LinkedHashMap<>();
+        response.put("action", result.getAction());
+        response.put("issueKey", result.getIssueKey());
+        response.put("fingerprints", result.getFingerprints());
+        response.put("similar", result.getSimilar());
+        return response;
+    }
+}
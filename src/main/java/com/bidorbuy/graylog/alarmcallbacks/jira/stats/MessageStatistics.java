@@ -0,0 +1,124 @@
+package com.bidorbuy.graylog.alarmcallbacks.jira.stats;
+
+import org.graylog2.plugin.MessageSummary;
+import org.joda.time.DateTime;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Aggregated statistics over all messages matching an alert, computed in one pass with bounded memory.
+ * <p>
+ * Only the fields referenced by a template via {@code [STATS.<field>.topk]} or {@code [STATS.<field>.distinct]} are
+ * tracked.
+ */
+public class MessageStatistics {
+
+    public static final String PLACEHOLDER_PREFIX = "[STATS.";
+
+    // the number of values rendered for [STATS.<field>.topk] and the number of counters kept to find them
+    static final int TOP_K = 5;
+    static final int TOP_K_CAPACITY = 50;
+
+    private static final Pattern FIELD_PLACEHOLDER = Pattern.compile("\\[STATS\\.([^\\[\\]]+)\\.(topk|distinct)\\]");
+
+    private final Map<String, SpaceSavingTopK> topK = new HashMap<>();
+    private final Map<String, HyperLogLog> distinct = new HashMap<>();
+
+    private long count;
+    private DateTime firstSeen;
+    private DateTime lastSeen;
+
+    /**
+     * Create the statistics for all fields referenced by the template
+     */
+    public static MessageStatistics forTemplate(String template) {
+        MessageStatistics statistics = new MessageStatistics();
+
+        Matcher matcher = FIELD_PLACEHOLDER.matcher(template);
+        while (matcher.find()) {
+            if ("topk".equals(matcher.group(2))) {
+                statistics.topK.put(matcher.group(1), new SpaceSavingTopK(TOP_K_CAPACITY));
+            } else {
+                statistics.distinct.put(matcher.group(1), new HyperLogLog());
+            }
+        }
+
+        return statistics;
+    }
+
+    public static boolean isReferenced(String template) {
+        return template != null && template.contains(PLACEHOLDER_PREFIX);
+    }
+
+    public MessageStatistics addAll(List<MessageSummary> messages) {
+        for (MessageSummary message : messages) {
+            add(message);
+        }
+        return this;
+    }
+
+    public void add(MessageSummary message) {
+        count++;
+
+        DateTime timestamp = message.getTimestamp();
+        if (timestamp != null) {
+            if (firstSeen == null || timestamp.isBefore(firstSeen)) {
+                firstSeen = timestamp;
+            }
+            if (lastSeen == null || timestamp.isAfter(lastSeen)) {
+                lastSeen = timestamp;
+            }
+        }
+
+        for (Map.Entry<String, SpaceSavingTopK> entry : topK.entrySet()) {
+            entry.getValue().add(fieldValue(message, entry.getKey()));
+        }
+
+        for (Map.Entry<String, HyperLogLog> entry : distinct.entrySet()) {
+            entry.getValue().add(fieldValue(message, entry.getKey()));
+        }
+    }
+
+    /**
+     * The rendered statistics, keyed by placeholder name without brackets - i.e. {@code STATS.source.topk}
+     */
+    public Map<String, String> toPlaceholders() {
+        Map<String, String> placeholders = new HashMap<>();
+
+        placeholders.put("STATS.count", String.valueOf(count));
+        placeholders.put("STATS.first_seen", firstSeen != null ? firstSeen.toString() : "");
+        placeholders.put("STATS.last_seen", lastSeen != null ? lastSeen.toString() : "");
+
+        for (Map.Entry<String, SpaceSavingTopK> entry : topK.entrySet()) {
+            StringBuilder sb = new StringBuilder();
+            for (SpaceSavingTopK.Counter counter : entry.getValue().top(TOP_K)) {
+                if (sb.length() > 0) {
+                    sb.append(", ");
+                }
+                sb.append(counter.getValue()).append(" (").append(counter.getCount()).append(")");
+            }
+            placeholders.put("STATS." + entry.getKey() + ".topk", sb.toString());
+        }
+
+        for (Map.Entry<String, HyperLogLog> entry : distinct.entrySet()) {
+            placeholders.put("STATS." + entry.getKey() + ".distinct", String.valueOf(entry.getValue().cardinality()));
+        }
+
+        return placeholders;
+    }
+
+    private static String fieldValue(MessageSummary message, String field) {
+        if ("message".equals(field)) {
+            return message.getMessage();
+        } else if ("source".equals(field)) {
+            return message.getSource();
+        }
+
+        Object value = message.hasField(field) ? message.getField(field) : null;
+        return value != null ? value.toString() : null;
+    }
+}
@@ -0,0 +1,99 @@
+package com.bidorbuy.graylog.alarmcallbacks.jira.stats;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Space-saving heavy hitters sketch (Metwally et al.). Tracks at most {@code capacity} values; when a new value
+ * arrives and the sketch is full, the value with the smallest count is replaced and the new value inherits its count
+ * as over-estimation error.
+ */
+public class SpaceSavingTopK {
+
+    private final int capacity;
+    private final Map<String, Counter> counters;
+
+    public SpaceSavingTopK(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        this.capacity = capacity;
+        this.counters = new HashMap<>(capacity * 2);
+    }
+
+    public void add(String value) {
+        if (value == null) {
+            return;
+        }
+
+        Counter counter = counters.get(value);
+
+        if (counter != null) {
+            counter.count++;
+            return;
+        }
+
+        if (counters.size() < capacity) {
+            counters.put(value, new Counter(value, 1, 0));
+            return;
+        }
+
+        // the sketch is small, a linear scan for the minimum is cheaper than maintaining a heap
+        Counter minimum = null;
+        for (Counter candidate : counters.values()) {
+            if (minimum == null || candidate.count < minimum.count) {
+                minimum = candidate;
+            }
+        }
+
+        counters.remove(minimum.value);
+        counters.put(value, new Counter(value, minimum.count + 1, minimum.count));
+    }
+
+    /**
+     * The {@code k} most frequent values, ordered by their (possibly over-estimated) count
+     */
+    public List<Counter> top(int k) {
+        List<Counter> sorted = new ArrayList<>(counters.values());
+
+        Collections.sort(sorted, new Comparator<Counter>() {
+            @Override
+            public int compare(Counter c1, Counter c2) {
+                return c1.count == c2.count ? c1.value.compareTo(c2.value) : (c1.count > c2.count ? -1 : 1);
+            }
+        });
+
+        return sorted.size() > k ? sorted.subList(0, k) : sorted;
+    }
+
+    public static class Counter {
+        private final String value;
+        private long count;
+        private final long error;
+
+        Counter(String value, long count, long error) {
+            this.value = value;
+            this.count = count;
+            this.error = error;
+        }
+
+        public String getValue() {
+            return value;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * The maximum over-estimation of {@link #getCount()}
+         */
+        public long getError() {
+            return error;
+        }
+    }
+}
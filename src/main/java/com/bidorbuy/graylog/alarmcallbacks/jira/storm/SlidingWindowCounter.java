@@ -0,0 +1,45 @@
+package com.bidorbuy.graylog.alarmcallbacks.jira.storm;
+
+/**
+ * Counts events over a sliding time window using one bucket per second, so memory does not depend on the rate
+ */
+public class SlidingWindowCounter {
+
+    private static final long BUCKET_MILLIS = 1000;
+
+    private final long[] buckets;
+    private final long[] bucketSeconds;
+
+    public SlidingWindowCounter(int windowSeconds) {
+        this.buckets = new long[Math.max(1, windowSeconds)];
+        this.bucketSeconds = new long[buckets.length];
+    }
+
+    public synchronized void add(long nowMillis) {
+        long second = nowMillis / BUCKET_MILLIS;
+        int index = (int) (second % buckets.length);
+
+        if (bucketSeconds[index] != second) {
+            bucketSeconds[index] = second;
+            buckets[index] = 0;
+        }
+
+        buckets[index]++;
+    }
+
+    /**
+     * The number of events within the window ending now
+     */
+    public synchronized long count(long nowMillis) {
+        long second = nowMillis / BUCKET_MILLIS;
+        long count = 0;
+
+        for (int i = 0; i < buckets.length; i++) {
+            if (second - bucketSeconds[i] < buckets.length) {
+                count += buckets[i];
+            }
+        }
+
+        return count;
+    }
+}
@@ -0,0 +1,53 @@
+package com.bidorbuy.graylog.alarmcallbacks.jira.storm;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Detects an alert storm from the rate of new fingerprints. The storm starts once the threshold is reached within the
+ * window and ends when the rate has dropped below half of the threshold, so the mode does not flap at the boundary.
+ */
+public class StormDetector {
+
+    private static final Logger LOG = LoggerFactory.getLogger(StormDetector.class);
+
+    private final String scope;
+    private final int threshold;
+    private final SlidingWindowCounter newFingerprints;
+
+    private boolean active;
+
+    public StormDetector(String scope, int threshold, int windowSeconds) {
+        this.scope = scope;
+        this.threshold = threshold;
+        this.newFingerprints = new SlidingWindowCounter(windowSeconds);
+    }
+
+    /**
+     * Record a fingerprint without an issue
+     *
+     * @return whether the storm mode is active
+     */
+    public synchronized boolean recordNewFingerprint(long nowMillis) {
+        newFingerprints.add(nowMillis);
+        return isActive(nowMillis);
+    }
+
+    public synchronized boolean isActive(long nowMillis) {
+        long rate = newFingerprints.count(nowMillis);
+
+        if (!active && rate >= threshold) {
+            active = true;
+            LOG.info("warn-Alert storm detected for " + scope + ": " + rate + " new fingerprints, collecting them in a digest issue");
+        } else if (active && rate < (threshold + 1) / 2) {
+            active = false;
+            LOG.info("Alert storm ended for " + scope + ", creating issues again");
+        }
+
+        return active;
+    }
+
+    public int getThreshold() {
+        return threshold;
+    }
+}
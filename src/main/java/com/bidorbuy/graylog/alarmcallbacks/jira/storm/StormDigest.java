@@ -0,0 +1,236 @@
+package com.bidorbuy.graylog.alarmcallbacks.jira.storm;
+
+import net.rcarz.jiraclient.JiraException;
+import org.joda.time.DateTime;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The rolling JIRA issue which collects all new fingerprints of an alert storm instead of one issue each.
+ * <p>
+ * Alerts are only counted in memory. The issue is created and then updated with the fingerprint list and counts in
+ * batches by {@link StormMode}.
+ */
+public class StormDigest {
+
+    private static final Logger LOG = LoggerFactory.getLogger(StormDigest.class);
+
+    public static final String STORM_LABEL = "graylog_storm";
+
+    // the fingerprints tracked per storm, further ones are only counted
+    static final int MAX_ENTRIES = 1000;
+    // the fingerprints listed in the issue, ordered by their number of alerts
+    static final int MAX_LISTED = 200;
+
+    /**
+     * Files the digest in JIRA
+     */
+    public interface Publisher {
+        /**
+         * @return the key of the new issue
+         */
+        String create(String summary, String description) throws JiraException;
+
+        void update(String issueKey, String summary, String description) throws JiraException;
+    }
+
+    private final String scope;
+    private final String projectKey;
+    private final long startedAt;
+    private final Map<String, Entry> entries = new LinkedHashMap<>();
+
+    private Publisher publisher;
+    private String issueKey;
+    private long alerts;
+    private long untrackedFingerprints;
+    private long endedAt;
+    private boolean dirty;
+    private boolean flushing;
+    private int failedFlushes;
+
+    public StormDigest(String scope, String projectKey, long startedAt) {
+        this.scope = scope;
+        this.projectKey = projectKey;
+        this.startedAt = startedAt;
+    }
+
+    public synchronized boolean contains(String fingerprint) {
+        return entries.containsKey(fingerprint);
+    }
+
+    /**
+     * Count an alert, the publisher is used for the next update of the issue
+     */
+    public synchronized void add(String fingerprint, String title, long nowMillis, Publisher publisher) {
+        this.publisher = publisher;
+        alerts++;
+        dirty = true;
+
+        Entry entry = entries.get(fingerprint);
+        if (entry == null) {
+            if (entries.size() >= MAX_ENTRIES) {
+                untrackedFingerprints++;
+                return;
+            }
+            entry = new Entry(fingerprint, title, nowMillis);
+            entries.put(fingerprint, entry);
+        }
+
+        entry.count++;
+        entry.lastSeen = nowMillis;
+    }
+
+    synchronized void end(long nowMillis) {
+        endedAt = nowMillis;
+        dirty = true;
+    }
+
+    public synchronized String getIssueKey() {
+        return issueKey;
+    }
+
+    public synchronized long getAlerts() {
+        return alerts;
+    }
+
+    public synchronized int getFingerprints() {
+        return entries.size() + (int) untrackedFingerprints;
+    }
+
+    public synchronized boolean isEnded() {
+        return endedAt > 0;
+    }
+
+    /**
+     * The flushes which failed since the last one that was published
+     */
+    public synchronized int getFailedFlushes() {
+        return failedFlushes;
+    }
+
+    public String getScope() {
+        return scope;
+    }
+
+    public long getStartedAt() {
+        return startedAt;
+    }
+
+    /**
+     * Create or update the issue if alerts have been added since the last flush
+     *
+     * @return whether the issue is up to date, false if the update failed or another flush is running
+     */
+    public boolean flush() {
+        String summary;
+        String description;
+        String key;
+        Publisher target;
+
+        synchronized (this) {
+            if (flushing) {
+                return false;
+            }
+            if (!dirty || publisher == null) {
+                return true;
+            }
+
+            summary = renderSummary();
+            description = renderDescription();
+            key = issueKey;
+            target = publisher;
+            dirty = false;
+            flushing = true;
+        }
+
+        boolean published = false;
+        boolean upToDate;
+
+        try {
+            if (key == null) {
+                key = target.create(summary, description);
+                LOG.info("Created storm digest issue " + key + " for " + scope);
+            } else {
+                target.update(key, summary, description);
+            }
+            published = true;
+        } catch (Exception ex) {
+            LOG.info("error-Error updating storm digest issue for " + scope + ": " + ex.getMessage(), ex);
+        } finally {
+            synchronized (this) {
+                flushing = false;
+                if (published) {
+                    issueKey = key;
+                    failedFlushes = 0;
+                } else {
+                    dirty = true;
+                    failedFlushes++;
+                }
+                upToDate = !dirty;
+            }
+        }
+
+        return upToDate;
+    }
+
+    private String renderSummary() {
+        return "[Alert storm] " + getFingerprints() + " distinct alerts in " + projectKey + " since " + new DateTime(startedAt).toString("yyyy-MM-dd HH:mm");
+    }
+
+    private String renderDescription() {
+        StringBuilder sb = new StringBuilder();
+
+        sb.append("Alert storm since ").append(new DateTime(startedAt));
+        if (endedAt > 0) {
+            sb.append(" until ").append(new DateTime(endedAt));
+        }
+        sb.append(": ").append(alerts).append(" alerts with ").append(getFingerprints()).append(" distinct fingerprints. ");
+        sb.append(endedAt > 0 ? "The storm is over, new alerts create issues again." : "Issues are created again once the rate of new fingerprints drops.");
+        sb.append("\n\n||Alerts||First seen||Last seen||MD5||Title||\n");
+
+        List<Entry> sorted = new ArrayList<>(entries.values());
+        Collections.sort(sorted, new Comparator<Entry>() {
+            @Override
+            public int compare(Entry a, Entry b) {
+                return a.count == b.count ? 0 : (a.count > b.count ? -1 : 1);
+            }
+        });
+
+        for (Entry entry : sorted.subList(0, Math.min(MAX_LISTED, sorted.size()))) {
+            sb.append('|').append(entry.count)
+                    .append('|').append(new DateTime(entry.firstSeen).toString("HH:mm:ss"))
+                    .append('|').append(new DateTime(entry.lastSeen).toString("HH:mm:ss"))
+                    .append('|').append(entry.fingerprint)
+                    .append('|').append(entry.title == null ? "" : entry.title.replace('|', '/').replace('\n', ' '))
+                    .append("|\n");
+        }
+
+        long unlisted = getFingerprints() - Math.min(MAX_LISTED, sorted.size());
+        if (unlisted > 0) {
+            sb.append("\n_(").append(unlisted).append(" more fingerprints not listed)_\n");
+        }
+
+        return sb.toString();
+    }
+
+    private static class Entry {
+        private final String fingerprint;
+        private final String title;
+        private final long firstSeen;
+        private long lastSeen;
+        private long count;
+
+        Entry(String fingerprint, String title, long firstSeen) {
+            this.fingerprint = fingerprint;
+            this.title = title;
+            this.firstSeen = firstSeen;
+        }
+    }
+}
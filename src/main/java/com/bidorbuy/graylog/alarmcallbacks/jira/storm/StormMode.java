@@ -0,0 +1,149 @@
+package com.bidorbuy.graylog.alarmcallbacks.jira.storm;
+
+import com.bidorbuy.graylog.alarmcallbacks.jira.util.JiraMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The storm detectors and digests per JIRA project, and the background flush of the digest issues
+ */
+public final class StormMode {
+
+    private static final Logger LOG = LoggerFactory.getLogger(StormMode.class);
+
+    public static final int DEFAULT_WINDOW_SECONDS = 300;
+    static final int FLUSH_INTERVAL_SECONDS = 30;
+    // the final update of an ended storm is retried for 5 minutes before its alerts are given up
+    static final int MAX_FINAL_FLUSH_ATTEMPTS = 10;
+
+    private static final ConcurrentMap<String, StormDetector> DETECTORS = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<String, StormDigest> DIGESTS = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<StormDigest, StormDetector> DIGEST_DETECTORS = new ConcurrentHashMap<>();
+    // ended storms whose final update has not been published yet
+    private static final Set<StormDigest> ENDED = Collections.newSetFromMap(new ConcurrentHashMap<StormDigest, Boolean>());
+
+    private static ScheduledExecutorService flusher;
+
+    private StormMode() {
+    }
+
+    public static StormDetector detector(String scope, int threshold, int windowSeconds) {
+        String key = scope + "|" + threshold + "|" + windowSeconds;
+
+        StormDetector detector = DETECTORS.get(key);
+        if (detector == null) {
+            StormDetector created = new StormDetector(scope, threshold, windowSeconds);
+            detector = DETECTORS.putIfAbsent(key, created);
+            if (detector == null) {
+                detector = created;
+            }
+        }
+
+        return detector;
+    }
+
+    /**
+     * The digest of the running storm, null if there is none
+     */
+    public static StormDigest activeDigest(String scope) {
+        return DIGESTS.get(scope);
+    }
+
+    /**
+     * The digest of the running storm, started if there is none
+     */
+    public static StormDigest digest(String scope, String projectKey, final StormDetector detector, long nowMillis) {
+        StormDigest digest = DIGESTS.get(scope);
+
+        if (digest == null) {
+            StormDigest created = new StormDigest(scope, projectKey, nowMillis);
+            digest = DIGESTS.putIfAbsent(scope, created);
+            if (digest == null) {
+                digest = created;
+                DIGEST_DETECTORS.put(digest, detector);
+                JiraMetrics.counter("storm", "started").inc();
+                startFlusher();
+            }
+        }
+
+        return digest;
+    }
+
+    /**
+     * The digests of running storms and of ended storms still waiting for their final update
+     */
+    public static Collection<StormDigest> digests() {
+        List<StormDigest> digests = new ArrayList<>(DIGESTS.values());
+        digests.addAll(ENDED);
+        return digests;
+    }
+
+    /**
+     * Update all digest issues and close the digests of storms which are over. An ended digest is kept until its
+     * final update has been published, or given up after {@link #MAX_FINAL_FLUSH_ATTEMPTS} failed attempts.
+     */
+    public static void flushAll() {
+        long now = System.currentTimeMillis();
+
+        for (Map.Entry<String, StormDigest> digest : DIGESTS.entrySet()) {
+            StormDetector detector = DIGEST_DETECTORS.get(digest.getValue());
+
+            if (detector != null && !detector.isActive(now)) {
+                // new alerts start a new storm, the ended one only waits for its final update
+                digest.getValue().end(now);
+                ENDED.add(digest.getValue());
+                DIGESTS.remove(digest.getKey(), digest.getValue());
+                DIGEST_DETECTORS.remove(digest.getValue());
+            } else {
+                digest.getValue().flush();
+            }
+        }
+
+        for (StormDigest digest : new ArrayList<>(ENDED)) {
+            if (digest.flush()) {
+                ENDED.remove(digest);
+            } else if (digest.getFailedFlushes() >= MAX_FINAL_FLUSH_ATTEMPTS) {
+                ENDED.remove(digest);
+                JiraMetrics.counter("storm", "lost").inc();
+                LOG.info("error-Giving up the storm digest for " + digest.getScope() + " after " + digest.getFailedFlushes()
+                        + " failed updates, " + digest.getAlerts() + " alerts with " + digest.getFingerprints() + " distinct fingerprints were not filed"
+                        + (digest.getIssueKey() != null ? " completely in " + digest.getIssueKey() : ""));
+            }
+        }
+    }
+
+    private static synchronized void startFlusher() {
+        if (flusher != null) {
+            return;
+        }
+
+        flusher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "jira-storm-digest");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        flusher.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                flushAll();
+            }
+        }, FLUSH_INTERVAL_SECONDS, FLUSH_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+}
@@ -0,0 +1,297 @@
+package com.bidorbuy.graylog.alarmcallbacks.jira.tools;
+
+import com.bidorbuy.graylog.alarmcallbacks.jira.JiraAlarmCallback;
+import com.bidorbuy.graylog.alarmcallbacks.jira.alert.AlertSnapshot;
+import com.bidorbuy.graylog.alarmcallbacks.jira.dedup.SimHashIndex;
+import com.bidorbuy.graylog.alarmcallbacks.jira.util.JiraUtil;
+import net.sf.json.JSONObject;
+import org.apache.commons.lang3.StringUtils;
+import org.graylog2.plugin.configuration.Configuration;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Replays recorded alerts (one {@link RecordedAlert} per line) through the title, description and MD5 rendering of
+ * a callback configuration, i.e. to try a template or regex change against real traffic before deploying it.
+ * <p>
+ * Reports the throughput, the distinct MD5s and how many issues would have been created. With {@code --jira} every
+ * alert is also sent through the full callback to a JIRA instance, which should be a local stand-in.
+ * <pre>
+ * mvn -Preplay exec:java -Dexec.args="--config callback.json [--threads 4] [--top 20] [--jira http://localhost:8080] alerts.jsonl"
+ * </pre>
+ */
+public class AlertReplay {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final String USAGE = "Usage: AlertReplay --config <callback.json> [--threads <n>] [--top <n>] [--jira <url>] <alerts.jsonl>";
+
+    private final Configuration configuration;
+    private final JiraAlarmCallback callback;
+    private final SimHashIndex similarityIndex;
+
+    private final ConcurrentMap<String, Fingerprint> fingerprints = new ConcurrentHashMap<>();
+    private final AtomicLong alerts = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong wouldCreate = new AtomicLong();
+    private final AtomicLong similar = new AtomicLong();
+    private final AtomicLong descriptionBytes = new AtomicLong();
+    private final AtomicLong jiraFailures = new AtomicLong();
+
+    AlertReplay(Configuration configuration, JiraAlarmCallback callback) {
+        this.configuration = configuration;
+        this.callback = callback;
+
+        int similarityDistance = JiraUtil.getIntSetting(configuration, JiraAlarmCallback.JIRA_SIMILARITY_DISTANCE, -1);
+        this.similarityIndex = similarityDistance >= 0
+                ? new SimHashIndex(similarityDistance, SimHashIndex.DEFAULT_CAPACITY, SimHashIndex.DEFAULT_MAX_AGE_MILLIS) : null;
+    }
+
+    public static void main(String[] args) throws Exception {
+        String configFile = null;
+        String jiraURL = null;
+        String alertsFile = null;
+        int threads = 1;
+        int top = 20;
+
+        try {
+            for (int i = 0; i < args.length; i++) {
+                if ("--config".equals(args[i])) {
+                    configFile = args[++i];
+                } else if ("--threads".equals(args[i])) {
+                    threads = Integer.parseInt(args[++i]);
+                } else if ("--top".equals(args[i])) {
+                    top = Integer.parseInt(args[++i]);
+                } else if ("--jira".equals(args[i])) {
+                    jiraURL = args[++i];
+                } else {
+                    alertsFile = args[i];
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException | NumberFormatException ex) {
+            configFile = null;
+        }
+
+        if (configFile == null || alertsFile == null || threads < 1) {
+            System.err.println(USAGE);
+            System.exit(2);
+        }
+
+        Map<String, Object> settings = readConfiguration(new File(configFile));
+        if (jiraURL != null) {
+            settings.put(JiraAlarmCallback.JIRA_INSTANCE_URL, jiraURL);
+        }
+        Configuration configuration = new Configuration(settings);
+
+        JiraAlarmCallback callback = null;
+        if (jiraURL != null) {
+            callback = new JiraAlarmCallback();
+            callback.initialize(configuration);
+            callback.checkConfiguration();
+        }
+
+        AlertReplay replay = new AlertReplay(configuration, callback);
+
+        long start = System.nanoTime();
+        replay.run(new File(alertsFile), threads);
+        long elapsedNanos = System.nanoTime() - start;
+
+        replay.report(System.out, elapsedNanos, top);
+    }
+
+    /**
+     * The callback configuration as exported from Graylog, all values but booleans are passed on as text like the
+     * web interface does
+     */
+    static Map<String, Object> readConfiguration(File file) throws IOException {
+        JSONObject json = JSONObject.fromObject(new String(Files.readAllBytes(file.toPath()), UTF_8));
+
+        Map<String, Object> settings = new HashMap<>();
+        Iterator<?> keys = json.keys();
+        while (keys.hasNext()) {
+            String key = String.valueOf(keys.next());
+            Object value = json.get(key);
+            settings.put(key, value instanceof Boolean ? value : String.valueOf(value));
+        }
+
+        return settings;
+    }
+
+    /**
+     * Replay all alerts of the file, one per line
+     */
+    void run(File alertsFile, int threads) throws IOException, InterruptedException {
+        // a bounded queue with caller-runs keeps the reader from getting ahead of the workers
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(threads * 64), new ThreadPoolExecutor.CallerRunsPolicy());
+
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(alertsFile), UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (StringUtils.isBlank(line)) {
+                    continue;
+                }
+
+                final String alert = line;
+
+                if (threads == 1) {
+                    replay(alert);
+                } else {
+                    executor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            replay(alert);
+                        }
+                    });
+                }
+            }
+        } finally {
+            executor.shutdown();
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    void replay(String line) {
+        RecordedAlert alert;
+
+        try {
+            alert = RecordedAlert.parse(line);
+        } catch (RuntimeException ex) {
+            alerts.incrementAndGet();
+            failures.incrementAndGet();
+            System.err.println("Can not parse alert " + alerts.get() + ": " + ex);
+            return;
+        }
+
+        replay(alert);
+    }
+
+    void replay(RecordedAlert alert) {
+        alerts.incrementAndGet();
+
+        try {
+            AlertSnapshot snapshot = AlertSnapshot.of(configuration, alert.getStream(), alert.getResult());
+
+            String title = JiraUtil.buildJIRATitle(configuration, snapshot);
+            String description = JiraUtil.buildJIRADescription(configuration, snapshot);
+            String digestInput = JiraUtil.buildJIRAMessageDigestInput(configuration, snapshot);
+            String digest = JiraUtil.buildJIRAMessageDigest(digestInput);
+            Long similarityHash = JiraUtil.buildJIRASimilarityHash(configuration, digestInput);
+
+            descriptionBytes.addAndGet(description.getBytes(UTF_8).length);
+            record(digest, title, similarityHash);
+
+            if (callback != null) {
+                try {
+                    callback.call(alert.getStream(), alert.getResult());
+                } catch (Exception ex) {
+                    jiraFailures.incrementAndGet();
+                }
+            }
+        } catch (Exception ex) {
+            failures.incrementAndGet();
+            System.err.println("Can not replay alert " + alerts.get() + ": " + ex);
+        }
+    }
+
+    /**
+     * Count the MD5 and decide whether it would have created an issue: the first alert of an MD5 does, unless the
+     * similarity index finds a similar issue
+     */
+    private void record(String digest, String title, Long similarityHash) {
+        Fingerprint fingerprint = fingerprints.get(digest);
+
+        if (fingerprint == null) {
+            Fingerprint created = new Fingerprint(title);
+            fingerprint = fingerprints.putIfAbsent(digest, created);
+
+            if (fingerprint == null) {
+                fingerprint = created;
+
+                synchronized (this) {
+                    if (similarityIndex != null && similarityHash != null && similarityIndex.find(similarityHash) != null) {
+                        similar.incrementAndGet();
+                    } else {
+                        wouldCreate.incrementAndGet();
+                        if (similarityIndex != null && similarityHash != null) {
+                            similarityIndex.put(similarityHash, digest);
+                        }
+                    }
+                }
+            }
+        }
+
+        fingerprint.alerts.incrementAndGet();
+    }
+
+    void report(PrintStream out, long elapsedNanos, int top) {
+        long replayed = alerts.get() - failures.get();
+        double seconds = elapsedNanos / 1e9;
+
+        out.println("Alerts replayed:        " + replayed + (failures.get() > 0 ? " (" + failures.get() + " failed)" : ""));
+        out.println(String.format("Elapsed:                %.3f s", seconds));
+        out.println(String.format("Throughput:             %.1f alerts/s", seconds > 0 ? replayed / seconds : 0.0));
+        out.println("Average description:    " + (replayed > 0 ? descriptionBytes.get() / replayed : 0) + " bytes");
+        out.println("Distinct MD5s:          " + fingerprints.size());
+        if (similarityIndex != null) {
+            out.println("Similar to another MD5: " + similar.get());
+        }
+        out.println("Issues to create:       " + wouldCreate.get());
+        if (callback != null) {
+            out.println("JIRA failures:          " + jiraFailures.get());
+        }
+
+        List<Map.Entry<String, Fingerprint>> sorted = new ArrayList<>(fingerprints.entrySet());
+        Collections.sort(sorted, new Comparator<Map.Entry<String, Fingerprint>>() {
+            @Override
+            public int compare(Map.Entry<String, Fingerprint> a, Map.Entry<String, Fingerprint> b) {
+                return Long.compare(b.getValue().alerts.get(), a.getValue().alerts.get());
+            }
+        });
+
+        if (top > 0 && !sorted.isEmpty()) {
+            out.println();
+            out.println("Top MD5s:");
+            for (Map.Entry<String, Fingerprint> fingerprint : sorted.subList(0, Math.min(top, sorted.size()))) {
+                out.println(String.format("%8d  %s  %s", fingerprint.getValue().alerts.get(), fingerprint.getKey(), fingerprint.getValue().title));
+            }
+        }
+    }
+
+    long getWouldCreate() {
+        return wouldCreate.get();
+    }
+
+    int getDistinctFingerprints() {
+        return fingerprints.size();
+    }
+
+    private static class Fingerprint {
+        private final String title;
+        private final AtomicLong alerts = new AtomicLong();
+
+        private Fingerprint(String title) {
+            this.title = title;
+        }
+    }
+}
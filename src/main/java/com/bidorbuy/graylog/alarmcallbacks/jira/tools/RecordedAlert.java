@@ -0,0 +1,213 @@
+package com.bidorbuy.graylog.alarmcallbacks.jira.tools;
+
+import net.sf.json.JSONNull;
+import net.sf.json.JSONObject;
+import org.apache.commons.lang3.StringUtils;
+import org.graylog2.plugin.Message;
+import org.graylog2.plugin.MessageSummary;
+import org.graylog2.plugin.alarms.AlertCondition;
+import org.graylog2.plugin.streams.Stream;
+import org.graylog2.plugin.streams.StreamRule;
+import org.graylog2.plugin.streams.StreamRuleType;
+import org.joda.time.DateTime;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * One recorded alert, parsed from a JSON line:
+ * <pre>
+ * {"stream": {"id": "...", "title": "...", "rules": [{"field": "level", "type": "EXACT", "value": "3", "inverted": false}]},
+ *  "condition": {"id": "...", "type": "field_content_value", "description": "...", "parameters": {...}},
+ *  "resultDescription": "...", "triggeredAt": "2016-03-07T15:37:23.000Z",
+ *  "messages": [{"index": "graylog_0", "message": "...", "source": "...", "timestamp": "...", "fields": {...}}]}
+ * </pre>
+ * The Graylog stream and alert condition interfaces are backed by the recorded properties, anything not recorded is
+ * null, false or 0.
+ */
+public class RecordedAlert {
+
+    private final Stream stream;
+    private final AlertCondition.CheckResult result;
+
+    private RecordedAlert(Stream stream, AlertCondition.CheckResult result) {
+        this.stream = stream;
+        this.result = result;
+    }
+
+    public static RecordedAlert parse(String line) {
+        return of(JSONObject.fromObject(line));
+    }
+
+    /**
+     * @param alert the recorded alert as parsed JSON, objects are maps and arrays are lists
+     */
+    public static RecordedAlert of(Map<?, ?> alert) {
+        Map<?, ?> streamJson = map(alert.get("stream"));
+        Map<?, ?> conditionJson = map(alert.get("condition"));
+
+        List<StreamRule> rules = new ArrayList<>();
+        for (Object ruleJson : list(streamJson.get("rules"))) {
+            Map<?, ?> recorded = map(ruleJson);
+
+            Map<String, Object> rule = new HashMap<>();
+            rule.put("id", text(recorded.get("id")));
+            rule.put("field", text(recorded.get("field")));
+            rule.put("value", text(recorded.get("value")));
+            rule.put("inverted", Boolean.valueOf(text(recorded.get("inverted"))));
+            rule.put("type", StreamRuleType.valueOf(StringUtils.defaultIfBlank(text(recorded.get("type")), "EXACT").toUpperCase()));
+            rules.add(proxy(StreamRule.class, rule));
+        }
+
+        Map<String, Object> streamProperties = new HashMap<>();
+        streamProperties.put("id", text(streamJson.get("id")));
+        streamProperties.put("title", text(streamJson.get("title")));
+        streamProperties.put("description", text(streamJson.get("description")));
+        streamProperties.put("streamRules", rules);
+        Stream stream = proxy(Stream.class, streamProperties);
+
+        Map<String, Object> conditionProperties = new HashMap<>();
+        conditionProperties.put("id", text(conditionJson.get("id")));
+        conditionProperties.put("typeString", text(conditionJson.get("type")));
+        conditionProperties.put("description", text(conditionJson.get("description")));
+        conditionProperties.put("parameters", fields(map(conditionJson.get("parameters"))));
+        conditionProperties.put("stream", stream);
+        AlertCondition condition = proxy(AlertCondition.class, conditionProperties);
+
+        List<MessageSummary> messages = new ArrayList<>();
+        for (Object messageJson : list(alert.get("messages"))) {
+            Map<?, ?> recorded = map(messageJson);
+
+            Message message = new Message(StringUtils.defaultString(text(recorded.get("message"))),
+                    StringUtils.defaultString(text(recorded.get("source"))), time(recorded.get("timestamp")));
+            message.addFields(fields(map(recorded.get("fields"))));
+
+            messages.add(new MessageSummary(StringUtils.defaultIfBlank(text(recorded.get("index")), "graylog_0"), message));
+        }
+
+        Map<String, Object> resultProperties = new HashMap<>();
+        resultProperties.put("triggered", true);
+        resultProperties.put("resultDescription", text(alert.get("resultDescription")));
+        resultProperties.put("triggeredCondition", condition);
+        resultProperties.put("triggeredAt", time(alert.get("triggeredAt")));
+        resultProperties.put("matchingMessages", messages);
+
+        return new RecordedAlert(stream, proxy(AlertCondition.CheckResult.class, resultProperties));
+    }
+
+    public Stream getStream() {
+        return stream;
+    }
+
+    public AlertCondition.CheckResult getResult() {
+        return result;
+    }
+
+    private static String text(Object value) {
+        return value != null && !(value instanceof JSONNull) ? value.toString() : null;
+    }
+
+    private static DateTime time(Object value) {
+        return StringUtils.isNotBlank(text(value)) ? DateTime.parse(text(value)) : DateTime.now();
+    }
+
+    private static Map<?, ?> map(Object value) {
+        return value instanceof Map ? (Map<?, ?>) value : Collections.emptyMap();
+    }
+
+    private static List<?> list(Object value) {
+        return value instanceof List ? (List<?>) value : Collections.emptyList();
+    }
+
+    /**
+     * Message fields and condition parameters, nested objects are kept as their JSON text
+     */
+    private static Map<String, Object> fields(Map<?, ?> recorded) {
+        Map<String, Object> fields = new HashMap<>();
+        for (Map.Entry<?, ?> field : recorded.entrySet()) {
+            Object value = field.getValue();
+            if (value instanceof Map || value instanceof List) {
+                value = value.toString();
+            } else if (value instanceof JSONNull) {
+                value = null;
+            }
+            fields.put(String.valueOf(field.getKey()), value);
+        }
+        return fields;
+    }
+
+    /**
+     * An instance of the interface whose getters return the recorded properties
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(final Class<T> type, final Map<String, Object> properties) {
+        return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                String name = method.getName();
+
+                if (name.equals("equals") && args != null && args.length == 1) {
+                    return proxy == args[0];
+                } else if (name.equals("hashCode") && args == null) {
+                    return System.identityHashCode(proxy);
+                } else if (name.equals("toString") && args == null) {
+                    Object description = properties.get("description");
+                    return description != null ? description.toString() : type.getSimpleName() + properties.get("id");
+                }
+
+                Object value = properties.get(propertyName(name));
+                if (value != null && wrap(method.getReturnType()).isInstance(value)) {
+                    return value;
+                }
+
+                return defaultValue(method.getReturnType());
+            }
+        });
+    }
+
+    private static String propertyName(String methodName) {
+        String name = methodName;
+        if (name.startsWith("get") && name.length() > 3) {
+            name = name.substring(3);
+        } else if (name.startsWith("is") && name.length() > 2) {
+            name = name.substring(2);
+        }
+        return Character.toLowerCase(name.charAt(0)) + name.substring(1);
+    }
+
+    private static Class<?> wrap(Class<?> type) {
+        if (type == boolean.class) {
+            return Boolean.class;
+        } else if (type == int.class) {
+            return Integer.class;
+        } else if (type == long.class) {
+            return Long.class;
+        } else if (type == double.class) {
+            return Double.class;
+        }
+        return type;
+    }
+
+    private static Object defaultValue(Class<?> type) {
+        if (type == boolean.class) {
+            return false;
+        } else if (type == int.class) {
+            return 0;
+        } else if (type == long.class) {
+            return 0L;
+        } else if (type == double.class) {
+            return 0.0;
+        } else if (type == List.class) {
+            return Collections.emptyList();
+        } else if (type == Map.class) {
+            return Collections.emptyMap();
+        }
+        return null;
+    }
+}
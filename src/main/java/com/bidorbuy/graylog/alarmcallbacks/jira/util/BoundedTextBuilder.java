@@ -0,0 +1,227 @@
+package com.bidorbuy.graylog.alarmcallbacks.jira.util;
+
+/**
+ * A text builder which tracks the UTF-8 size of everything appended and never grows beyond a byte budget.
+ * <p>
+ * Placeholder values are cut while they are appended: oversized values keep their first and last lines
+ * (i.e. the exception and the bottom of a stack trace) and only the part that fits is ever copied.
+ */
+public class BoundedTextBuilder {
+
+    static final String TRUNCATION_MARKER = "...[truncated, original size %d characters]...\n";
+    static final String DOCUMENT_TRUNCATION_NOTICE = "\n\n_(description truncated)_";
+
+    private final StringBuilder sb = new StringBuilder();
+    private final int maxBytes;
+    private int usedBytes;
+    private boolean truncated;
+
+    /**
+     * @param maxBytes the budget for the whole document, including a trailing truncation notice
+     */
+    public BoundedTextBuilder(int maxBytes) {
+        this.maxBytes = Math.max(0, maxBytes - utf8Length(DOCUMENT_TRUNCATION_NOTICE));
+    }
+
+    public int remainingBytes() {
+        return maxBytes - usedBytes;
+    }
+
+    public boolean isTruncated() {
+        return truncated;
+    }
+
+    /**
+     * Append template text, cutting it if the document budget is exhausted
+     */
+    public BoundedTextBuilder appendLiteral(CharSequence text) {
+        if (text == null || text.length() == 0) {
+            return this;
+        }
+
+        int end = prefixEnd(text, 0, text.length(), remainingBytes());
+        append(text, 0, end);
+
+        if (end < text.length()) {
+            truncated = true;
+        }
+
+        return this;
+    }
+
+    /**
+     * Append a placeholder value. If the value does not fit into the smaller of {@code valueBudget} and the remaining
+     * document budget, only its first {@code headLines} and last {@code tailLines} lines are kept.
+     */
+    public BoundedTextBuilder appendValue(CharSequence value, int valueBudget, int headLines, int tailLines) {
+        if (value == null || value.length() == 0) {
+            return this;
+        }
+
+        int budget = valueBudget > 0 ? Math.min(valueBudget, remainingBytes()) : remainingBytes();
+
+        // a UTF-8 char needs at most 3 bytes (surrogate pairs need 4 bytes for 2 chars), so short values always fit
+        if (value.length() * 3 <= budget || prefixEnd(value, 0, value.length(), budget) == value.length()) {
+            append(value, 0, value.length());
+            return this;
+        }
+
+        truncated = true;
+
+        String marker = String.format(TRUNCATION_MARKER, value.length());
+        // one more byte for the line-break in front of the marker if the head is cut within a line
+        int available = budget - utf8Length(marker) - 1;
+
+        if (available <= 0) {
+            return this;
+        }
+
+        int tailStart = value.length();
+        if (tailLines > 0) {
+            tailStart = tailStart(value, tailLines, headLines > 0 ? available / 2 : available);
+        }
+
+        int headBudget = available - utf8Length(value, tailStart, value.length());
+        int headEnd = 0;
+        if (headLines > 0 || tailLines <= 0) {
+            headEnd = headEnd(value, tailStart, headLines, headBudget);
+        }
+
+        append(value, 0, headEnd);
+        if (headEnd > 0 && value.charAt(headEnd - 1) != '\n') {
+            append("\n", 0, 1);
+        }
+        append(marker, 0, marker.length());
+        append(value, tailStart, value.length());
+
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        return truncated ? sb.toString() + DOCUMENT_TRUNCATION_NOTICE : sb.toString();
+    }
+
+    private void append(CharSequence text, int start, int end) {
+        if (start >= end) {
+            return;
+        }
+        sb.append(text, start, end);
+        usedBytes += utf8Length(text, start, end);
+    }
+
+    /**
+     * The end index of the first {@code lines} lines of the value before {@code limit}, but never more than
+     * {@code budget} bytes
+     */
+    private static int headEnd(CharSequence value, int limit, int lines, int budget) {
+        int bytes = 0;
+        int seenLines = 0;
+
+        for (int i = 0; i < limit; i++) {
+            char c = value.charAt(i);
+            int size = utf8Length(c);
+
+            if (Character.isHighSurrogate(c) && i + 1 < limit) {
+                if (bytes + size + utf8Length(value.charAt(i + 1)) > budget) {
+                    return i;
+                }
+            } else if (bytes + size > budget) {
+                return i;
+            }
+
+            bytes += size;
+
+            if (c == '\n' && lines > 0 && ++seenLines >= lines) {
+                return i + 1;
+            }
+        }
+
+        return limit;
+    }
+
+    /**
+     * The start index of the last {@code lines} lines of the value, but never more than {@code budget} bytes
+     */
+    private static int tailStart(CharSequence value, int lines, int budget) {
+        int bytes = 0;
+        int seenLines = 0;
+
+        for (int i = value.length() - 1; i >= 0; i--) {
+            char c = value.charAt(i);
+
+            // a trailing line-break does not start a new line
+            if (c == '\n' && i < value.length() - 1 && ++seenLines >= lines) {
+                return i + 1;
+            }
+
+            int size = utf8Length(c);
+
+            if (Character.isLowSurrogate(c) && i > 0) {
+                if (bytes + size + utf8Length(value.charAt(i - 1)) > budget) {
+                    return i + 1;
+                }
+            } else if (bytes + size > budget) {
+                return i + 1;
+            }
+
+            bytes += size;
+        }
+
+        return 0;
+    }
+
+    /**
+     * The end index of the longest prefix of {@code text[start, end)} that fits into {@code budget} bytes
+     */
+    private static int prefixEnd(CharSequence text, int start, int end, int budget) {
+        int bytes = 0;
+
+        for (int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            int size = utf8Length(c);
+
+            if (Character.isHighSurrogate(c) && i + 1 < end) {
+                size += utf8Length(text.charAt(i + 1));
+                if (bytes + size > budget) {
+                    return i;
+                }
+                bytes += size;
+                i++;
+                continue;
+            }
+
+            if (bytes + size > budget) {
+                return i;
+            }
+
+            bytes += size;
+        }
+
+        return end;
+    }
+
+    static int utf8Length(CharSequence text) {
+        return utf8Length(text, 0, text.length());
+    }
+
+    private static int utf8Length(CharSequence text, int start, int end) {
+        int bytes = 0;
+        for (int i = start; i < end; i++) {
+            bytes += utf8Length(text.charAt(i));
+        }
+        return bytes;
+    }
+
+    private static int utf8Length(char c) {
+        if (c < 0x80) {
+            return 1;
+        } else if (c < 0x800) {
+            return 2;
+        } else if (Character.isSurrogate(c)) {
+            // each half of a surrogate pair accounts for half of the 4-byte sequence
+            return 2;
+        }
+        return 3;
+    }
+}
@@ -0,0 +1,63 @@
+package com.bidorbuy.graylog.alarmcallbacks.jira.util;
+
+import com.bidorbuy.graylog.alarmcallbacks.jira.JiraAlarmCallback;
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The metrics of the plugin. They are registered with the Graylog metric registry once the first alarm callback has
+ * been created, until then (i.e. in tests) a private registry is used.
+ */
+public final class JiraMetrics {
+
+    public static final String REGEX_TIMEOUTS = "regexTimeouts";
+    public static final String REGEX_FALLBACKS = "regexFallbacks";
+
+    private static volatile MetricRegistry registry = new MetricRegistry();
+
+    private JiraMetrics() {
+    }
+
+    public static void bind(MetricRegistry metricRegistry) {
+        if (metricRegistry != null) {
+            registry = metricRegistry;
+        }
+    }
+
+    public static MetricRegistry registry() {
+        return registry;
+    }
+
+    public static Counter counter(String... names) {
+        return registry.counter(MetricRegistry.name(JiraAlarmCallback.class, names));
+    }
+
+    public static Timer timer(String... names) {
+        return registry.timer(MetricRegistry.name(JiraAlarmCallback.class, names));
+    }
+
+    public static Histogram histogram(String... names) {
+        return registry.histogram(MetricRegistry.name(JiraAlarmCallback.class, names));
+    }
+
+    /**
+     * The counts of all counters below the prefix, by the rest of their name
+     */
+    public static Map<String, Long> counters(String... prefix) {
+        String name = MetricRegistry.name(JiraAlarmCallback.class, prefix) + ".";
+        Map<String, Long> counts = new TreeMap<>();
+
+        for (Map.Entry<String, Counter> counter : registry.getCounters().entrySet()) {
+            if (counter.getKey().startsWith(name)) {
+                counts.put(counter.getKey().substring(name.length()), counter.getValue().getCount());
+            }
+        }
+
+        return counts;
+    }
+}
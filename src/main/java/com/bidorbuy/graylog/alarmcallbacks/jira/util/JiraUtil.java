@@ -1,12 +1,15 @@
 package com.bidorbuy.graylog.alarmcallbacks.jira.util;
 
 import com.bidorbuy.graylog.alarmcallbacks.jira.JiraAlarmCallback;
+import com.bidorbuy.graylog.alarmcallbacks.jira.alert.AlertSnapshot;
+import com.bidorbuy.graylog.alarmcallbacks.jira.dedup.SimHash;
+import com.bidorbuy.graylog.alarmcallbacks.jira.fingerprint.FingerprintStrategies;
+import com.bidorbuy.graylog.alarmcallbacks.jira.mapping.FieldMapping;
+import com.openenglish.util.RegexTimeoutException;
 import com.openenglish.util.StringUtil;
 import org.apache.commons.lang3.StringEscapeUtils;
 import org.apache.commons.lang3.StringUtils;
-import org.graylog2.plugin.MessageSummary;
-import org.graylog2.plugin.Tools;
-import org.graylog2.plugin.alarms.AlertCondition;
+import org.apache.commons.lang3.math.NumberUtils;
 import org.graylog2.plugin.configuration.Configuration;
 import org.graylog2.plugin.streams.Stream;
 import org.graylog2.plugin.streams.StreamRule;
@@ -16,6 +19,7 @@ import org.slf4j.LoggerFactory;
 import java.math.BigInteger;
 import java.security.MessageDigest;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -40,19 +44,18 @@ public class JiraUtil {
     /**
      * Build the JIRA issue title
      */
-    public static String buildJIRATitle(final Configuration configuration, final Stream stream, final AlertCondition.CheckResult result) {
+    public static String buildJIRATitle(final Configuration configuration, final AlertSnapshot snapshot) {
         LOG.debug("Starting buildJIRATitle(...)");
 
-        LOG.info("result.getResultDescription(): " + result.getResultDescription());
+        LOG.info("result.getResultDescription(): " + snapshot.getResultDescription());
 
-        String title = "[Alert] Graylog alert for stream: " + stream.getTitle();
+        final String defaultTitle = "[Alert] Graylog alert for stream: " + snapshot.getStreamTitle();
+        String title = defaultTitle;
 
         try {
-            if (!result.getMatchingMessages().isEmpty()) {
+            if (snapshot.hasMessage()) {
                 // get fields from last message only
-                MessageSummary lastMessage = result.getMatchingMessages().get(0);
-
-                String message = lastMessage.getMessage();
+                String message = snapshot.getMessage();
                 LOG.info("lastMessage.getMessage(): " + message);
 
                 LOG.info("configuration.getString(JIRA_TITLE_TEMPLATE): " + configuration.getString(JiraAlarmCallback.JIRA_TITLE_TEMPLATE));
@@ -65,7 +68,7 @@ public class JiraUtil {
 
                 LOG.info("title (template): " + title);
 
-                title = replaceMessageSummaryPlaceholders(title, lastMessage);
+                title = replaceMessageSummaryPlaceholders(title, snapshot);
 
                 LOG.info("title (after placeholders): " + title);
 
@@ -75,7 +78,13 @@ public class JiraUtil {
                 LOG.info("configuration.getString(MESSAGE_REGEX): " + regex);
 
                 if (isSetAndNotNullText(configuration, JiraAlarmCallback.MESSAGE_REGEX)) {
-                    title = StringUtil.captureGroupAndReplace(title, message, regex);
+                    try {
+                        title = StringUtil.captureGroupAndReplace(title, message, regex, getRegexTimeoutMillis(configuration), getRegexMaxInputLength(configuration));
+                    } catch (RegexTimeoutException ex) {
+                        JiraMetrics.counter(JiraMetrics.REGEX_TIMEOUTS).inc();
+                        LOG.info("warn-" + ex.getMessage() + ", using the default title");
+                        title = defaultTitle;
+                    }
                 }
             }
         } catch (Exception ex) {
@@ -92,14 +101,45 @@ public class JiraUtil {
         return configuration.stringIsSet(fieldName) && !configuration.getString(fieldName).equals("null");
     }
 
-    private static String replaceMessageSummaryPlaceholders(String s, MessageSummary messageSummary) {
-        s = s.replace("[LAST_MESSAGE.message]", messageSummary.getMessage());
-        s = s.replace("[LAST_MESSAGE.source]", messageSummary.getSource());
+    private static long getRegexTimeoutMillis(Configuration configuration) {
+        return getIntSetting(configuration, JiraAlarmCallback.MESSAGE_REGEX_TIMEOUT, (int) StringUtil.DEFAULT_REGEX_TIMEOUT_MILLIS);
+    }
+
+    private static int getRegexMaxInputLength(Configuration configuration) {
+        return getIntSetting(configuration, JiraAlarmCallback.MESSAGE_REGEX_MAX_INPUT_LENGTH, StringUtil.DEFAULT_REGEX_MAX_INPUT_LENGTH);
+    }
+
+    /**
+     * Read a numeric setting which is configured via a text field
+     */
+    public static int getIntSetting(Configuration configuration, String fieldName, int defaultValue) {
+        if (isSetAndNotNullText(configuration, fieldName)) {
+            return NumberUtils.toInt(configuration.getString(fieldName).trim(), defaultValue);
+        }
+
+        return defaultValue;
+    }
+
+    /**
+     * The description template with Java escapes resolved
+     */
+    public static String getDescriptionTemplate(final Configuration configuration) {
+        String message = JiraAlarmCallback.DEFAULT_JIRA_MESSAGE_TEMPLATE;
+
+        if (isSetAndNotNullText(configuration, JiraAlarmCallback.JIRA_MESSAGE_TEMPLATE)) {
+            message = configuration.getString(JiraAlarmCallback.JIRA_MESSAGE_TEMPLATE);
+        }
+
+        return StringEscapeUtils.unescapeJava(message);
+    }
+
+    private static String replaceMessageSummaryPlaceholders(String s, AlertSnapshot snapshot) {
+        s = s.replace("[LAST_MESSAGE.message]", snapshot.getMessage());
+        s = s.replace("[LAST_MESSAGE.source]", snapshot.getSource());
 
-        // iterate through all the message fields and replace the template
-        Map<String, Object> lastMessageFields = messageSummary.getFields();
-        for (Map.Entry<String, Object> arg : lastMessageFields.entrySet()) {
-            s = s.replace("[LAST_MESSAGE." + arg.getKey() + "]", arg.getValue().toString());
+        // iterate through all the referenced message fields and replace the template
+        for (Map.Entry<String, String> arg : snapshot.getFields().entrySet()) {
+            s = s.replace("[LAST_MESSAGE." + arg.getKey() + "]", arg.getValue());
         }
 
         // We regex template fields which have not been replaced
@@ -107,43 +147,120 @@ public class JiraUtil {
         return s;
     }
 
-    private static String replaceStandardPlaceholders(String s, final Configuration configuration, final Stream stream, final AlertCondition.CheckResult result) {
+    private static String replaceStandardPlaceholders(String s, final AlertSnapshot snapshot) {
         // replace placeholders
-        s = s.replace("[CALLBACK_DATE]", Tools.iso8601().toString()); // e.g. 2017-07-21T18:19:44.243Z
-        s = s.replace("[STREAM_ID]", stream.getId()); // e.g. 5968db3189c88913066fc469
-        s = s.replace("[STREAM_TITLE]", stream.getTitle()); // e.g. oe-wolverine WARN
-        s = s.replace("[STREAM_URL]", buildStreamURL(configuration, stream)); // e.g. http://graylog.openenglish.com/streams/5968db3189c88913066fc469/messages?q=*&rangetype=relative&relative=35
-        s = s.replace("[STREAM_RULES]", buildStreamRules(stream)); // e.g source REGEX ^wolverine[0-9]$ message CONTAINS WARN
-        s = s.replace("[STREAM_RESULT]", result.getResultDescription()); // e.g. Stream had 2614 messages in the last 5 minutes with trigger condition more than 0 messages. (Current grace time: 1 minutes)
-        s = s.replace("[ALERT_TRIGGERED_AT]", result.getTriggeredAt().toString()); // e.g. 2017-07-21T17:09:55.701Z
-        s = s.replace("[ALERT_TRIGGERED_CONDITION]", result.getTriggeredCondition().toString()); // e.g. 32044c6a-7d73-4155-ba04-44323b403002:message_count={time: 5, threshold_type: more, threshold: 0, grace: 1, repeat notifications: true}, stream:={5968db3189c88913066fc469: "oe-wolverine WARN"}
+        for (Map.Entry<String, String> placeholder : buildStandardPlaceholders(snapshot).entrySet()) {
+            s = s.replace("[" + placeholder.getKey() + "]", placeholder.getValue());
+        }
 
         return s;
     }
 
+    private static Map<String, String> buildStandardPlaceholders(final AlertSnapshot snapshot) {
+        Map<String, String> placeholders = new LinkedHashMap<>();
+
+        placeholders.put("CALLBACK_DATE", snapshot.getCallbackDate()); // e.g. 2017-07-21T18:19:44.243Z
+        placeholders.put("STREAM_ID", snapshot.getStreamId()); // e.g. 5968db3189c88913066fc469
+        placeholders.put("STREAM_TITLE", snapshot.getStreamTitle()); // e.g. oe-wolverine WARN
+        placeholders.put("STREAM_URL", snapshot.getStreamURL()); // e.g. http://graylog.openenglish.com/streams/5968db3189c88913066fc469/messages?q=*&rangetype=relative&relative=35
+        placeholders.put("STREAM_RULES", snapshot.getStreamRules()); // e.g source REGEX ^wolverine[0-9]$ message CONTAINS WARN
+        placeholders.put("STREAM_RESULT", snapshot.getResultDescription()); // e.g. Stream had 2614 messages in the last 5 minutes with trigger condition more than 0 messages. (Current grace time: 1 minutes)
+        placeholders.put("ALERT_TRIGGERED_AT", snapshot.getTriggeredAt()); // e.g. 2017-07-21T17:09:55.701Z
+        placeholders.put("ALERT_TRIGGERED_CONDITION", snapshot.getTriggeredCondition()); // e.g. 32044c6a-7d73-4155-ba04-44323b403002:message_count={time: 5, threshold_type: more, threshold: 0, grace: 1, repeat notifications: true}, stream:={5968db3189c88913066fc469: "oe-wolverine WARN"}
+
+        return placeholders;
+    }
+
+    private static Map<String, String> buildMessageSummaryPlaceholders(AlertSnapshot snapshot) {
+        Map<String, String> placeholders = new HashMap<>();
+
+        for (Map.Entry<String, String> arg : snapshot.getFields().entrySet()) {
+            placeholders.put("LAST_MESSAGE." + arg.getKey(), arg.getValue());
+        }
+
+        placeholders.put("LAST_MESSAGE.message", snapshot.getMessage());
+        placeholders.put("LAST_MESSAGE.source", snapshot.getSource());
+
+        return placeholders;
+    }
+
+    /**
+     * Render a template in a single pass, keeping every placeholder value and the whole document within a byte budget
+     */
+    private static String renderBoundedTemplate(String template, Map<String, String> placeholders, int maxBytes, int maxPlaceholderBytes, int headLines, int tailLines) {
+        BoundedTextBuilder builder = new BoundedTextBuilder(maxBytes);
+
+        int position = 0;
+        while (position < template.length()) {
+            int start = template.indexOf('[', position);
+            int end = start < 0 ? -1 : template.indexOf(']', start);
+
+            if (end < 0) {
+                builder.appendLiteral(template.substring(position));
+                break;
+            }
+
+            builder.appendLiteral(template.substring(position, start));
+
+            String name = template.substring(start + 1, end);
+            if (placeholders.containsKey(name)) {
+                builder.appendValue(placeholders.get(name), maxPlaceholderBytes, headLines, tailLines);
+                position = end + 1;
+            } else if (name.startsWith("LAST_MESSAGE.") && name.indexOf('[') < 0) {
+                // template fields which are not present in the message are removed
+                position = end + 1;
+            } else {
+                builder.appendLiteral("[");
+                position = start + 1;
+            }
+        }
+
+        if (builder.isTruncated()) {
+            LOG.info("warn-JIRA description exceeded " + maxBytes + " bytes and has been truncated");
+        }
+
+        return builder.toString();
+    }
+
     /**
      * Build the JIRA description
      */
-    public static String buildJIRADescription(final Configuration configuration, final Stream stream, final AlertCondition.CheckResult result) {
+    public static String buildJIRADescription(final Configuration configuration, final AlertSnapshot snapshot) {
         LOG.debug("Starting buildJIRADescription(...)");
 
-        String message = JiraAlarmCallback.DEFAULT_JIRA_MESSAGE_TEMPLATE;
+        String message = getDescriptionTemplate(configuration);
 
-        if (isSetAndNotNullText(configuration, JiraAlarmCallback.JIRA_MESSAGE_TEMPLATE)) {
-            message = configuration.getString(JiraAlarmCallback.JIRA_MESSAGE_TEMPLATE);
-        }
+        int maxBytes = getIntSetting(configuration, JiraAlarmCallback.JIRA_DESCRIPTION_MAX_BYTES, 0);
 
-        message = StringEscapeUtils.unescapeJava(message);
+        if (maxBytes > 0) {
+            Map<String, String> placeholders = new HashMap<>();
 
-        // Get the last message
-        if (!result.getMatchingMessages().isEmpty()) {
-            // get fields from last message only
-            MessageSummary lastMessage = result.getMatchingMessages().get(0);
+            if (snapshot.hasMessage()) {
+                placeholders.putAll(buildMessageSummaryPlaceholders(snapshot));
+            }
 
-            message = replaceMessageSummaryPlaceholders(message, lastMessage);
-        }
+            placeholders.putAll(snapshot.getStatistics());
+            placeholders.putAll(buildStandardPlaceholders(snapshot));
 
-        message = replaceStandardPlaceholders(message, configuration, stream, result);
+            // the budget also covers the line-breaks surrounding the description
+            message = renderBoundedTemplate(message, placeholders, maxBytes - 4,
+                    getIntSetting(configuration, JiraAlarmCallback.JIRA_PLACEHOLDER_MAX_BYTES, 0),
+                    getIntSetting(configuration, JiraAlarmCallback.JIRA_TRUNCATE_HEAD_LINES, JiraAlarmCallback.DEFAULT_JIRA_TRUNCATE_HEAD_LINES),
+                    getIntSetting(configuration, JiraAlarmCallback.JIRA_TRUNCATE_TAIL_LINES, JiraAlarmCallback.DEFAULT_JIRA_TRUNCATE_TAIL_LINES));
+        } else {
+            // Get the last message
+            if (snapshot.hasMessage()) {
+                // get fields from last message only
+                message = replaceMessageSummaryPlaceholders(message, snapshot);
+            }
+
+            // the statistics have been aggregated over all matching messages when the snapshot was taken
+            for (Map.Entry<String, String> placeholder : snapshot.getStatistics().entrySet()) {
+                message = message.replace("[" + placeholder.getKey() + "]", placeholder.getValue());
+            }
+
+            message = replaceStandardPlaceholders(message, snapshot);
+        }
 
         LOG.debug("Finishing buildJIRADescription(...)");
 
@@ -153,7 +270,7 @@ public class JiraUtil {
     /**
      * Build the stream rules
      */
-    private static String buildStreamRules(final Stream stream) {
+    static String buildStreamRules(final Stream stream) {
 
         StringBuilder sb = new StringBuilder();
 
@@ -168,62 +285,98 @@ public class JiraUtil {
     /**
      * Build up a list of JIRA/Graylog field mappings
      */
-    public static Map<String, String> buildJIRAGraylogMapping(final Configuration configuration, final AlertCondition.CheckResult result) {
+    public static Map<String, String> buildJIRAGraylogMapping(final Configuration configuration, final AlertSnapshot snapshot) {
         LOG.debug("Starting buildJIRAGraylogMapping(...)");
 
         Map<String, String> JIRAFieldMapping = new HashMap<>();
 
-        if (isSetAndNotNullText(configuration, JiraAlarmCallback.JIRA_GRAYLOG_MESSAGE_FIELD_MAPPING) && !result.getMatchingMessages().isEmpty()) {
-            try {
-                // get fields from last message only
-                MessageSummary lastMessage = result.getMatchingMessages().get(0);
+        if (isSetAndNotNullText(configuration, JiraAlarmCallback.JIRA_GRAYLOG_MESSAGE_FIELD_MAPPING) && snapshot.hasMessage()) {
+            // get fields from last message only
+            JIRAFieldMapping.putAll(FieldMapping.parse(configuration.getString(JiraAlarmCallback.JIRA_GRAYLOG_MESSAGE_FIELD_MAPPING))
+                    .map(snapshot.getMappedFields()));
+        }
 
-                String[] mappingPairs = StringUtils.split(configuration.getString(JiraAlarmCallback.JIRA_GRAYLOG_MESSAGE_FIELD_MAPPING), ',');
+        LOG.debug("Finishing buildJIRAGraylogMapping(...)");
 
-                if (mappingPairs != null && mappingPairs.length > 0) {
-                    for (String mappingString : mappingPairs) {
-                        String[] mapping = StringUtils.split(mappingString, '=');
+        return JIRAFieldMapping;
+    }
 
-                        if (mapping.length == 2 && lastMessage.hasField(mapping[0])) {
-                            Object test = lastMessage.getField(mapping[0]);
-                            JIRAFieldMapping.put(mapping[1], test.toString());
-                        }
-                    }
-                }
+    /**
+     * Generates the MD5 digest of either the message or a number of fields provided
+     */
+    public static String buildJIRAMessageDigest(final Configuration configuration, final AlertSnapshot snapshot) {
+        return buildJIRAMessageDigest(buildJIRAMessageDigestInput(configuration, snapshot));
+    }
+
+    /**
+     * Generates the MD5 digest of the text built by {@link #buildJIRAMessageDigestInput(Configuration, AlertSnapshot)}
+     */
+    public static String buildJIRAMessageDigest(final String jiraMD5HashPattern) {
+        String jiraMessageDigest = "";
+
+        // Create the MD5 from the template
+        if (StringUtils.isNotBlank(jiraMD5HashPattern)) {
+            try {
+                MessageDigest m = MessageDigest.getInstance("MD5");
+                m.update(jiraMD5HashPattern.getBytes(), 0, jiraMD5HashPattern.length());
+                jiraMessageDigest = new BigInteger(1, m.digest()).toString(16);
             } catch (Exception ex) {
-                // can not do anything - we skip
-                LOG.info("error-Error in generating JIRA/Graylog mapping " + ex.getMessage());
+                LOG.info("warn-Error in JIRA-issue MD5 generation (MD5-string=" + jiraMD5HashPattern + "): " + ex.getMessage());
             }
         }
 
-        LOG.debug("Finishing buildJIRAGraylogMapping(...)");
+        return jiraMessageDigest;
+    }
 
-        return JIRAFieldMapping;
+    /**
+     * Generates the SimHash of the text built by {@link #buildJIRAMessageDigestInput(Configuration, AlertSnapshot)},
+     * null if similarity matching is disabled
+     */
+    public static Long buildJIRASimilarityHash(final Configuration configuration, final String jiraMD5HashPattern) {
+        if (getIntSetting(configuration, JiraAlarmCallback.JIRA_SIMILARITY_DISTANCE, -1) < 0 || StringUtils.isBlank(jiraMD5HashPattern)) {
+            return null;
+        }
+
+        return SimHash.hash(jiraMD5HashPattern);
     }
 
     /**
-     * Generates the MD5 digest of either the message or a number of fields provided
+     * Builds the text the MD5 is calculated from with the fingerprint strategy of the callback
      */
-    public static String buildJIRAMessageDigest(final Configuration configuration, final AlertCondition.CheckResult result) {
-        LOG.debug("Starting buildJIRAMessageDigest(...)");
+    public static String buildJIRAMessageDigestInput(final Configuration configuration, final AlertSnapshot snapshot) {
+        return FingerprintStrategies.forConfiguration(configuration).buildInput(configuration, snapshot);
+    }
+
+    /**
+     * Builds the text the MD5 of the {@code pattern} fingerprint strategy is calculated from: the MD5 pattern or the
+     * part of the message matched by the message regex
+     */
+    public static String buildJIRAPatternDigestInput(final Configuration configuration, final AlertSnapshot snapshot) {
+        LOG.debug("Starting buildJIRAPatternDigestInput(...)");
 
         String jiraMessageMatch = "";
         String jiraMD5HashPattern = "";
-        String jiraMessageDigest = "";
 
         // Get the last message
-        if (!result.getMatchingMessages().isEmpty()) {
-
-            MessageSummary lastMessage = result.getMatchingMessages().get(0);
+        if (snapshot.hasMessage()) {
 
             // Let's extract the message regex first
             if (isSetAndNotNullText(configuration, JiraAlarmCallback.MESSAGE_REGEX)) {
+                CharSequence input = StringUtil.boundedInput(snapshot.getMessage(), getRegexTimeoutMillis(configuration), getRegexMaxInputLength(configuration));
+
                 try {
-                    Matcher matcher = Pattern.compile(configuration.getString(JiraAlarmCallback.MESSAGE_REGEX)).matcher(lastMessage.getMessage());
+                    Matcher matcher = Pattern.compile(configuration.getString(JiraAlarmCallback.MESSAGE_REGEX)).matcher(input);
 
                     if (matcher.find()) {
-                        jiraMessageMatch = lastMessage.getMessage().substring(matcher.start());
+                        jiraMessageMatch = snapshot.getMessage().substring(matcher.start());
                     }
+                } catch (RegexTimeoutException ex) {
+                    // whether the regex finishes depends on the load, the MD5 must not: the evaluated part of the
+                    // message is used, an empty match would leave the MD5 blank without a pattern
+                    jiraMessageMatch = StringUtils.left(snapshot.getMessage(), getRegexMaxInputLength(configuration));
+                    JiraMetrics.counter(JiraMetrics.REGEX_TIMEOUTS).inc();
+                    JiraMetrics.counter(JiraMetrics.REGEX_FALLBACKS).inc();
+                    LOG.info("warn-" + ex.getMessage() + ", [MESSAGE_REGEX] is the first " + getRegexMaxInputLength(configuration) + " characters of the message in the MD5");
                 } catch (Exception ex) {
                     LOG.info("warn-Error in JIRA-issue MD5-MESSAGE_REGEX generation: " + ex.getMessage());
                 }
@@ -238,7 +391,7 @@ public class JiraUtil {
                     // replace the message-regex place-holder
                     jiraMD5HashPattern = jiraMD5HashPattern.replace("[MESSAGE_REGEX]", jiraMessageMatch);
 
-                    jiraMD5HashPattern = replaceMessageSummaryPlaceholders(jiraMD5HashPattern, lastMessage);
+                    jiraMD5HashPattern = replaceMessageSummaryPlaceholders(jiraMD5HashPattern, snapshot);
                 } catch (Exception ex) {
                     LOG.info("warn-Error in JIRA-issue MD5-HASH_PATTERN generation: " + ex.getMessage());
                 }
@@ -249,24 +402,15 @@ public class JiraUtil {
                 jiraMD5HashPattern = jiraMessageMatch;
             }
 
-            // Create the MD5 from the template
-            if (StringUtils.isNotBlank(jiraMD5HashPattern)) {
-                try {
-                    MessageDigest m = MessageDigest.getInstance("MD5");
-                    m.update(jiraMD5HashPattern.getBytes(), 0, jiraMD5HashPattern.length());
-                    jiraMessageDigest = new BigInteger(1, m.digest()).toString(16);
-                } catch (Exception ex) {
-                    LOG.info("warn-Error in JIRA-issue MD5 generation (MD5-string=" + jiraMD5HashPattern + "): " + ex.getMessage());
-                }
-            } else {
+            if (StringUtils.isBlank(jiraMD5HashPattern)) {
                 LOG.info("warn-Skipped MD5-hash creation, MD5-string is empty. Check your config.");
             }
         } else {
             LOG.info("warn-Skipping JIRA-issue MD5 generation, alarmcallback did not provide a message.");
         }
 
-        LOG.debug("Finishing buildJIRAMessageDigest(...)");
+        LOG.debug("Finishing buildJIRAPatternDigestInput(...)");
 
-        return jiraMessageDigest;
+        return jiraMD5HashPattern;
     }
 }
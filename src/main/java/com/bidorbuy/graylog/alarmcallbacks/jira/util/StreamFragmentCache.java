@@ -0,0 +1,135 @@
+package com.bidorbuy.graylog.alarmcallbacks.jira.util;
+
+import com.bidorbuy.graylog.alarmcallbacks.jira.JiraAlarmCallback;
+import org.graylog2.plugin.alarms.AlertCondition;
+import org.graylog2.plugin.configuration.Configuration;
+import org.graylog2.plugin.streams.Stream;
+import org.graylog2.plugin.streams.StreamRule;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Caches the pre-rendered description fragments which only change when a stream is edited: the stream URL, the
+ * stream rules and the triggered condition.
+ * <p>
+ * Entries are kept per stream id together with the values the fragments are rendered from (stream title, rules,
+ * condition and the URL settings). Collecting these values only copies references; an entry whose values differ from
+ * the alert's, i.e. after the stream was edited, is rendered again.
+ */
+public class StreamFragmentCache {
+
+    public static final String CACHE_HITS = "streamFragmentCache.hits";
+    public static final String CACHE_MISSES = "streamFragmentCache.misses";
+
+    // there is one entry per stream with an alarm callback, so this is only a safety net
+    static final int MAX_ENTRIES = 1000;
+
+    private static final StreamFragmentCache INSTANCE = new StreamFragmentCache(MAX_ENTRIES);
+
+    private final Map<String, Fragments> fragments;
+
+    StreamFragmentCache(final int maxEntries) {
+        this.fragments = new LinkedHashMap<String, Fragments>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Fragments> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    public static StreamFragmentCache getInstance() {
+        return INSTANCE;
+    }
+
+    public Fragments get(final Configuration configuration, final Stream stream, final AlertCondition condition) {
+        List<Object> source = source(configuration, stream, condition);
+
+        Fragments cached = null;
+        if (stream.getId() != null) {
+            synchronized (this) {
+                cached = fragments.get(stream.getId());
+            }
+        }
+
+        if (cached != null && cached.source.equals(source)) {
+            JiraMetrics.counter(CACHE_HITS).inc();
+            return cached;
+        }
+
+        JiraMetrics.counter(CACHE_MISSES).inc();
+
+        Fragments rendered = new Fragments(source,
+                JiraUtil.buildStreamURL(configuration, stream),
+                JiraUtil.buildStreamRules(stream),
+                condition != null ? condition.toString() : "");
+
+        if (stream.getId() != null) {
+            synchronized (this) {
+                fragments.put(stream.getId(), rendered);
+            }
+        }
+
+        return rendered;
+    }
+
+    public synchronized int size() {
+        return fragments.size();
+    }
+
+    public synchronized void invalidateAll() {
+        fragments.clear();
+    }
+
+    /**
+     * Everything the fragments are rendered from, compared by value
+     */
+    private static List<Object> source(final Configuration configuration, final Stream stream, final AlertCondition condition) {
+        List<Object> source = new ArrayList<>();
+        source.add(stream.getTitle());
+        source.add(configuration.getString(JiraAlarmCallback.GRAYLOG_URL));
+        source.add(configuration.getString(JiraAlarmCallback.GRAYLOG_HISTOGRAM_TIME_SPAN));
+
+        if (stream.getStreamRules() != null) {
+            for (StreamRule streamRule : stream.getStreamRules()) {
+                source.add(Arrays.asList(streamRule.getId(), streamRule.getField(), streamRule.getType(), streamRule.getValue(),
+                        streamRule.getInverted()));
+            }
+        }
+
+        if (condition != null) {
+            source.add(Arrays.asList(condition.getId(), condition.getTypeString(), condition.getParameters()));
+        }
+
+        return source;
+    }
+
+    public static class Fragments {
+        private final List<Object> source;
+        private final String streamURL;
+        private final String streamRules;
+        private final String triggeredCondition;
+
+        Fragments(List<Object> source, String streamURL, String streamRules, String triggeredCondition) {
+            this.source = source;
+            this.streamURL = streamURL;
+            this.streamRules = streamRules;
+            this.triggeredCondition = triggeredCondition;
+        }
+
+        public String getStreamURL() {
+            return streamURL;
+        }
+
+        public String getStreamRules() {
+            return streamRules;
+        }
+
+        public String getTriggeredCondition() {
+            return triggeredCondition;
+        }
+    }
+}
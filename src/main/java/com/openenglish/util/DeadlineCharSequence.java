@@ -0,0 +1,63 @@
+package com.openenglish.util;
+
+/**
+ * A CharSequence for regex evaluation which aborts the evaluation once a deadline has passed or the thread has been
+ * interrupted. {@link java.util.regex.Matcher} has no timeout of its own, but every backtracking step reads a char.
+ */
+public class DeadlineCharSequence implements CharSequence {
+
+    // checking the clock on every char is too expensive, so we only check every n-th access
+    private static final int CHECK_INTERVAL = 1024;
+
+    private final CharSequence delegate;
+    private final int start;
+    private final int end;
+    private final long deadlineNanos;
+    private final long timeoutMillis;
+    private int accesses;
+
+    /**
+     * @param timeoutMillis the time budget for evaluating a regex over this input
+     * @param maxLength     only the first {@code maxLength} chars of the input are visible, 0 for no limit
+     */
+    public DeadlineCharSequence(CharSequence delegate, long timeoutMillis, int maxLength) {
+        this(delegate, 0, maxLength > 0 ? Math.min(maxLength, delegate.length()) : delegate.length(),
+                System.nanoTime() + timeoutMillis * 1000000L, timeoutMillis);
+    }
+
+    private DeadlineCharSequence(CharSequence delegate, int start, int end, long deadlineNanos, long timeoutMillis) {
+        this.delegate = delegate;
+        this.start = start;
+        this.end = end;
+        this.deadlineNanos = deadlineNanos;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    @Override
+    public int length() {
+        return end - start;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (++accesses % CHECK_INTERVAL == 0) {
+            if (System.nanoTime() - deadlineNanos > 0) {
+                throw new RegexTimeoutException("Regex evaluation exceeded " + timeoutMillis + "ms on input of " + length() + " chars");
+            }
+            if (Thread.currentThread().isInterrupted()) {
+                throw new RegexTimeoutException("Regex evaluation was interrupted");
+            }
+        }
+        return delegate.charAt(start + index);
+    }
+
+    @Override
+    public CharSequence subSequence(int from, int to) {
+        return new DeadlineCharSequence(delegate, start + from, start + to, deadlineNanos, timeoutMillis);
+    }
+
+    @Override
+    public String toString() {
+        return delegate.subSequence(start, end).toString();
+    }
+}
@@ -0,0 +1,11 @@
+package com.openenglish.util;
+
+/**
+ * Thrown when a regex exceeds its time budget
+ */
+public class RegexTimeoutException extends RuntimeException {
+
+    public RegexTimeoutException(String message) {
+        super(message);
+    }
+}
@@ -10,12 +10,23 @@ import java.util.regex.Pattern;
 
 public abstract class StringUtil {
 
+    public static final long DEFAULT_REGEX_TIMEOUT_MILLIS = 1000;
+    public static final int DEFAULT_REGEX_MAX_INPUT_LENGTH = 64 * 1024;
+
+    /**
+     * Wrap the input of a regex so that the evaluation is aborted with a {@link RegexTimeoutException} after
+     * {@code timeoutMillis} and only the first {@code maxInputLength} chars are evaluated.
+     */
+    public static CharSequence boundedInput(CharSequence input, long timeoutMillis, int maxInputLength) {
+        return new DeadlineCharSequence(input, timeoutMillis, maxInputLength);
+    }
+
     @Nullable
     public static String getCapturedGroup(String container, String regex, String capturedGroupName) {
         if(container == null || regex == null || capturedGroupName == null)
             return null;
 
-        Matcher matcher =  Pattern.compile(regex).matcher(container);
+        Matcher matcher =  Pattern.compile(regex).matcher(boundedInput(container, DEFAULT_REGEX_TIMEOUT_MILLIS, DEFAULT_REGEX_MAX_INPUT_LENGTH));
 
         if(matcher.find()) {
             try {
@@ -38,10 +49,33 @@ public abstract class StringUtil {
 
     @Nullable
     public static String captureGroupAndReplace(String finalContainer, String initialContainer, String regex) {
+        return captureGroupAndReplace(finalContainer, initialContainer, regex, DEFAULT_REGEX_TIMEOUT_MILLIS, DEFAULT_REGEX_MAX_INPUT_LENGTH);
+    }
+
+    /**
+     * Replace the ${name} placeholders with the named groups of the regex. The regex is evaluated once within the
+     * time budget, a {@link RegexTimeoutException} is thrown if the budget is exceeded.
+     */
+    @Nullable
+    public static String captureGroupAndReplace(String finalContainer, String initialContainer, String regex, long timeoutMillis, int maxInputLength) {
         String finalString = finalContainer;
 
-        for(String name : getPlaceholderNames(finalContainer)) {
-            String capturedGroup = getCapturedGroup(initialContainer, regex, name);
+        List<String> names = getPlaceholderNames(finalContainer);
+        if(names.isEmpty() || initialContainer == null || regex == null)
+            return finalString;
+
+        Matcher matcher = Pattern.compile(regex).matcher(boundedInput(initialContainer, timeoutMillis, maxInputLength));
+        if(!matcher.find())
+            return finalString;
+
+        for(String name : names) {
+            String capturedGroup;
+            try {
+                capturedGroup = matcher.group(name);
+            } catch (IllegalArgumentException e) {
+                capturedGroup = null;
+            }
+
             if(capturedGroup != null)
                 finalString = replace(finalString, "${" + name + "}", capturedGroup);
         }
@@ -0,0 +1,262 @@
+package com.bidorbuy.graylog.alarmcallbacks.jira;
+
+import com.bidorbuy.graylog.alarmcallbacks.jira.dedup.DuplicateLookupStrategies;
+import com.bidorbuy.graylog.alarmcallbacks.jira.dispatch.TraceRingBuffer;
+import com.bidorbuy.graylog.alarmcallbacks.jira.tools.RecordedAlert;
+import com.bidorbuy.graylog.alarmcallbacks.jira.util.JiraMetrics;
+import org.graylog2.plugin.configuration.Configuration;
+import org.junit.*;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.*;
+
+/**
+ * Fires thousands of concurrent alerts with overlapping fingerprints from many streams at a local JIRA stand-in and
+ * checks that every fingerprint gets exactly one issue and no alert is lost. Prints the throughput and the lock
+ * contention of the alert threads for 1 up to all cores.
+ * <p>
+ * Excluded from the default build, run with {@code mvn -Pstress test}. The load can be changed with the system
+ * properties {@code stress.alerts}, {@code stress.streams}, {@code stress.fingerprints} and {@code stress.latency}
+ * (milliseconds per JIRA request).
+ */
+public class JiraAlarmCallbackStressTest {
+
+    private static final int ALERTS = Integer.getInteger("stress.alerts", 2000);
+    private static final int STREAMS = Integer.getInteger("stress.streams", 20);
+    private static final int FINGERPRINTS = Integer.getInteger("stress.fingerprints", 50);
+    private static final int LATENCY_MILLIS = Integer.getInteger("stress.latency", 2);
+
+    private static final long RUN_TIMEOUT_MINUTES = 10;
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    @BeforeClass
+    public static void enableContentionMonitoring() {
+        if (THREADS.isThreadContentionMonitoringSupported()) {
+            THREADS.setThreadContentionMonitoringEnabled(true);
+        }
+    }
+
+    @Test
+    public void oneIssuePerFingerprintUnderConcurrentAlerts() throws Exception {
+        Run run = run(Math.max(4, Runtime.getRuntime().availableProcessors() * 2));
+
+        System.out.println("Requests to JIRA: " + run.requests);
+        assertInvariants(run);
+    }
+
+    @Test
+    public void throughputScalesWithThreads() throws Exception {
+        List<Run> runs = new ArrayList<>();
+
+        int cores = Runtime.getRuntime().availableProcessors();
+        for (int threads = 1; ; threads = Math.min(threads * 2, cores)) {
+            runs.add(run(threads));
+            if (threads >= cores) {
+                break;
+            }
+        }
+
+        System.out.println();
+        System.out.println(ALERTS + " alerts, " + STREAMS + " streams, " + FINGERPRINTS + " fingerprints, " + LATENCY_MILLIS + "ms JIRA latency"
+                + (THREADS.isThreadContentionMonitoringEnabled() ? "" : " (contention monitoring not supported)"));
+        System.out.println(String.format("%8s %10s %12s %8s %14s %16s %14s %16s",
+                "threads", "millis", "alerts/s", "speedup", "blocked", "blocked ms", "waited", "waited ms"));
+
+        for (Run run : runs) {
+            System.out.println(String.format("%8d %10d %12.1f %8.2f %14d %16d %14d %16d",
+                    run.threads, run.millis, run.throughput(), run.throughput() / runs.get(0).throughput(),
+                    run.blockedCount, run.blockedMillis, run.waitedCount, run.waitedMillis));
+        }
+
+        for (Run run : runs) {
+            assertInvariants(run);
+        }
+    }
+
+    private static void assertInvariants(Run run) {
+        assertThat(run.failures).isEmpty();
+
+        // exactly one issue per fingerprint
+        assertThat(run.issuesPerLabel).hasSize(FINGERPRINTS);
+        assertThat(run.issuesPerLabel.values()).containsOnly(1);
+        assertThat(run.issues).isEqualTo(FINGERPRINTS);
+
+        // every alert was filed: to the issue of its correlation, to an issue found by the search or to a new issue
+        assertThat(run.traced).isEqualTo(ALERTS);
+        assertThat(run.correlated + run.found + run.issues).isEqualTo(ALERTS);
+    }
+
+    /**
+     * Send all alerts from the given number of threads to a new JIRA stand-in, so runs do not share issues
+     */
+    private static Run run(int threads) throws Exception {
+        JiraStub jira = new JiraStub(LATENCY_MILLIS);
+
+        try {
+            List<JiraAlarmCallback> callbacks = new ArrayList<>();
+            for (int stream = 0; stream < STREAMS; stream++) {
+                JiraAlarmCallback callback = new JiraAlarmCallback();
+                callback.initialize(configuration(jira));
+                callbacks.add(callback);
+            }
+
+            List<RecordedAlert> alerts = new ArrayList<>();
+            for (int i = 0; i < ALERTS; i++) {
+                // the streams see the same fingerprints in a different order
+                alerts.add(alert(i % STREAMS, (i * 7 + i / STREAMS) % FINGERPRINTS));
+            }
+
+            final List<Long> threadIds = Collections.synchronizedList(new ArrayList<Long>());
+            ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "stress-alert");
+                    thread.setDaemon(true);
+                    threadIds.add(thread.getId());
+                    return thread;
+                }
+            });
+
+            long tracedBefore = TraceRingBuffer.getInstance().getTotal();
+            long correlatedBefore = JiraMetrics.counter("correlation", "hits").getCount();
+            long foundBefore = JiraMetrics.counter("lookup", DuplicateLookupStrategies.LABEL, "hits").getCount();
+
+            final Queue<Throwable> failures = new ConcurrentLinkedQueue<>();
+            final CountDownLatch start = new CountDownLatch(1);
+            final CountDownLatch done = new CountDownLatch(ALERTS);
+
+            for (int i = 0; i < ALERTS; i++) {
+                final JiraAlarmCallback callback = callbacks.get(i % STREAMS);
+                final RecordedAlert alert = alerts.get(i);
+
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            start.await();
+                            callback.call(alert.getStream(), alert.getResult());
+                        } catch (Throwable ex) {
+                            failures.add(ex);
+                        } finally {
+                            done.countDown();
+                        }
+                    }
+                });
+            }
+
+            long startedAt = System.nanoTime();
+            start.countDown();
+            assertThat(done.await(RUN_TIMEOUT_MINUTES, TimeUnit.MINUTES)).isTrue();
+
+            Run run = new Run(threads, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt));
+
+            // the pool threads are still alive, their contention is read before they are stopped
+            for (long threadId : threadIds) {
+                ThreadInfo info = THREADS.getThreadInfo(threadId);
+                if (info != null) {
+                    run.blockedCount += info.getBlockedCount();
+                    run.blockedMillis += Math.max(0, info.getBlockedTime());
+                    run.waitedCount += info.getWaitedCount();
+                    run.waitedMillis += Math.max(0, info.getWaitedTime());
+                }
+            }
+            executor.shutdown();
+
+            run.failures.addAll(failures);
+            run.issuesPerLabel.putAll(jira.getIssuesPerLabel());
+            run.issues = jira.getIssues();
+            run.requests.putAll(jira.getRequests());
+            run.traced = TraceRingBuffer.getInstance().getTotal() - tracedBefore;
+            run.correlated = JiraMetrics.counter("correlation", "hits").getCount() - correlatedBefore;
+            run.found = JiraMetrics.counter("lookup", DuplicateLookupStrategies.LABEL, "hits").getCount() - foundBefore;
+
+            return run;
+        } finally {
+            jira.stop();
+        }
+    }
+
+    private static Configuration configuration(JiraStub jira) {
+        Map<String, Object> settings = new HashMap<>();
+        settings.put(JiraAlarmCallback.JIRA_INSTANCE_URL, jira.getURL());
+        settings.put(JiraAlarmCallback.JIRA_USERNAME, "graylog");
+        settings.put(JiraAlarmCallback.JIRA_PASSWORD, "secret");
+        settings.put(JiraAlarmCallback.JIRA_PROJECT_KEY, JiraStub.PROJECT_KEY);
+        settings.put(JiraAlarmCallback.JIRA_ISSUE_TYPE, JiraStub.ISSUE_TYPE);
+        settings.put(JiraAlarmCallback.JIRA_PRIORITY, "Minor");
+        settings.put(JiraAlarmCallback.JIRA_MD5_CUSTOM_FIELD, JiraStub.MD5_CUSTOM_FIELD);
+        settings.put(JiraAlarmCallback.JIRA_DUPLICATE_LOOKUP, DuplicateLookupStrategies.LABEL);
+        settings.put(JiraAlarmCallback.JIRA_CORRELATION_WINDOW, String.valueOf(JiraAlarmCallback.DEFAULT_JIRA_CORRELATION_WINDOW));
+        settings.put(JiraAlarmCallback.GRAYLOG_URL, "https://graylog.example.com/");
+        settings.put(JiraAlarmCallback.JIRA_TITLE_TEMPLATE, "[Graylog-[LAST_MESSAGE.source]] [LAST_MESSAGE.message]");
+        settings.put(JiraAlarmCallback.JIRA_MESSAGE_TEMPLATE, "[STREAM_RESULT]\\n\\n[LAST_MESSAGE.message]");
+        settings.put(JiraAlarmCallback.JIRA_MD5_HASH_PATTERN, "[LAST_MESSAGE.message]");
+        return new Configuration(settings);
+    }
+
+    private static RecordedAlert alert(int stream, int fingerprint) {
+        Map<String, Object> streamFields = new HashMap<>();
+        streamFields.put("id", "stream-" + stream);
+        streamFields.put("title", "Stream " + stream);
+
+        Map<String, Object> condition = new HashMap<>();
+        condition.put("id", "condition-" + stream);
+        condition.put("type", "message_count");
+        condition.put("description", "more than 0 messages");
+
+        Map<String, Object> message = new HashMap<>();
+        message.put("message", "java.lang.IllegalStateException: dependency " + fingerprint + " is down");
+        message.put("source", "web-" + stream);
+        message.put("timestamp", "2016-03-07T15:37:20.000Z");
+
+        Map<String, Object> alert = new HashMap<>();
+        alert.put("stream", streamFields);
+        alert.put("condition", condition);
+        alert.put("resultDescription", "Stream had 1 messages");
+        alert.put("triggeredAt", "2016-03-07T15:37:23.000Z");
+        alert.put("messages", Collections.singletonList(message));
+
+        return RecordedAlert.of(alert);
+    }
+
+    private static class Run {
+        private final int threads;
+        private final long millis;
+        private final List<Throwable> failures = new ArrayList<>();
+        private final Map<String, Integer> issuesPerLabel = new HashMap<>();
+        private final Map<String, Integer> requests = new HashMap<>();
+        private int issues;
+        private long traced;
+        private long correlated;
+        private long found;
+        private long blockedCount;
+        private long blockedMillis;
+        private long waitedCount;
+        private long waitedMillis;
+
+        private Run(int threads, long millis) {
+            this.threads = threads;
+            this.millis = millis;
+        }
+
+        double throughput() {
+            return ALERTS * 1000.0 / Math.max(1, millis);
+        }
+    }
+}
@@ -0,0 +1,295 @@
+package com.bidorbuy.graylog.alarmcallbacks.jira;
+
+import com.bidorbuy.graylog.alarmcallbacks.jira.client.RetryPolicy;
+import com.bidorbuy.graylog.alarmcallbacks.jira.dedup.DuplicateLookupStrategies;
+import com.bidorbuy.graylog.alarmcallbacks.jira.tools.RecordedAlert;
+import com.bidorbuy.graylog.alarmcallbacks.jira.util.JiraMetrics;
+import org.graylog2.plugin.alarms.callbacks.AlarmCallbackException;
+import org.graylog2.plugin.configuration.Configuration;
+import org.junit.*;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.*;
+
+public class JiraAlarmCallbackTest {
+
+    private JiraStub jira;
+
+    @Before
+    public void startJira() throws Exception {
+        jira = new JiraStub(0);
+    }
+
+    @After
+    public void stopJira() {
+        jira.stop();
+    }
+
+    @Test
+    public void alertFailsIfTheIssueWasNotCreated() throws Exception {
+        jira.failCreates(400);
+
+        JiraAlarmCallback callback = callback(new HashMap<String, Object>());
+        RecordedAlert alert = alert("dependency is down");
+
+        try {
+            callback.call(alert.getStream(), alert.getResult());
+            fail("The alert was not filed but did not fail");
+        } catch (AlarmCallbackException ex) {
+            assertThat(ex.getMessage()).contains("Failed creating new issue");
+        }
+
+        assertThat(jira.getIssues()).isEqualTo(0);
+        assertThat(jira.getRequests().get("POST issue")).isEqualTo(1);
+    }
+
+    @Test
+    public void createWhichTimedOutIsNotRepeatedIfItFiledTheIssue() throws Exception {
+        jira.loseCreateResponses(1);
+
+        JiraAlarmCallback callback = callback(new HashMap<String, Object>());
+        RecordedAlert alert = alert("dependency is down");
+
+        callback.call(alert.getStream(), alert.getResult());
+
+        // the default retries search for the MD5 after the lost response and find the issue of the first attempt
+        assertThat(jira.getIssues()).isEqualTo(1);
+        assertThat(jira.getRequests().get("POST issue")).isEqualTo(1);
+        assertThat(jira.getRequests().get("GET search")).isEqualTo(2);
+    }
+
+    @Test
+    public void createWhichTimedOutIsNotRepeatedIfOnlyAfterCreateTagsAreSearched() throws Exception {
+        jira.loseCreateResponses(1);
+
+        Map<String, Object> settings = new HashMap<>();
+        settings.put(JiraAlarmCallback.JIRA_DUPLICATE_LOOKUP, DuplicateLookupStrategies.PROPERTY);
+        JiraAlarmCallback callback = callback(settings);
+        RecordedAlert alert = alert("dependency is down");
+
+        try {
+            callback.call(alert.getStream(), alert.getResult());
+            fail("The create could not be verified but the alert did not fail");
+        } catch (AlarmCallbackException ex) {
+            // the property is only set once the create answered, searching for it can not find the issue
+            assertThat(jira.getRequests().get("POST issue")).isEqualTo(1);
+        }
+        assertThat(jira.getIssues()).isEqualTo(1);
+    }
+
+    @Test
+    public void createWhichTimedOutIsNotRepeatedIfTheCustomFieldIsNotSet() throws Exception {
+        jira.loseCreateResponses(1);
+
+        Map<String, Object> settings = new HashMap<>();
+        settings.put(JiraAlarmCallback.JIRA_DUPLICATE_LOOKUP, DuplicateLookupStrategies.CUSTOM_FIELD);
+        settings.put(JiraAlarmCallback.JIRA_MD5_CUSTOM_FIELD, "");
+        JiraAlarmCallback callback = callback(settings);
+        RecordedAlert alert = alert("dependency is down");
+
+        try {
+            callback.call(alert.getStream(), alert.getResult());
+            fail("The create could not be verified but the alert did not fail");
+        } catch (AlarmCallbackException ex) {
+            assertThat(jira.getRequests().get("POST issue")).isEqualTo(1);
+        }
+        assertThat(jira.getIssues()).isEqualTo(1);
+    }
+
+    @Test
+    public void createWhichFailedIsRepeated() throws Exception {
+        JiraAlarmCallback callback = callback(new HashMap<String, Object>());
+        RecordedAlert alert = alert("dependency is down");
+
+        jira.failCreates(503);
+        try {
+            callback.call(alert.getStream(), alert.getResult());
+            fail("The alert was not filed but did not fail");
+        } catch (AlarmCallbackException ex) {
+            assertThat(jira.getRequests().get("POST issue")).isEqualTo(RetryPolicy.DEFAULT_MAX_ATTEMPTS);
+        }
+        assertThat(jira.getIssues()).isEqualTo(0);
+    }
+
+    @Test
+    public void searchPastTheDeadlineIsHandedToTheFallback() throws Exception {
+        slowJira();
+
+        Map<String, Object> settings = new HashMap<>();
+        settings.put(JiraAlarmCallback.JIRA_DEADLINE, "1");
+        settings.put(JiraAlarmCallback.JIRA_DEADLINE_FALLBACK, JiraAlarmCallback.DEADLINE_FALLBACK_DROP);
+        JiraAlarmCallback callback = callback(settings);
+        RecordedAlert alert = alert("dependency is down");
+
+        long droppedBefore = JiraMetrics.counter("deadline", "dropped").getCount();
+
+        callback.call(alert.getStream(), alert.getResult());
+
+        assertThat(JiraMetrics.counter("deadline", "dropped").getCount()).isEqualTo(droppedBefore + 1);
+        assertThat(jira.getRequests().get("POST issue")).isNull();
+    }
+
+    @Test
+    public void searchPastTheDeadlineDoesNotCreateAnIssue() throws Exception {
+        slowJira();
+
+        Map<String, Object> settings = new HashMap<>();
+        settings.put(JiraAlarmCallback.JIRA_DEADLINE, "1");
+        settings.put(JiraAlarmCallback.JIRA_DEADLINE_FALLBACK, JiraAlarmCallback.DEADLINE_FALLBACK_LOG);
+        JiraAlarmCallback callback = callback(settings);
+        RecordedAlert alert = alert("dependency is down");
+
+        try {
+            callback.call(alert.getStream(), alert.getResult());
+            fail("The alert missed its deadline but did not fail");
+        } catch (AlarmCallbackException ex) {
+            assertThat(ex.getMessage()).contains("Deadline exceeded searching for duplicate issue");
+        }
+
+        assertThat(jira.getRequests().get("POST issue")).isNull();
+    }
+
+    @Test
+    public void targetPastTheDeadlineIsHandedToTheFallbackWhenAnotherGotTheAlert() throws Exception {
+        JiraStub slow = new JiraStub(1500);
+        try {
+            Map<String, Object> settings = new HashMap<>();
+            settings.put(JiraAlarmCallback.JIRA_ADDITIONAL_TARGETS, slow.getURL() + "|" + JiraStub.PROJECT_KEY);
+            settings.put(JiraAlarmCallback.JIRA_DEADLINE, "1");
+            settings.put(JiraAlarmCallback.JIRA_DEADLINE_FALLBACK, JiraAlarmCallback.DEADLINE_FALLBACK_DROP);
+            JiraAlarmCallback callback = callback(settings);
+            RecordedAlert alert = alert("dependency is down");
+
+            long droppedBefore = JiraMetrics.counter("deadline", "dropped").getCount();
+
+            callback.call(alert.getStream(), alert.getResult());
+
+            assertThat(jira.getIssues()).isEqualTo(1);
+            assertThat(JiraMetrics.counter("deadline", "dropped").getCount()).isEqualTo(droppedBefore + 1);
+        } finally {
+            slow.stop();
+        }
+    }
+
+    @Test
+    public void followerWaitingForItsLeaderHoldsNoSlot() throws Exception {
+        Map<String, Object> settings = new HashMap<>();
+        settings.put(JiraAlarmCallback.JIRA_CORRELATION_WINDOW, "60");
+        settings.put(JiraAlarmCallback.JIRA_STREAM_IN_FLIGHT, "1");
+        final JiraAlarmCallback callback = callback(settings);
+
+        // the other fingerprint of the second stream is filed before, later alerts take it from the correlation
+        final RecordedAlert other = alert("stream-2", "queue is full");
+        callback.call(other.getStream(), other.getResult());
+
+        final RecordedAlert leader = alert("stream-1", "dependency is down");
+        final RecordedAlert follower = alert("stream-2", "dependency is down");
+
+        ExecutorService executor = Executors.newCachedThreadPool();
+        jira.holdCreates();
+
+        try {
+            Future<?> leading = executor.submit(call(callback, leader));
+            for (long until = System.currentTimeMillis() + 5000; jira.getRequests().get("POST issue") == null || jira.getRequests().get("POST issue") < 2; ) {
+                assertThat(System.currentTimeMillis()).isLessThan(until);
+                Thread.sleep(10);
+            }
+
+            long joined = JiraMetrics.counter("correlation", "joined").getCount();
+            Future<?> following = executor.submit(call(callback, follower));
+            for (long until = System.currentTimeMillis() + 5000; JiraMetrics.counter("correlation", "joined").getCount() == joined; ) {
+                assertThat(System.currentTimeMillis()).isLessThan(until);
+                Thread.sleep(10);
+            }
+
+            // the only slot of the second stream is free while its follower waits
+            executor.submit(call(callback, other)).get(5, TimeUnit.SECONDS);
+
+            jira.releaseCreates();
+            leading.get(5, TimeUnit.SECONDS);
+            following.get(5, TimeUnit.SECONDS);
+        } finally {
+            jira.releaseCreates();
+            executor.shutdownNow();
+        }
+
+        assertThat(jira.getIssues()).isEqualTo(2);
+        assertThat(jira.getRequests().get("POST issue")).isEqualTo(2);
+    }
+
+    private static Callable<Void> call(final JiraAlarmCallback callback, final RecordedAlert alert) {
+        return new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                callback.call(alert.getStream(), alert.getResult());
+                return null;
+            }
+        };
+    }
+
+    /**
+     * Replace the stand-in by one which answers after the deadline of 1 second
+     */
+    private void slowJira() throws Exception {
+        jira.stop();
+        jira = new JiraStub(1500);
+    }
+
+    private JiraAlarmCallback callback(Map<String, Object> overrides) throws Exception {
+        Map<String, Object> settings = new HashMap<>();
+        settings.put(JiraAlarmCallback.JIRA_INSTANCE_URL, jira.getURL());
+        settings.put(JiraAlarmCallback.JIRA_USERNAME, "graylog");
+        settings.put(JiraAlarmCallback.JIRA_PASSWORD, "secret");
+        settings.put(JiraAlarmCallback.JIRA_PROJECT_KEY, JiraStub.PROJECT_KEY);
+        settings.put(JiraAlarmCallback.JIRA_ISSUE_TYPE, JiraStub.ISSUE_TYPE);
+        settings.put(JiraAlarmCallback.JIRA_PRIORITY, "Minor");
+        settings.put(JiraAlarmCallback.JIRA_MD5_CUSTOM_FIELD, JiraStub.MD5_CUSTOM_FIELD);
+        settings.put(JiraAlarmCallback.JIRA_DUPLICATE_LOOKUP, DuplicateLookupStrategies.LABEL);
+        settings.put(JiraAlarmCallback.GRAYLOG_URL, "https://graylog.example.com/");
+        settings.put(JiraAlarmCallback.JIRA_TITLE_TEMPLATE, "[Graylog-[LAST_MESSAGE.source]] [LAST_MESSAGE.message]");
+        settings.put(JiraAlarmCallback.JIRA_MESSAGE_TEMPLATE, "[STREAM_RESULT]\\n\\n[LAST_MESSAGE.message]");
+        settings.put(JiraAlarmCallback.JIRA_MD5_HASH_PATTERN, "[LAST_MESSAGE.message]");
+        settings.putAll(overrides);
+
+        JiraAlarmCallback callback = new JiraAlarmCallback();
+        callback.initialize(new Configuration(settings));
+        return callback;
+    }
+
+    private static RecordedAlert alert(String message) {
+        return alert("stream-1", message);
+    }
+
+    private static RecordedAlert alert(String stream, String message) {
+        Map<String, Object> streamFields = new HashMap<>();
+        streamFields.put("id", stream);
+        streamFields.put("title", stream);
+
+        Map<String, Object> condition = new HashMap<>();
+        condition.put("id", "condition-1");
+        condition.put("type", "message_count");
+        condition.put("description", "more than 0 messages");
+
+        Map<String, Object> fields = new HashMap<>();
+        fields.put("message", message);
+        fields.put("source", "web-1");
+        fields.put("timestamp", "2016-03-07T15:37:20.000Z");
+
+        Map<String, Object> alert = new HashMap<>();
+        alert.put("stream", streamFields);
+        alert.put("condition", condition);
+        alert.put("resultDescription", "Stream had 1 messages");
+        alert.put("triggeredAt", "2016-03-07T15:37:23.000Z");
+        alert.put("messages", Collections.singletonList(fields));
+
+        return RecordedAlert.of(alert);
+    }
+}
@@ -0,0 +1,465 @@
+package com.bidorbuy.graylog.alarmcallbacks.jira;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+import org.apache.commons.codec.binary.Base64;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A JIRA stand-in on a local port, serving just enough of the REST API for the duplicate lookups: the create screen,
+ * searches by label or entity property, creating and reading issues, comments and issue properties. Every request is delayed by a fixed latency.
+ * <p>
+ * Requests are not authenticated unless {@link #requireLogin(String, String)} or {@link #requireToken(String)} was
+ * called; then the API answers 401 to requests without the basic credentials, a live session cookie or the token.
+ */
+public class JiraStub {
+
+    public static final String PROJECT_KEY = "OPS";
+    public static final String ISSUE_TYPE = "Bug";
+    public static final String MD5_CUSTOM_FIELD = "customfield_10100";
+    public static final String SESSION_COOKIE = "JSESSIONID";
+
+    private static final String API = "/rest/api/2/";
+    // jira-client asks for the latest version, the raw calls of the callback for version 2
+    private static final String API_LATEST = "/rest/api/latest/";
+    private static final String SESSION = "/rest/auth/1/session";
+    private static final Pattern LABEL = Pattern.compile("graylog_md5_[0-9a-f]+");
+    private static final Pattern QUOTED = Pattern.compile("\"([^\"]*)\"");
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final long latencyMillis;
+
+    private final AtomicInteger issueNumber = new AtomicInteger();
+    private final ConcurrentMap<String, JSONObject> issues = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, AtomicInteger> comments = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, JSONObject> properties = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, AtomicInteger> requests = new ConcurrentHashMap<>();
+    private final Set<String> sessions = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    private volatile String username;
+    private volatile String password;
+    private volatile String token;
+    private volatile int createStatus;
+    private final AtomicInteger lostCreates = new AtomicInteger();
+    private volatile CountDownLatch createHold;
+
+    public JiraStub(long latencyMillis) throws IOException {
+        this.latencyMillis = latencyMillis;
+
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(executor);
+        HttpHandler handler = new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    Thread.sleep(JiraStub.this.latencyMillis);
+                    if (isAuthenticated(exchange)) {
+                        route(exchange);
+                    } else {
+                        count("unauthorized");
+                        respond(exchange, 401, "{\"errorMessages\":[\"You are not authenticated\"]}");
+                    }
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    respond(exchange, 503, "{}");
+                } catch (RuntimeException ex) {
+                    respond(exchange, 500, new JSONObject().element("errorMessages", new JSONArray().element(String.valueOf(ex))).toString());
+                } finally {
+                    exchange.close();
+                }
+            }
+        };
+        server.createContext(API, handler);
+        server.createContext(API_LATEST, handler);
+        server.createContext(SESSION, new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    login(exchange);
+                } catch (RuntimeException ex) {
+                    respond(exchange, 500, "{}");
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+        server.start();
+    }
+
+    public String getURL() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/";
+    }
+
+    /**
+     * Only accept requests with these basic credentials or a session created with them
+     */
+    public void requireLogin(String username, String password) {
+        this.username = username;
+        this.password = password;
+    }
+
+    /**
+     * Only accept requests with this personal access token
+     */
+    public void requireToken(String token) {
+        this.token = token;
+    }
+
+    /**
+     * Answer every create with the HTTP status, i.e. 400 for an invalid issue
+     */
+    public void failCreates(int status) {
+        this.createStatus = status;
+    }
+
+    /**
+     * File the next issues but answer 504, as a proxy which timed out while JIRA was still creating them
+     */
+    public void loseCreateResponses(int times) {
+        lostCreates.set(times);
+    }
+
+    /**
+     * Keep creates waiting until {@link #releaseCreates()}
+     */
+    public void holdCreates() {
+        createHold = new CountDownLatch(1);
+    }
+
+    public void releaseCreates() {
+        CountDownLatch hold = createHold;
+        if (hold != null) {
+            hold.countDown();
+        }
+    }
+
+    /**
+     * Let all sessions expire, i.e. after JIRA restarted
+     */
+    public void expireSessions() {
+        sessions.clear();
+    }
+
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    /**
+     * The issues created per duplicate label
+     */
+    public Map<String, Integer> getIssuesPerLabel() {
+        Map<String, Integer> result = new TreeMap<>();
+        for (JSONObject issue : issues.values()) {
+            for (Object label : issue.getJSONObject("fields").getJSONArray("labels")) {
+                if (LABEL.matcher(label.toString()).matches()) {
+                    Integer count = result.get(label.toString());
+                    result.put(label.toString(), count == null ? 1 : count + 1);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Create an issue directly, as if it had been filed before
+     *
+     * @return the issue key
+     */
+    public String createIssue(String... labels) {
+        JSONObject fields = new JSONObject()
+                .element("summary", "Filed before")
+                .element("labels", JSONArray.fromObject(labels));
+
+        return JSONObject.fromObject(create(new JSONObject().element("fields", fields))).getString("key");
+    }
+
+    /**
+     * Set an entity property of the issue
+     */
+    public void setProperty(String issueKey, String propertyKey, JSONObject value) {
+        properties.put(issueKey + "/" + propertyKey, value);
+    }
+
+    public int getIssues() {
+        return issues.size();
+    }
+
+    public int getComments() {
+        int count = 0;
+        for (AtomicInteger issueComments : comments.values()) {
+            count += issueComments.get();
+        }
+        return count;
+    }
+
+    /**
+     * The requests served per operation, i.e. {@code POST issue}
+     */
+    public Map<String, Integer> getRequests() {
+        Map<String, Integer> result = new TreeMap<>();
+        for (Map.Entry<String, AtomicInteger> operation : requests.entrySet()) {
+            result.put(operation.getKey(), operation.getValue().get());
+        }
+        return result;
+    }
+
+    private boolean isAuthenticated(HttpExchange exchange) {
+        if (username == null && token == null) {
+            return true;
+        }
+
+        String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+        if (authorization != null) {
+            if (token != null && authorization.equals("Bearer " + token)) {
+                return true;
+            }
+            if (username != null && authorization.equals("Basic " + Base64.encodeBase64String((username + ":" + password).getBytes(UTF_8)))) {
+                return true;
+            }
+        }
+
+        String cookie = exchange.getRequestHeaders().getFirst("Cookie");
+        return cookie != null && cookie.startsWith(SESSION_COOKIE + "=") && sessions.contains(cookie.substring(SESSION_COOKIE.length() + 1));
+    }
+
+    private void login(HttpExchange exchange) throws IOException {
+        count("POST session");
+
+        JSONObject credentials = JSONObject.fromObject(body(exchange));
+        if (username == null || !username.equals(credentials.optString("username")) || !password.equals(credentials.optString("password"))) {
+            respond(exchange, 401, "{\"errorMessages\":[\"Login failed\"]}");
+            return;
+        }
+
+        String session = UUID.randomUUID().toString();
+        sessions.add(session);
+
+        respond(exchange, 200, new JSONObject()
+                .element("session", new JSONObject().element("name", SESSION_COOKIE).element("value", session))
+                .toString());
+    }
+
+    private void route(HttpExchange exchange) throws IOException, InterruptedException {
+        String method = exchange.getRequestMethod();
+        String path = exchange.getRequestURI().getPath().substring(exchange.getHttpContext().getPath().length());
+        if (path.endsWith("/")) {
+            path = path.substring(0, path.length() - 1);
+        }
+        String[] parts = path.split("/");
+
+        if ("GET".equals(method) && "issue/createmeta".equals(path)) {
+            count("GET createmeta");
+            respond(exchange, 200, createMetadata());
+        } else if ("GET".equals(method) && "search".equals(path)) {
+            count("GET search");
+            respond(exchange, 200, search(query(exchange).get("jql")));
+        } else if ("POST".equals(method) && "issue".equals(path)) {
+            count("POST issue");
+            CountDownLatch hold = createHold;
+            if (hold != null) {
+                hold.await();
+            }
+            if (createStatus > 0) {
+                respond(exchange, createStatus, "{\"errorMessages\":[\"Issue not created\"]}");
+            } else if (lostCreates.getAndDecrement() > 0) {
+                create(JSONObject.fromObject(body(exchange)));
+                respond(exchange, 504, "{\"errorMessages\":[\"Gateway timeout\"]}");
+            } else {
+                respond(exchange, 201, create(JSONObject.fromObject(body(exchange))));
+            }
+        } else if ("GET".equals(method) && parts.length == 2 && "issue".equals(parts[0]) && issues.containsKey(parts[1])) {
+            count("GET issue");
+            respond(exchange, 200, issues.get(parts[1]).toString());
+        } else if ("GET".equals(method) && parts.length == 4 && "properties".equals(parts[2]) && properties.containsKey(parts[1] + "/" + parts[3])) {
+            count("GET property");
+            respond(exchange, 200, new JSONObject()
+                    .element("key", parts[3])
+                    .element("value", properties.get(parts[1] + "/" + parts[3]))
+                    .toString());
+        } else if ("PUT".equals(method) && parts.length == 4 && "properties".equals(parts[2]) && issues.containsKey(parts[1])) {
+            count("PUT property");
+            properties.put(parts[1] + "/" + parts[3], JSONObject.fromObject(body(exchange)));
+            respond(exchange, 200, "");
+        } else if ("POST".equals(method) && parts.length == 3 && "comment".equals(parts[2]) && issues.containsKey(parts[1])) {
+            count("POST comment");
+            comments.putIfAbsent(parts[1], new AtomicInteger());
+            comments.get(parts[1]).incrementAndGet();
+            respond(exchange, 201, "{\"id\":\"" + issueNumber.incrementAndGet() + "\"}");
+        } else {
+            count("unknown");
+            respond(exchange, 404, "{\"errorMessages\":[\"No such resource: " + method + " " + path + "\"]}");
+        }
+    }
+
+    /**
+     * Finds the issues with a label or a {@code md5} property equal to any quoted value of the query
+     */
+    private String search(String jql) {
+        Set<String> values = new HashSet<>();
+        Matcher quoted = QUOTED.matcher(jql != null ? jql : "");
+        while (quoted.find()) {
+            values.add(quoted.group(1));
+        }
+
+        JSONArray found = new JSONArray();
+        for (Map.Entry<String, JSONObject> issue : new TreeMap<>(issues).entrySet()) {
+            JSONObject property = properties.get(issue.getKey() + "/graylog");
+            boolean matches = property != null && values.contains(property.optString("md5"));
+
+            for (Object label : issue.getValue().getJSONObject("fields").getJSONArray("labels")) {
+                matches |= values.contains(label.toString());
+            }
+
+            if (matches) {
+                found.add(issue.getValue());
+            }
+        }
+
+        return new JSONObject()
+                .element("startAt", 0)
+                .element("maxResults", found.size())
+                .element("total", found.size())
+                .element("issues", found)
+                .toString();
+    }
+
+    private String create(JSONObject request) {
+        JSONObject fields = request.getJSONObject("fields");
+        int number = issueNumber.incrementAndGet();
+        String key = PROJECT_KEY + "-" + number;
+
+        JSONObject issueFields = new JSONObject()
+                .element("summary", fields.optString("summary"))
+                .element("description", fields.optString("description"))
+                .element("labels", fields.has("labels") ? fields.getJSONArray("labels") : new JSONArray());
+
+        JSONObject issue = new JSONObject()
+                .element("id", String.valueOf(number))
+                .element("key", key)
+                .element("self", getURL() + API.substring(1) + "issue/" + number)
+                .element("fields", issueFields);
+
+        issues.put(key, issue);
+
+        return new JSONObject()
+                .element("id", String.valueOf(number))
+                .element("key", key)
+                .element("self", getURL() + API.substring(1) + "issue/" + number)
+                .toString();
+    }
+
+    private String createMetadata() {
+        JSONObject fields = new JSONObject()
+                .element("summary", field("Summary", "string", null, "summary", true))
+                .element("description", field("Description", "string", null, "description", false))
+                .element("labels", field("Labels", "array", "string", "labels", false))
+                .element("priority", field("Priority", "priority", null, "priority", false))
+                .element("project", field("Project", "project", null, "project", true))
+                .element("issuetype", field("Issue Type", "issuetype", null, "issuetype", true))
+                .element(MD5_CUSTOM_FIELD, field("graylog_md5", "string", null, null, false));
+
+        JSONObject issueType = new JSONObject()
+                .element("self", getURL() + API.substring(1) + "issuetype/1")
+                .element("id", "1")
+                .element("name", ISSUE_TYPE)
+                .element("fields", fields);
+
+        JSONObject project = new JSONObject()
+                .element("self", getURL() + API.substring(1) + "project/10000")
+                .element("id", "10000")
+                .element("key", PROJECT_KEY)
+                .element("name", "Operations")
+                .element("issuetypes", new JSONArray().element(issueType));
+
+        return new JSONObject().element("projects", new JSONArray().element(project)).toString();
+    }
+
+    private static JSONObject field(String name, String type, String items, String system, boolean required) {
+        JSONObject schema = new JSONObject().element("type", type);
+        if (items != null) {
+            schema.element("items", items);
+        }
+        if (system != null) {
+            schema.element("system", system);
+        }
+
+        return new JSONObject()
+                .element("required", required)
+                .element("name", name)
+                .element("schema", schema);
+    }
+
+    private void count(String operation) {
+        requests.putIfAbsent(operation, new AtomicInteger());
+        requests.get(operation).incrementAndGet();
+    }
+
+    private static Map<String, String> query(HttpExchange exchange) throws UnsupportedEncodingException {
+        Map<String, String> parameters = new HashMap<>();
+        String query = exchange.getRequestURI().getRawQuery();
+
+        if (query != null) {
+            for (String parameter : query.split("&")) {
+                int separator = parameter.indexOf('=');
+                if (separator > 0) {
+                    parameters.put(URLDecoder.decode(parameter.substring(0, separator), "UTF-8"),
+                            URLDecoder.decode(parameter.substring(separator + 1), "UTF-8"));
+                }
+            }
+        }
+
+        return parameters;
+    }
+
+    private static String body(HttpExchange exchange) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+
+        InputStream in = exchange.getRequestBody();
+        for (int read = in.read(buffer); read > 0; read = in.read(buffer)) {
+            body.write(buffer, 0, read);
+        }
+
+        return new String(body.toByteArray(), UTF_8);
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(UTF_8);
+
+        exchange.getResponseHeaders().set("Content-Type", "application/json;charset=UTF-8");
+        exchange.sendResponseHeaders(status, bytes.length > 0 ? bytes.length : -1);
+
+        OutputStream out = exchange.getResponseBody();
+        out.write(bytes);
+        out.close();
+    }
+}
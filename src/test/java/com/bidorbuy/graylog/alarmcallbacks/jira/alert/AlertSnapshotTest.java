@@ -0,0 +1,121 @@
+package com.bidorbuy.graylog.alarmcallbacks.jira.alert;
+
+import com.bidorbuy.graylog.alarmcallbacks.jira.JiraAlarmCallback;
+import com.bidorbuy.graylog.alarmcallbacks.jira.tools.RecordedAlert;
+import org.graylog2.plugin.configuration.Configuration;
+import org.junit.*;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.*;
+
+public class AlertSnapshotTest {
+
+    private static Configuration configuration(String title, String description, String mapping) {
+        Map<String, Object> settings = new HashMap<>();
+        settings.put(JiraAlarmCallback.GRAYLOG_URL, "https://graylog.example.com/");
+        settings.put(JiraAlarmCallback.JIRA_TITLE_TEMPLATE, title);
+        settings.put(JiraAlarmCallback.JIRA_MESSAGE_TEMPLATE, description);
+        if (mapping != null) {
+            settings.put(JiraAlarmCallback.JIRA_GRAYLOG_MESSAGE_FIELD_MAPPING, mapping);
+        }
+        return new Configuration(settings);
+    }
+
+    private static AlertSnapshot snapshot(Configuration configuration, String text, Map<String, Object> fields) {
+        Map<String, Object> message = new HashMap<>();
+        message.put("message", text);
+        message.put("source", "web-1");
+        message.put("fields", fields);
+
+        Map<String, Object> stream = new HashMap<>();
+        stream.put("id", "stream-1");
+        stream.put("title", "Errors");
+
+        Map<String, Object> alert = new HashMap<>();
+        alert.put("stream", stream);
+        alert.put("messages", Collections.singletonList(message));
+
+        RecordedAlert recorded = RecordedAlert.of(alert);
+        return AlertSnapshot.of(configuration, recorded.getStream(), recorded.getResult());
+    }
+
+    private static String repeat(char c, int length) {
+        StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            sb.append(c);
+        }
+        return sb.toString();
+    }
+
+    @Test
+    public void keepsOnlyReferencedFields() {
+        Configuration configuration = configuration("[LAST_MESSAGE.level] [LAST_MESSAGE.source]", "[LAST_MESSAGE.request_id]", "user=customfield_10200");
+
+        Map<String, Object> fields = new HashMap<>();
+        fields.put("level", 3);
+        fields.put("request_id", "abc-1");
+        fields.put("user", "alice");
+        fields.put("payload", repeat('x', 1000));
+
+        AlertSnapshot snapshot = snapshot(configuration, "request failed", fields);
+
+        assertThat(snapshot.getFields().keySet()).containsOnly("level", "request_id");
+        assertThat(snapshot.getFields().get("level")).isEqualTo("3");
+        assertThat(snapshot.getMappedFields().keySet()).containsOnly("user");
+        assertThat(snapshot.getMessage()).isEqualTo("request failed");
+        assertThat(snapshot.getSource()).isEqualTo("web-1");
+    }
+
+    @Test
+    public void capsLongValues() {
+        Configuration configuration = configuration("[LAST_MESSAGE.trace]", "", null);
+
+        Map<String, Object> fields = new HashMap<>();
+        fields.put("trace", repeat('t', AlertSnapshot.MAX_VALUE_LENGTH + 10));
+
+        AlertSnapshot snapshot = snapshot(configuration, repeat('m', AlertSnapshot.MAX_VALUE_LENGTH * 2), fields);
+
+        assertThat(snapshot.getMessage().length()).isEqualTo(AlertSnapshot.MAX_VALUE_LENGTH);
+        assertThat(snapshot.getFields().get("trace").length()).isEqualTo(AlertSnapshot.MAX_VALUE_LENGTH);
+    }
+
+    @Test
+    public void sharesEqualValues() {
+        Configuration configuration = configuration("[LAST_MESSAGE.host] [LAST_MESSAGE.origin]", "", "host=customfield_10200");
+
+        Map<String, Object> fields = new HashMap<>();
+        fields.put("host", new String("web-1"));
+        fields.put("origin", new String("web-1"));
+
+        AlertSnapshot snapshot = snapshot(configuration, "request failed", fields);
+
+        assertThat(snapshot.getFields().get("host")).isSameAs(snapshot.getSource());
+        assertThat(snapshot.getFields().get("origin")).isSameAs(snapshot.getSource());
+        assertThat(snapshot.getMappedFields().get("host")).isSameAs(snapshot.getSource());
+    }
+
+    @Test
+    public void estimateGrowsWithTheRetainedTextAndCountsSharedValuesOnce() {
+        Map<String, Object> fields = new HashMap<>();
+        fields.put("first", repeat('v', 10000));
+        fields.put("second", repeat('v', 10000));
+
+        AlertSnapshot small = snapshot(configuration("[LAST_MESSAGE.first]", "", null), "request failed", fields);
+        AlertSnapshot shared = snapshot(configuration("[LAST_MESSAGE.first] [LAST_MESSAGE.second]", "", null), "request failed", fields);
+
+        fields.put("second", repeat('w', 10000));
+        AlertSnapshot distinct = snapshot(configuration("[LAST_MESSAGE.first] [LAST_MESSAGE.second]", "", null), "request failed", fields);
+
+        // a char takes two bytes
+        assertThat(small.getEstimatedBytes()).isGreaterThan(20000);
+        assertThat(shared.getEstimatedBytes() - small.getEstimatedBytes()).isLessThan(1000);
+        assertThat(distinct.getEstimatedBytes() - small.getEstimatedBytes()).isGreaterThanOrEqualTo(20000);
+
+        // the pruned fields are not retained
+        AlertSnapshot pruned = snapshot(configuration("", "", null), "request failed", fields);
+        assertThat(pruned.getEstimatedBytes()).isLessThan(5000);
+    }
+}
@@ -0,0 +1,75 @@
+package com.bidorbuy.graylog.alarmcallbacks.jira.client;
+
+import net.rcarz.jiraclient.JiraException;
+import org.junit.*;
+
+import java.util.concurrent.Callable;
+
+import static org.assertj.core.api.Assertions.*;
+
+public class DeadlineTest {
+
+    @Test
+    public void noBudgetMeansNoDeadline() {
+        assertThat(Deadline.after(0)).isSameAs(Deadline.NONE);
+        assertThat(Deadline.current()).isSameAs(Deadline.NONE);
+        assertThat(Deadline.NONE.isExpired()).isFalse();
+    }
+
+    @Test
+    public void timeoutsNeverExceedTheDeadline() {
+        Deadline deadline = Deadline.after(5000);
+
+        assertThat(deadline.timeoutMillis(1000)).isEqualTo(1000);
+        assertThat(deadline.timeoutMillis(60000)).isBetween(1, 5000);
+        assertThat(deadline.timeoutMillis(0)).isBetween(1, 5000);
+    }
+
+    @Test
+    public void boundToTheRunningThreadOnly() throws Exception {
+        final Deadline deadline = Deadline.after(5000);
+
+        Deadline seen = Deadline.bind(deadline, new Callable<Deadline>() {
+            @Override
+            public Deadline call() {
+                return Deadline.current();
+            }
+        }).call();
+
+        assertThat(seen).isSameAs(deadline);
+        assertThat(Deadline.current()).isSameAs(Deadline.NONE);
+    }
+
+    @Test
+    public void expiredDeadlineFailsTheStage() throws Exception {
+        final Deadline deadline = Deadline.after(1);
+        Thread.sleep(5);
+
+        try {
+            deadline.check("search issue");
+            fail("expected DeadlineExceededException");
+        } catch (DeadlineExceededException ex) {
+            assertThat(ex.getMessage()).contains("search issue");
+            assertThat(Deadline.isExceeded(new JiraException("Failed to search", ex))).isTrue();
+            assertThat(RetryPolicy.classify(ex)).isEqualTo(RetryPolicy.Failure.PERMANENT);
+        }
+    }
+
+    @Test
+    public void backoffStopsAtTheDeadline() throws Exception {
+        final RetryPolicy retryPolicy = new RetryPolicy(3, 10000, 10000);
+
+        try {
+            Deadline.bind(Deadline.after(1000), new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    retryPolicy.backoff(1, "search issue", new JiraException("Failed to search"));
+                    return null;
+                }
+            }).call();
+            fail("expected DeadlineExceededException");
+        } catch (DeadlineExceededException ex) {
+            assertThat(ex.getMessage()).contains("retrying search issue");
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package com.bidorbuy.graylog.alarmcallbacks.jira.client;
+
+import com.bidorbuy.graylog.alarmcallbacks.jira.JiraStub;
+import net.rcarz.jiraclient.JiraException;
+import net.rcarz.jiraclient.RestClient;
+import org.junit.*;
+
+import static org.assertj.core.api.Assertions.*;
+
+public class JiraConnectionTest {
+
+    private static final JiraCall<Object> CREATE_SCREEN = new JiraCall<Object>() {
+        @Override
+        public Object call(RestClient restClient) throws JiraException {
+            try {
+                return restClient.get("rest/api/2/issue/createmeta");
+            } catch (Exception ex) {
+                throw new JiraException("Failed reading the create screen", ex);
+            }
+        }
+    };
+
+    private JiraStub jira;
+
+    @Before
+    public void startJira() throws Exception {
+        jira = new JiraStub(0);
+    }
+
+    @After
+    public void stopJira() {
+        jira.stop();
+    }
+
+    @Test
+    public void sessionIsCreatedOnceAndShared() throws Exception {
+        jira.requireLogin("graylog", "secret");
+        JiraConnection connection = JiraConnection.get(jira.getURL(), JiraConnection.AUTH_MODE_SESSION, "graylog", "secret");
+
+        connection.execute(CREATE_SCREEN);
+        connection.execute(CREATE_SCREEN);
+
+        assertThat(jira.getRequests().get("POST session")).isEqualTo(1);
+        assertThat(jira.getRequests().get("GET createmeta")).isEqualTo(2);
+        assertThat(jira.getRequests().get("unauthorized")).isNull();
+    }
+
+    @Test
+    public void expiredSessionIsRenewedAndTheCallRepeated() throws Exception {
+        jira.requireLogin("graylog", "secret");
+        JiraConnection connection = JiraConnection.get(jira.getURL(), JiraConnection.AUTH_MODE_SESSION, "graylog", "secret");
+
+        connection.execute(CREATE_SCREEN);
+        jira.expireSessions();
+        connection.execute(CREATE_SCREEN);
+
+        assertThat(jira.getRequests().get("POST session")).isEqualTo(2);
+        assertThat(jira.getRequests().get("unauthorized")).isEqualTo(1);
+        assertThat(jira.getRequests().get("GET createmeta")).isEqualTo(2);
+    }
+
+    @Test
+    public void tokenIsSentAsBearer() throws Exception {
+        jira.requireToken("pat-123");
+
+        JiraConnection.get(jira.getURL(), JiraConnection.AUTH_MODE_TOKEN, "graylog", "pat-123").execute(CREATE_SCREEN);
+        assertThat(jira.getRequests().get("GET createmeta")).isEqualTo(1);
+
+        try {
+            JiraConnection.get(jira.getURL(), JiraConnection.AUTH_MODE_TOKEN, "graylog", "pat-456").execute(CREATE_SCREEN);
+            fail("wrong token accepted");
+        } catch (JiraException expected) {
+            assertThat(JiraConnection.getHttpStatusCode(expected)).isEqualTo(401);
+        }
+        assertThat(jira.getRequests().get("POST session")).isNull();
+    }
+
+    @Test
+    public void differentSecretsNeverShareOrCloseAConnection() throws Exception {
+        JiraConnection first = JiraConnection.get(jira.getURL(), JiraConnection.AUTH_MODE_TOKEN, "", "pat-123");
+        first.execute(CREATE_SCREEN);
+
+        assertThat(JiraConnection.get(jira.getURL(), JiraConnection.AUTH_MODE_TOKEN, "", "pat-123")).isSameAs(first);
+
+        JiraConnection second = JiraConnection.get(jira.getURL(), JiraConnection.AUTH_MODE_TOKEN, "", "pat-456");
+        assertThat(second).isNotSameAs(first);
+        second.execute(CREATE_SCREEN);
+
+        // the first callback keeps its connection
+        assertThat(JiraConnection.get(jira.getURL(), JiraConnection.AUTH_MODE_TOKEN, "", "pat-123")).isSameAs(first);
+        first.execute(CREATE_SCREEN);
+        assertThat(jira.getRequests().get("GET createmeta")).isEqualTo(3);
+    }
+
+    @Test
+    public void idleConnectionExpiresButStaysUsableForItsHolder() throws Exception {
+        JiraConnection held = JiraConnection.get(jira.getURL(), JiraConnection.AUTH_MODE_BASIC, "graylog", "secret");
+        held.execute(CREATE_SCREEN);
+
+        JiraConnection.expireIdle(System.currentTimeMillis() + JiraConnection.IDLE_EXPIRY_MILLIS + 1000);
+
+        JiraConnection current = JiraConnection.get(jira.getURL(), JiraConnection.AUTH_MODE_BASIC, "graylog", "secret");
+        assertThat(current).isNotSameAs(held);
+
+        // i.e. the storm digest still holds the expired connection, the current one takes its calls
+        held.execute(CREATE_SCREEN);
+        assertThat(jira.getRequests().get("GET createmeta")).isEqualTo(2);
+    }
+}
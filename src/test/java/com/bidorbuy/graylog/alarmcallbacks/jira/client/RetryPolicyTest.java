@@ -0,0 +1,44 @@
+package com.bidorbuy.graylog.alarmcallbacks.jira.client;
+
+import net.rcarz.jiraclient.JiraException;
+import net.rcarz.jiraclient.RestException;
+import org.junit.*;
+
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+
+import static org.assertj.core.api.Assertions.*;
+
+public class RetryPolicyTest {
+
+    @Test
+    public void failuresAreClassifiedByWhetherTheyReachedJira() {
+        assertThat(RetryPolicy.classify(http(429))).isEqualTo(RetryPolicy.Failure.NOT_SENT);
+        assertThat(RetryPolicy.classify(http(503))).isEqualTo(RetryPolicy.Failure.MAYBE_SENT);
+        assertThat(RetryPolicy.classify(http(400))).isEqualTo(RetryPolicy.Failure.PERMANENT);
+        assertThat(RetryPolicy.classify(new JiraException("Failed to create issue", new ConnectException("Connection refused")))).isEqualTo(RetryPolicy.Failure.NOT_SENT);
+        assertThat(RetryPolicy.classify(new JiraException("Failed to create issue", new SocketTimeoutException("Read timed out")))).isEqualTo(RetryPolicy.Failure.MAYBE_SENT);
+    }
+
+    @Test
+    public void permanentFailuresAndLastAttemptAreNotRetried() {
+        RetryPolicy retryPolicy = RetryPolicy.attempts(3);
+
+        assertThat(retryPolicy.shouldRetry(1, http(502))).isTrue();
+        assertThat(retryPolicy.shouldRetry(3, http(502))).isFalse();
+        assertThat(retryPolicy.shouldRetry(1, http(404))).isFalse();
+    }
+
+    @Test
+    public void delayGrowsExponentiallyUpToTheCap() {
+        RetryPolicy retryPolicy = new RetryPolicy(10, 100, 1000);
+
+        assertThat(retryPolicy.delayMillis(1)).isBetween(50L, 100L);
+        assertThat(retryPolicy.delayMillis(3)).isBetween(200L, 400L);
+        assertThat(retryPolicy.delayMillis(8)).isBetween(500L, 1000L);
+    }
+
+    private static JiraException http(int status) {
+        return new JiraException("Failed to search issues", new RestException("HTTP " + status, status, ""));
+    }
+}
@@ -0,0 +1,167 @@
+package com.bidorbuy.graylog.alarmcallbacks.jira.dedup;
+
+import net.rcarz.jiraclient.JiraException;
+import org.junit.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.*;
+
+public class CorrelationTableTest {
+
+    private static final String SCOPE = "https://jira.example.com|OPS|";
+    private static final long WINDOW = 60000;
+
+    @Test
+    public void followersWaitForTheIssueOfTheLeader() throws Exception {
+        final CorrelationTable table = new CorrelationTable(100);
+        CorrelationTable.Ticket leader = table.join(SCOPE, "md5-1", "stream-1", WINDOW);
+
+        assertThat(leader.isLeader()).isTrue();
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<CorrelationTable.Ticket>> followers = new ArrayList<>();
+
+        for (int i = 2; i <= 5; i++) {
+            final String stream = "stream-" + i;
+            followers.add(executor.submit(new Callable<CorrelationTable.Ticket>() {
+                @Override
+                public CorrelationTable.Ticket call() throws JiraException {
+                    return table.join(SCOPE, "md5-1", stream, WINDOW);
+                }
+            }));
+        }
+
+        // all followers joined before the issue is known
+        while (leader.getStreams().size() < 5) {
+            Thread.sleep(1);
+        }
+
+        leader.complete("OPS-42");
+
+        for (Future<CorrelationTable.Ticket> follower : followers) {
+            CorrelationTable.Ticket ticket = follower.get(5, TimeUnit.SECONDS);
+            assertThat(ticket.isLeader()).isFalse();
+            assertThat(ticket.getIssueKey()).isEqualTo("OPS-42");
+            assertThat(ticket.getLeaderStream()).isEqualTo("stream-1");
+        }
+
+        executor.shutdown();
+
+        assertThat(leader.getStreams()).containsOnly("stream-1", "stream-2", "stream-3", "stream-4", "stream-5");
+        assertThat(leader.getStreams().iterator().next()).isEqualTo("stream-1");
+        assertThat(table.join(SCOPE, "md5-1", "stream-6", WINDOW).getIssueKey()).isEqualTo("OPS-42");
+        assertThat(table.join(SCOPE, "md5-2", "stream-6", WINDOW).isLeader()).isTrue();
+        assertThat(table.join("https://jira.example.com|SRE|", "md5-1", "stream-6", WINDOW).isLeader()).isTrue();
+    }
+
+    @Test
+    public void failedLeaderDropsTheCorrelation() throws JiraException {
+        CorrelationTable table = new CorrelationTable(100);
+
+        table.join(SCOPE, "md5-1", "stream-1", WINDOW).complete(null);
+
+        CorrelationTable.Ticket next = table.join(SCOPE, "md5-1", "stream-2", WINDOW);
+        assertThat(next.isLeader()).isTrue();
+        assertThat(next.getIssueKey()).isNull();
+    }
+
+    @Test
+    public void followerTakesOverFromALeaderWithoutIssue() throws Exception {
+        final CorrelationTable table = new CorrelationTable(100);
+        CorrelationTable.Ticket leader = table.join(SCOPE, "md5-1", "stream-1", WINDOW);
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<CorrelationTable.Ticket>> followers = new ArrayList<>();
+
+        for (int i = 2; i <= 5; i++) {
+            final String stream = "stream-" + i;
+            followers.add(executor.submit(new Callable<CorrelationTable.Ticket>() {
+                @Override
+                public CorrelationTable.Ticket call() throws JiraException {
+                    return table.join(SCOPE, "md5-1", stream, WINDOW);
+                }
+            }));
+        }
+
+        while (leader.getStreams().size() < 5) {
+            Thread.sleep(1);
+        }
+
+        leader.complete(null);
+
+        // exactly one follower leads the next attempt, the others keep waiting for it
+        CorrelationTable.Ticket promoted = null;
+        for (long until = System.currentTimeMillis() + 5000; promoted == null; ) {
+            assertThat(System.currentTimeMillis()).isLessThan(until);
+            for (Future<CorrelationTable.Ticket> follower : followers) {
+                if (follower.isDone()) {
+                    promoted = follower.get();
+                }
+            }
+            Thread.sleep(1);
+        }
+
+        assertThat(promoted.isLeader()).isTrue();
+        while (promoted.getStreams().size() < 4) {
+            Thread.sleep(1);
+        }
+
+        int waiting = 0;
+        for (Future<CorrelationTable.Ticket> follower : followers) {
+            waiting += follower.isDone() ? 0 : 1;
+        }
+        assertThat(waiting).isEqualTo(3);
+
+        promoted.complete("OPS-43");
+
+        for (Future<CorrelationTable.Ticket> follower : followers) {
+            CorrelationTable.Ticket ticket = follower.get(5, TimeUnit.SECONDS);
+            if (ticket != promoted) {
+                assertThat(ticket.isLeader()).isFalse();
+                assertThat(ticket.getIssueKey()).isEqualTo("OPS-43");
+            }
+        }
+
+        executor.shutdown();
+    }
+
+    @Test
+    public void correlationsExpireAfterTheWindow() throws Exception {
+        CorrelationTable table = new CorrelationTable(100);
+
+        table.join(SCOPE, "md5-1", "stream-1", 1).complete("OPS-42");
+        Thread.sleep(5);
+
+        assertThat(table.join(SCOPE, "md5-1", "stream-2", 1).isLeader()).isTrue();
+    }
+
+    @Test
+    public void resolvedIssuesAreDropped() throws JiraException {
+        CorrelationTable table = new CorrelationTable(100);
+
+        table.join(SCOPE, "md5-1", "stream-1", WINDOW).complete("OPS-42");
+        table.join(SCOPE, "md5-2", "stream-1", WINDOW).complete("OPS-43");
+
+        assertThat(table.removeIssue("OPS-42")).isEqualTo(1);
+        assertThat(table.size()).isEqualTo(1);
+        assertThat(table.join(SCOPE, "md5-1", "stream-2", WINDOW).isLeader()).isTrue();
+    }
+
+    @Test
+    public void streamsAreListedOncePerIssue() throws JiraException {
+        CorrelationTable table = new CorrelationTable(100);
+
+        table.join(SCOPE, "md5-1", "stream-1", WINDOW).complete("OPS-42");
+
+        assertThat(table.markListed("OPS-42", "stream-1")).isFalse();
+        assertThat(table.markListed("OPS-42", "stream-2")).isTrue();
+        assertThat(table.markListed("OPS-42", "stream-2")).isFalse();
+    }
+}
@@ -0,0 +1,198 @@
+package com.bidorbuy.graylog.alarmcallbacks.jira.dedup;
+
+import com.bidorbuy.graylog.alarmcallbacks.jira.JiraStub;
+import com.bidorbuy.graylog.alarmcallbacks.jira.client.Deadline;
+import com.bidorbuy.graylog.alarmcallbacks.jira.client.JiraConnection;
+import com.bidorbuy.graylog.alarmcallbacks.jira.client.RetryPolicy;
+import net.rcarz.jiraclient.JiraException;
+import net.sf.json.JSONObject;
+import org.junit.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.*;
+
+public class DuplicateLookupBatcherTest {
+
+    private static final String BASE_JQL = "project = " + JiraStub.PROJECT_KEY;
+    private static final long LONG_WINDOW_MILLIS = 60000;
+
+    private final DuplicateLookupBatcher batcher = new DuplicateLookupBatcher();
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    private JiraStub jira;
+    private JiraConnection connection;
+
+    @Before
+    public void startJira() throws Exception {
+        jira = new JiraStub(0);
+        connection = JiraConnection.get(jira.getURL(), JiraConnection.AUTH_MODE_BASIC, "graylog", "secret");
+    }
+
+    @After
+    public void stopJira() {
+        executor.shutdownNow();
+        jira.stop();
+    }
+
+    private static String md5(int i) {
+        return String.format("%032x", i);
+    }
+
+    /**
+     * Start all lookups at once, each on its own thread
+     */
+    private List<Future<String>> lookupAll(List<JiraConnection> connections, List<DuplicateLookupStrategy> strategies, List<String> fingerprints,
+                                           final long windowMillis, final int maxBatchSize) {
+        final CountDownLatch start = new CountDownLatch(1);
+
+        List<Future<String>> results = new ArrayList<>();
+        for (int i = 0; i < fingerprints.size(); i++) {
+            final JiraConnection lookupConnection = connections.get(i % connections.size());
+            final DuplicateLookupStrategy strategy = strategies.get(i % strategies.size());
+            final String fingerprint = fingerprints.get(i);
+
+            results.add(executor.submit(new Callable<String>() {
+                @Override
+                public String call() throws Exception {
+                    start.await();
+                    return batcher.lookup(lookupConnection, BASE_JQL, strategy, fingerprint, windowMillis, maxBatchSize, RetryPolicy.attempts(1));
+                }
+            }));
+        }
+
+        start.countDown();
+        return results;
+    }
+
+    private List<Future<String>> lookupAll(DuplicateLookupStrategy strategy, List<String> fingerprints, long windowMillis, int maxBatchSize) {
+        return lookupAll(Arrays.asList(connection), Arrays.asList(strategy), fingerprints, windowMillis, maxBatchSize);
+    }
+
+    @Test
+    public void fullBatchIsSearchedWithoutWaitingForTheWindow() throws Exception {
+        long started = System.currentTimeMillis();
+
+        for (Future<String> result : lookupAll(new LabelLookupStrategy(), Arrays.asList(md5(1), md5(2), md5(3)), LONG_WINDOW_MILLIS, 3)) {
+            assertThat(result.get()).isNull();
+        }
+
+        assertThat(System.currentTimeMillis() - started).isLessThan(LONG_WINDOW_MILLIS / 2);
+        assertThat(jira.getRequests().get("GET search")).isEqualTo(1);
+    }
+
+    @Test
+    public void resultsAreDemultiplexedPerFingerprint() throws Exception {
+        String first = jira.createIssue(LabelLookupStrategy.LABEL_PREFIX + md5(1));
+        String second = jira.createIssue(LabelLookupStrategy.LABEL_PREFIX + md5(2), "unrelated");
+
+        List<Future<String>> results = lookupAll(new LabelLookupStrategy(), Arrays.asList(md5(1), md5(2), md5(3)), LONG_WINDOW_MILLIS, 3);
+
+        assertThat(results.get(0).get()).isEqualTo(first);
+        assertThat(results.get(1).get()).isEqualTo(second);
+        assertThat(results.get(2).get()).isNull();
+        assertThat(jira.getRequests().get("GET search")).isEqualTo(1);
+    }
+
+    @Test
+    public void followerSearchesItselfIfTheLeaderRanOutOfTime() throws Exception {
+        jira.stop();
+        jira = new JiraStub(500);
+        connection = JiraConnection.get(jira.getURL(), JiraConnection.AUTH_MODE_BASIC, "graylog", "secret");
+
+        String issue = jira.createIssue(LabelLookupStrategy.LABEL_PREFIX + md5(2));
+
+        Future<String> leader = executor.submit(Deadline.bind(Deadline.after(300), new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                return batcher.lookup(connection, BASE_JQL, new LabelLookupStrategy(), md5(1), 100, 2, RetryPolicy.attempts(1));
+            }
+        }));
+        Thread.sleep(20);
+        Future<String> follower = executor.submit(new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                return batcher.lookup(connection, BASE_JQL, new LabelLookupStrategy(), md5(2), 100, 2, RetryPolicy.attempts(1));
+            }
+        });
+
+        try {
+            leader.get();
+            fail("The leader's search ran past its deadline but did not fail");
+        } catch (ExecutionException ex) {
+            assertThat(ex.getCause()).isInstanceOf(JiraException.class);
+        }
+
+        // the follower has no deadline, the leader's does not apply to it
+        assertThat(follower.get()).isEqualTo(issue);
+        assertThat(jira.getRequests().get("GET search")).isEqualTo(2);
+    }
+
+    @Test
+    public void entityPropertiesAreReadOncePerFoundIssue() throws Exception {
+        String first = jira.createIssue();
+        String second = jira.createIssue();
+        jira.setProperty(first, EntityPropertyLookupStrategy.PROPERTY_KEY, new JSONObject().element(EntityPropertyLookupStrategy.PROPERTY_FIELD, md5(1)));
+        jira.setProperty(second, EntityPropertyLookupStrategy.PROPERTY_KEY, new JSONObject().element(EntityPropertyLookupStrategy.PROPERTY_FIELD, md5(2)));
+
+        List<Future<String>> results = lookupAll(new EntityPropertyLookupStrategy(), Arrays.asList(md5(1), md5(2), md5(3)), LONG_WINDOW_MILLIS, 3);
+
+        assertThat(results.get(0).get()).isEqualTo(first);
+        assertThat(results.get(1).get()).isEqualTo(second);
+        assertThat(results.get(2).get()).isNull();
+        assertThat(jira.getRequests().get("GET search")).isEqualTo(1);
+        assertThat(jira.getRequests().get("GET property")).isEqualTo(2);
+    }
+
+    @Test
+    public void tooLongClauseIsSplitIntoSeveralSearches() throws Exception {
+        List<String> fingerprints = new ArrayList<>();
+        for (int i = 0; i < 120; i++) {
+            fingerprints.add(md5(i));
+        }
+        String found = jira.createIssue(LabelLookupStrategy.LABEL_PREFIX + md5(100));
+
+        assertThat(new LabelLookupStrategy().buildClause(fingerprints).length()).isGreaterThan(DuplicateLookupBatcher.MAX_CLAUSE_LENGTH);
+
+        List<Future<String>> results = lookupAll(new LabelLookupStrategy(), fingerprints, 2000, fingerprints.size());
+
+        for (int i = 0; i < fingerprints.size(); i++) {
+            assertThat(results.get(i).get()).isEqualTo(i == 100 ? found : null);
+        }
+        assertThat(jira.getRequests().get("GET search")).isEqualTo(2);
+    }
+
+    @Test
+    public void onlyEqualConnectionsAndStrategiesShareABatch() throws Exception {
+        JiraConnection otherUser = JiraConnection.get(jira.getURL(), JiraConnection.AUTH_MODE_BASIC, "other", "secret");
+
+        // a shared batch would be full and searched at once, separate batches are searched after the window
+        for (Future<String> result : lookupAll(Arrays.asList(connection, otherUser), Arrays.<DuplicateLookupStrategy>asList(new LabelLookupStrategy()),
+                Arrays.asList(md5(1), md5(2)), 200, 2)) {
+            result.get();
+        }
+        assertThat(jira.getRequests().get("GET search")).isEqualTo(2);
+
+        for (Future<String> result : lookupAll(Arrays.asList(connection), Arrays.<DuplicateLookupStrategy>asList(
+                new CustomFieldLookupStrategy("customfield_10100"), new CustomFieldLookupStrategy("customfield_10200")),
+                Arrays.asList(md5(1), md5(2)), 200, 2)) {
+            result.get();
+        }
+        assertThat(jira.getRequests().get("GET search")).isEqualTo(4);
+
+        for (Future<String> result : lookupAll(Arrays.asList(connection), Arrays.<DuplicateLookupStrategy>asList(
+                new CustomFieldLookupStrategy("customfield_10100"), new CustomFieldLookupStrategy("customfield_10100")),
+                Arrays.asList(md5(1), md5(2)), LONG_WINDOW_MILLIS, 2)) {
+            result.get();
+        }
+        assertThat(jira.getRequests().get("GET search")).isEqualTo(5);
+    }
+}
@@ -0,0 +1,56 @@
+package com.bidorbuy.graylog.alarmcallbacks.jira.dedup;
+
+import org.junit.*;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.*;
+
+public class DuplicateLookupStrategiesTest {
+
+    private static final String MD5 = "25933c67013ea3bbb722e34cbe997d1b";
+
+    @Test
+    public void unsetLookupKeepsLegacyDescriptionScan() {
+        List<DuplicateLookupStrategy> strategies = DuplicateLookupStrategies.parse(null, "customfield_10100");
+
+        assertThat(strategies).hasSize(1);
+        assertThat(strategies.get(0).getName()).isEqualTo(DuplicateLookupStrategies.DESCRIPTION);
+        assertThat(strategies.get(0).buildClause(Collections.singleton(MD5)))
+                .isEqualTo("graylog_md5 ~ \"" + MD5 + "\" OR description ~ \"" + MD5 + "\"");
+    }
+
+    @Test
+    public void strategiesAreCreatedInOrder() {
+        List<DuplicateLookupStrategy> strategies = DuplicateLookupStrategies.parse("label, customfield,property", "customfield_10100");
+
+        assertThat(strategies).hasSize(3);
+        assertThat(strategies.get(0).getName()).isEqualTo(DuplicateLookupStrategies.LABEL);
+        assertThat(strategies.get(1).getName()).isEqualTo(DuplicateLookupStrategies.CUSTOM_FIELD);
+        assertThat(strategies.get(2).getName()).isEqualTo(DuplicateLookupStrategies.PROPERTY);
+    }
+
+    @Test
+    public void exactMatchClauses() {
+        List<String> fingerprints = Arrays.asList(MD5, "abc");
+
+        assertThat(new CustomFieldLookupStrategy("customfield_10100").buildClause(fingerprints))
+                .isEqualTo("cf[10100] in (\"" + MD5 + "\", \"abc\")");
+        assertThat(new LabelLookupStrategy().buildClause(fingerprints))
+                .isEqualTo("labels in (\"graylog_md5_" + MD5 + "\", \"graylog_md5_abc\")");
+        assertThat(new EntityPropertyLookupStrategy().buildClause(fingerprints))
+                .isEqualTo("issue.property[graylog].md5 in (\"" + MD5 + "\", \"abc\")");
+    }
+
+    @Test
+    public void customFieldLookupNeedsTheField() {
+        assertThat(new CustomFieldLookupStrategy(null).buildClause(Collections.singleton(MD5))).isNull();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownStrategyIsRejected() {
+        DuplicateLookupStrategies.parse("customfield,fulltext", null);
+    }
+}
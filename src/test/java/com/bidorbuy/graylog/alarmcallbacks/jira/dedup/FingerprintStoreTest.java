@@ -0,0 +1,199 @@
+package com.bidorbuy.graylog.alarmcallbacks.jira.dedup;
+
+import org.junit.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+
+import static org.assertj.core.api.Assertions.*;
+
+public class FingerprintStoreTest {
+
+    private static final long MAX_AGE = 60000;
+    private static final String JIRA = "https://jira.example.com";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("fingerprints", ".db");
+        file.delete();
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+        new File(file.getPath() + ".corrupt").delete();
+    }
+
+    @Test
+    public void recordsSurviveReopening() throws IOException {
+        FingerprintStore store = new FingerprintStore(file, MAX_AGE);
+        store.put(JIRA, "jira|OPS", "25933c67013ea3bbb722e34cbe997d1b", "OPS-42", FingerprintStore.STATUS_OPEN);
+        store.close();
+
+        FingerprintStore reopened = new FingerprintStore(file, MAX_AGE);
+        FingerprintStore.Entry entry = reopened.get("jira|OPS", "25933c67013ea3bbb722e34cbe997d1b", MAX_AGE);
+
+        assertThat(entry.getIssueKey()).isEqualTo("OPS-42");
+        assertThat(entry.isOpen()).isTrue();
+        assertThat(reopened.get("jira|SRE", "25933c67013ea3bbb722e34cbe997d1b", MAX_AGE)).isNull();
+        reopened.close();
+    }
+
+    @Test
+    public void growsAndKeepsRecordsOnCompaction() throws IOException {
+        FingerprintStore store = new FingerprintStore(file, MAX_AGE);
+
+        int records = FingerprintStore.DEFAULT_CAPACITY;
+        for (int i = 0; i < records; i++) {
+            store.put(JIRA, "jira|OPS", "md5-" + i, "OPS-" + i, FingerprintStore.STATUS_OPEN);
+        }
+
+        assertThat(store.size()).isEqualTo(records);
+        assertThat(store.capacity()).isEqualTo(FingerprintStore.DEFAULT_CAPACITY * 4);
+        assertThat(store.get("jira|OPS", "md5-7", MAX_AGE).getIssueKey()).isEqualTo("OPS-7");
+        assertThat(store.get("jira|OPS", "md5-" + (records - 1), MAX_AGE).getIssueKey()).isEqualTo("OPS-" + (records - 1));
+        store.close();
+    }
+
+    @Test
+    public void removedRecordsAreNotFound() throws IOException {
+        FingerprintStore store = new FingerprintStore(file, MAX_AGE);
+        store.put(JIRA, "jira|OPS", "a", "OPS-1", FingerprintStore.STATUS_OPEN);
+        store.put(JIRA, "jira|OPS", "b", "OPS-2", FingerprintStore.STATUS_OPEN);
+
+        assertThat(store.remove("jira|OPS", "a")).isTrue();
+        assertThat(store.get("jira|OPS", "a", MAX_AGE)).isNull();
+        assertThat(store.get("jira|OPS", "b", MAX_AGE).getIssueKey()).isEqualTo("OPS-2");
+        assertThat(store.size()).isEqualTo(1);
+        store.close();
+    }
+
+    @Test
+    public void onlyJiraConfirmationsExtendTheTrust() throws Exception {
+        FingerprintStore store = new FingerprintStore(file, MAX_AGE);
+        store.put(JIRA, "jira|OPS", "a", "OPS-1", FingerprintStore.STATUS_OPEN);
+        FingerprintStore.Entry verified = store.get("jira|OPS", "a", MAX_AGE);
+
+        Thread.sleep(1100);
+        assertThat(store.touch("jira|OPS", "a")).isTrue();
+        assertThat(store.touch("jira|OPS", "b")).isFalse();
+
+        FingerprintStore.Entry touched = store.get("jira|OPS", "a", MAX_AGE);
+        assertThat(touched.getLastSeen()).isGreaterThan(verified.getLastSeen());
+        assertThat(touched.getVerifiedAt()).isEqualTo(verified.getVerifiedAt());
+
+        // seen just now, but confirmed by JIRA more than a second ago
+        assertThat(store.get("jira|OPS", "a", 1000)).isNull();
+
+        store.put(JIRA, "jira|OPS", "a", "OPS-1", FingerprintStore.STATUS_OPEN);
+        assertThat(store.get("jira|OPS", "a", 1000).getIssueKey()).isEqualTo("OPS-1");
+        store.close();
+    }
+
+    @Test
+    public void refusesToReplaceAnUnrelatedFile() throws IOException {
+        String content = "http_bind_address = 127.0.0.1:9000\n";
+        Files.write(file.toPath(), content.getBytes(UTF_8));
+
+        try {
+            new FingerprintStore(file, MAX_AGE);
+            fail("unrelated file opened as fingerprint store");
+        } catch (IOException expected) {
+            assertThat(expected.getMessage()).contains("not a fingerprint store");
+        }
+
+        try {
+            FingerprintStore.check(file.getPath());
+            fail("unrelated file accepted");
+        } catch (IOException expected) {
+            assertThat(expected.getMessage()).contains("not a fingerprint store");
+        }
+
+        assertThat(new String(Files.readAllBytes(file.toPath()), UTF_8)).isEqualTo(content);
+        assertThat(new File(file.getPath() + ".corrupt").exists()).isFalse();
+    }
+
+    @Test
+    public void recoversADamagedStore() throws IOException {
+        FingerprintStore store = new FingerprintStore(file, MAX_AGE);
+        store.put(JIRA, "jira|OPS", "a", "OPS-1", FingerprintStore.STATUS_OPEN);
+        store.close();
+
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(1000);
+        }
+        FingerprintStore.check(file.getPath());
+
+        FingerprintStore recovered = new FingerprintStore(file, MAX_AGE);
+        assertThat(recovered.size()).isEqualTo(0);
+        assertThat(recovered.get("jira|OPS", "a", MAX_AGE)).isNull();
+        assertThat(new File(file.getPath() + ".corrupt").exists()).isTrue();
+        recovered.close();
+    }
+
+    @Test
+    public void onlyRecordsOfTheInstanceAreReopened() throws IOException {
+        FingerprintStore store = new FingerprintStore(file, MAX_AGE);
+        store.put(JIRA, "jira|OPS", "a", "OPS-1", FingerprintStore.STATUS_RESOLVED);
+        store.put("https://other.example.com", "other|OPS", "a", "OPS-1", FingerprintStore.STATUS_RESOLVED);
+
+        assertThat(store.setIssueStatus(null, "OPS-1", FingerprintStore.STATUS_OPEN)).isEqualTo(0);
+        assertThat(store.setIssueStatus(JIRA + "/", "OPS-1", FingerprintStore.STATUS_OPEN)).isEqualTo(1);
+        assertThat(store.get("jira|OPS", "a", MAX_AGE).isOpen()).isTrue();
+        assertThat(store.get("other|OPS", "a", MAX_AGE).isOpen()).isFalse();
+
+        // resolving and removing without an instance applies to all of them
+        assertThat(store.setIssueStatus(null, "OPS-1", FingerprintStore.STATUS_RESOLVED)).isEqualTo(1);
+        assertThat(store.removeIssue("https://other.example.com", "OPS-1")).isEqualTo(1);
+        assertThat(store.removeIssue(null, "OPS-1")).isEqualTo(1);
+        assertThat(store.size()).isEqualTo(0);
+        store.close();
+    }
+
+    @Test
+    public void upgradesAStoreWithoutInstances() throws Exception {
+        int capacity = 16;
+        MessageDigest md5 = MessageDigest.getInstance("MD5");
+        md5.update("jira|OPS".getBytes(UTF_8));
+        md5.update((byte) 0);
+        byte[] key = md5.digest("a".getBytes(UTF_8));
+
+        // version 1: 64 byte records without the instance hash
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(64 + capacity * 64);
+            raf.writeInt(0x474A4658);
+            raf.writeInt(1);
+            raf.writeInt(capacity);
+            raf.writeInt(1);
+            raf.writeInt(0);
+
+            raf.seek(64);
+            raf.writeByte(1);
+            raf.write(key);
+            raf.writeByte(5);
+            raf.write("OPS-1".getBytes(UTF_8));
+            raf.seek(64 + 50);
+            raf.writeByte(FingerprintStore.STATUS_RESOLVED);
+            raf.writeLong(System.currentTimeMillis());
+            raf.writeInt((int) (System.currentTimeMillis() / 1000));
+        }
+
+        FingerprintStore store = new FingerprintStore(file, MAX_AGE);
+        assertThat(store.size()).isEqualTo(1);
+        assertThat(store.get("jira|OPS", "a", MAX_AGE).getIssueKey()).isEqualTo("OPS-1");
+
+        // it is not known which instance the record belongs to, it is never trusted again by a webhook
+        assertThat(store.setIssueStatus(JIRA, "OPS-1", FingerprintStore.STATUS_OPEN)).isEqualTo(0);
+        assertThat(store.removeIssue(JIRA, "OPS-1")).isEqualTo(1);
+        store.close();
+
+        assertThat(file.length()).isEqualTo(64 + (long) FingerprintStore.DEFAULT_CAPACITY * FingerprintStore.RECORD_SIZE);
+    }
+}
@@ -0,0 +1,158 @@
+package com.bidorbuy.graylog.alarmcallbacks.jira.dedup;
+
+import org.junit.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.*;
+
+public class IssueEventsTest {
+
+    private static final long MAX_AGE = 60000;
+    private static final String JIRA = "https://jira.example.com";
+
+    private File file;
+    private FingerprintStore store;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("fingerprints", ".db");
+        file.delete();
+        store = FingerprintStore.open(file.getPath(), MAX_AGE);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        store.close();
+        file.delete();
+        IssueEvents.setSecrets(Collections.<String>emptySet());
+        SimHashIndex.clearAll();
+    }
+
+    /**
+     * A webhook as posted by JIRA, reduced to the fields read
+     */
+    private static Map<String, Object> event(String webhookEvent, String issueKey, String resolution, String statusCategory) {
+        Map<String, Object> fields = new HashMap<>();
+        fields.put("resolution", resolution != null ? Collections.singletonMap("name", resolution) : null);
+        fields.put("status", Collections.singletonMap("statusCategory", Collections.singletonMap("key", statusCategory)));
+
+        Map<String, Object> issue = new HashMap<>();
+        issue.put("key", issueKey);
+        issue.put("self", JIRA + "/rest/api/2/issue/10042");
+        issue.put("fields", fields);
+
+        Map<String, Object> event = new HashMap<>();
+        event.put("webhookEvent", webhookEvent);
+        event.put("issue", issue);
+        return event;
+    }
+
+    @Test
+    public void resolvedIssuesAreSearchedAgain() throws IOException {
+        store.put(JIRA, "jira|OPS", "md5-1", "OPS-42", FingerprintStore.STATUS_OPEN);
+        SimHashIndex index = SimHashIndex.forScope(JIRA + "/|OPS|", 3);
+        index.put(1L, "OPS-42");
+
+        IssueEvents.Result result = IssueEvents.handle(event(IssueEvents.ISSUE_UPDATED, "OPS-42", "Fixed", "done"));
+
+        assertThat(result.getAction()).isEqualTo(IssueEvents.ACTION_RESOLVED);
+        assertThat(result.getFingerprints()).isEqualTo(1);
+        assertThat(result.getSimilar()).isEqualTo(1);
+        assertThat(store.get("jira|OPS", "md5-1", MAX_AGE).isOpen()).isFalse();
+        assertThat(index.find(1L)).isNull();
+
+        result = IssueEvents.handle(event(IssueEvents.ISSUE_UPDATED, "OPS-42", null, "indeterminate"));
+
+        assertThat(result.getAction()).isEqualTo(IssueEvents.ACTION_OPEN);
+        assertThat(store.get("jira|OPS", "md5-1", MAX_AGE).isOpen()).isTrue();
+    }
+
+    @Test
+    public void deletedAndMovedIssuesAreEvicted() throws IOException {
+        store.put(JIRA, "jira|OPS", "md5-1", "OPS-42", FingerprintStore.STATUS_OPEN);
+        store.put(JIRA, "jira|OPS", "md5-2", "OPS-42", FingerprintStore.STATUS_OPEN);
+        store.put(JIRA, "jira|OPS", "md5-3", "OPS-43", FingerprintStore.STATUS_OPEN);
+
+        IssueEvents.Result result = IssueEvents.handle(event(IssueEvents.ISSUE_DELETED, "OPS-42", null, "new"));
+
+        assertThat(result.getAction()).isEqualTo(IssueEvents.ACTION_DELETED);
+        assertThat(result.getFingerprints()).isEqualTo(2);
+        assertThat(store.get("jira|OPS", "md5-1", MAX_AGE)).isNull();
+        assertThat(store.size()).isEqualTo(1);
+
+        Map<String, Object> moved = event(IssueEvents.ISSUE_UPDATED, "SRE-7", null, "new");
+        moved.put("changelog", Collections.singletonMap("items", Collections.singletonList(move("OPS-43", "SRE-7"))));
+
+        result = IssueEvents.handle(moved);
+
+        assertThat(result.getAction()).isEqualTo(IssueEvents.ACTION_MOVED);
+        assertThat(result.getIssueKey()).isEqualTo("OPS-43");
+        assertThat(store.get("jira|OPS", "md5-3", MAX_AGE)).isNull();
+    }
+
+    @Test
+    public void onlyTheIssuesInstanceIsReopened() throws IOException {
+        store.put(JIRA, "jira|OPS", "md5-1", "OPS-42", FingerprintStore.STATUS_RESOLVED);
+        store.put("https://other.example.com", "other|OPS", "md5-1", "OPS-42", FingerprintStore.STATUS_RESOLVED);
+
+        Map<String, Object> withoutSelf = event(IssueEvents.ISSUE_UPDATED, "OPS-42", null, "indeterminate");
+        ((Map<?, ?>) withoutSelf.get("issue")).remove("self");
+
+        assertThat(IssueEvents.handle(withoutSelf).getFingerprints()).isEqualTo(0);
+        assertThat(IssueEvents.handle(event(IssueEvents.ISSUE_UPDATED, "OPS-42", null, "indeterminate")).getFingerprints()).isEqualTo(1);
+        assertThat(store.get("jira|OPS", "md5-1", MAX_AGE).isOpen()).isTrue();
+        assertThat(store.get("other|OPS", "md5-1", MAX_AGE).isOpen()).isFalse();
+    }
+
+    private static Map<String, Object> move(String from, String to) {
+        Map<String, Object> item = new HashMap<>();
+        item.put("field", "Key");
+        item.put("fromString", from);
+        item.put("toString", to);
+        return item;
+    }
+
+    @Test
+    public void otherIndexesAndEventsAreNotTouched() {
+        SimHashIndex other = SimHashIndex.forScope("https://other.example.com|OPS|", 3);
+        other.put(1L, "OPS-42");
+
+        assertThat(IssueEvents.handle(event(IssueEvents.ISSUE_DELETED, "OPS-42", null, "new")).getSimilar()).isEqualTo(0);
+        assertThat(other.find(1L).getIssueKey()).isEqualTo("OPS-42");
+        assertThat(IssueEvents.handle(event("comment_created", "OPS-42", null, "new")).getAction()).isEqualTo(IssueEvents.ACTION_IGNORED);
+        assertThat(IssueEvents.handle(new HashMap<String, Object>()).getAction()).isEqualTo(IssueEvents.ACTION_IGNORED);
+    }
+
+    @Test
+    public void onlyConfiguredSecretsAreAuthorized() {
+        assertThat(IssueEvents.isEnabled()).isFalse();
+        assertThat(IssueEvents.isAuthorized("s3cret")).isFalse();
+
+        IssueEvents.setSecrets(Arrays.asList("s3cret", " "));
+
+        assertThat(IssueEvents.isEnabled()).isTrue();
+        assertThat(IssueEvents.isAuthorized("s3cret")).isTrue();
+        assertThat(IssueEvents.isAuthorized("s3cre")).isFalse();
+        assertThat(IssueEvents.isAuthorized(null)).isFalse();
+    }
+
+    @Test
+    public void changedSecretReplacesTheOldOne() {
+        IssueEvents.setSecrets(Collections.singleton("s3cret"));
+        IssueEvents.setSecrets(Collections.singleton("n3w"));
+
+        assertThat(IssueEvents.isAuthorized("n3w")).isTrue();
+        assertThat(IssueEvents.isAuthorized("s3cret")).isFalse();
+
+        IssueEvents.setSecrets(Collections.<String>emptySet());
+
+        assertThat(IssueEvents.isEnabled()).isFalse();
+        assertThat(IssueEvents.isAuthorized("n3w")).isFalse();
+    }
+}
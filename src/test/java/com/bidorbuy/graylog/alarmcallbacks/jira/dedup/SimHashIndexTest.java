@@ -0,0 +1,33 @@
+package com.bidorbuy.graylog.alarmcallbacks.jira.dedup;
+
+import org.junit.*;
+
+import static org.assertj.core.api.Assertions.*;
+
+public class SimHashIndexTest {
+
+    @Test
+    public void findsFingerprintWithinDistance() {
+        SimHashIndex index = new SimHashIndex(3, 100, SimHashIndex.DEFAULT_MAX_AGE_MILLIS);
+        index.put(0xF0F0F0F0F0F0F0F0L, "OPS-1");
+
+        SimHashIndex.Match match = index.find(0xF0F0F0F0F0F0F0F0L ^ 0x8000000000000101L);
+
+        assertThat(match.getIssueKey()).isEqualTo("OPS-1");
+        assertThat(match.getDistance()).isEqualTo(3);
+        assertThat(index.find(0xF0F0F0F0F0F0F0F0L ^ 0x8000000000010101L)).isNull();
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() {
+        SimHashIndex index = new SimHashIndex(0, 2, SimHashIndex.DEFAULT_MAX_AGE_MILLIS);
+        index.put(1L, "OPS-1");
+        index.put(2L, "OPS-2");
+        index.find(1L);
+        index.put(3L, "OPS-3");
+
+        assertThat(index.size()).isEqualTo(2);
+        assertThat(index.find(1L).getIssueKey()).isEqualTo("OPS-1");
+        assertThat(index.find(2L)).isNull();
+    }
+}
@@ -0,0 +1,24 @@
+package com.bidorbuy.graylog.alarmcallbacks.jira.dedup;
+
+import org.junit.*;
+
+import static org.assertj.core.api.Assertions.*;
+
+public class SimHashTest {
+
+    @Test
+    public void numbersAndCaseAreIgnored() {
+        assertThat(SimHash.hash("Connection refused to host db01 after 3 retries"))
+                .isEqualTo(SimHash.hash("connection REFUSED to host db02 after 5 retries"));
+    }
+
+    @Test
+    public void similarMessagesAreClose() {
+        long a = SimHash.hash("java.lang.NullPointerException: Cannot invoke method getName on null object at com.example.UserService.load(UserService.java:42) at com.example.Controller.handle(Controller.java:17)");
+        long b = SimHash.hash("java.lang.NullPointerException: Cannot invoke method getEmail on null object at com.example.UserService.load(UserService.java:57) at com.example.Controller.handle(Controller.java:17)");
+        long c = SimHash.hash("Disk quota exceeded while writing the nightly report to /var/reports");
+
+        assertThat(SimHash.distance(a, b)).isBetween(0, 6);
+        assertThat(SimHash.distance(a, c)).isBetween(16, 64);
+    }
+}
@@ -0,0 +1,111 @@
+package com.bidorbuy.graylog.alarmcallbacks.jira.dispatch;
+
+import net.rcarz.jiraclient.JiraException;
+import org.junit.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.*;
+
+public class DispatchSchedulerTest {
+
+    private static final long WAIT_MILLIS = 5000;
+
+    private final List<String> order = Collections.synchronizedList(new ArrayList<String>());
+    private final List<Thread> threads = new ArrayList<>();
+
+    /**
+     * Queue an alert of the stream and wait until it is queued, so the arrival order is fixed
+     */
+    private void enqueue(final DispatchScheduler scheduler, final String stream, final int priorityClass, final String name)
+            throws InterruptedException {
+        int waiting = scheduler.getWaiting();
+
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    scheduler.acquire(stream, priorityClass, 1, 0, WAIT_MILLIS);
+                    order.add(name);
+                    scheduler.release(stream);
+                } catch (JiraException | InterruptedException ex) {
+                    order.add(name + " failed");
+                }
+            }
+        });
+        thread.start();
+        threads.add(thread);
+
+        while (scheduler.getWaiting() == waiting) {
+            Thread.sleep(1);
+        }
+    }
+
+    private void awaitAll() throws InterruptedException {
+        for (Thread thread : threads) {
+            thread.join(WAIT_MILLIS);
+        }
+    }
+
+    @Test
+    public void higherPriorityIsServedFirst() throws Exception {
+        DispatchScheduler scheduler = new DispatchScheduler(1);
+        scheduler.acquire("busy", 2, 1, 0, WAIT_MILLIS);
+
+        enqueue(scheduler, "s1", DispatchScheduler.priorityClass("Low"), "low");
+        enqueue(scheduler, "s2", DispatchScheduler.priorityClass("Critical"), "critical");
+
+        scheduler.release("busy");
+        awaitAll();
+
+        assertThat(order).containsExactly("critical", "low");
+        assertThat(scheduler.getInFlight()).isEqualTo(0);
+    }
+
+    @Test
+    public void quietStreamDoesNotWaitBehindNoisyOne() throws Exception {
+        DispatchScheduler scheduler = new DispatchScheduler(1);
+        scheduler.acquire("noisy", 2, 1, 0, WAIT_MILLIS);
+
+        enqueue(scheduler, "noisy", 2, "noisy-1");
+        enqueue(scheduler, "noisy", 2, "noisy-2");
+        enqueue(scheduler, "noisy", 2, "noisy-3");
+        enqueue(scheduler, "quiet", 2, "quiet");
+
+        scheduler.release("noisy");
+        awaitAll();
+
+        assertThat(order).containsExactly("noisy-1", "quiet", "noisy-2", "noisy-3");
+    }
+
+    @Test
+    public void streamIsHeldAtItsInFlightCap() throws Exception {
+        DispatchScheduler scheduler = new DispatchScheduler(4);
+        scheduler.acquire("noisy", 2, 1, 1, WAIT_MILLIS);
+
+        try {
+            scheduler.acquire("noisy", 2, 1, 1, 50);
+            fail("second slot granted beyond the cap");
+        } catch (JiraException expected) {
+            assertThat(expected.getMessage()).contains("noisy");
+        }
+
+        scheduler.acquire("quiet", 2, 1, 1, 50);
+
+        assertThat(scheduler.getInFlight()).isEqualTo(2);
+        assertThat(scheduler.getWaiting()).isEqualTo(0);
+        assertThat(scheduler.getInFlightByStream().get("noisy")).isEqualTo(1);
+        assertThat(scheduler.getInFlightByStream().get("quiet")).isEqualTo(1);
+    }
+
+    @Test
+    public void mapsJiraPriorities() {
+        assertThat(DispatchScheduler.priorityClass("Blocker")).isEqualTo(0);
+        assertThat(DispatchScheduler.priorityClass("Major")).isEqualTo(1);
+        assertThat(DispatchScheduler.priorityClass("Medium")).isEqualTo(2);
+        assertThat(DispatchScheduler.priorityClass("custom")).isEqualTo(2);
+        assertThat(DispatchScheduler.priorityClass("Trivial")).isEqualTo(4);
+    }
+}
@@ -0,0 +1,37 @@
+package com.bidorbuy.graylog.alarmcallbacks.jira.dispatch;
+
+import org.junit.*;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.*;
+
+public class JiraTargetTest {
+
+    private static final JiraTarget PRIMARY = new JiraTarget("https://jira.example.com", "OPS", "customfield_10100");
+
+    @Test
+    public void projectKeyUsesPrimaryInstance() {
+        List<JiraTarget> targets = JiraTarget.parse("SRE", PRIMARY);
+
+        assertThat(targets).hasSize(1);
+        assertThat(targets.get(0).getJiraServerURL()).isEqualTo("https://jira.example.com");
+        assertThat(targets.get(0).getProjectKey()).isEqualTo("SRE");
+        assertThat(targets.get(0).getMd5CustomFieldName()).isEqualTo("customfield_10100");
+    }
+
+    @Test
+    public void otherInstanceDoesNotInheritCustomField() {
+        List<JiraTarget> targets = JiraTarget.parse("https://jira-new.example.com|OPS, https://jira-new.example.com|SRE|customfield_20200", PRIMARY);
+
+        assertThat(targets).hasSize(2);
+        assertThat(targets.get(0).getMd5CustomFieldName()).isNull();
+        assertThat(targets.get(1).getProjectKey()).isEqualTo("SRE");
+        assertThat(targets.get(1).getMd5CustomFieldName()).isEqualTo("customfield_20200");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void malformedTargetIsRejected() {
+        JiraTarget.parse("https://jira.example.com|", PRIMARY);
+    }
+}
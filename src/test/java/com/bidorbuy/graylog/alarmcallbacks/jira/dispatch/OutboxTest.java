@@ -0,0 +1,97 @@
+package com.bidorbuy.graylog.alarmcallbacks.jira.dispatch;
+
+import com.bidorbuy.graylog.alarmcallbacks.jira.client.Deadline;
+import org.junit.*;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.*;
+
+public class OutboxTest {
+
+    private static final JiraTarget TARGET = new JiraTarget("https://jira.example.com", "OPS", null);
+
+    @Test
+    public void drainRunsWithAFreshDeadline() {
+        final AtomicInteger runs = new AtomicInteger();
+        Outbox outbox = new Outbox(10);
+
+        outbox.add(TARGET, new Callable<Void>() {
+            @Override
+            public Void call() {
+                assertThat(Deadline.current().isNone()).isFalse();
+                assertThat(Deadline.current().remainingMillis()).isGreaterThan(1000);
+                runs.incrementAndGet();
+                return null;
+            }
+        }, 5000, "alert");
+
+        assertThat(outbox.size()).isEqualTo(1);
+        assertThat(outbox.retry(false)).isEqualTo(0);
+        assertThat(outbox.retry(true)).isEqualTo(1);
+        assertThat(outbox.size()).isEqualTo(0);
+        assertThat(runs.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void failingAlertIsDroppedAfterMaxAttempts() {
+        Outbox outbox = new Outbox(10);
+
+        outbox.add(TARGET, new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                throw new Exception("JIRA is down");
+            }
+        }, 5000, "alert");
+
+        for (int attempt = 1; attempt < Outbox.MAX_ATTEMPTS; attempt++) {
+            outbox.retry(true);
+            assertThat(outbox.size()).isEqualTo(1);
+        }
+
+        outbox.retry(true);
+        assertThat(outbox.size()).isEqualTo(0);
+    }
+
+    @Test
+    public void drainReturnsBeforeTheAlertsAreSent() throws Exception {
+        final CountDownLatch jira = new CountDownLatch(1);
+        Outbox outbox = new Outbox(10);
+
+        outbox.add(TARGET, new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                jira.await(5, TimeUnit.SECONDS);
+                return null;
+            }
+        }, 5000, "alert");
+
+        // JIRA has not answered yet, the alert is still queued
+        assertThat(outbox.drain()).isEqualTo(1);
+        assertThat(outbox.size()).isEqualTo(1);
+
+        jira.countDown();
+        for (long until = System.currentTimeMillis() + 5000; outbox.size() > 0; ) {
+            assertThat(System.currentTimeMillis()).isLessThan(until);
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    public void fullOutboxRejects() {
+        Outbox outbox = new Outbox(1);
+        Callable<Void> task = new Callable<Void>() {
+            @Override
+            public Void call() {
+                return null;
+            }
+        };
+
+        assertThat(outbox.add(TARGET, task, 5000, "first")).isTrue();
+        assertThat(outbox.add(TARGET, task, 5000, "second")).isFalse();
+        assertThat(outbox.size()).isEqualTo(1);
+    }
+}
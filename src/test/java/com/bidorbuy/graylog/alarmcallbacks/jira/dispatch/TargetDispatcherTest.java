@@ -0,0 +1,64 @@
+package com.bidorbuy.graylog.alarmcallbacks.jira.dispatch;
+
+import org.junit.*;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+import static org.assertj.core.api.Assertions.*;
+
+public class TargetDispatcherTest {
+
+    private static final JiraTarget OPS = new JiraTarget("https://jira.example.com", "OPS", null);
+    private static final JiraTarget SRE = new JiraTarget("https://jira.example.com", "SRE", null);
+    private static final JiraTarget NEW = new JiraTarget("https://jira-new.example.com", "OPS", null);
+
+    @Test
+    public void targetsHaveIndependentOutcomes() {
+        Map<JiraTarget, Callable<Void>> tasks = new LinkedHashMap<>();
+        tasks.put(OPS, sleep(0));
+        tasks.put(SRE, new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                throw new IllegalStateException("project does not exist");
+            }
+        });
+        tasks.put(NEW, sleep(5000));
+
+        long start = System.currentTimeMillis();
+        Map<JiraTarget, TargetDispatcher.Result> results = new TargetDispatcher().dispatch(tasks, 200);
+
+        assertThat(System.currentTimeMillis() - start).isLessThan(2000L);
+        assertThat(results.get(OPS).getOutcome()).isEqualTo(TargetDispatcher.Outcome.SUCCESS);
+        assertThat(results.get(SRE).getOutcome()).isEqualTo(TargetDispatcher.Outcome.FAILED);
+        assertThat(results.get(SRE).getFailure().getMessage()).isEqualTo("project does not exist");
+        assertThat(results.get(NEW).getOutcome()).isEqualTo(TargetDispatcher.Outcome.TIMEOUT);
+    }
+
+    @Test
+    public void targetsRunConcurrently() {
+        Map<JiraTarget, Callable<Void>> tasks = new LinkedHashMap<>();
+        tasks.put(OPS, sleep(300));
+        tasks.put(SRE, sleep(300));
+        tasks.put(NEW, sleep(300));
+
+        long start = System.currentTimeMillis();
+        Map<JiraTarget, TargetDispatcher.Result> results = new TargetDispatcher().dispatch(tasks, 5000);
+
+        assertThat(System.currentTimeMillis() - start).isLessThan(800L);
+        for (TargetDispatcher.Result result : results.values()) {
+            assertThat(result.getOutcome()).isEqualTo(TargetDispatcher.Outcome.SUCCESS);
+        }
+    }
+
+    private static Callable<Void> sleep(final long millis) {
+        return new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                Thread.sleep(millis);
+                return null;
+            }
+        };
+    }
+}
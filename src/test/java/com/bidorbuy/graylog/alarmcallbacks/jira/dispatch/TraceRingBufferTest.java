@@ -0,0 +1,93 @@
+package com.bidorbuy.graylog.alarmcallbacks.jira.dispatch;
+
+import org.junit.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.assertj.core.api.Assertions.*;
+
+public class TraceRingBufferTest {
+
+    @Test
+    public void latestAreNewestFirst() {
+        TraceRingBuffer buffer = new TraceRingBuffer(8);
+        for (int i = 0; i < 3; i++) {
+            buffer.add(new DispatchTrace("OPS@https://jira.example.com", "md5-" + i));
+        }
+
+        List<DispatchTrace> latest = buffer.latest(10);
+
+        assertThat(latest).hasSize(3);
+        assertThat(latest.get(0).getFingerprint()).isEqualTo("md5-2");
+        assertThat(latest.get(2).getFingerprint()).isEqualTo("md5-0");
+    }
+
+    @Test
+    public void oldTracesAreOverwritten() {
+        TraceRingBuffer buffer = new TraceRingBuffer(4);
+        for (int i = 0; i < 10; i++) {
+            buffer.add(new DispatchTrace("OPS@https://jira.example.com", "md5-" + i));
+        }
+
+        List<DispatchTrace> latest = buffer.latest(10);
+
+        assertThat(buffer.getTotal()).isEqualTo(10);
+        assertThat(latest).hasSize(4);
+        assertThat(latest.get(0).getFingerprint()).isEqualTo("md5-9");
+        assertThat(latest.get(3).getFingerprint()).isEqualTo("md5-6");
+        assertThat(buffer.latest(2)).hasSize(2);
+    }
+
+    @Test
+    public void concurrentWritersLoseNothingWithinCapacity() throws Exception {
+        final TraceRingBuffer buffer = new TraceRingBuffer(1000);
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+
+        for (int t = 0; t < 4; t++) {
+            final int thread = t;
+            threads.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException ex) {
+                        return;
+                    }
+                    for (int i = 0; i < 250; i++) {
+                        buffer.add(new DispatchTrace("OPS@https://jira.example.com", thread + "-" + i));
+                    }
+                }
+            }));
+        }
+
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertThat(buffer.getTotal()).isEqualTo(1000);
+        assertThat(buffer.latest(1000)).hasSize(1000);
+    }
+
+    @Test
+    public void traceRecordsDecisionAndStages() {
+        DispatchTrace trace = new DispatchTrace("OPS@https://jira.example.com", "md5");
+        trace.stage("lookup");
+        trace.decide(DispatchTrace.DECISION_DUPLICATE, "OPS-1");
+
+        assertThat(trace.getDecision()).isEqualTo("duplicate");
+        assertThat(trace.getIssueKey()).isEqualTo("OPS-1");
+        assertThat(trace.getStages()).containsKey("lookup");
+
+        trace.fail(new IllegalStateException("boom"));
+
+        assertThat(trace.getDecision()).isEqualTo("failed");
+        assertThat(trace.getError()).isEqualTo("IllegalStateException: boom");
+    }
+}
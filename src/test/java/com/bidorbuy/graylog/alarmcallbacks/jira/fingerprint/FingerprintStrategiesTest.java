@@ -0,0 +1,155 @@
+package com.bidorbuy.graylog.alarmcallbacks.jira.fingerprint;
+
+import com.bidorbuy.graylog.alarmcallbacks.jira.JiraAlarmCallback;
+import com.bidorbuy.graylog.alarmcallbacks.jira.alert.AlertSnapshot;
+import com.bidorbuy.graylog.alarmcallbacks.jira.tools.RecordedAlert;
+import com.bidorbuy.graylog.alarmcallbacks.jira.util.JiraMetrics;
+import org.graylog2.plugin.configuration.Configuration;
+import org.junit.*;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.*;
+
+public class FingerprintStrategiesTest {
+
+    private static Configuration configuration(String strategy, String fields) {
+        Map<String, Object> settings = new HashMap<>();
+        settings.put(JiraAlarmCallback.GRAYLOG_URL, "https://graylog.example.com/");
+        settings.put(JiraAlarmCallback.JIRA_MD5_HASH_PATTERN, "[LAST_MESSAGE.message]");
+        if (strategy != null) {
+            settings.put(JiraAlarmCallback.JIRA_FINGERPRINT_STRATEGY, strategy);
+        }
+        if (fields != null) {
+            settings.put(JiraAlarmCallback.JIRA_FINGERPRINT_FIELDS, fields);
+        }
+        return new Configuration(settings);
+    }
+
+    private static AlertSnapshot snapshot(Configuration configuration, String text, Map<String, Object> fields) {
+        Map<String, Object> message = new HashMap<>();
+        message.put("message", text);
+        message.put("source", "web-1");
+        message.put("fields", fields);
+
+        Map<String, Object> alert = new HashMap<>();
+        alert.put("stream", Collections.singletonMap("title", "Errors"));
+        alert.put("messages", Collections.singletonList(message));
+
+        RecordedAlert recorded = RecordedAlert.of(alert);
+        return AlertSnapshot.of(configuration, recorded.getStream(), recorded.getResult());
+    }
+
+    @Test
+    public void discoversBuiltInStrategies() {
+        assertThat(FingerprintStrategies.names()).containsExactly(PatternFingerprintStrategy.NAME, FieldTupleFingerprintStrategy.NAME,
+                StackTraceFingerprintStrategy.NAME);
+        assertThat(FingerprintStrategies.get(StackTraceFingerprintStrategy.NAME)).isInstanceOf(StackTraceFingerprintStrategy.class);
+    }
+
+    @Test
+    public void unsetOrUnknownStrategyUsesPattern() {
+        assertThat(FingerprintStrategies.forConfiguration(configuration(null, null)).getName()).isEqualTo(PatternFingerprintStrategy.NAME);
+        assertThat(FingerprintStrategies.forConfiguration(configuration("nope", null)).getName()).isEqualTo(PatternFingerprintStrategy.NAME);
+
+        try {
+            FingerprintStrategies.get("nope");
+            fail("unknown strategy accepted");
+        } catch (IllegalArgumentException expected) {
+            assertThat(expected.getMessage()).contains("nope");
+        }
+    }
+
+    @Test
+    public void fieldsStrategyHashesOnlyTheConfiguredFields() {
+        Configuration configuration = configuration(FieldTupleFingerprintStrategy.NAME, "source, error_code");
+        FingerprintStrategy strategy = FingerprintStrategies.forConfiguration(configuration);
+
+        Map<String, Object> fields = new HashMap<>();
+        fields.put("error_code", 500);
+        fields.put("request_id", "abc-1");
+
+        AlertSnapshot snapshot = snapshot(configuration, "request abc-1 failed", fields);
+
+        assertThat(snapshot.getFields().keySet()).containsExactly("error_code");
+        assertThat(strategy.buildInput(configuration, snapshot)).isEqualTo("source=web-1\nerror_code=500\n");
+        assertThat(strategy.buildInput(configuration, snapshot(configuration, "request xyz-9 failed", fields)))
+                .isEqualTo(strategy.buildInput(configuration, snapshot));
+    }
+
+    @Test
+    public void stackTraceIgnoresMessagesAndLineNumbers() {
+        String first = "java.lang.IllegalStateException: pool exhausted waiting for connection 17\n"
+                + "\tat com.example.pool.ConnectionPool.borrow(ConnectionPool.java:210)\n"
+                + "\tat com.example.orders.OrderRepository.save(OrderRepository.java:88)\n"
+                + "Caused by: java.net.SocketTimeoutException: connect timed out after 3000 ms\n"
+                + "\tat java.net.PlainSocketImpl.socketConnect(Native Method)\n";
+        String second = first.replace("17", "42").replace(":210", ":214").replace("3000", "5000");
+
+        String input = StackTraceFingerprintStrategy.normalize(first);
+
+        assertThat(input).isEqualTo("java.lang.IllegalStateException\n"
+                + "at com.example.pool.ConnectionPool.borrow\n"
+                + "at com.example.orders.OrderRepository.save\n"
+                + "java.net.SocketTimeoutException\n");
+        assertThat(StackTraceFingerprintStrategy.normalize(second)).isEqualTo(input);
+    }
+
+    @Test
+    public void stackTraceFallsBackToPatternWithoutFrames() {
+        Configuration configuration = configuration(StackTraceFingerprintStrategy.NAME, null);
+        FingerprintStrategy strategy = FingerprintStrategies.forConfiguration(configuration);
+
+        assertThat(StackTraceFingerprintStrategy.normalize("disk full on /var")).isEmpty();
+        assertThat(strategy.buildInput(configuration, snapshot(configuration, "disk full on /var", Collections.<String, Object>emptyMap())))
+                .isEqualTo("disk full on /var");
+    }
+
+    private static Configuration regexConfiguration(String md5Pattern) {
+        Map<String, Object> settings = new HashMap<>();
+        settings.put(JiraAlarmCallback.GRAYLOG_URL, "https://graylog.example.com/");
+        if (md5Pattern != null) {
+            settings.put(JiraAlarmCallback.JIRA_MD5_HASH_PATTERN, md5Pattern);
+        }
+        settings.put(JiraAlarmCallback.MESSAGE_REGEX, "(.*a){12}x");
+        settings.put(JiraAlarmCallback.MESSAGE_REGEX_TIMEOUT, "1");
+        settings.put(JiraAlarmCallback.MESSAGE_REGEX_MAX_INPUT_LENGTH, "80");
+        return new Configuration(settings);
+    }
+
+    private static String backtracking() {
+        StringBuilder backtracking = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            backtracking.append('a');
+        }
+        return backtracking.toString();
+    }
+
+    @Test
+    public void regexTimeoutDigestsTheEvaluatedMessage() {
+        Configuration configuration = regexConfiguration("[LAST_MESSAGE.source][MESSAGE_REGEX]");
+        FingerprintStrategy strategy = FingerprintStrategies.forConfiguration(configuration);
+
+        // the regex cannot finish in 1ms, the MD5 input is the part of the message it was given
+        assertThat(strategy.buildInput(configuration, snapshot(configuration, backtracking(), Collections.<String, Object>emptyMap())))
+                .isEqualTo("web-1" + backtracking().substring(0, 80));
+        assertThat(strategy.buildInput(configuration, snapshot(configuration, "c", Collections.<String, Object>emptyMap())))
+                .isEqualTo("web-1");
+    }
+
+    @Test
+    public void regexTimeoutWithoutPatternStillDigests() {
+        Configuration configuration = regexConfiguration(null);
+        FingerprintStrategy strategy = FingerprintStrategies.forConfiguration(configuration);
+
+        long fallbacks = JiraMetrics.counter(JiraMetrics.REGEX_FALLBACKS).getCount();
+
+        String input = strategy.buildInput(configuration, snapshot(configuration, backtracking(), Collections.<String, Object>emptyMap()));
+
+        assertThat(input).isEqualTo(backtracking().substring(0, 80));
+        assertThat(strategy.buildInput(configuration, snapshot(configuration, backtracking(), Collections.<String, Object>emptyMap()))).isEqualTo(input);
+        assertThat(JiraMetrics.counter(JiraMetrics.REGEX_FALLBACKS).getCount()).isEqualTo(fallbacks + 2);
+    }
+}
@@ -0,0 +1,107 @@
+package com.bidorbuy.graylog.alarmcallbacks.jira.mapping;
+
+import org.junit.*;
+
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.*;
+
+public class FieldMappingTest {
+
+    private static Map<String, FieldSchema> schemas() {
+        Map<String, FieldSchema> schemas = new LinkedHashMap<>();
+        schemas.put("labels", new FieldSchema("labels", "Labels", "array", "string", null));
+        schemas.put("customfield_10001", new FieldSchema("customfield_10001", "Error count", "number", null, null));
+        schemas.put("customfield_10002", new FieldSchema("customfield_10002", "First seen", "datetime", null, null));
+        schemas.put("customfield_10003", new FieldSchema("customfield_10003", "Severity", "option", null, null));
+        schemas.put("customfield_10004", new FieldSchema("customfield_10004", "Environments", "array", "option", null));
+        schemas.put("customfield_10005", new FieldSchema("customfield_10005", "Host", "string", null, null));
+        schemas.put("customfield_10006", new FieldSchema("customfield_10006", "Epic", "any", null, null));
+        schemas.put("customfield_10007", new FieldSchema("customfield_10007", "Parent", "issuelink", null, null));
+        return schemas;
+    }
+
+    @Test
+    public void parseReportsMalformedPairs() {
+        FieldMapping mapping = FieldMapping.parse("source=customfield_10005,broken,a=b=c");
+
+        assertThat(mapping.getGraylogFields()).containsExactly("source");
+        assertThat(mapping.getErrors()).hasSize(2);
+        assertThat(FieldMapping.parse("source=customfield_10005,broken,a=b=c")).isSameAs(mapping);
+    }
+
+    @Test
+    public void uncompiledMappingPassesText() {
+        FieldMapping mapping = FieldMapping.parse("count=customfield_10001,tag=labels#i");
+
+        Map<String, String> values = new HashMap<>();
+        values.put("count", "42");
+        values.put("tag", "checkout");
+
+        FieldMapping.MappedFields fields = mapping.convert(mapping.map(values));
+
+        assertThat(fields.getCreateFields().get("customfield_10001")).isEqualTo("42");
+        assertThat(fields.getCreateFields().get("labels")).isEqualTo(Collections.singletonList("checkout"));
+        assertThat(fields.getUpdateFields()).isEmpty();
+    }
+
+    @Test
+    public void compiledMappingConvertsToFieldTypes() {
+        FieldMapping mapping = FieldMapping.parse("count=Error count,seen=customfield_10002,severity=Severity,envs=customfield_10004,source=customfield_10005")
+                .compile(schemas());
+
+        Map<String, String> values = new HashMap<>();
+        values.put("count", "42");
+        values.put("seen", "2016-03-07 15:37:23.000");
+        values.put("severity", "Critical");
+        values.put("envs", "prod, staging");
+        values.put("source", "web-1");
+
+        FieldMapping.MappedFields fields = mapping.convert(mapping.map(values));
+
+        assertThat(mapping.isCompiled()).isTrue();
+        assertThat(fields.getCreateFields().get("customfield_10001")).isEqualTo(42L);
+        assertThat(fields.getCreateFields().get("customfield_10002")).isInstanceOf(Timestamp.class);
+        assertThat(((Date) fields.getCreateFields().get("customfield_10002")).getTime()).isEqualTo(1457365043000L);
+        assertThat(fields.getCreateFields().get("customfield_10005")).isEqualTo("web-1");
+
+        assertThat(fields.getUpdateFields().get("customfield_10003")).isEqualTo(Collections.singletonMap("value", "Critical"));
+        assertThat((List<?>) fields.getUpdateFields().get("customfield_10004")).hasSize(2);
+        assertThat(((List<?>) fields.getUpdateFields().get("customfield_10004")).get(1)).isEqualTo(Collections.singletonMap("value", "staging"));
+    }
+
+    @Test
+    public void valueOfWrongTypeIsSkipped() {
+        FieldMapping mapping = FieldMapping.parse("count=customfield_10001,source=customfield_10005").compile(schemas());
+
+        Map<String, String> values = new HashMap<>();
+        values.put("count", "many");
+        values.put("source", "web-1");
+
+        FieldMapping.MappedFields fields = mapping.convert(mapping.map(values));
+
+        assertThat(fields.getCreateFields().keySet()).containsExactly("customfield_10005");
+    }
+
+    @Test
+    public void compileReportsEveryUnmappableField() {
+        try {
+            FieldMapping.parse("a=customfield_99999,b=customfield_10007,c=customfield_10001#i,d=Epic").compile(schemas());
+            fail("unmappable fields accepted");
+        } catch (IllegalArgumentException expected) {
+            assertThat(expected.getMessage()).contains("customfield_99999").contains("issuelink").contains("#i");
+            assertThat(expected.getMessage()).doesNotContain("Epic");
+        }
+
+        for (String ok : Arrays.asList("x=labels#i", "x=labels", "x=Host")) {
+            assertThat(FieldMapping.parse(ok).compile(schemas()).isCompiled()).isTrue();
+        }
+    }
+}
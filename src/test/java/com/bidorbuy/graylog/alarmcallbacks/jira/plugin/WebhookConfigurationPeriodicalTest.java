@@ -0,0 +1,85 @@
+package com.bidorbuy.graylog.alarmcallbacks.jira.plugin;
+
+import com.bidorbuy.graylog.alarmcallbacks.jira.JiraAlarmCallback;
+import com.bidorbuy.graylog.alarmcallbacks.jira.dedup.FingerprintStore;
+import com.bidorbuy.graylog.alarmcallbacks.jira.dedup.IssueEvents;
+import org.junit.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.*;
+
+public class WebhookConfigurationPeriodicalTest {
+
+    private static final String JIRA = "https://jira.example.com";
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("fingerprints", ".db");
+        file.delete();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        FingerprintStore store = FingerprintStore.stores().get(file.getAbsolutePath());
+        if (store != null) {
+            store.close();
+        }
+        file.delete();
+        IssueEvents.setSecrets(Collections.<String>emptySet());
+    }
+
+    @Test
+    public void savedCallbacksAcceptWebhooksBeforeTheyAlert() throws IOException {
+        FingerprintStore saved = FingerprintStore.open(file.getPath(), 60000);
+        saved.put(JIRA, "jira|OPS", "md5-1", "OPS-42", FingerprintStore.STATUS_OPEN);
+        saved.close();
+
+        WebhookConfigurationPeriodical.apply(Collections.singletonList(callback("s3cret", file.getPath())));
+
+        assertThat(IssueEvents.isAuthorized("s3cret")).isTrue();
+        assertThat(FingerprintStore.stores()).containsKey(file.getAbsolutePath());
+        assertThat(IssueEvents.handle(resolved("OPS-42")).getFingerprints()).isEqualTo(1);
+    }
+
+    @Test
+    public void changedAndRemovedSecretsAreRejected() {
+        WebhookConfigurationPeriodical.apply(Collections.singletonList(callback("s3cret", null)));
+        WebhookConfigurationPeriodical.apply(Collections.singletonList(callback("n3w", null)));
+
+        assertThat(IssueEvents.isAuthorized("n3w")).isTrue();
+        assertThat(IssueEvents.isAuthorized("s3cret")).isFalse();
+
+        WebhookConfigurationPeriodical.apply(Collections.<Map<String, Object>>emptyList());
+
+        assertThat(IssueEvents.isEnabled()).isFalse();
+    }
+
+    private static Map<String, Object> callback(String secret, String fingerprintStore) {
+        Map<String, Object> configuration = new HashMap<>();
+        configuration.put(JiraAlarmCallback.JIRA_WEBHOOK_SECRET, secret);
+        configuration.put(JiraAlarmCallback.JIRA_FINGERPRINT_STORE, fingerprintStore);
+        return configuration;
+    }
+
+    private static Map<String, Object> resolved(String issueKey) {
+        Map<String, Object> fields = new HashMap<>();
+        fields.put("resolution", Collections.singletonMap("name", "Fixed"));
+
+        Map<String, Object> issue = new HashMap<>();
+        issue.put("key", issueKey);
+        issue.put("self", JIRA + "/rest/api/2/issue/10042");
+        issue.put("fields", fields);
+
+        Map<String, Object> event = new HashMap<>();
+        event.put("webhookEvent", IssueEvents.ISSUE_UPDATED);
+        event.put("issue", issue);
+        return event;
+    }
+}
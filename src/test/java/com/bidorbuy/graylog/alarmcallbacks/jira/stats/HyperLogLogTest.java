@@ -0,0 +1,34 @@
+package com.bidorbuy.graylog.alarmcallbacks.jira.stats;
+
+import org.junit.*;
+
+import static org.assertj.core.api.Assertions.*;
+
+public class HyperLogLogTest {
+
+    @Test
+    public void emptySketchIsZero() {
+        assertThat(new HyperLogLog().cardinality()).isEqualTo(0L);
+    }
+
+    @Test
+    public void duplicatesAreCountedOnce() {
+        HyperLogLog hyperLogLog = new HyperLogLog();
+        for (int i = 0; i < 10000; i++) {
+            hyperLogLog.add("host" + (i % 10));
+        }
+
+        assertThat(hyperLogLog.cardinality()).isEqualTo(10L);
+    }
+
+    @Test
+    public void largeCardinalityIsWithinErrorBounds() {
+        HyperLogLog hyperLogLog = new HyperLogLog();
+        for (int i = 0; i < 100000; i++) {
+            hyperLogLog.add("session-" + i);
+        }
+
+        // standard error is ~1.6% for the default precision, allow three standard errors
+        assertThat(hyperLogLog.cardinality()).isBetween(95000L, 105000L);
+    }
+}
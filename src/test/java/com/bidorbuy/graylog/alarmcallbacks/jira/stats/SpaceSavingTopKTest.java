@@ -0,0 +1,38 @@
+package com.bidorbuy.graylog.alarmcallbacks.jira.stats;
+
+import org.junit.*;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.*;
+
+public class SpaceSavingTopKTest {
+
+    @Test
+    public void exactCountsWhileBelowCapacity() {
+        SpaceSavingTopK topK = new SpaceSavingTopK(10);
+        topK.add("web1");
+        topK.add("web2");
+        topK.add("web1");
+
+        List<SpaceSavingTopK.Counter> top = topK.top(5);
+        assertThat(top).hasSize(2);
+        assertThat(top.get(0).getValue()).isEqualTo("web1");
+        assertThat(top.get(0).getCount()).isEqualTo(2L);
+        assertThat(top.get(0).getError()).isEqualTo(0L);
+    }
+
+    @Test
+    public void heavyHittersSurviveALongTail() {
+        SpaceSavingTopK topK = new SpaceSavingTopK(20);
+        for (int i = 0; i < 20000; i++) {
+            topK.add(i % 4 == 0 ? "noisy-host" : (i % 10 == 1 ? "busy-host" : "host-" + i));
+        }
+
+        List<SpaceSavingTopK.Counter> top = topK.top(2);
+        assertThat(top.get(0).getValue()).isEqualTo("noisy-host");
+        assertThat(top.get(0).getCount() - top.get(0).getError()).isLessThanOrEqualTo(5000L);
+        assertThat(top.get(0).getCount()).isGreaterThanOrEqualTo(5000L);
+        assertThat(top.get(1).getValue()).isEqualTo("busy-host");
+    }
+}
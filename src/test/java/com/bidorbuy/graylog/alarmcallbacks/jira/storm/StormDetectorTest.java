@@ -0,0 +1,37 @@
+package com.bidorbuy.graylog.alarmcallbacks.jira.storm;
+
+import org.junit.*;
+
+import static org.assertj.core.api.Assertions.*;
+
+public class StormDetectorTest {
+
+    private static final long START = 1500000000000L;
+
+    @Test
+    public void stormStartsAtThresholdAndEndsBelowHalf() {
+        StormDetector detector = new StormDetector("jira|OPS", 10, 60);
+
+        for (int i = 0; i < 9; i++) {
+            assertThat(detector.recordNewFingerprint(START + i * 1000)).isFalse();
+        }
+        assertThat(detector.recordNewFingerprint(START + 9000)).isTrue();
+
+        // 5 of the 10 fingerprints are still within the window
+        assertThat(detector.isActive(START + 64500)).isTrue();
+        // 4 of the 10 fingerprints are still within the window
+        assertThat(detector.isActive(START + 65500)).isFalse();
+    }
+
+    @Test
+    public void windowForgetsOldEvents() {
+        SlidingWindowCounter counter = new SlidingWindowCounter(10);
+        counter.add(START);
+        counter.add(START + 5000);
+        counter.add(START + 5000);
+
+        assertThat(counter.count(START + 5000)).isEqualTo(3L);
+        assertThat(counter.count(START + 12000)).isEqualTo(2L);
+        assertThat(counter.count(START + 16000)).isEqualTo(0L);
+    }
+}
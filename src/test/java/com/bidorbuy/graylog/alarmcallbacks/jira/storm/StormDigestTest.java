@@ -0,0 +1,49 @@
+package com.bidorbuy.graylog.alarmcallbacks.jira.storm;
+
+import org.junit.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.*;
+
+public class StormDigestTest {
+
+    private final List<String> calls = new ArrayList<>();
+    private String lastDescription;
+
+    private final StormDigest.Publisher publisher = new StormDigest.Publisher() {
+        @Override
+        public String create(String summary, String description) {
+            calls.add("create " + summary);
+            lastDescription = description;
+            return "OPS-99";
+        }
+
+        @Override
+        public void update(String issueKey, String summary, String description) {
+            calls.add("update " + issueKey);
+            lastDescription = description;
+        }
+    };
+
+    @Test
+    public void digestIsCreatedOnceAndUpdatedInBatches() {
+        StormDigest digest = new StormDigest("jira|OPS", "OPS", System.currentTimeMillis());
+        digest.add("md5-a", "Database down", System.currentTimeMillis(), publisher);
+        digest.add("md5-b", "Queue | full", System.currentTimeMillis(), publisher);
+        digest.flush();
+
+        digest.flush();
+
+        digest.add("md5-a", "Database down", System.currentTimeMillis(), publisher);
+        digest.flush();
+
+        assertThat(calls).hasSize(2);
+        assertThat(calls.get(0)).startsWith("create [Alert storm] 2 distinct alerts in OPS");
+        assertThat(calls.get(1)).isEqualTo("update OPS-99");
+        assertThat(digest.getAlerts()).isEqualTo(3L);
+        assertThat(lastDescription).contains("|2|");
+        assertThat(lastDescription).contains("|md5-b|Queue / full|");
+    }
+}
@@ -0,0 +1,86 @@
+package com.bidorbuy.graylog.alarmcallbacks.jira.storm;
+
+import net.rcarz.jiraclient.JiraException;
+import org.junit.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.*;
+
+public class StormModeTest {
+
+    private final List<String> calls = new ArrayList<>();
+    private boolean jiraDown;
+
+    private final StormDigest.Publisher publisher = new StormDigest.Publisher() {
+        @Override
+        public String create(String summary, String description) throws JiraException {
+            calls.add("create");
+            if (jiraDown) {
+                throw new JiraException("JIRA is down");
+            }
+            return "OPS-99";
+        }
+
+        @Override
+        public void update(String issueKey, String summary, String description) throws JiraException {
+            calls.add("update " + issueKey);
+            if (jiraDown) {
+                throw new JiraException("JIRA is down");
+            }
+        }
+    };
+
+    @Test
+    public void endedDigestIsKeptUntilItsFinalUpdateIsPublished() {
+        StormDigest digest = endedStorm("jira|ended-kept");
+        jiraDown = true;
+
+        StormMode.flushAll();
+
+        assertThat(digest.isEnded()).isTrue();
+        assertThat(digest.getIssueKey()).isNull();
+        assertThat(StormMode.digests()).contains(digest);
+        // a new alert does not reopen the ended storm
+        assertThat(StormMode.activeDigest("jira|ended-kept")).isNull();
+
+        jiraDown = false;
+        StormMode.flushAll();
+
+        assertThat(digest.getIssueKey()).isEqualTo("OPS-99");
+        assertThat(StormMode.digests()).doesNotContain(digest);
+        assertThat(calls).containsExactly("create", "create");
+    }
+
+    @Test
+    public void endedDigestIsGivenUpAfterBoundedRetries() {
+        StormDigest digest = endedStorm("jira|ended-lost");
+        jiraDown = true;
+
+        for (int i = 1; i < StormMode.MAX_FINAL_FLUSH_ATTEMPTS; i++) {
+            StormMode.flushAll();
+            assertThat(StormMode.digests()).contains(digest);
+        }
+
+        StormMode.flushAll();
+
+        assertThat(StormMode.digests()).doesNotContain(digest);
+        assertThat(calls).hasSize(StormMode.MAX_FINAL_FLUSH_ATTEMPTS);
+    }
+
+    /**
+     * A storm of a single fingerprint which was over a few seconds later
+     */
+    private StormDigest endedStorm(String scope) {
+        long startedAt = System.currentTimeMillis() - 5000;
+
+        StormDetector detector = StormMode.detector(scope, 1, 1);
+        assertThat(detector.recordNewFingerprint(startedAt)).isTrue();
+
+        StormDigest digest = StormMode.digest(scope, "OPS", detector, startedAt);
+        digest.add("md5-a", "Database down", startedAt, publisher);
+
+        return digest;
+    }
+}
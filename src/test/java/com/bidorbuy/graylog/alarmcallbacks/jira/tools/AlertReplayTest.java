@@ -0,0 +1,107 @@
+package com.bidorbuy.graylog.alarmcallbacks.jira.tools;
+
+import com.bidorbuy.graylog.alarmcallbacks.jira.JiraAlarmCallback;
+import org.graylog2.plugin.configuration.Configuration;
+import org.junit.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.*;
+
+public class AlertReplayTest {
+
+    private static RecordedAlert alert(String text) {
+        Map<String, Object> rule = new HashMap<>();
+        rule.put("field", "level");
+        rule.put("type", "exact");
+        rule.put("value", "3");
+
+        Map<String, Object> stream = new HashMap<>();
+        stream.put("id", "s1");
+        stream.put("title", "Errors");
+        stream.put("rules", Collections.singletonList(rule));
+
+        Map<String, Object> condition = new HashMap<>();
+        condition.put("id", "c1");
+        condition.put("type", "message_count");
+        condition.put("description", "more than 0 messages");
+
+        Map<String, Object> message = new HashMap<>();
+        message.put("message", text);
+        message.put("source", "web-1");
+        message.put("timestamp", "2016-03-07T15:37:20.000Z");
+        message.put("fields", Collections.singletonMap("level", 3));
+
+        Map<String, Object> alert = new HashMap<>();
+        alert.put("stream", stream);
+        alert.put("condition", condition);
+        alert.put("resultDescription", "Stream had 1 messages");
+        alert.put("triggeredAt", "2016-03-07T15:37:23.000Z");
+        alert.put("messages", Collections.singletonList(message));
+
+        return RecordedAlert.of(alert);
+    }
+
+    private static Configuration configuration(String similarityDistance) {
+        Map<String, Object> settings = new HashMap<>();
+        settings.put(JiraAlarmCallback.GRAYLOG_URL, "https://graylog.example.com/");
+        settings.put(JiraAlarmCallback.GRAYLOG_HISTOGRAM_TIME_SPAN, "30");
+        settings.put(JiraAlarmCallback.JIRA_TITLE_TEMPLATE, "[Graylog-[LAST_MESSAGE.source]] [LAST_MESSAGE.message]");
+        settings.put(JiraAlarmCallback.JIRA_MESSAGE_TEMPLATE, "[STREAM_RESULT]\\n\\n[LAST_MESSAGE.message]");
+        settings.put(JiraAlarmCallback.JIRA_MD5_HASH_PATTERN, "[LAST_MESSAGE.message]");
+        if (similarityDistance != null) {
+            settings.put(JiraAlarmCallback.JIRA_SIMILARITY_DISTANCE, similarityDistance);
+        }
+        return new Configuration(settings);
+    }
+
+    @Test
+    public void recordedAlertBacksGraylogInterfaces() {
+        RecordedAlert alert = alert("boom");
+
+        assertThat(alert.getStream().getTitle()).isEqualTo("Errors");
+        assertThat(alert.getStream().getStreamRules()).hasSize(1);
+        assertThat(alert.getStream().getStreamRules().get(0).getField()).isEqualTo("level");
+        assertThat(alert.getResult().isTriggered()).isTrue();
+        assertThat(alert.getResult().getMatchingMessages()).hasSize(1);
+        assertThat(alert.getResult().getMatchingMessages().get(0).getMessage()).isEqualTo("boom");
+        assertThat(alert.getResult().getTriggeredCondition().getId()).isEqualTo("c1");
+    }
+
+    @Test
+    public void countsDistinctFingerprintsAndIssues() {
+        AlertReplay replay = new AlertReplay(configuration(null), null);
+
+        replay.replay(alert("java.lang.IllegalStateException: pool exhausted"));
+        replay.replay(alert("java.lang.IllegalStateException: pool exhausted"));
+        replay.replay(alert("java.sql.SQLException: ORA-00001: unique constraint violated"));
+
+        assertThat(replay.getDistinctFingerprints()).isEqualTo(2);
+        assertThat(replay.getWouldCreate()).isEqualTo(2);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        replay.report(new PrintStream(out), 1000000000L, 1);
+
+        assertThat(out.toString()).contains("Issues to create:       2").contains("pool exhausted");
+    }
+
+    @Test
+    public void similarFingerprintsDoNotCreateIssues() {
+        AlertReplay replay = new AlertReplay(configuration("6"), null);
+
+        String trace = "\\n at com.example.pool.ConnectionPool.borrow(ConnectionPool.java:210)"
+                + "\\n at com.example.orders.OrderRepository.save(OrderRepository.java:88)"
+                + "\\n at com.example.orders.OrderService.placeOrder(OrderService.java:45)"
+                + "\\n at com.example.web.CheckoutController.submit(CheckoutController.java:132)";
+
+        replay.replay(alert("java.lang.IllegalStateException: pool exhausted waiting for connection 17" + trace));
+        replay.replay(alert("java.lang.IllegalStateException: pool exhausted waiting for connection 42" + trace));
+
+        assertThat(replay.getDistinctFingerprints()).isEqualTo(2);
+        assertThat(replay.getWouldCreate()).isEqualTo(1);
+    }
+}
@@ -0,0 +1,67 @@
+package com.bidorbuy.graylog.alarmcallbacks.jira.util;
+
+import org.junit.*;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.*;
+
+public class BoundedTextBuilderTest {
+
+    private static String stackTrace(int frames) {
+        StringBuilder sb = new StringBuilder("java.lang.IllegalStateException: boom\n");
+        for (int i = 0; i < frames; i++) {
+            sb.append("\tat com.example.Service.method").append(i).append("(Service.java:").append(i).append(")\n");
+        }
+        return sb.toString();
+    }
+
+    @Test
+    public void valueWithinBudgetIsKept() {
+        BoundedTextBuilder builder = new BoundedTextBuilder(1000);
+        builder.appendLiteral("*Message:*\n").appendValue("short message", 100, 2, 2);
+
+        assertThat(builder.isTruncated()).isFalse();
+        assertThat(builder.toString()).isEqualTo("*Message:*\nshort message");
+    }
+
+    @Test
+    public void oversizedValueKeepsHeadAndTailLines() {
+        String trace = stackTrace(5000);
+
+        BoundedTextBuilder builder = new BoundedTextBuilder(32000);
+        builder.appendValue(trace, 4000, 3, 2);
+
+        String text = builder.toString();
+        assertThat(builder.isTruncated()).isTrue();
+        assertThat(text).startsWith("java.lang.IllegalStateException: boom\n\tat com.example.Service.method0(Service.java:0)\n\tat com.example.Service.method1(Service.java:1)\n...[truncated");
+        assertThat(text).contains("original size " + trace.length() + " characters");
+        assertThat(text).contains("method4998(Service.java:4998)\n\tat com.example.Service.method4999(Service.java:4999)\n");
+        assertThat(text).doesNotContain("method2(");
+        assertThat(text).doesNotContain("method4997(");
+    }
+
+    @Test
+    public void documentNeverExceedsBudget() {
+        String trace = stackTrace(5000);
+
+        BoundedTextBuilder builder = new BoundedTextBuilder(2000);
+        for (int i = 0; i < 5; i++) {
+            builder.appendLiteral("*Placeholder " + i + ":*\n").appendValue(trace, 1000, 40, 10);
+        }
+
+        assertThat(builder.toString().getBytes(StandardCharsets.UTF_8).length).isLessThanOrEqualTo(2000);
+        assertThat(builder.toString()).endsWith(BoundedTextBuilder.DOCUMENT_TRUNCATION_NOTICE);
+    }
+
+    @Test
+    public void multiByteCharactersAreCountedAsUtf8() {
+        String value = "ü€😀";
+
+        assertThat(BoundedTextBuilder.utf8Length(value)).isEqualTo(value.getBytes(StandardCharsets.UTF_8).length);
+
+        BoundedTextBuilder builder = new BoundedTextBuilder(100);
+        builder.appendValue(value, 0, 0, 0);
+        assertThat(builder.remainingBytes()).isEqualTo(100 - BoundedTextBuilder.utf8Length(BoundedTextBuilder.DOCUMENT_TRUNCATION_NOTICE) - 9);
+    }
+}
@@ -0,0 +1,99 @@
+package com.bidorbuy.graylog.alarmcallbacks.jira.util;
+
+import com.bidorbuy.graylog.alarmcallbacks.jira.JiraAlarmCallback;
+import com.bidorbuy.graylog.alarmcallbacks.jira.tools.RecordedAlert;
+import org.graylog2.plugin.configuration.Configuration;
+import org.junit.*;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.*;
+
+public class StreamFragmentCacheTest {
+
+    private final Configuration configuration = configuration();
+
+    private static Configuration configuration() {
+        Map<String, Object> settings = new HashMap<>();
+        settings.put(JiraAlarmCallback.GRAYLOG_URL, "https://graylog.example.com");
+        settings.put(JiraAlarmCallback.GRAYLOG_HISTOGRAM_TIME_SPAN, "300");
+        return new Configuration(settings);
+    }
+
+    private static RecordedAlert alert(String streamId, String ruleValue) {
+        Map<String, Object> rule = new HashMap<>();
+        rule.put("id", "rule-1");
+        rule.put("field", "level");
+        rule.put("type", "EXACT");
+        rule.put("value", ruleValue);
+
+        Map<String, Object> stream = new HashMap<>();
+        stream.put("id", streamId);
+        stream.put("title", "Errors");
+        stream.put("rules", Collections.singletonList(rule));
+
+        Map<String, Object> condition = new HashMap<>();
+        condition.put("id", "condition-1");
+        condition.put("type", "message_count");
+
+        Map<String, Object> alert = new HashMap<>();
+        alert.put("stream", stream);
+        alert.put("condition", condition);
+        return RecordedAlert.of(alert);
+    }
+
+    private StreamFragmentCache.Fragments get(StreamFragmentCache cache, RecordedAlert alert) {
+        return cache.get(configuration, alert.getStream(), alert.getResult().getTriggeredCondition());
+    }
+
+    @Test
+    public void reusesTheFragmentsOfAnUnchangedStream() {
+        StreamFragmentCache cache = new StreamFragmentCache(10);
+
+        StreamFragmentCache.Fragments first = get(cache, alert("stream-1", "3"));
+
+        assertThat(first.getStreamURL()).isEqualTo("https://graylog.example.com/streams/stream-1/messages?q=*&rangetype=relative&relative=300");
+        assertThat(first.getStreamRules()).isEqualTo("_level_ EXACT _3_\n");
+        assertThat(get(cache, alert("stream-1", "3"))).isSameAs(first);
+        assertThat(cache.size()).isEqualTo(1);
+    }
+
+    @Test
+    public void rendersAgainAfterTheStreamWasEdited() {
+        StreamFragmentCache cache = new StreamFragmentCache(10);
+
+        StreamFragmentCache.Fragments first = get(cache, alert("stream-1", "3"));
+        StreamFragmentCache.Fragments edited = get(cache, alert("stream-1", "4"));
+
+        assertThat(edited).isNotSameAs(first);
+        assertThat(edited.getStreamRules()).isEqualTo("_level_ EXACT _4_\n");
+        assertThat(get(cache, alert("stream-1", "4"))).isSameAs(edited);
+    }
+
+    @Test
+    public void neverServesTheFragmentsOfAnotherStream() {
+        StreamFragmentCache cache = new StreamFragmentCache(10);
+
+        get(cache, alert("stream-1", "3"));
+
+        assertThat(get(cache, alert("stream-2", "3")).getStreamURL()).contains("/streams/stream-2/");
+        assertThat(get(cache, alert("stream-1", "3")).getStreamURL()).contains("/streams/stream-1/");
+        assertThat(cache.size()).isEqualTo(2);
+    }
+
+    @Test
+    public void evictsTheLeastRecentlyUsedStream() {
+        StreamFragmentCache cache = new StreamFragmentCache(2);
+
+        StreamFragmentCache.Fragments first = get(cache, alert("stream-1", "3"));
+        get(cache, alert("stream-2", "3"));
+        assertThat(get(cache, alert("stream-1", "3"))).isSameAs(first);
+        StreamFragmentCache.Fragments third = get(cache, alert("stream-3", "3"));
+
+        assertThat(cache.size()).isEqualTo(2);
+        assertThat(get(cache, alert("stream-1", "3"))).isSameAs(first);
+        assertThat(get(cache, alert("stream-3", "3"))).isSameAs(third);
+    }
+}
@@ -99,4 +99,23 @@ public class StringUtilTest {
         assertThat(names).contains("p1", "p2", "p3");
     }
 
-}
\ No newline at end of file
+    @Test(expected = RegexTimeoutException.class)
+    public void captureGroupAndReplace_catastrophicBacktrackingTimesOut() {
+        final String TITLE = "Graylog: ${relevant}";
+        final String REGEX = "(?<relevant>(.*a){20}b)";
+        final String MESSAGE = "aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaac";
+
+        StringUtil.captureGroupAndReplace(TITLE, MESSAGE, REGEX, 100, 0);
+    }
+
+    @Test
+    public void captureGroupAndReplace_inputIsCapped() {
+        final String TITLE = "The level is ${level}";
+        final String MESSAGE = "wolverine1 lp2-wolverine: 2017-07-21 11:32:11,266 WARN : com.oe.lp2.services.course.DBCourseService";
+        final String REGEX = "(?<level>WARN|ERROR)";
+
+        assertThat(StringUtil.captureGroupAndReplace(TITLE, MESSAGE, REGEX, 1000, 20)).isEqualTo(TITLE);
+        assertThat(StringUtil.captureGroupAndReplace(TITLE, MESSAGE, REGEX, 1000, 0)).isEqualTo("The level is WARN");
+    }
+
+}